@@ -44,4 +44,105 @@ public interface ConsolesConstants {
 	 */
 	public static final int DEFAULT_CONSOLE_COLUMNS = 80;
 	
+	/**
+	 * Console property to enable asynchronous output, where writers queue the
+	 * output and return without waiting for it to be rendered. Takes the value
+	 * <code>true</code> or <code>false</code>.
+	 */
+	public static final String PROPERTY_ASYNC_OUTPUT = "consoles.output.async";
+	
+	/**
+	 * Console property to paint characters from a cache of rasterized glyphs
+	 * rather than drawing the text each time. Takes the value
+	 * <code>true</code> or <code>false</code>, disabled by default.
+	 */
+	public static final String PROPERTY_GLYPH_CACHE = "consoles.render.glyphCache";
+	
+	/**
+	 * Console property to render through a back buffer that is shifted as the
+	 * contents scroll, so that only the rows that scrolled in are rendered.
+	 * Takes the value <code>true</code> or <code>false</code>, disabled by
+	 * default.
+	 */
+	public static final String PROPERTY_BACK_BUFFER = "consoles.render.backBuffer";
+	
+	/**
+	 * Console property for the maximum number of frames per second at which
+	 * a UI console brings the screen up to date.
+	 */
+	public static final String PROPERTY_MAX_FRAMES_PER_SECOND = "consoles.render.maxFps";
+	
+	/**
+	 * Console property for the number of threads that large repaints of a UI
+	 * console are split across, in horizontal strips. Takes a positive
+	 * number, <code>1</code> by default which paints on the event dispatch
+	 * thread only.
+	 */
+	public static final String PROPERTY_RENDER_THREADS = "consoles.render.threads";
+	
+	/**
+	 * Console property to keep the images of rendered rows, so that rows that
+	 * did not change are copied rather than rendered again, as when scrolling
+	 * back through the history. Takes the value <code>true</code> or
+	 * <code>false</code>, disabled by default.
+	 */
+	public static final String PROPERTY_ROW_CACHE = "consoles.render.rowCache";
+	
+	/**
+	 * Console property to enable per-thread line assembly of the output stream, so that
+	 * lines written by different threads do not interleave. Takes the value
+	 * <code>true</code> or <code>false</code>.
+	 */
+	public static final String PROPERTY_LINE_ASSEMBLY = "consoles.output.lineAssembly";
+	
+	/**
+	 * Console property for the maximum number of characters assembled in a line before it
+	 * is written to the console
+	 */
+	public static final String PROPERTY_MAX_LINE_LENGTH = "consoles.output.maxLineLength";
+	
+	/**
+	 * Console property for the number of milliseconds after which a partial line that is
+	 * not being written to is written to the console, <code>0</code> to disable
+	 */
+	public static final String PROPERTY_IDLE_FLUSH_MILLIS = "consoles.output.idleFlushMillis";
+	
+	/**
+	 * Console property for the policy used to flush output to the terminal, the name of one
+	 * of the <code>FlushPolicy</code> values
+	 */
+	public static final String PROPERTY_FLUSH_POLICY = "consoles.flush.policy";
+	
+	/**
+	 * Console property for the number of milliseconds between two flushes with the
+	 * <code>INTERVAL</code> flush policy
+	 */
+	public static final String PROPERTY_FLUSH_INTERVAL_MILLIS = "consoles.flush.intervalMillis";
+	
+	/**
+	 * Console property for the number of lines written before a flush with the
+	 * <code>NEWLINE</code> flush policy
+	 */
+	public static final String PROPERTY_FLUSH_NEWLINES = "consoles.flush.newlines";
+	
+	/**
+	 * Default number of milliseconds between two flushes
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50;
+	
+	/**
+	 * Default number of lines written before a flush
+	 */
+	public static final int DEFAULT_FLUSH_NEWLINES = 64;
+	
+	/**
+	 * Default maximum number of characters in an assembled line
+	 */
+	public static final int DEFAULT_MAX_LINE_LENGTH = 4096;
+	
+	/**
+	 * Default number of milliseconds after which an idle partial line is written
+	 */
+	public static final long DEFAULT_IDLE_FLUSH_MILLIS = 50;
+	
 }
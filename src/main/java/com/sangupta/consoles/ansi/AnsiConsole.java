@@ -25,21 +25,36 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jline.Terminal;
 import jline.console.ConsoleReader;
 
+import com.sangupta.consoles.ConsolesConstants;
 import com.sangupta.consoles.core.AbstractConsole;
 import com.sangupta.consoles.core.InputKey;
 import com.sangupta.consoles.core.KeyTrapHandler;
 import com.sangupta.consoles.core.WriterOutputStream;
+import com.sangupta.jerry.util.AssertUtils;
 
 /**
  * A normal console implementation that works in the shell of the operating
  * system. This implementation uses <code>Jline</code> framework.
  * 
+ * By default output is flushed to the terminal after every write. A different
+ * {@link FlushPolicy} can be set using the
+ * {@link ConsolesConstants#PROPERTY_FLUSH_POLICY} console property, to coalesce
+ * many writes into a single flush.
+ * 
+ * Programs that redraw the whole screen, such as dashboards, may draw on the
+ * {@link VirtualScreen} of the console instead, and call {@link #refresh()}
+ * to send only what changed since the last refresh.
+ * 
  * @author sangupta
  *
  */
@@ -57,6 +72,34 @@ public class AnsiConsole extends AbstractConsole {
 	 */
 	protected OutputStream myOutputStream;
 	
+	/**
+	 * When the output is flushed to the terminal
+	 */
+	protected volatile FlushPolicy flushPolicy = FlushPolicy.IMMEDIATE;
+	
+	/**
+	 * Number of lines after which output is flushed with the
+	 * {@link FlushPolicy#NEWLINE} policy
+	 */
+	private volatile int flushNewlines = ConsolesConstants.DEFAULT_FLUSH_NEWLINES;
+	
+	/**
+	 * Number of lines written since the last flush
+	 */
+	private final AtomicInteger pendingNewlines = new AtomicInteger();
+	
+	/**
+	 * The timer that flushes output with the {@link FlushPolicy#INTERVAL}
+	 * policy, or <code>null</code>
+	 */
+	private Timer flusher;
+	
+	/**
+	 * The screen that full screen programs draw on, created when first asked
+	 * for
+	 */
+	private VirtualScreen virtualScreen;
+	
 	/**
 	 * Constructor
 	 */
@@ -78,6 +121,54 @@ public class AnsiConsole extends AbstractConsole {
 		} catch (IOException e) {
 			LOGGER.error("Unable to clear screen", e);
 		}
+		
+		synchronized (this) {
+			if(this.virtualScreen != null) {
+				this.virtualScreen.invalidate();
+			}
+		}
+	}
+	
+	/**
+	 * Return the {@link VirtualScreen} of this console, sized to the terminal.
+	 * Output printed to the console directly while the screen is in use
+	 * should be followed by {@link VirtualScreen#invalidate()}.
+	 * 
+	 * @return
+	 */
+	public synchronized VirtualScreen getVirtualScreen() {
+		if(this.virtualScreen == null) {
+			Terminal terminal = this.consoleReader.getTerminal();
+			this.virtualScreen = new VirtualScreen(terminal.getWidth(), terminal.getHeight());
+		}
+		
+		return this.virtualScreen;
+	}
+	
+	/**
+	 * Send what changed on the {@link VirtualScreen} since the last refresh
+	 * to the terminal, and flush it. When the terminal was resized the screen
+	 * is resized too, and has to be drawn again.
+	 * 
+	 * @return <code>false</code> if the terminal was resized, in which case
+	 *         nothing was sent
+	 */
+	public synchronized boolean refresh() {
+		VirtualScreen screen = getVirtualScreen();
+		Terminal terminal = this.consoleReader.getTerminal();
+		if(terminal.getWidth() != screen.getColumns() || terminal.getHeight() != screen.getRows()) {
+			screen.resize(terminal.getWidth(), terminal.getHeight());
+			return false;
+		}
+		
+		try {
+			screen.refresh(getWriter());
+			flush();
+		} catch(IOException e) {
+			throw new RuntimeException("Unable to refresh the console", e);
+		}
+		
+		return true;
 	}
 	
 	/**
@@ -87,7 +178,7 @@ public class AnsiConsole extends AbstractConsole {
 	public void print(char ch) {
 		try {
 			this.consoleReader.print(Character.toString(ch));
-			this.consoleReader.flush();
+			written(ch == '\n' ? 1 : 0);
 		} catch(IOException e) {
 			throw new RuntimeException("Unable to write string to the console instance", e);
 		}
@@ -96,8 +187,9 @@ public class AnsiConsole extends AbstractConsole {
 	@Override
 	public void print(char[] cbuf, int off, int len) {
 		try {
-			this.consoleReader.print(String.valueOf(cbuf, off, len));
-			this.consoleReader.flush();
+			String string = String.valueOf(cbuf, off, len);
+			this.consoleReader.print(string);
+			written(newlines(string));
 		} catch (IOException e) {
 			throw new RuntimeException("Unable to write string to the console instance", e);
 		}
@@ -110,7 +202,7 @@ public class AnsiConsole extends AbstractConsole {
 	public void print(String string) {
 		try {
 			this.consoleReader.print(string);
-			this.consoleReader.flush();
+			written(newlines(string));
 		} catch(IOException e) {
 			throw new RuntimeException("Unable to write string to the console instance", e);
 		}
@@ -123,7 +215,7 @@ public class AnsiConsole extends AbstractConsole {
 	public void println(String string) {
 		try {
 			this.consoleReader.println(string);
-			this.consoleReader.flush();
+			written(newlines(string) + 1);
 		} catch(IOException e) {
 			throw new RuntimeException("Unable to write string to the console instance", e);
 		}
@@ -135,6 +227,7 @@ public class AnsiConsole extends AbstractConsole {
 	@Override
 	public char readChar() {
 		try {
+			flush();
 			return (char) this.consoleReader.readCharacter();
 		} catch (IOException e) {
 			throw new RuntimeException("Unable to write string to the console instance", e);
@@ -147,6 +240,7 @@ public class AnsiConsole extends AbstractConsole {
 	@Override
 	public String readLine() {
 		try {
+			flush();
 			return this.consoleReader.readLine();
 		} catch(IOException e) {
 			throw new RuntimeException("Unable to write string to the console instance", e);
@@ -156,6 +250,7 @@ public class AnsiConsole extends AbstractConsole {
 	@Override
 	public char[] readPassword() {
 		try {
+			flush();
 			String line = this.consoleReader.readLine((char) 0);
 			if(line != null) {
 				return line.toCharArray();
@@ -170,6 +265,7 @@ public class AnsiConsole extends AbstractConsole {
 	@Override
 	public char[] readPassword(final char mask) {
 		try {
+			flush();
 			String line = this.consoleReader.readLine(mask);
 			if(line != null) {
 				return line.toCharArray();
@@ -189,6 +285,19 @@ public class AnsiConsole extends AbstractConsole {
 
 	@Override
 	protected void shutdownConsole() {
+		synchronized (this) {
+			if(this.flusher != null) {
+				this.flusher.cancel();
+				this.flusher = null;
+			}
+		}
+		
+		try {
+			flush();
+		} catch (IOException e) {
+			LOGGER.error("Unable to flush console on shutdown", e);
+		}
+		
 		this.consoleReader.shutdown();
 	}
 
@@ -210,8 +319,170 @@ public class AnsiConsole extends AbstractConsole {
 
 	@Override
 	public void flush() throws IOException {
+		this.pendingNewlines.set(0);
 		this.consoleReader.flush();
 	}
+	
+	@Override
+	protected void validateConsoleProperty(String name, String value) {
+		super.validateConsoleProperty(name, value);
+		
+		if(AssertUtils.isEmpty(value)) {
+			return;
+		}
+		
+		if(ConsolesConstants.PROPERTY_FLUSH_POLICY.equals(name)) {
+			try {
+				FlushPolicy.valueOf(value.trim().toUpperCase());
+			} catch(IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown flush policy: " + value, e);
+			}
+			
+			return;
+		}
+		
+		try {
+			if(ConsolesConstants.PROPERTY_FLUSH_INTERVAL_MILLIS.equals(name) && Long.parseLong(value.trim()) <= 0) {
+				throw new IllegalArgumentException("Flush properties must be positive");
+			}
+			
+			if(ConsolesConstants.PROPERTY_FLUSH_NEWLINES.equals(name) && Integer.parseInt(value.trim()) <= 0) {
+				throw new IllegalArgumentException("Flush properties must be positive");
+			}
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Flush properties must be numbers", e);
+		}
+	}
+	
+	@Override
+	public void setConsoleProperty(String name, String value) {
+		super.setConsoleProperty(name, value);
+		
+		if(ConsolesConstants.PROPERTY_FLUSH_POLICY.equals(name) || ConsolesConstants.PROPERTY_FLUSH_INTERVAL_MILLIS.equals(name) || ConsolesConstants.PROPERTY_FLUSH_NEWLINES.equals(name)) {
+			configureFlushPolicy();
+		}
+	}
+	
+	/**
+	 * Apply the flush properties of this console.
+	 * 
+	 */
+	protected synchronized void configureFlushPolicy() {
+		FlushPolicy policy = FlushPolicy.IMMEDIATE;
+		long intervalMillis = ConsolesConstants.DEFAULT_FLUSH_INTERVAL_MILLIS;
+		int newlines = ConsolesConstants.DEFAULT_FLUSH_NEWLINES;
+		
+		String value = this.consoleProperties.get(ConsolesConstants.PROPERTY_FLUSH_POLICY);
+		if(AssertUtils.isNotEmpty(value)) {
+			policy = FlushPolicy.valueOf(value.trim().toUpperCase());
+		}
+		
+		try {
+			value = this.consoleProperties.get(ConsolesConstants.PROPERTY_FLUSH_INTERVAL_MILLIS);
+			if(AssertUtils.isNotEmpty(value)) {
+				intervalMillis = Long.parseLong(value.trim());
+			}
+			
+			value = this.consoleProperties.get(ConsolesConstants.PROPERTY_FLUSH_NEWLINES);
+			if(AssertUtils.isNotEmpty(value)) {
+				newlines = Integer.parseInt(value.trim());
+			}
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Flush properties must be numbers", e);
+		}
+		
+		if(intervalMillis <= 0 || newlines <= 0) {
+			throw new IllegalArgumentException("Flush properties must be positive");
+		}
+		
+		if(this.flusher != null) {
+			this.flusher.cancel();
+			this.flusher = null;
+		}
+		
+		this.flushNewlines = newlines;
+		this.flushPolicy = policy;
+		
+		// write out what was held back under the previous policy
+		try {
+			flush();
+		} catch (IOException e) {
+			LOGGER.error("Unable to flush console", e);
+		}
+		
+		if(policy == FlushPolicy.INTERVAL) {
+			this.flusher = new Timer("consoles-ansi-flusher", true);
+			this.flusher.schedule(new TimerTask() {
+				
+				@Override
+				public void run() {
+					try {
+						flush();
+					} catch (IOException e) {
+						LOGGER.error("Unable to flush console", e);
+					}
+				}
+				
+			}, intervalMillis, intervalMillis);
+		}
+	}
+	
+	/**
+	 * Return the policy used to flush output.
+	 * 
+	 * @return
+	 */
+	public FlushPolicy getFlushPolicy() {
+		return this.flushPolicy;
+	}
+	
+	/**
+	 * Flush the output if the current {@link FlushPolicy} requires it, after
+	 * something has been written.
+	 * 
+	 * @param newlines
+	 *            the number of lines written
+	 * 
+	 * @throws IOException
+	 *             if flushing fails
+	 */
+	private void written(int newlines) throws IOException {
+		switch(this.flushPolicy) {
+			case IMMEDIATE:
+				this.consoleReader.flush();
+				break;
+				
+			case NEWLINE:
+				if(newlines > 0 && this.pendingNewlines.addAndGet(newlines) >= this.flushNewlines) {
+					flush();
+				}
+				break;
+				
+			default:
+				// flushed by the timer or before reading
+				break;
+		}
+	}
+	
+	/**
+	 * Count the lines in the given string, when the current
+	 * {@link FlushPolicy} needs them.
+	 * 
+	 * @param string
+	 * @return
+	 */
+	private int newlines(String string) {
+		if(this.flushPolicy != FlushPolicy.NEWLINE || string == null) {
+			return 0;
+		}
+		
+		int count = 0;
+		for(int index = string.indexOf('\n'); index >= 0; index = string.indexOf('\n', index + 1)) {
+			count++;
+		}
+		
+		return count;
+	}
 
 	@Override
 	public void addShutdownHook(Runnable runnable) {
@@ -0,0 +1,54 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ansi;
+
+/**
+ * Defines when the output written to an {@link AnsiConsole} is flushed to the
+ * terminal. Whatever the policy, the output is flushed before reading input
+ * and when the console is flushed explicitly.
+ * 
+ * @author sangupta
+ *
+ */
+public enum FlushPolicy {
+	
+	/**
+	 * Flush after every write
+	 */
+	IMMEDIATE,
+	
+	/**
+	 * Flush periodically from a background thread
+	 */
+	INTERVAL,
+	
+	/**
+	 * Flush once a given number of lines have been written
+	 */
+	NEWLINE,
+	
+	/**
+	 * Flush only before reading input
+	 */
+	ON_READ;
+
+}
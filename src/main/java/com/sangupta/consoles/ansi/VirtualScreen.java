@@ -0,0 +1,706 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ansi;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import com.sangupta.consoles.core.SgrState;
+import com.sangupta.consoles.ui.TerminalCharacterAttribute;
+
+/**
+ * An in-memory grid of cells that a full screen program draws on, sent to a
+ * terminal on {@link #refresh(Writer)}. The screen remembers what it last
+ * sent, and a refresh only sends the cells that changed since: the cursor is
+ * moved to each run of changed cells in the fewest characters, and the
+ * graphic rendition is only changed where a cell needs a different one.
+ * 
+ * The screen assumes that nothing else writes to the terminal between two
+ * refreshes; if something does, {@link #invalidate()} has the next refresh
+ * redraw the whole screen. The screen is not safe for use by multiple
+ * threads at once.
+ * 
+ * @author sangupta
+ *
+ */
+public class VirtualScreen {
+	
+	/**
+	 * The color value standing for the default color of the terminal
+	 */
+	public static final int DEFAULT_COLOR = SgrState.DEFAULT_COLOR;
+	
+	/**
+	 * Number of unchanged cells between two changed ones that are sent again,
+	 * rather than moving the cursor over them
+	 */
+	private static final int MERGE_GAP = 4;
+	
+	/**
+	 * Marks a packed color that is not the default one
+	 */
+	private static final long COLOR_SET = 0x1000000L;
+	
+	private static final int BACKGROUND_SHIFT = 25;
+	
+	private static final int STYLE_SHIFT = 50;
+	
+	/**
+	 * The packed attribute of the default colors and no style
+	 */
+	private static final long DEFAULT_ATTRIBUTE = 0;
+	
+	/**
+	 * Drawn in place of control characters and surrogates, which would not
+	 * take up exactly one cell on the terminal
+	 */
+	private static final char REPLACEMENT_CHAR = '?';
+	
+	/**
+	 * Number of columns between two tab stops
+	 */
+	private static final int TAB_SIZE = 8;
+	
+	/**
+	 * The colors of the 256 color palette shifted left by eight bits, each
+	 * with its index in the low bits, in ascending order: a color is found by
+	 * a binary search, at the lowest index it has in the palette
+	 */
+	private static final long[] PALETTE_LOOKUP = new long[256];
+	
+	static {
+		for(int index = 0; index < PALETTE_LOOKUP.length; index++) {
+			PALETTE_LOOKUP[index] = ((long) (SgrState.paletteColor(index) & 0xFFFFFF) << 8) | index;
+		}
+		
+		Arrays.sort(PALETTE_LOOKUP);
+	}
+	
+	private int columns;
+	
+	private int rows;
+	
+	/**
+	 * The characters drawn
+	 */
+	private char[] chars;
+	
+	/**
+	 * The packed attributes of the characters drawn
+	 */
+	private long[] attributes;
+	
+	/**
+	 * The characters last sent to the terminal
+	 */
+	private char[] sentChars;
+	
+	/**
+	 * The packed attributes of the characters last sent to the terminal
+	 */
+	private long[] sentAttributes;
+	
+	/**
+	 * Whether the terminal is to be cleared and drawn from scratch on the next
+	 * refresh
+	 */
+	private boolean invalid = true;
+	
+	/**
+	 * The packed attribute characters are drawn with
+	 */
+	private long attribute = DEFAULT_ATTRIBUTE;
+	
+	/**
+	 * The column characters are drawn at
+	 */
+	private int x;
+	
+	/**
+	 * The row characters are drawn at
+	 */
+	private int y;
+	
+	/**
+	 * The column of the cursor of the terminal, <code>-1</code> when not known
+	 */
+	private int cursorX = -1;
+	
+	/**
+	 * The row of the cursor of the terminal, <code>-1</code> when not known
+	 */
+	private int cursorY = -1;
+	
+	/**
+	 * The packed attribute the terminal currently writes with
+	 */
+	private long sentAttribute = DEFAULT_ATTRIBUTE;
+	
+	/**
+	 * Holds the output of a refresh
+	 */
+	private final StringBuilder output = new StringBuilder();
+	
+	/**
+	 * Reusable array to write the output of a refresh from
+	 */
+	private char[] outputChars = new char[0];
+	
+	/**
+	 * Create a new blank screen.
+	 * 
+	 * @param columns
+	 *            the number of columns of the terminal
+	 * 
+	 * @param rows
+	 *            the number of rows of the terminal
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the screen has no cells
+	 */
+	public VirtualScreen(int columns, int rows) {
+		resize(columns, rows);
+	}
+	
+	/**
+	 * Change the size of the screen. The screen is blanked and redrawn from
+	 * scratch on the next refresh.
+	 * 
+	 * @param columns
+	 *            the number of columns of the terminal
+	 * 
+	 * @param rows
+	 *            the number of rows of the terminal
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the screen has no cells
+	 */
+	public void resize(int columns, int rows) {
+		if(columns <= 0 || rows <= 0) {
+			throw new IllegalArgumentException("Screen must have at least one row and column");
+		}
+		
+		this.columns = columns;
+		this.rows = rows;
+		this.chars = new char[columns * rows];
+		this.attributes = new long[columns * rows];
+		this.sentChars = new char[columns * rows];
+		this.sentAttributes = new long[columns * rows];
+		
+		clear();
+		invalidate();
+	}
+	
+	/**
+	 * Return the number of columns.
+	 * 
+	 * @return
+	 */
+	public int getColumns() {
+		return this.columns;
+	}
+	
+	/**
+	 * Return the number of rows.
+	 * 
+	 * @return
+	 */
+	public int getRows() {
+		return this.rows;
+	}
+	
+	/**
+	 * Blank the screen in the default colors, and move the drawing position
+	 * to the top left.
+	 * 
+	 */
+	public void clear() {
+		Arrays.fill(this.chars, ' ');
+		Arrays.fill(this.attributes, DEFAULT_ATTRIBUTE);
+		this.x = 0;
+		this.y = 0;
+	}
+	
+	/**
+	 * Have the next refresh clear the terminal and send the whole screen, as
+	 * needed when something else wrote to the terminal.
+	 * 
+	 */
+	public void invalidate() {
+		this.invalid = true;
+	}
+	
+	/**
+	 * Set the colors characters are drawn with.
+	 * 
+	 * @param foreground
+	 *            the foreground, <code>null</code> for the default one
+	 * 
+	 * @param background
+	 *            the background, <code>null</code> for the default one
+	 */
+	public void setColor(Color foreground, Color background) {
+		setColor(foreground == null ? DEFAULT_COLOR : foreground.getRGB() & 0xFFFFFF, background == null ? DEFAULT_COLOR : background.getRGB() & 0xFFFFFF);
+	}
+	
+	/**
+	 * Set the colors characters are drawn with.
+	 * 
+	 * @param foreground
+	 *            the foreground as RGB without alpha, or
+	 *            {@link #DEFAULT_COLOR}
+	 * 
+	 * @param background
+	 *            the background as RGB without alpha, or
+	 *            {@link #DEFAULT_COLOR}
+	 */
+	public void setColor(int foreground, int background) {
+		this.attribute = packColor(foreground) | (packColor(background) << BACKGROUND_SHIFT) | (this.attribute & (0xFFL << STYLE_SHIFT));
+	}
+	
+	/**
+	 * Set the style characters are drawn with.
+	 * 
+	 * @param style
+	 *            the <code>STYLE_</code> bits of
+	 *            {@link TerminalCharacterAttribute}
+	 */
+	public void setStyle(int style) {
+		this.attribute = (this.attribute & ~(0xFFL << STYLE_SHIFT)) | ((long) (style & 0xFF) << STYLE_SHIFT);
+	}
+	
+	/**
+	 * Move the drawing position. The cursor of the terminal is left at the
+	 * drawing position after a refresh.
+	 * 
+	 * @param column
+	 * @param row
+	 */
+	public void moveTo(int column, int row) {
+		this.x = column;
+		this.y = row;
+	}
+	
+	/**
+	 * Return the column characters are drawn at.
+	 * 
+	 * @return
+	 */
+	public int getX() {
+		return this.x;
+	}
+	
+	/**
+	 * Return the row characters are drawn at.
+	 * 
+	 * @return
+	 */
+	public int getY() {
+		return this.y;
+	}
+	
+	/**
+	 * Draw the given character at the drawing position, and move the position
+	 * to the right. A line feed moves the position to the start of the next
+	 * row, a carriage return to the start of the row, and a tab to the next
+	 * tab stop. Other control characters and surrogates are drawn as
+	 * <code>?</code>, so that every cell holds exactly one printable
+	 * character. Characters beyond the edges of the screen are dropped.
+	 * 
+	 * @param c
+	 */
+	public void print(char c) {
+		if(c == '\n') {
+			this.x = 0;
+			this.y++;
+			return;
+		}
+		
+		if(c == '\r') {
+			this.x = 0;
+			return;
+		}
+		
+		if(c == '\t') {
+			do {
+				print(' ');
+			} while(this.x % TAB_SIZE != 0);
+			
+			return;
+		}
+		
+		if(c < 0x20 || (c >= 0x7F && c < 0xA0) || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+			c = REPLACEMENT_CHAR;
+		}
+		
+		if(this.x >= 0 && this.x < this.columns && this.y >= 0 && this.y < this.rows) {
+			int index = this.y * this.columns + this.x;
+			this.chars[index] = c;
+			this.attributes[index] = this.attribute;
+		}
+		
+		this.x++;
+	}
+	
+	/**
+	 * Draw the given string, as {@link #print(char)} does for each character.
+	 * 
+	 * @param string
+	 */
+	public void print(String string) {
+		int length = string.length();
+		for(int index = 0; index < length; index++) {
+			print(string.charAt(index));
+		}
+	}
+	
+	/**
+	 * Draw the given string at the given position.
+	 * 
+	 * @param column
+	 * @param row
+	 * @param string
+	 */
+	public void print(int column, int row, String string) {
+		moveTo(column, row);
+		print(string);
+	}
+	
+	/**
+	 * Send the changes since the last refresh to the terminal.
+	 * 
+	 * @param writer
+	 *            the {@link Writer} of the terminal; it is not flushed
+	 * 
+	 * @return the number of characters sent
+	 * 
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public int refresh(Writer writer) throws IOException {
+		StringBuilder output = this.output;
+		output.setLength(0);
+		
+		if(this.invalid) {
+			output.append("\u001b[0m\u001b[H\u001b[2J");
+			Arrays.fill(this.sentChars, ' ');
+			Arrays.fill(this.sentAttributes, DEFAULT_ATTRIBUTE);
+			this.sentAttribute = DEFAULT_ATTRIBUTE;
+			this.cursorX = 0;
+			this.cursorY = 0;
+			this.invalid = false;
+		}
+		
+		for(int row = 0; row < this.rows; row++) {
+			int base = row * this.columns;
+			int column = 0;
+			while(column < this.columns) {
+				if(!changed(base + column)) {
+					column++;
+					continue;
+				}
+				
+				// extend the run over short gaps of unchanged cells that
+				// need no change of rendition
+				int last = column;
+				for(int next = column + 1; next < this.columns && next - last <= MERGE_GAP; next++) {
+					if(changed(base + next)) {
+						last = next;
+					} else if(this.attributes[base + next] != this.attributes[base + last]) {
+						break;
+					}
+				}
+				
+				moveCursor(column, row);
+				for(int index = base + column; index <= base + last; index++) {
+					appendAttribute(this.attributes[index]);
+					output.append(this.chars[index]);
+					this.sentChars[index] = this.chars[index];
+					this.sentAttributes[index] = this.attributes[index];
+				}
+				
+				// the cursor stays on the last column, waiting to wrap
+				this.cursorX = last + 1 < this.columns ? last + 1 : -1;
+				column = last + 1;
+			}
+		}
+		
+		moveCursor(Math.max(0, Math.min(this.x, this.columns - 1)), Math.max(0, Math.min(this.y, this.rows - 1)));
+		
+		int length = output.length();
+		if(length > 0) {
+			if(this.outputChars.length < length) {
+				this.outputChars = new char[length];
+			}
+			
+			output.getChars(0, length, this.outputChars, 0);
+			writer.write(this.outputChars, 0, length);
+		}
+		
+		return length;
+	}
+	
+	/**
+	 * Return whether the given cell differs from what was last sent.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	private boolean changed(int index) {
+		return this.chars[index] != this.sentChars[index] || this.attributes[index] != this.sentAttributes[index];
+	}
+	
+	/**
+	 * Move the cursor of the terminal to the given position, relative to where
+	 * it is when that is shorter than an absolute move.
+	 * 
+	 * @param column
+	 * @param row
+	 */
+	private void moveCursor(int column, int row) {
+		if(column == this.cursorX && row == this.cursorY) {
+			return;
+		}
+		
+		// the absolute move leaves out the parameters that are one
+		int absolute = 3;
+		if(row > 0 || column > 0) {
+			absolute += digits(row + 1);
+		}
+		
+		if(column > 0) {
+			absolute += 1 + digits(column + 1);
+		}
+		
+		int relative = Integer.MAX_VALUE;
+		if(this.cursorX >= 0 && this.cursorY >= 0) {
+			relative = relativeCost(row - this.cursorY) + (column == 0 ? (column == this.cursorX ? 0 : 1) : relativeCost(column - this.cursorX));
+		}
+		
+		StringBuilder output = this.output;
+		if(relative < absolute) {
+			appendRelative(row - this.cursorY, 'B', 'A');
+			if(column == 0) {
+				if(this.cursorX != 0) {
+					output.append('\r');
+				}
+			} else {
+				appendRelative(column - this.cursorX, 'C', 'D');
+			}
+		} else {
+			output.append("\u001b[");
+			if(row > 0 || column > 0) {
+				output.append(row + 1);
+			}
+			
+			if(column > 0) {
+				output.append(';').append(column + 1);
+			}
+			
+			output.append('H');
+		}
+		
+		this.cursorX = column;
+		this.cursorY = row;
+	}
+	
+	/**
+	 * Return the number of characters of a relative move by the given
+	 * distance.
+	 * 
+	 * @param distance
+	 * @return
+	 */
+	private static int relativeCost(int distance) {
+		if(distance == 0) {
+			return 0;
+		}
+		
+		distance = Math.abs(distance);
+		return distance == 1 ? 3 : 3 + digits(distance);
+	}
+	
+	/**
+	 * Append a relative move by the given distance, forward when positive.
+	 * 
+	 * @param distance
+	 * @param forward
+	 *            the final character of the forward move
+	 * @param backward
+	 *            the final character of the backward move
+	 */
+	private void appendRelative(int distance, char forward, char backward) {
+		if(distance == 0) {
+			return;
+		}
+		
+		this.output.append("\u001b[");
+		if(Math.abs(distance) > 1) {
+			this.output.append(Math.abs(distance));
+		}
+		
+		this.output.append(distance > 0 ? forward : backward);
+	}
+	
+	/**
+	 * Append the <code>SGR</code> sequence that changes the rendition of the
+	 * terminal to the given one, if it differs.
+	 * 
+	 * @param attribute
+	 *            the packed attribute
+	 */
+	private void appendAttribute(long attribute) {
+		long from = this.sentAttribute;
+		if(attribute == from) {
+			return;
+		}
+		
+		StringBuilder output = this.output;
+		output.append("\u001b[");
+		
+		// styles can only be turned off together
+		int style = (int) (attribute >>> STYLE_SHIFT);
+		int fromStyle = (int) (from >>> STYLE_SHIFT);
+		boolean separate = false;
+		if((fromStyle & ~style) != 0) {
+			output.append('0');
+			from = DEFAULT_ATTRIBUTE;
+			fromStyle = 0;
+			separate = true;
+		}
+		
+		int added = style & ~fromStyle;
+		separate = appendStyle(added, TerminalCharacterAttribute.STYLE_BOLD, 1, separate);
+		separate = appendStyle(added, TerminalCharacterAttribute.STYLE_DIM, 2, separate);
+		separate = appendStyle(added, TerminalCharacterAttribute.STYLE_ITALIC, 3, separate);
+		separate = appendStyle(added, TerminalCharacterAttribute.STYLE_UNDERLINE, 4, separate);
+		separate = appendStyle(added, TerminalCharacterAttribute.STYLE_REVERSE, 7, separate);
+		
+		long foreground = attribute & (COLOR_SET | 0xFFFFFF);
+		if(foreground != (from & (COLOR_SET | 0xFFFFFF))) {
+			if(separate) {
+				output.append(';');
+			}
+			
+			appendColor(foreground, 30);
+			separate = true;
+		}
+		
+		long background = (attribute >>> BACKGROUND_SHIFT) & (COLOR_SET | 0xFFFFFF);
+		if(background != ((from >>> BACKGROUND_SHIFT) & (COLOR_SET | 0xFFFFFF))) {
+			if(separate) {
+				output.append(';');
+			}
+			
+			appendColor(background, 40);
+		}
+		
+		output.append('m');
+		this.sentAttribute = attribute;
+	}
+	
+	private boolean appendStyle(int added, int style, int param, boolean separate) {
+		if((added & style) == 0) {
+			return separate;
+		}
+		
+		if(separate) {
+			this.output.append(';');
+		}
+		
+		this.output.append(param);
+		return true;
+	}
+	
+	/**
+	 * Append the parameters setting the given color, in the shortest form
+	 * the color can be given in.
+	 * 
+	 * @param color
+	 *            the packed color
+	 * 
+	 * @param base
+	 *            <code>30</code> for the foreground, <code>40</code> for the
+	 *            background
+	 */
+	private void appendColor(long color, int base) {
+		StringBuilder output = this.output;
+		if((color & COLOR_SET) == 0) {
+			output.append(base + 9);
+			return;
+		}
+		
+		int rgb = (int) (color & 0xFFFFFF);
+		int index = paletteIndex(rgb);
+		if(index >= 0 && index < 8) {
+			output.append(base + index);
+		} else if(index >= 8 && index < 16) {
+			output.append(base + 60 + index - 8);
+		} else if(index >= 0) {
+			output.append(base + 8).append(";5;").append(index);
+		} else {
+			output.append(base + 8).append(";2;").append((rgb >> 16) & 0xFF).append(';').append((rgb >> 8) & 0xFF).append(';').append(rgb & 0xFF);
+		}
+	}
+	
+	/**
+	 * Return the index of the given color in the 256 color palette, or
+	 * <code>-1</code> if it is not part of it.
+	 * 
+	 * @param rgb
+	 * @return
+	 */
+	private static int paletteIndex(int rgb) {
+		int position = Arrays.binarySearch(PALETTE_LOOKUP, (long) rgb << 8);
+		if(position < 0) {
+			position = -position - 1;
+		}
+		
+		if(position < PALETTE_LOOKUP.length && (PALETTE_LOOKUP[position] >>> 8) == rgb) {
+			return (int) (PALETTE_LOOKUP[position] & 0xFF);
+		}
+		
+		return -1;
+	}
+	
+	private static long packColor(int color) {
+		if(color == DEFAULT_COLOR) {
+			return 0;
+		}
+		
+		return COLOR_SET | (color & 0xFFFFFF);
+	}
+	
+	private static int digits(int value) {
+		int digits = 1;
+		while(value >= 10) {
+			value /= 10;
+			digits++;
+		}
+		
+		return digits;
+	}
+	
+}
@@ -23,11 +23,13 @@ package com.sangupta.consoles.core;
 
 import java.awt.Color;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
+import com.sangupta.consoles.ConsolesConstants;
 import com.sangupta.consoles.IConsole;
 import com.sangupta.jerry.util.AssertUtils;
 
@@ -125,6 +127,11 @@ public abstract class AbstractConsole implements IConsole {
 	
 	@Override
 	public void restoreStreams(boolean inStream, boolean outStream,	boolean errorStream) {
+		// nothing was switched
+		if(!backedUp) {
+			return;
+		}
+		
 		// reset the original streams
 		
 		if(inStream) {
@@ -193,14 +200,88 @@ public abstract class AbstractConsole implements IConsole {
 	 *            the property value
 	 * 
 	 * @throws IllegalArgumentException
-	 *             if name is empty/<code>null</code>
+	 *             if name is empty/<code>null</code>, or the value is not valid
+	 *             for the property - in which case the property is left as it
+	 *             was
 	 */
 	public void setConsoleProperty(String name, String value) {
 		if(AssertUtils.isEmpty(name)) {
 			throw new IllegalArgumentException("Property name cannot be null/empty");
 		}
 		
+		validateConsoleProperty(name, value);
 		this.consoleProperties.put(name, value);
+		
+		if(ConsolesConstants.PROPERTY_LINE_ASSEMBLY.equals(name) || ConsolesConstants.PROPERTY_MAX_LINE_LENGTH.equals(name) || ConsolesConstants.PROPERTY_IDLE_FLUSH_MILLIS.equals(name)) {
+			configureLineAssembly();
+		}
+	}
+	
+	/**
+	 * Check the value of a console property before it is stored, so that a bad
+	 * value does not replace a good one.
+	 * 
+	 * @param name
+	 *            the property name
+	 * 
+	 * @param value
+	 *            the property value, <code>null</code>/empty for the default
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the value is not valid for the property
+	 */
+	protected void validateConsoleProperty(String name, String value) {
+		if(AssertUtils.isEmpty(value)) {
+			return;
+		}
+		
+		try {
+			if(ConsolesConstants.PROPERTY_MAX_LINE_LENGTH.equals(name) && Integer.parseInt(value.trim()) < 0) {
+				throw new IllegalArgumentException("Maximum line length cannot be negative");
+			}
+			
+			if(ConsolesConstants.PROPERTY_IDLE_FLUSH_MILLIS.equals(name) && Long.parseLong(value.trim()) < 0) {
+				throw new IllegalArgumentException("Idle flush interval cannot be negative");
+			}
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Line assembly properties must be numbers", e);
+		}
+	}
+	
+	/**
+	 * Apply the line assembly properties to the output stream of this console, if it
+	 * supports line assembly.
+	 * 
+	 */
+	protected void configureLineAssembly() {
+		OutputStream stream = this.getOutputStream();
+		if(!(stream instanceof ConsoleOutputStream)) {
+			return;
+		}
+		
+		ConsoleOutputStream consoleStream = (ConsoleOutputStream) stream;
+		if(!Boolean.parseBoolean(this.consoleProperties.get(ConsolesConstants.PROPERTY_LINE_ASSEMBLY))) {
+			consoleStream.setLineAssembly(0, 0);
+			return;
+		}
+		
+		int maxLineLength = ConsolesConstants.DEFAULT_MAX_LINE_LENGTH;
+		long idleFlushMillis = ConsolesConstants.DEFAULT_IDLE_FLUSH_MILLIS;
+		try {
+			String value = this.consoleProperties.get(ConsolesConstants.PROPERTY_MAX_LINE_LENGTH);
+			if(AssertUtils.isNotEmpty(value)) {
+				maxLineLength = Integer.parseInt(value.trim());
+			}
+			
+			value = this.consoleProperties.get(ConsolesConstants.PROPERTY_IDLE_FLUSH_MILLIS);
+			if(AssertUtils.isNotEmpty(value)) {
+				idleFlushMillis = Long.parseLong(value.trim());
+			}
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Line assembly properties must be numbers", e);
+		}
+		
+		consoleStream.setLineAssembly(maxLineLength, idleFlushMillis);
 	}
 
 	/**
@@ -0,0 +1,158 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.core;
+
+/**
+ * Receives the text, controls and sequences recognized by an
+ * {@link AnsiParser}. The arrays passed in are owned by the parser and are
+ * reused for the next sequence, so they must not be held on to.
+ * 
+ * Intermediate characters of a sequence, including the private marker of a
+ * control sequence such as <code>?</code>, are passed packed into one
+ * <code>int</code>, the first character in the highest byte: <code>CSI ? 25
+ * h</code> is passed with the intermediates <code>'?'</code>.
+ * 
+ * @author sangupta
+ *
+ */
+public interface AnsiHandler {
+
+	/**
+	 * Text to be displayed.
+	 * 
+	 * @param bytes
+	 *            the bytes holding the text
+	 * 
+	 * @param offset
+	 *            the index of the first byte of the text
+	 * 
+	 * @param length
+	 *            the number of bytes of text
+	 */
+	public void print(byte[] bytes, int offset, int length);
+
+	/**
+	 * Text to be displayed, when parsing characters rather than bytes.
+	 * 
+	 * @param chars
+	 *            the characters holding the text
+	 * 
+	 * @param offset
+	 *            the index of the first character of the text
+	 * 
+	 * @param length
+	 *            the number of characters of text
+	 */
+	public void print(char[] chars, int offset, int length);
+
+	/**
+	 * A C0 control character, such as a line feed or a backspace.
+	 * 
+	 * @param control
+	 *            the control character
+	 */
+	public void execute(int control);
+
+	/**
+	 * An escape sequence, <code>ESC</code> followed by the intermediates and
+	 * the final character.
+	 * 
+	 * @param intermediates
+	 *            the packed intermediate characters, <code>0</code> if none
+	 * 
+	 * @param finalChar
+	 *            the final character
+	 */
+	public void escDispatch(int intermediates, int finalChar);
+
+	/**
+	 * A control sequence, <code>CSI</code> followed by the parameters, the
+	 * intermediates and the final character. Parameters left out are passed
+	 * as <code>0</code>.
+	 * 
+	 * @param params
+	 *            the parameters
+	 * 
+	 * @param paramCount
+	 *            the number of parameters
+	 * 
+	 * @param intermediates
+	 *            the packed intermediate characters, <code>0</code> if none
+	 * 
+	 * @param finalChar
+	 *            the final character
+	 */
+	public void csiDispatch(int[] params, int paramCount, int intermediates, int finalChar);
+
+	/**
+	 * An operating system command, <code>OSC</code> followed by a string and
+	 * ended by <code>BEL</code> or <code>ST</code>.
+	 * 
+	 * @param data
+	 *            the bytes of the string, truncated to
+	 *            {@link AnsiParser#MAX_OSC_LENGTH}
+	 * 
+	 * @param length
+	 *            the number of bytes of the string
+	 */
+	public void oscDispatch(byte[] data, int length);
+
+	/**
+	 * The start of a device control string, whose data follows through
+	 * {@link #put(byte[], int, int)} until {@link #unhook()}.
+	 * 
+	 * @param params
+	 *            the parameters
+	 * 
+	 * @param paramCount
+	 *            the number of parameters
+	 * 
+	 * @param intermediates
+	 *            the packed intermediate characters, <code>0</code> if none
+	 * 
+	 * @param finalChar
+	 *            the final character
+	 */
+	public void hook(int[] params, int paramCount, int intermediates, int finalChar);
+
+	/**
+	 * Data of the current device control string.
+	 * 
+	 * @param bytes
+	 *            the bytes holding the data
+	 * 
+	 * @param offset
+	 *            the index of the first byte of data
+	 * 
+	 * @param length
+	 *            the number of bytes of data
+	 */
+	public void put(byte[] bytes, int offset, int length);
+
+	/**
+	 * The end of the current device control string.
+	 * 
+	 */
+	public void unhook();
+
+}
@@ -25,48 +25,53 @@ import java.awt.Color;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.sangupta.consoles.IConsole;
 import com.sangupta.consoles.ui.TextWindow;
 
 /**
  * An <code>OutputStream</code> which interprets ANSI terminal escape sequences
- * and causes them to display properly on a <code>IConsole</code>.
+ * and causes them to display properly on a <code>IConsole</code>. Escape
+ * sequences are recognized by an {@link AnsiParser}, and may be split across
+ * any number of writes.
  * 
  * @see IConsole
  * @author sangupta
  */
-public class AnsiOutputStream extends FilterOutputStream {
-    
-	private static final int DARK_LEVEL = 180;
-    
-	private static final int BRIGHT_LEVEL = 255;
-    
-	private static final Color[] COLORS = {
-                                            Color.black,
-                                            new Color(DARK_LEVEL, 0, 0),
-                                            new Color(0, DARK_LEVEL, 0),
-                                            new Color(DARK_LEVEL, DARK_LEVEL, 0),
-                                            new Color(0, 0, DARK_LEVEL),
-                                            new Color(DARK_LEVEL, 0, DARK_LEVEL),
-                                            new Color(0, DARK_LEVEL, DARK_LEVEL),
-                                            new Color(DARK_LEVEL, DARK_LEVEL, DARK_LEVEL),
-                                        
-                                            new Color(96, 96, 96),
-                                            new Color(BRIGHT_LEVEL, 0, 0),
-                                            new Color(0, BRIGHT_LEVEL, 0),
-                                            new Color(BRIGHT_LEVEL, BRIGHT_LEVEL, 0),
-                                            new Color(0, 0, BRIGHT_LEVEL),
-                                            new Color(BRIGHT_LEVEL, 0, BRIGHT_LEVEL),
-                                            new Color(0, BRIGHT_LEVEL, BRIGHT_LEVEL),
-                                            new Color(BRIGHT_LEVEL, BRIGHT_LEVEL, BRIGHT_LEVEL)
-                                         };
-                                         
-    private boolean bright;
+public class AnsiOutputStream extends FilterOutputStream implements AnsiHandler {
+    
+    /**
+     * The rendition set by the <code>SGR</code> sequences
+     */
+    private final SgrState sgr = new SgrState();
+    
+    /**
+     * The colors of the console when the stream was created, used for the
+     * default rendition
+     */
+    private final int defaultForeground;
+    
+    private final int defaultBackground;
+    
+    /**
+     * Most colors kept in {@link #colors}
+     */
+    private static final int MAX_COLORS = 256;
+    
+    /**
+     * The colors set on the console so far by RGB, so that the
+     * <code>Color</code> of each is created only once
+     */
+    private final Map<Integer, Color> colors = new HashMap<Integer, Color>();
+    
+    /**
+     * The colors last set on the console, as RGB
+     */
     private int foreground;
+    
     private int background;
-                                         
-    private static final int ESCAPE = '\033';
     
     /** 
      * The <code>IConsole</code> that this stream is managing.
@@ -81,138 +86,221 @@ public class AnsiOutputStream extends FilterOutputStream {
     protected TextWindow textWindow;
     
     /** 
-     * <code>true</code> if a partial escape sequence has been written. 
+     * Recognizes the escape sequences in the bytes written.
      */
-    protected boolean inEscape;
+    protected final AnsiParser parser = new AnsiParser(this);
     
-    /** 
-     * The escape sequence currently being processed. 
+    /**
+     * The parameters of the control sequence being processed
      */
-    protected StringBuffer escapeSequence = new StringBuffer();
+    private int[] params;
     
-    private final byte[] byteHolder = new byte[1];
-
-    private int parameterStart;
+    /**
+     * The number of parameters of the control sequence being processed
+     */
+    private int paramCount;
+    
+    /**
+     * The index of the next parameter to be read
+     */
+    private int nextParam;
+    
+    /**
+     * The first failure to write to the console while parsing, thrown once
+     * parsing returns
+     */
+    private IOException failure;
     
     private int savedX;
     
     private int savedY;
+    
+    /**
+     * Spaces written to erase, in as many pieces as needed
+     */
+    private final char[] blanks = new char[256];
 
     /**
 	 * Constructs a new <code>AnsiOutputStream</code> which will display its
-	 * output on the given <code>Console</code>. The <code>Console</code> in
-	 * question must provide <code>TextWindow</code> support.
+	 * output on the given <code>Console</code>. Only colors are supported,
+	 * as there is no <code>TextWindow</code> to move the cursor on or erase.
 	 * 
 	 * @param console
 	 *            the <code>Console</code> to which the stream's output is sent
-	 * @throws TextWindowNotAvailableException
-	 *             if the <code>Console</code> does not provide
-	 *             <code>TextWindow</code> support
 	 */
     public AnsiOutputStream(IConsole console) {
+        this(console, null);
+    }
+    
+    /**
+	 * Constructs a new <code>AnsiOutputStream</code> which will display its
+	 * output on the given <code>Console</code>, moving the cursor and erasing
+	 * on its <code>TextWindow</code>.
+	 * 
+	 * @param console
+	 *            the <code>Console</code> to which the stream's output is sent
+	 * 
+	 * @param textWindow
+	 *            the <code>TextWindow</code> of the <code>Console</code>, or
+	 *            <code>null</code> to only support colors
+	 */
+    public AnsiOutputStream(IConsole console, TextWindow textWindow) {
         super(console.getOutputStream());
         this.console = console;
+        this.textWindow = textWindow;
+        Arrays.fill(this.blanks, ' ');
         
-        // TODO: fix this
-//        this.textWindow = console.getTextWindow();
+        this.defaultForeground = console.getForegroundColor().getRGB() & 0xFFFFFF;
+        this.defaultBackground = console.getBackgroundColor().getRGB() & 0xFFFFFF;
+        this.foreground = this.defaultForeground;
+        this.background = this.defaultBackground;
     }
     
     
-    /** 
-     * Processes a partial or complete escape sequence.  The escape sequence may be processed
-     * piecewise, with each call to <code>processEscape</code> reading more of the escape
-     * sequence.  Data will be read from the byte array either until the end of the escape
-     * sequence (in which case the escape is complete and <code>inEscape</code> will be reset
-     * to <code>false</code>) or until the end of the byte array, in which case the escape
-     * sequence is not complete, <code>inEscape</code> remains <code>true</code>, and the
-     * next call to <code>processEscape</code> will continue to read bytes of the same
-     * escape sequence.
-     * <p>Erroneous escape sequences (those which do not conform to the ANSI standard) are
-     * read until they are determined to be incorrect, at which point <code>inEscape</code>
-     * is reset to false and the invalid escape sequence is discarded.</p>
-     *
-     *@param b the byte array containing the escape sequence or portion thereof
-     *@param index the offset within the byte array from which to begin reading the escape sequence
+    /**
+     * Text goes to the console as is.
+     * 
+     * @see AnsiHandler#print(char[], int, int)
+     */
+    public void print(char[] chars, int offset, int length) {
+        flushText();
+        console.print(chars, offset, length);
+    }
+    
+    
+    /**
+     * Text goes to the console as is.
+     * 
+     * @see AnsiHandler#print(byte[], int, int)
+     */
+    public void print(byte[] bytes, int offset, int length) {
+        try {
+            out.write(bytes, offset, length);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+    
+    
+    /**
+     * Control characters go to the console as is, which handles the ones it
+     * knows.
+     * 
+     * @see AnsiHandler#execute(int)
      */
-    protected int processEscape(byte[] b, int index) {
-        int start = index;
-        boolean complete = false; // we know we want at least one character, otherwise this method would not have been called
-        while (!complete && index < b.length) {
-            escapeSequence.append((char) b[index++]);
-            complete = tryToProcessEscapeSequence();
+    public void execute(int control) {
+        try {
+            out.write(control);
+        } catch (IOException e) {
+            failure = e;
         }
-        return index - start;
     }
     
     
     /**
-     * Attempts to process the current escape sequence.  Returns <code>true</code>
-     * if no more characters are required (the escape sequence is complete or invalid)
-     * and <code>false</code> if more characters are required (the escape sequence is
-     * potentially valid, but incomplete).
+     * @see AnsiHandler#escDispatch(int, int)
+     */
+    public void escDispatch(int intermediates, int finalChar) {
+        // no escape sequences are supported
+    }
+    
+    
+    /**
+     * Processes a complete control sequence. Sequences with intermediate
+     * characters or a private marker are not supported and are discarded.
+     * 
+     * @see AnsiHandler#csiDispatch(int[], int, int, int)
      */
-    protected boolean tryToProcessEscapeSequence() {
-        int length = escapeSequence.length();
+    public void csiDispatch(int[] params, int paramCount, int intermediates, int finalChar) {
+        if (intermediates != 0) {
+            return;
+        }
+        
+        this.params = params;
+        this.paramCount = paramCount;
+        this.nextParam = 0;
+        
+        if (finalChar == 'm') {
+            processColor();
+            return;
+        }
         
-        switch (length) {
-            case 0: return false;
-            case 1: return escapeSequence.charAt(0) != ESCAPE; // incomplete if ESCAPE, invalid otherwise
-            case 2: return escapeSequence.charAt(1) != '[';    // incomplete if '[', invalid otherwise
+        if (textWindow == null) {
+            return;
         }
         
-        // else length >= 3
+        // text written so far goes before the cursor moves
+        flushText();
         
-        parameterStart = 2;
-        char last = escapeSequence.charAt(escapeSequence.length() - 1);
-        switch (last) {
-            case ';': // fall through
-            case '0': // fall through
-            case '1': // fall through
-            case '2': // fall through
-            case '3': // fall through
-            case '4': // fall through
-            case '5': // fall through
-            case '6': // fall through
-            case '7': // fall through
-            case '8': // fall through
-            case '9': return false; // still reading parameters;
-            
-            case 'A': inEscape = false;  processCursorUp();               return true;
-            case 'B': inEscape = false;  processCursorDown();             return true;
-            case 'C': inEscape = false;  processCursorRight();            return true;
-            case 'D': inEscape = false;  processCursorLeft();             return true;
-            case 'H': inEscape = false;  processCursorPosition();         return true;
-            case 's': inEscape = false;  processSaveCursorPosition();     return true;
-            case 'u': inEscape = false;  processRestoreCursorPosition();  return true;
-            case 'K': inEscape = false;  processClearToEnd();             return true;
-            case 'J': inEscape = false;  processClearScreen();            return true;
-            case 'm': inEscape = false;  processColor();                  return true;
-            
-            default: inEscape = false;  return true; // invalid escape
+        switch (finalChar) {
+            case 'A': processCursorUp();               break;
+            case 'B': processCursorDown();             break;
+            case 'C': processCursorRight();            break;
+            case 'D': processCursorLeft();             break;
+            case 'H': processCursorPosition();         break;
+            case 's': processSaveCursorPosition();     break;
+            case 'u': processRestoreCursorPosition();  break;
+            case 'K': processClearToEnd();             break;
+            case 'J': processClearScreen();            break;
         }
     }
-
     
+    
+    /**
+     * Sets the window title for <code>OSC 0</code> and <code>OSC 2</code>.
+     * 
+     * @see AnsiHandler#oscDispatch(byte[], int)
+     */
+    public void oscDispatch(byte[] data, int length) {
+        if (length < 2 || data[1] != ';' || (data[0] != '0' && data[0] != '2')) {
+            return;
+        }
         
+        try {
+            this.console.setWindowTitle(new String(data, 2, length - 2, "UTF-8"));
+        } catch (IOException e) {
+            // eat up
+        }
+    }
+    
+    
+    /**
+     * @see AnsiHandler#hook(int[], int, int, int)
+     */
+    public void hook(int[] params, int paramCount, int intermediates, int finalChar) {
+        // device control strings are not supported
+    }
+    
+    
+    /**
+     * @see AnsiHandler#put(byte[], int, int)
+     */
+    public void put(byte[] bytes, int offset, int length) {
+        // device control strings are not supported
+    }
+    
     
+    /**
+     * @see AnsiHandler#unhook()
+     */
+    public void unhook() {
+        // device control strings are not supported
+    }
+    
+    
+    /**
+     * Returns the next parameter of the control sequence being processed.
+     * 
+     * @param defaultValue
+     *            the value to return if the parameter was left out
+     */
     private int getNextParameter(int defaultValue) {
-        int length = escapeSequence.length();
-        if (parameterStart < length - 1) {
-            int end = escapeSequence.indexOf(";", parameterStart);
-            if (end == -1)
-                end = length - 1;
-            try {
-                return Integer.parseInt(escapeSequence.substring(parameterStart, end));
-            }
-            catch (NumberFormatException e) {
-                return defaultValue;
-            }
-            finally {
-                parameterStart = end + 1;
-            }
-        }
-        else
+        if (nextParam >= paramCount) {
             return defaultValue;
+        }
+        
+        int value = params[nextParam++];
+        return value == 0 ? defaultValue : value;
     }
     
     
@@ -245,8 +333,8 @@ public class AnsiOutputStream extends FilterOutputStream {
     
     
     private void processCursorPosition() {
-        int y = getNextParameter(-1) - 1; // parameters are 1-based rather than 0-based
-        int x = getNextParameter(-1) - 1;
+        int y = getNextParameter(1) - 1; // parameters are 1-based rather than 0-based
+        int x = getNextParameter(1) - 1;
         if (x >= 0 && y >= 0) {
             x = Math.min(x, textWindow.getColumns() - 1);
             y = Math.min(y, textWindow.getRows() - 1);
@@ -271,11 +359,7 @@ public class AnsiOutputStream extends FilterOutputStream {
     private void processClearToEnd() {
         int x = textWindow.getCursorX();
         int y = textWindow.getCursorY();
-        if (x < textWindow.getColumns() - 1) {
-            char[] buffer = new char[textWindow.getColumns() - x - 1];
-            Arrays.fill(buffer, ' ');
-            textWindow.output(buffer, 0, buffer.length);
-        }
+        outputBlanks(textWindow.getColumns() - x - 1);
         textWindow.output(textWindow.getColumns() - 1, y, ' ');
         textWindow.setCursorPosition(x, y);
     }
@@ -285,10 +369,8 @@ public class AnsiOutputStream extends FilterOutputStream {
         if (getNextParameter(-1) == 2) {
             // output spaces to clear the screen
             // start with one space less than the screen size, so as not to induce scrolling
-            char[] buffer = new char[Math.max(0, textWindow.getColumns() * textWindow.getRows() - 1)];
-            Arrays.fill(buffer, ' ');
             textWindow.setCursorPosition(0, 0);
-            textWindow.output(buffer, 0, buffer.length);
+            outputBlanks(textWindow.getColumns() * textWindow.getRows() - 1);
             // this positional output does not cause scrolling
             textWindow.output(textWindow.getColumns() - 1, textWindow.getRows() - 1, ' ');
             // move cursor back to beginning
@@ -297,37 +379,74 @@ public class AnsiOutputStream extends FilterOutputStream {
     }
     
     
+    /**
+     * Writes the given number of spaces at the cursor, from the reusable
+     * {@link #blanks}.
+     */
+    private void outputBlanks(int count) {
+        while (count > 0) {
+            int length = Math.min(count, blanks.length);
+            textWindow.output(blanks, 0, length);
+            count -= length;
+        }
+    }
+    
+    
+    /**
+     * Applies an <code>SGR</code> sequence. The console is only given the
+     * resolved colors, and only when they change; styles other than bold,
+     * dim and reverse cannot be shown.
+     */
     private void processColor() {
-        int parameter = getNextParameter(-1);
-        while (parameter != -1) {
-            try {
-                switch (parameter) {
-                    case 0: bright = false; foreground = 7; background = 0; break;
-                    case 1: bright = true; break;
-                    case 30: foreground =  0; break;
-                    case 31: foreground =  1; break;
-                    case 32: foreground =  2; break;
-                    case 33: foreground =  3; break;
-                    case 34: foreground =  4; break;
-                    case 35: foreground =  5; break;
-                    case 36: foreground =  6; break;
-                    case 37: foreground =  7; break;
-                    case 40: background =  0; break;
-                    case 41: background =  1; break;
-                    case 42: background =  2; break;
-                    case 43: background =  3; break;
-                    case 44: background =  4; break;
-                    case 45: background =  5; break;
-                    case 46: background =  6; break;
-                    case 47: background =  7; break;
-                }
+        if (!sgr.apply(params, paramCount)) {
+            return;
+        }
+        
+        int foreground = sgr.getForeground(defaultForeground, defaultBackground);
+        int background = sgr.getBackground(defaultForeground, defaultBackground);
+        if (foreground == this.foreground && background == this.background) {
+            return;
+        }
+        
+        // text written so far keeps the previous colors
+        flushText();
+        
+        this.foreground = foreground;
+        this.background = background;
+        
+        console.setColor(color(foreground), color(background));
+    }
+    
+    
+    /**
+     * Returns the <code>Color</code> for the given RGB value, created only
+     * the first time it is asked for. The colors kept are dropped once there
+     * are too many, so that true color output does not pile them up.
+     */
+    private Color color(int rgb) {
+        Color color = colors.get(rgb);
+        if (color == null) {
+            if (colors.size() >= MAX_COLORS) {
+                colors.clear();
             }
-            catch (NumberFormatException e) { return; }
-            parameter = getNextParameter(-1);
+            
+            color = new Color(rgb);
+            colors.put(rgb, color);
         }
         
-        // TODO: fix this
-//        console.setTextAttributes(new TerminalCharacterAttribute(COLORS[foreground + (bright ? 8 : 0)], COLORS[background]));
+        return color;
+    }
+    
+    
+    /**
+     * Writes out the text held by the stream underneath.
+     */
+    private void flushText() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            failure = e;
+        }
     }
     
     
@@ -337,31 +456,25 @@ public class AnsiOutputStream extends FilterOutputStream {
     
 
     public void write(byte[] b, int off, int len) throws IOException {
-        int index = off;
-        int end = off + len;
-        while (index < end) {
-            if (!inEscape && b[index] == ESCAPE && (index == len - 1 || b[index + 1] == '[')) {
-                inEscape = true; // we may or may not have seen the bracket yet
-                escapeSequence.setLength(0);
-            }
-                
-            if (inEscape)
-                index += processEscape(b, index);
-            else {
-                int start = index;
-                for (; index < len && b[index] != ESCAPE; index++); // advance to next ESCAPE (or end of string)
-                super.write(b, start, index - start); // output characters.  escape will be processed on next iteration
-            }
-        }
+        parser.parse(b, off, len);
+        throwFailure();
     }
  
  
     public void write(int b) throws IOException {
-        if (!inEscape && b != ESCAPE)
-            super.write(b);
-        else {
-            byteHolder[0] = (byte) b;
-            write(byteHolder);
+        parser.parse(b);
+        throwFailure();
+    }
+    
+    
+    /**
+     * Throws the failure to write to the console while parsing, if any.
+     */
+    private void throwFailure() throws IOException {
+        IOException failure = this.failure;
+        if (failure != null) {
+            this.failure = null;
+            throw failure;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,565 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.core;
+
+/**
+ * A parser for the escape sequences of ANSI and VT terminals, following the
+ * state diagram of the DEC VT500 series. Each byte is looked up in a
+ * transition table by the current state, which yields the action to take and
+ * the next state. Parameters are collected into a fixed array and the
+ * recognized text, controls and sequences are passed on to an
+ * {@link AnsiHandler}, so that parsing does not allocate. Sequences may be
+ * split across any number of calls.
+ * 
+ * Bytes from <code>0x80</code> up are taken as text, as they are in UTF-8
+ * streams, rather than as C1 controls. <code>DEL</code> is ignored, as it is
+ * by the VT500.
+ * 
+ * A parser must be used from one thread at a time.
+ * 
+ * @author sangupta
+ *
+ */
+public class AnsiParser {
+
+	/**
+	 * Maximum number of parameters of a sequence, further parameters are
+	 * ignored
+	 */
+	public static final int MAX_PARAMETERS = 16;
+
+	/**
+	 * Maximum value of a parameter, larger values are clamped
+	 */
+	public static final int MAX_PARAMETER_VALUE = 65535;
+
+	/**
+	 * Maximum number of bytes of an operating system command passed on,
+	 * further bytes are dropped
+	 */
+	public static final int MAX_OSC_LENGTH = 1024;
+
+	/**
+	 * Maximum number of intermediate characters collected, further ones are
+	 * dropped
+	 */
+	private static final int MAX_INTERMEDIATES = 4;
+
+	// the states
+
+	private static final int GROUND = 0;
+
+	private static final int ESCAPE = 1;
+
+	private static final int ESCAPE_INTERMEDIATE = 2;
+
+	private static final int CSI_ENTRY = 3;
+
+	private static final int CSI_PARAM = 4;
+
+	private static final int CSI_INTERMEDIATE = 5;
+
+	private static final int CSI_IGNORE = 6;
+
+	private static final int DCS_ENTRY = 7;
+
+	private static final int DCS_PARAM = 8;
+
+	private static final int DCS_INTERMEDIATE = 9;
+
+	private static final int DCS_PASSTHROUGH = 10;
+
+	private static final int DCS_IGNORE = 11;
+
+	private static final int OSC_STRING = 12;
+
+	private static final int SOS_PM_APC_STRING = 13;
+
+	private static final int STATES = 14;
+
+	// the actions
+
+	private static final int NONE = 0;
+
+	private static final int PRINT = 1;
+
+	private static final int EXECUTE = 2;
+
+	private static final int COLLECT = 3;
+
+	private static final int PARAM = 4;
+
+	private static final int ESC_DISPATCH = 5;
+
+	private static final int CSI_DISPATCH = 6;
+
+	private static final int PUT = 7;
+
+	private static final int OSC_PUT = 8;
+
+	/**
+	 * The escape character
+	 */
+	private static final int ESC = 0x1B;
+
+	/**
+	 * The transitions, indexed by the state times 256 plus the byte: the
+	 * action in the high nibble and the next state in the low nibble
+	 */
+	private static final byte[] TRANSITIONS = new byte[STATES * 256];
+
+	static {
+		for (int state = 0; state < STATES; state++) {
+			// by default bytes are ignored
+			on(state, 0x00, 0xFF, NONE, state);
+
+			// C0 controls
+			int control = EXECUTE;
+			if (state >= DCS_ENTRY) {
+				control = state == DCS_PASSTHROUGH ? PUT : NONE;
+			}
+
+			on(state, 0x00, 0x17, control, state);
+			on(state, 0x19, 0x19, control, state);
+			on(state, 0x1C, 0x1F, control, state);
+
+			// anywhere
+			on(state, 0x18, 0x18, EXECUTE, GROUND);
+			on(state, 0x1A, 0x1A, EXECUTE, GROUND);
+			on(state, ESC, ESC, NONE, ESCAPE);
+		}
+
+		on(GROUND, 0x20, 0xFF, PRINT, GROUND);
+		on(GROUND, 0x7F, 0x7F, NONE, GROUND);
+
+		on(ESCAPE, 0x20, 0x2F, COLLECT, ESCAPE_INTERMEDIATE);
+		on(ESCAPE, 0x30, 0x7E, ESC_DISPATCH, GROUND);
+		on(ESCAPE, 'P', 'P', NONE, DCS_ENTRY);
+		on(ESCAPE, 'X', 'X', NONE, SOS_PM_APC_STRING);
+		on(ESCAPE, '[', '[', NONE, CSI_ENTRY);
+		on(ESCAPE, ']', ']', NONE, OSC_STRING);
+		on(ESCAPE, '^', '_', NONE, SOS_PM_APC_STRING);
+
+		on(ESCAPE_INTERMEDIATE, 0x20, 0x2F, COLLECT, ESCAPE_INTERMEDIATE);
+		on(ESCAPE_INTERMEDIATE, 0x30, 0x7E, ESC_DISPATCH, GROUND);
+
+		on(CSI_ENTRY, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+		on(CSI_ENTRY, 0x30, 0x39, PARAM, CSI_PARAM);
+		on(CSI_ENTRY, ':', ':', NONE, CSI_IGNORE);
+		on(CSI_ENTRY, ';', ';', PARAM, CSI_PARAM);
+		on(CSI_ENTRY, 0x3C, 0x3F, COLLECT, CSI_PARAM);
+		on(CSI_ENTRY, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+		on(CSI_PARAM, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+		on(CSI_PARAM, 0x30, 0x39, PARAM, CSI_PARAM);
+		on(CSI_PARAM, ':', ':', NONE, CSI_IGNORE);
+		on(CSI_PARAM, ';', ';', PARAM, CSI_PARAM);
+		on(CSI_PARAM, 0x3C, 0x3F, NONE, CSI_IGNORE);
+		on(CSI_PARAM, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+		on(CSI_INTERMEDIATE, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+		on(CSI_INTERMEDIATE, 0x30, 0x3F, NONE, CSI_IGNORE);
+		on(CSI_INTERMEDIATE, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+		on(CSI_IGNORE, 0x40, 0x7E, NONE, GROUND);
+
+		on(DCS_ENTRY, 0x20, 0x2F, COLLECT, DCS_INTERMEDIATE);
+		on(DCS_ENTRY, 0x30, 0x39, PARAM, DCS_PARAM);
+		on(DCS_ENTRY, ':', ':', NONE, DCS_IGNORE);
+		on(DCS_ENTRY, ';', ';', PARAM, DCS_PARAM);
+		on(DCS_ENTRY, 0x3C, 0x3F, COLLECT, DCS_PARAM);
+		on(DCS_ENTRY, 0x40, 0x7E, NONE, DCS_PASSTHROUGH);
+
+		on(DCS_PARAM, 0x20, 0x2F, COLLECT, DCS_INTERMEDIATE);
+		on(DCS_PARAM, 0x30, 0x39, PARAM, DCS_PARAM);
+		on(DCS_PARAM, ':', ':', NONE, DCS_IGNORE);
+		on(DCS_PARAM, ';', ';', PARAM, DCS_PARAM);
+		on(DCS_PARAM, 0x3C, 0x3F, NONE, DCS_IGNORE);
+		on(DCS_PARAM, 0x40, 0x7E, NONE, DCS_PASSTHROUGH);
+
+		on(DCS_INTERMEDIATE, 0x20, 0x2F, COLLECT, DCS_INTERMEDIATE);
+		on(DCS_INTERMEDIATE, 0x30, 0x3F, NONE, DCS_IGNORE);
+		on(DCS_INTERMEDIATE, 0x40, 0x7E, NONE, DCS_PASSTHROUGH);
+
+		on(DCS_PASSTHROUGH, 0x20, 0x7E, PUT, DCS_PASSTHROUGH);
+		on(DCS_PASSTHROUGH, 0x80, 0xFF, PUT, DCS_PASSTHROUGH);
+
+		// strings may also be ended by BEL, as xterm does
+		on(OSC_STRING, 0x07, 0x07, NONE, GROUND);
+		on(OSC_STRING, 0x20, 0x7F, OSC_PUT, OSC_STRING);
+		on(OSC_STRING, 0x80, 0xFF, OSC_PUT, OSC_STRING);
+	}
+
+	/**
+	 * Set the transitions of the given state for a range of bytes.
+	 * 
+	 * @param state
+	 * @param from
+	 *            the first byte
+	 * @param to
+	 *            the last byte
+	 * @param action
+	 * @param next
+	 *            the next state
+	 */
+	private static void on(int state, int from, int to, int action, int next) {
+		for (int c = from; c <= to; c++) {
+			TRANSITIONS[state << 8 | c] = (byte) (action << 4 | next);
+		}
+	}
+
+	/**
+	 * The handler to pass recognized input on to
+	 */
+	private final AnsiHandler handler;
+
+	/**
+	 * The current state
+	 */
+	private int state = GROUND;
+
+	/**
+	 * The parameters of the current sequence
+	 */
+	private final int[] params = new int[MAX_PARAMETERS];
+
+	/**
+	 * The number of parameters of the current sequence
+	 */
+	private int paramCount;
+
+	/**
+	 * Whether the current sequence has more parameters than are kept
+	 */
+	private boolean paramOverflow;
+
+	/**
+	 * The packed intermediate characters of the current sequence
+	 */
+	private int intermediates;
+
+	/**
+	 * The number of intermediate characters collected
+	 */
+	private int intermediateCount;
+
+	/**
+	 * The bytes of the current operating system command
+	 */
+	private final byte[] oscData = new byte[MAX_OSC_LENGTH];
+
+	/**
+	 * The number of bytes in {@link #oscData}
+	 */
+	private int oscLength;
+
+	/**
+	 * Reusable array to pass a single byte of text or data on with
+	 */
+	private final byte[] singleByte = new byte[1];
+
+	/**
+	 * Create a new parser.
+	 * 
+	 * @param handler
+	 *            the {@link AnsiHandler} to pass recognized input on to
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the handler is <code>null</code>
+	 */
+	public AnsiParser(AnsiHandler handler) {
+		if (handler == null) {
+			throw new IllegalArgumentException("Handler cannot be null");
+		}
+
+		this.handler = handler;
+	}
+
+	/**
+	 * Parse the given bytes. Runs of text are passed on in one call.
+	 * 
+	 * @param bytes
+	 *            the bytes to parse
+	 * 
+	 * @param offset
+	 *            the index of the first byte
+	 * 
+	 * @param length
+	 *            the number of bytes
+	 */
+	public void parse(byte[] bytes, int offset, int length) {
+		int index = offset;
+		int end = offset + length;
+
+		while (index < end) {
+			if (this.state == GROUND) {
+				// text is anything but a C0 control or DEL
+				int start = index;
+				while (index < end && ((bytes[index] >= 0x20 && bytes[index] < 0x7F) || bytes[index] < 0)) {
+					index++;
+				}
+
+				if (index > start) {
+					this.handler.print(bytes, start, index - start);
+				}
+			} else if (this.state == DCS_PASSTHROUGH) {
+				int start = index;
+				while (index < end && TRANSITIONS[DCS_PASSTHROUGH << 8 | (bytes[index] & 0xFF)] == (byte) (PUT << 4 | DCS_PASSTHROUGH)) {
+					index++;
+				}
+
+				if (index > start) {
+					this.handler.put(bytes, start, index - start);
+				}
+			}
+
+			if (index < end) {
+				advance(bytes[index++] & 0xFF);
+			}
+		}
+	}
+
+	/**
+	 * Parse the given characters, as decoded from the output of a program.
+	 * Runs of text are passed on in one call. Characters outside ASCII that
+	 * are part of a sequence or a string are taken as their UTF-8 bytes.
+	 * 
+	 * @param chars
+	 *            the characters to parse
+	 * 
+	 * @param offset
+	 *            the index of the first character
+	 * 
+	 * @param length
+	 *            the number of characters
+	 */
+	public void parse(char[] chars, int offset, int length) {
+		int index = offset;
+		int end = offset + length;
+
+		while (index < end) {
+			if (this.state == GROUND) {
+				int start = index;
+				while (index < end && chars[index] >= 0x20 && chars[index] != 0x7F) {
+					index++;
+				}
+
+				if (index > start) {
+					this.handler.print(chars, start, index - start);
+				}
+
+				if (index == end) {
+					return;
+				}
+			}
+
+			char c = chars[index++];
+			if (c < 0x80) {
+				advance(c);
+				continue;
+			}
+
+			// all bytes above ASCII take the same transition in every state
+			if (c < 0x800) {
+				advance(0xC0 | (c >> 6));
+				advance(0x80 | (c & 0x3F));
+			} else {
+				advance(0xE0 | (c >> 12));
+				advance(0x80 | ((c >> 6) & 0x3F));
+				advance(0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * Parse the given byte.
+	 * 
+	 * @param b
+	 *            the byte to parse, only the low eight bits are used
+	 */
+	public void parse(int b) {
+		advance(b & 0xFF);
+	}
+
+	/**
+	 * Return whether the parser is in the middle of a sequence or a string.
+	 * 
+	 * @return
+	 */
+	public boolean isInSequence() {
+		return this.state != GROUND;
+	}
+
+	/**
+	 * Drop any sequence in progress and go back to the ground state. A
+	 * device control string in progress is ended.
+	 * 
+	 */
+	public void reset() {
+		if (this.state == DCS_PASSTHROUGH) {
+			this.handler.unhook();
+		}
+
+		this.state = GROUND;
+		clear();
+	}
+
+	/**
+	 * Take the transition for the given byte from the current state.
+	 * 
+	 * @param c
+	 *            the byte
+	 */
+	private void advance(int c) {
+		int transition = TRANSITIONS[this.state << 8 | c];
+		int action = (transition >> 4) & 0xF;
+		int next = transition & 0xF;
+
+		if (next == this.state && c != ESC) {
+			act(action, c);
+			return;
+		}
+
+		// leaving the state
+		if (this.state == OSC_STRING) {
+			this.handler.oscDispatch(this.oscData, this.oscLength);
+		} else if (this.state == DCS_PASSTHROUGH) {
+			this.handler.unhook();
+		}
+
+		act(action, c);
+		this.state = next;
+
+		// entering the next state
+		switch (next) {
+			case ESCAPE:
+			case CSI_ENTRY:
+			case DCS_ENTRY:
+				clear();
+				break;
+
+			case OSC_STRING:
+				this.oscLength = 0;
+				break;
+
+			case DCS_PASSTHROUGH:
+				this.handler.hook(this.params, this.paramCount, this.intermediates, c);
+				break;
+		}
+	}
+
+	/**
+	 * Take the given action for the given byte.
+	 * 
+	 * @param action
+	 * @param c
+	 *            the byte
+	 */
+	private void act(int action, int c) {
+		switch (action) {
+			case NONE:
+				return;
+
+			case PRINT:
+				this.singleByte[0] = (byte) c;
+				this.handler.print(this.singleByte, 0, 1);
+				return;
+
+			case EXECUTE:
+				this.handler.execute(c);
+				return;
+
+			case COLLECT:
+				if (this.intermediateCount < MAX_INTERMEDIATES) {
+					this.intermediates = this.intermediates << 8 | c;
+					this.intermediateCount++;
+				}
+				return;
+
+			case PARAM:
+				param(c);
+				return;
+
+			case ESC_DISPATCH:
+				this.handler.escDispatch(this.intermediates, c);
+				return;
+
+			case CSI_DISPATCH:
+				this.handler.csiDispatch(this.params, this.paramCount, this.intermediates, c);
+				return;
+
+			case PUT:
+				this.singleByte[0] = (byte) c;
+				this.handler.put(this.singleByte, 0, 1);
+				return;
+
+			case OSC_PUT:
+				if (this.oscLength < MAX_OSC_LENGTH) {
+					this.oscData[this.oscLength++] = (byte) c;
+				}
+				return;
+		}
+	}
+
+	/**
+	 * Add the given digit or separator to the parameters.
+	 * 
+	 * @param c
+	 *            the digit, or <code>;</code>
+	 */
+	private void param(int c) {
+		if (this.paramCount == 0) {
+			this.paramCount = 1;
+		}
+
+		if (c == ';') {
+			if (this.paramCount < MAX_PARAMETERS) {
+				this.params[this.paramCount++] = 0;
+			} else {
+				this.paramOverflow = true;
+			}
+
+			return;
+		}
+
+		if (this.paramOverflow) {
+			return;
+		}
+
+		int value = this.params[this.paramCount - 1] * 10 + (c - '0');
+		this.params[this.paramCount - 1] = Math.min(value, MAX_PARAMETER_VALUE);
+	}
+
+	/**
+	 * Forget the parameters and intermediates of the previous sequence.
+	 * 
+	 */
+	private void clear() {
+		this.params[0] = 0;
+		this.paramCount = 0;
+		this.paramOverflow = false;
+		this.intermediates = 0;
+		this.intermediateCount = 0;
+	}
+
+}
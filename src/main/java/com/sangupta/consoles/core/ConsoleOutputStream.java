@@ -23,6 +23,14 @@ package com.sangupta.consoles.core;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sangupta.consoles.IConsole;
 
@@ -31,20 +39,383 @@ import com.sangupta.consoles.IConsole;
  * implementation. This is used to switch from the current <code>System.out</code> stream
  * to one that is used by the {@link IConsole} implementations.
  * 
+ * Bytes are decoded to characters using a charset, the platform default unless specified,
+ * and the characters decoded by one call are handed to the console in a single
+ * {@link IConsole#print(char[], int, int)} call. A multi-byte sequence split across calls
+ * is decoded once all of its bytes have been received.
+ * 
+ * By default characters are written to the console as soon as they are decoded. When line
+ * assembly is enabled using {@link #setLineAssembly(int, long)}, each thread collects its
+ * output in a line of its own, and only complete lines are written to the console, each
+ * in a single call. Lines written by different threads thus never interleave. A partial
+ * line is written when it reaches the maximum line length, when the thread flushes the
+ * stream, or when the thread has not written anything for the idle interval.
+ * 
  * @author sangupta
  *
  */
 public class ConsoleOutputStream extends OutputStream {
 	
+	/**
+	 * Size of the buffer in which decoded characters are collected
+	 */
+	private static final int DECODER_BUFFER_SIZE = 1024;
+	
 	private final IConsole console;
+	
+	/**
+	 * The charset used to decode bytes
+	 */
+	private final Charset charset;
+	
+	/**
+	 * The decoder used when line assembly is disabled, writing straight to the console
+	 */
+	private final WriterOutputStream decoder;
+	
+	/**
+	 * Reusable array to decode a single byte with {@link #decoder}
+	 */
+	private final byte[] singleByte = new byte[1];
+	
+	/**
+	 * The line of the current thread, when line assembly is enabled
+	 */
+	private final ThreadLocal<LineAssembler> assemblers = new ThreadLocal<LineAssembler>();
+	
+	/**
+	 * All the lines being assembled, so that they can be flushed when idle
+	 */
+	private final Set<LineAssembler> allAssemblers = Collections.newSetFromMap(new ConcurrentHashMap<LineAssembler, Boolean>());
+	
+	/**
+	 * Maximum number of characters in an assembled line, <code>0</code> when line assembly
+	 * is disabled
+	 */
+	private volatile int maxLineLength;
+	
+	/**
+	 * Incremented by the idle flusher on every run, lines not written to during a full run
+	 * are considered idle
+	 */
+	private volatile long idleTick;
+	
+	/**
+	 * The timer that flushes idle lines, or <code>null</code>
+	 */
+	private Timer idleFlusher;
 
 	public ConsoleOutputStream(IConsole console) {
+		this(console, Charset.defaultCharset());
+	}
+	
+	public ConsoleOutputStream(IConsole console, Charset charset) {
+		if(charset == null) {
+			throw new IllegalArgumentException("Charset cannot be null");
+		}
+		
 		this.console = console;
+		this.charset = charset;
+		this.decoder = new WriterOutputStream(new ConsoleWriter(console), charset, DECODER_BUFFER_SIZE, true);
 	}
 
 	@Override
 	public void write(int b) throws IOException {
-		this.console.print((char) b);
+		if(this.maxLineLength > 0) {
+			getAssembler().decode(b);
+			return;
+		}
+		
+		synchronized (this.decoder) {
+			this.singleByte[0] = (byte) b;
+			this.decoder.write(this.singleByte, 0, 1);
+		}
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		
+		if(len == 0) {
+			return;
+		}
+		
+		if(this.maxLineLength > 0) {
+			getAssembler().decode(b, off, len);
+			return;
+		}
+		
+		synchronized (this.decoder) {
+			this.decoder.write(b, off, len);
+		}
+	}
+	
+	/**
+	 * Return the charset used to decode the bytes written.
+	 * 
+	 * @return
+	 */
+	public Charset getCharset() {
+		return this.charset;
+	}
+	
+	/**
+	 * Commit the line of the current thread, if line assembly is enabled.
+	 * 
+	 */
+	@Override
+	public void flush() throws IOException {
+		LineAssembler assembler = this.assemblers.get();
+		if(assembler != null) {
+			assembler.commit();
+		}
+	}
+	
+	/**
+	 * Commit the lines of all threads.
+	 * 
+	 */
+	@Override
+	public void close() throws IOException {
+		commitAll();
+	}
+	
+	/**
+	 * Enable or disable line assembly.
+	 * 
+	 * @param maxLineLength
+	 *            the maximum number of characters assembled before the line is written,
+	 *            <code>0</code> to disable line assembly
+	 * 
+	 * @param idleFlushMillis
+	 *            the interval in milliseconds after which a partial line that has not been
+	 *            written to is written to the console, <code>0</code> to never write partial
+	 *            lines when idle
+	 */
+	public synchronized void setLineAssembly(int maxLineLength, long idleFlushMillis) {
+		if(maxLineLength < 0) {
+			throw new IllegalArgumentException("Maximum line length cannot be negative");
+		}
+		
+		if(idleFlushMillis < 0) {
+			throw new IllegalArgumentException("Idle flush interval cannot be negative");
+		}
+		
+		if(this.idleFlusher != null) {
+			this.idleFlusher.cancel();
+			this.idleFlusher = null;
+		}
+		
+		// switched first so that writes from now on follow the new setting,
+		// then the lines assembled so far are written out as they are
+		this.maxLineLength = maxLineLength;
+		commitAll();
+		
+		if(maxLineLength > 0 && idleFlushMillis > 0) {
+			this.idleFlusher = new Timer("consoles-line-flusher", true);
+			this.idleFlusher.schedule(new TimerTask() {
+				
+				@Override
+				public void run() {
+					flushIdle();
+				}
+				
+			}, idleFlushMillis, idleFlushMillis);
+		}
+	}
+	
+	/**
+	 * Return the maximum length of assembled lines.
+	 * 
+	 * @return the maximum length, <code>0</code> if line assembly is disabled
+	 */
+	public int getMaxLineLength() {
+		return this.maxLineLength;
+	}
+	
+	/**
+	 * Return the line of the current thread, creating it if needed.
+	 * 
+	 * @return
+	 */
+	private LineAssembler getAssembler() {
+		LineAssembler assembler = this.assemblers.get();
+		if(assembler == null) {
+			// the idle flusher may be disabled, so lines are also forgotten here
+			removeTerminated();
+			
+			assembler = new LineAssembler(Thread.currentThread());
+			this.assemblers.set(assembler);
+			this.allAssemblers.add(assembler);
+		}
+		
+		return assembler;
+	}
+	
+	/**
+	 * Commit the lines of all threads and forget them.
+	 * 
+	 */
+	private void commitAll() {
+		Iterator<LineAssembler> iterator = this.allAssemblers.iterator();
+		while(iterator.hasNext()) {
+			iterator.next().commit();
+		}
+	}
+	
+	/**
+	 * Commit the lines that have not been written to since the last run, and forget the
+	 * lines of threads that have terminated.
+	 * 
+	 */
+	private void flushIdle() {
+		long tick = this.idleTick++;
+		removeTerminated();
+		
+		Iterator<LineAssembler> iterator = this.allAssemblers.iterator();
+		while(iterator.hasNext()) {
+			iterator.next().commitIfIdle(tick);
+		}
+	}
+	
+	/**
+	 * Commit and forget the lines of threads that have terminated.
+	 * 
+	 */
+	private void removeTerminated() {
+		Iterator<LineAssembler> iterator = this.allAssemblers.iterator();
+		while(iterator.hasNext()) {
+			LineAssembler assembler = iterator.next();
+			if(!assembler.owner.isAlive()) {
+				assembler.commit();
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * The line being assembled by one thread. Only the owning thread appends to it, the
+	 * lock is taken by other threads only to flush it.
+	 * 
+	 */
+	private final class LineAssembler extends Writer {
+		
+		/**
+		 * The thread that writes to this line
+		 */
+		final Thread owner;
+		
+		/**
+		 * The decoder of the owning thread, that writes the decoded characters to this line
+		 */
+		private final WriterOutputStream decoder;
+		
+		/**
+		 * Reusable array to decode a single byte
+		 */
+		private final byte[] singleByte = new byte[1];
+		
+		/**
+		 * The characters of the line
+		 */
+		private char[] line = new char[0];
+		
+		/**
+		 * Number of characters in the line
+		 */
+		private int length;
+		
+		/**
+		 * The value of {@link ConsoleOutputStream#idleTick} when last written to
+		 */
+		private long lastTick;
+		
+		LineAssembler(Thread owner) {
+			this.owner = owner;
+			this.decoder = new WriterOutputStream(this, charset, DECODER_BUFFER_SIZE, true);
+		}
+		
+		void decode(int b) throws IOException {
+			this.singleByte[0] = (byte) b;
+			this.decoder.write(this.singleByte, 0, 1);
+		}
+		
+		void decode(byte[] b, int off, int len) throws IOException {
+			this.decoder.write(b, off, len);
+		}
+		
+		/**
+		 * Append decoded characters to the line, committing it at every new line and
+		 * whenever it is full.
+		 * 
+		 */
+		@Override
+		public synchronized void write(char[] chars, int offset, int count) {
+			int maxLineLength = Math.max(ConsoleOutputStream.this.maxLineLength, 1);
+			if(this.line.length < maxLineLength) {
+				char[] line = new char[maxLineLength];
+				System.arraycopy(this.line, 0, line, 0, Math.min(this.length, maxLineLength));
+				this.line = line;
+			}
+			
+			this.lastTick = ConsoleOutputStream.this.idleTick;
+			
+			int end = offset + count;
+			while(offset < end) {
+				// copy up to and including the next new line, as much as fits
+				int limit = Math.min(end, offset + Math.max(maxLineLength - this.length, 1));
+				int index = offset;
+				while(index < limit && chars[index] != '\n') {
+					index++;
+				}
+				
+				boolean newLine = index < limit;
+				if(newLine) {
+					index++;
+				}
+				
+				if(this.length + index - offset > this.line.length) {
+					commit();
+				}
+				
+				System.arraycopy(chars, offset, this.line, this.length, index - offset);
+				this.length += index - offset;
+				offset = index;
+				
+				if(newLine || this.length >= maxLineLength) {
+					commit();
+				}
+			}
+		}
+		
+		@Override
+		public void flush() {
+			// lines are committed explicitly
+		}
+		
+		@Override
+		public void close() {
+			commit();
+		}
+		
+		synchronized void commit() {
+			if(this.length == 0) {
+				return;
+			}
+			
+			int length = this.length;
+			this.length = 0;
+			console.print(this.line, 0, length);
+		}
+		
+		synchronized void commitIfIdle(long tick) {
+			if(this.lastTick < tick) {
+				commit();
+			}
+		}
+		
 	}
 
-}
\ No newline at end of file
+}
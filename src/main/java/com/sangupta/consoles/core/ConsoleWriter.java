@@ -52,9 +52,14 @@ public class ConsoleWriter extends Writer {
 		this.console.print(cbuf, off, len);
 	}
 
+	/**
+	 * Nothing is held here, characters go to the console as they are
+	 * written. Flushing the console from here would recurse, as consoles
+	 * flush their own writer.
+	 */
 	@Override
 	public void flush() throws IOException {
-		this.console.flush();
+		// nothing to flush
 	}
 
 	@Override
@@ -0,0 +1,363 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.core;
+
+/**
+ * The graphic rendition set by <code>SGR</code> control sequences: the
+ * foreground and background colors and the style of the text that follows.
+ * Colors are kept as RGB values, so applying a sequence does not allocate.
+ * The 16 standard colors, the 256 color palette and true colors are
+ * supported, along with bold, dim, italic, underline and reverse.
+ * 
+ * @author sangupta
+ *
+ */
+public final class SgrState {
+
+	/**
+	 * The color value standing for the default color of the console
+	 */
+	public static final int DEFAULT_COLOR = -1;
+
+	/**
+	 * Style bit to render the text in bold
+	 */
+	public static final int STYLE_BOLD = 0x1;
+
+	/**
+	 * Style bit to render the text dimmed
+	 */
+	public static final int STYLE_DIM = 0x2;
+
+	/**
+	 * Style bit to render the text in italics
+	 */
+	public static final int STYLE_ITALIC = 0x4;
+
+	/**
+	 * Style bit to render the text underlined
+	 */
+	public static final int STYLE_UNDERLINE = 0x8;
+
+	/**
+	 * Style bit to render the text with foreground and background swapped
+	 */
+	public static final int STYLE_REVERSE = 0x10;
+
+	private static final int DARK_LEVEL = 180;
+
+	private static final int BRIGHT_LEVEL = 255;
+
+	/**
+	 * The RGB values of the 256 color palette: the 16 standard colors, a
+	 * 6x6x6 color cube and 24 shades of gray
+	 */
+	private static final int[] PALETTE = new int[256];
+
+	static {
+		int[] standard = {
+			rgb(0, 0, 0), rgb(DARK_LEVEL, 0, 0), rgb(0, DARK_LEVEL, 0), rgb(DARK_LEVEL, DARK_LEVEL, 0),
+			rgb(0, 0, DARK_LEVEL), rgb(DARK_LEVEL, 0, DARK_LEVEL), rgb(0, DARK_LEVEL, DARK_LEVEL), rgb(DARK_LEVEL, DARK_LEVEL, DARK_LEVEL),
+			rgb(96, 96, 96), rgb(BRIGHT_LEVEL, 0, 0), rgb(0, BRIGHT_LEVEL, 0), rgb(BRIGHT_LEVEL, BRIGHT_LEVEL, 0),
+			rgb(0, 0, BRIGHT_LEVEL), rgb(BRIGHT_LEVEL, 0, BRIGHT_LEVEL), rgb(0, BRIGHT_LEVEL, BRIGHT_LEVEL), rgb(BRIGHT_LEVEL, BRIGHT_LEVEL, BRIGHT_LEVEL)
+		};
+		System.arraycopy(standard, 0, PALETTE, 0, standard.length);
+
+		int[] levels = { 0, 95, 135, 175, 215, 255 };
+		for (int index = 0; index < 216; index++) {
+			PALETTE[16 + index] = rgb(levels[index / 36], levels[(index / 6) % 6], levels[index % 6]);
+		}
+
+		for (int index = 0; index < 24; index++) {
+			int level = 8 + index * 10;
+			PALETTE[232 + index] = rgb(level, level, level);
+		}
+	}
+
+	/**
+	 * The foreground as RGB, or {@link #DEFAULT_COLOR}
+	 */
+	private int foreground = DEFAULT_COLOR;
+
+	/**
+	 * The background as RGB, or {@link #DEFAULT_COLOR}
+	 */
+	private int background = DEFAULT_COLOR;
+
+	/**
+	 * The standard color the foreground was set to, so that bold text can be
+	 * shown in the bright variant, or <code>-1</code>
+	 */
+	private int foregroundIndex = -1;
+
+	/**
+	 * The <code>STYLE_</code> bits set
+	 */
+	private int style;
+
+	/**
+	 * Apply the parameters of an <code>SGR</code> control sequence. No
+	 * parameters at all reset the rendition.
+	 * 
+	 * @param params
+	 *            the parameters
+	 * 
+	 * @param paramCount
+	 *            the number of parameters
+	 * 
+	 * @return <code>true</code> if the rendition changed
+	 */
+	public boolean apply(int[] params, int paramCount) {
+		int foreground = this.foreground;
+		int background = this.background;
+		int style = this.style;
+
+		if (paramCount == 0) {
+			reset();
+		}
+
+		for (int index = 0; index < paramCount; index++) {
+			int param = params[index];
+			switch (param) {
+				case 0:
+					reset();
+					break;
+
+				case 1:
+					this.style |= STYLE_BOLD;
+					break;
+
+				case 2:
+					this.style |= STYLE_DIM;
+					break;
+
+				case 3:
+					this.style |= STYLE_ITALIC;
+					break;
+
+				case 4:
+					this.style |= STYLE_UNDERLINE;
+					break;
+
+				case 7:
+					this.style |= STYLE_REVERSE;
+					break;
+
+				case 22:
+					this.style &= ~(STYLE_BOLD | STYLE_DIM);
+					break;
+
+				case 23:
+					this.style &= ~STYLE_ITALIC;
+					break;
+
+				case 24:
+					this.style &= ~STYLE_UNDERLINE;
+					break;
+
+				case 27:
+					this.style &= ~STYLE_REVERSE;
+					break;
+
+				case 38:
+				case 48:
+					// extended colors take their own parameters
+					int color = DEFAULT_COLOR;
+					if (index + 2 < paramCount && params[index + 1] == 5) {
+						color = PALETTE[params[index + 2] & 0xFF];
+						index += 2;
+					} else if (index + 4 < paramCount && params[index + 1] == 2) {
+						color = rgb(params[index + 2], params[index + 3], params[index + 4]);
+						index += 4;
+					} else {
+						// malformed, the rest cannot be interpreted
+						index = paramCount;
+						break;
+					}
+
+					if (param == 38) {
+						this.foreground = color;
+						this.foregroundIndex = -1;
+					} else {
+						this.background = color;
+					}
+					break;
+
+				case 39:
+					this.foreground = DEFAULT_COLOR;
+					this.foregroundIndex = -1;
+					break;
+
+				case 49:
+					this.background = DEFAULT_COLOR;
+					break;
+
+				default:
+					if (param >= 30 && param <= 37) {
+						this.foreground = PALETTE[param - 30];
+						this.foregroundIndex = param - 30;
+					} else if (param >= 40 && param <= 47) {
+						this.background = PALETTE[param - 40];
+					} else if (param >= 90 && param <= 97) {
+						this.foreground = PALETTE[param - 90 + 8];
+						this.foregroundIndex = -1;
+					} else if (param >= 100 && param <= 107) {
+						this.background = PALETTE[param - 100 + 8];
+					}
+					break;
+			}
+		}
+
+		return foreground != this.foreground || background != this.background || style != this.style;
+	}
+
+	/**
+	 * Go back to the default colors and no style.
+	 * 
+	 */
+	public void reset() {
+		this.foreground = DEFAULT_COLOR;
+		this.background = DEFAULT_COLOR;
+		this.foregroundIndex = -1;
+		this.style = 0;
+	}
+
+	/**
+	 * Return whether the rendition is the default one, so that text is shown
+	 * in the colors of the console.
+	 * 
+	 * @return
+	 */
+	public boolean isDefault() {
+		return this.foreground == DEFAULT_COLOR && this.background == DEFAULT_COLOR && this.style == 0;
+	}
+
+	/**
+	 * Return the RGB value text is to be drawn with. Bold text in one of the
+	 * standard colors is drawn in its bright variant, dim text is darkened
+	 * and reversed text is drawn in the background color.
+	 * 
+	 * @param defaultForeground
+	 *            the RGB value of the default foreground
+	 * 
+	 * @param defaultBackground
+	 *            the RGB value of the default background
+	 * 
+	 * @return
+	 */
+	public int getForeground(int defaultForeground, int defaultBackground) {
+		if ((this.style & STYLE_REVERSE) != 0) {
+			return baseBackground(defaultBackground);
+		}
+
+		return baseForeground(defaultForeground);
+	}
+
+	/**
+	 * Return the RGB value the cells are to be filled with, which is the
+	 * foreground color for reversed text.
+	 * 
+	 * @param defaultForeground
+	 *            the RGB value of the default foreground
+	 * 
+	 * @param defaultBackground
+	 *            the RGB value of the default background
+	 * 
+	 * @return
+	 */
+	public int getBackground(int defaultForeground, int defaultBackground) {
+		if ((this.style & STYLE_REVERSE) != 0) {
+			return baseForeground(defaultForeground);
+		}
+
+		return baseBackground(defaultBackground);
+	}
+
+	/**
+	 * Return the style of the font text is drawn with, the bold, italic and
+	 * underline bits of the <code>STYLE_</code> bits. Dim and reverse are
+	 * applied to the colors instead.
+	 * 
+	 * @return
+	 */
+	public int getFontStyle() {
+		return this.style & (STYLE_BOLD | STYLE_ITALIC | STYLE_UNDERLINE);
+	}
+
+	/**
+	 * Return the <code>STYLE_</code> bits that are set.
+	 * 
+	 * @return
+	 */
+	public int getStyle() {
+		return this.style;
+	}
+
+	/**
+	 * Return the RGB value of the given color of the 256 color palette.
+	 * 
+	 * @param index
+	 *            the index of the color, from <code>0</code> to
+	 *            <code>255</code>
+	 * 
+	 * @return
+	 */
+	public static int paletteColor(int index) {
+		return PALETTE[index & 0xFF];
+	}
+
+	private int baseForeground(int defaultForeground) {
+		int color;
+		if (this.foregroundIndex >= 0 && (this.style & STYLE_BOLD) != 0) {
+			color = PALETTE[this.foregroundIndex + 8];
+		} else if (this.foreground == DEFAULT_COLOR) {
+			color = defaultForeground;
+		} else {
+			color = this.foreground;
+		}
+
+		if ((this.style & STYLE_DIM) != 0) {
+			color = rgb(((color >> 16) & 0xFF) * 2 / 3, ((color >> 8) & 0xFF) * 2 / 3, (color & 0xFF) * 2 / 3);
+		}
+
+		return color;
+	}
+
+	private int baseBackground(int defaultBackground) {
+		return this.background == DEFAULT_COLOR ? defaultBackground : this.background;
+	}
+
+	/**
+	 * Pack the given components, clamped, into an RGB value. No alpha is set,
+	 * so that no color is mistaken for {@link #DEFAULT_COLOR}.
+	 * 
+	 * @param red
+	 * @param green
+	 * @param blue
+	 * @return
+	 */
+	private static int rgb(int red, int green, int blue) {
+		return (Math.min(red, 255) << 16) | (Math.min(green, 255) << 8) | Math.min(blue, 255);
+	}
+
+}
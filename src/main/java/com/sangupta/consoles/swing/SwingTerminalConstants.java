@@ -56,6 +56,17 @@ public interface SwingTerminalConstants {
 	 */
 	public static final int MAX_DEFAULT_ROWS = 1000;
 	
+	/**
+	 * Minimum number of most recent rows that a terminal keeps uncompressed,
+	 * older rows of the scrollback are stored in a compact form
+	 */
+	public static final int HOT_ROWS = 128;
+	
+	/**
+	 * Maximum number of rows that a terminal may keep in a disk based scrollback
+	 */
+	public static final int MAX_DISK_SCROLLBACK_ROWS = 16 * 1024 * 1024;
+	
 	/**
 	 * Default background color for a terminal
 	 */
@@ -75,6 +86,47 @@ public interface SwingTerminalConstants {
 	 * The delay in re-painting the screen
 	 */
 	public static final int REPAINT_DELAY = 15;
+	
+	/**
+	 * Maximum number of frames per second at which the screen is brought up
+	 * to date
+	 */
+	public static final int MAX_FRAMES_PER_SECOND = 60;
+	
+	/**
+	 * Maximum number of separate regions repainted at a time, further damage
+	 * is merged into the last region
+	 */
+	public static final int MAX_DAMAGE_REGIONS = 8;
+	
+	/**
+	 * Number of rasterized glyphs that a terminal keeps for painting
+	 */
+	public static final int GLYPH_CACHE_SIZE = 2048;
+    
+	/**
+	 * Number of bytes that the images of rendered rows kept by a terminal
+	 * may take
+	 */
+	public static final long ROW_IMAGE_CACHE_BYTES = 32L * 1024 * 1024;
+    
+	/**
+	 * Minimum number of rows rendered by each tile when an offscreen render
+	 * is split across threads
+	 */
+	public static final int MIN_TILE_ROWS = 256;
+    
+	/**
+	 * Minimum number of rows painted by each strip when painting a terminal
+	 * is split across threads
+	 */
+	public static final int MIN_STRIP_ROWS = 16;
+    
+	/**
+	 * Maximum number of output chunks waiting to be applied to a terminal
+	 * when asynchronous output is enabled
+	 */
+	public static final int OUTPUT_QUEUE_CAPACITY = 1024;
     
 	/**
 	 * The delay in blinking the cursor
@@ -84,7 +136,7 @@ public interface SwingTerminalConstants {
 	/**
 	 * Default {@link TerminalCharacterAttribute}
 	 */
-	public static TerminalCharacterAttribute DEFAULT_TERMINAL_CHAR_ATTRIBUTES = new TerminalCharacterAttribute(DEFAULT_FOREGROUND_COLOR); 
+	public static final TerminalCharacterAttribute DEFAULT_TERMINAL_CHAR_ATTRIBUTES = new TerminalCharacterAttribute(DEFAULT_FOREGROUND_COLOR); 
 
 	/**
 	 * Default {@link Color} of the cursor
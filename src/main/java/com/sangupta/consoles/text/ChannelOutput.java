@@ -0,0 +1,350 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.text;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Buffered output to a {@link WritableByteChannel}, usually the standard
+ * output of the process. Characters are encoded into a reusable direct
+ * {@link ByteBuffer}, which is written to the channel only when it is full or
+ * when {@link #flush()} is called, so that large amounts of output take few
+ * system calls.
+ * 
+ * A single {@link Writer} and {@link OutputStream} view of the output is
+ * available, writing to the same buffer. All methods are thread-safe.
+ * 
+ * @author sangupta
+ *
+ */
+public class ChannelOutput {
+	
+	/**
+	 * Size of the buffer of encoded bytes
+	 */
+	private static final int BYTE_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Size of the buffer of characters waiting to be encoded
+	 */
+	private static final int CHAR_BUFFER_SIZE = 8 * 1024;
+	
+	/**
+	 * The channel to write to
+	 */
+	private final WritableByteChannel channel;
+	
+	/**
+	 * The encoder for the characters written
+	 */
+	private final CharsetEncoder encoder;
+	
+	/**
+	 * The encoded bytes waiting to be written to the channel
+	 */
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+	
+	/**
+	 * The characters waiting to be encoded, only holds characters between
+	 * calls when a surrogate pair is split across calls
+	 */
+	private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+	
+	/**
+	 * A stream that writes to the same destination, flushed before the
+	 * channel is written to so that the output stays in order, or
+	 * <code>null</code>
+	 */
+	private final PrintStream previous;
+	
+	/**
+	 * The shared {@link Writer} view
+	 */
+	private final Writer writer = new Writer(this) {
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			ChannelOutput.this.write(cbuf, off, len);
+		}
+		
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			ChannelOutput.this.write(str, off, len);
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			ChannelOutput.this.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			ChannelOutput.this.flush();
+		}
+		
+	};
+	
+	/**
+	 * The shared {@link OutputStream} view
+	 */
+	private final OutputStream outputStream = new OutputStream() {
+		
+		@Override
+		public void write(int b) throws IOException {
+			ChannelOutput.this.write((byte) b);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ChannelOutput.this.write(b, off, len);
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			ChannelOutput.this.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			ChannelOutput.this.flush();
+		}
+		
+	};
+	
+	/**
+	 * Create an output to the standard output of the process, using the
+	 * default charset. <code>System.out</code> is flushed before every write
+	 * to keep output written through it in order.
+	 * 
+	 */
+	public ChannelOutput() {
+		this(new FileOutputStream(FileDescriptor.out).getChannel(), Charset.defaultCharset(), System.out);
+	}
+	
+	/**
+	 * Create an output to the given channel.
+	 * 
+	 * @param channel
+	 *            the {@link WritableByteChannel} to write to
+	 * 
+	 * @param charset
+	 *            the {@link Charset} to encode characters with
+	 * 
+	 * @param previous
+	 *            a stream to flush before writing to the channel, or
+	 *            <code>null</code>
+	 */
+	public ChannelOutput(WritableByteChannel channel, Charset charset, PrintStream previous) {
+		if(channel == null) {
+			throw new IllegalArgumentException("Channel cannot be null");
+		}
+		
+		if(charset == null) {
+			throw new IllegalArgumentException("Charset cannot be null");
+		}
+		
+		this.channel = channel;
+		this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.previous = previous;
+	}
+	
+	/**
+	 * Write a single character.
+	 * 
+	 * @param c
+	 * @throws IOException
+	 *             if writing to the channel fails
+	 */
+	public synchronized void write(char c) throws IOException {
+		this.chars.put(c);
+		encode();
+	}
+	
+	/**
+	 * Write the given characters.
+	 * 
+	 * @param cbuf
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 *             if writing to the channel fails
+	 */
+	public synchronized void write(char[] cbuf, int off, int len) throws IOException {
+		while(len > 0) {
+			int count = Math.min(len, this.chars.remaining());
+			this.chars.put(cbuf, off, count);
+			encode();
+			
+			off += count;
+			len -= count;
+		}
+	}
+	
+	/**
+	 * Write the given portion of a string.
+	 * 
+	 * @param string
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 *             if writing to the channel fails
+	 */
+	public synchronized void write(String string, int off, int len) throws IOException {
+		while(len > 0) {
+			int count = Math.min(len, this.chars.remaining());
+			int position = this.chars.position();
+			string.getChars(off, off + count, this.chars.array(), this.chars.arrayOffset() + position);
+			this.chars.position(position + count);
+			encode();
+			
+			off += count;
+			len -= count;
+		}
+	}
+	
+	/**
+	 * Write a single byte, as is.
+	 * 
+	 * @param b
+	 * @throws IOException
+	 *             if writing to the channel fails
+	 */
+	public synchronized void write(byte b) throws IOException {
+		if(!this.bytes.hasRemaining()) {
+			drain();
+		}
+		
+		this.bytes.put(b);
+	}
+	
+	/**
+	 * Write the given bytes, as is.
+	 * 
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 *             if writing to the channel fails
+	 */
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0) {
+			if(!this.bytes.hasRemaining()) {
+				drain();
+			}
+			
+			int count = Math.min(len, this.bytes.remaining());
+			this.bytes.put(b, off, count);
+			
+			off += count;
+			len -= count;
+		}
+	}
+	
+	/**
+	 * Write all buffered output to the channel.
+	 * 
+	 * @throws IOException
+	 *             if writing to the channel fails
+	 */
+	public synchronized void flush() throws IOException {
+		drain();
+	}
+	
+	/**
+	 * Return the shared {@link Writer} view of this output.
+	 * 
+	 * @return
+	 */
+	public Writer getWriter() {
+		return this.writer;
+	}
+	
+	/**
+	 * Return the shared {@link OutputStream} view of this output. Bytes are
+	 * written as is, without any decoding.
+	 * 
+	 * @return
+	 */
+	public OutputStream getOutputStream() {
+		return this.outputStream;
+	}
+	
+	/**
+	 * Encode the pending characters into the byte buffer, writing the byte
+	 * buffer to the channel as often as it fills up.
+	 * 
+	 * @throws IOException
+	 *             if writing to the channel fails
+	 */
+	private void encode() throws IOException {
+		this.chars.flip();
+		
+		while(true) {
+			CoderResult result = this.encoder.encode(this.chars, this.bytes, false);
+			if(result.isOverflow()) {
+				drain();
+				continue;
+			}
+			
+			// underflow - all characters encoded except a trailing high surrogate
+			break;
+		}
+		
+		this.chars.compact();
+	}
+	
+	/**
+	 * Write the byte buffer to the channel.
+	 * 
+	 * @throws IOException
+	 *             if writing to the channel fails
+	 */
+	private void drain() throws IOException {
+		if(this.bytes.position() == 0) {
+			return;
+		}
+		
+		if(this.previous != null) {
+			this.previous.flush();
+		}
+		
+		this.bytes.flip();
+		while(this.bytes.hasRemaining()) {
+			this.channel.write(this.bytes);
+		}
+		
+		this.bytes.clear();
+	}
+
+}
@@ -22,13 +22,15 @@
 package com.sangupta.consoles.text;
 
 import java.io.BufferedReader;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.io.PrintStream;
 import java.io.Writer;
 
+import com.sangupta.consoles.ConsolesConstants;
 import com.sangupta.consoles.core.AbstractConsole;
 import com.sangupta.consoles.core.InputKey;
 import com.sangupta.consoles.core.KeyTrapHandler;
@@ -37,17 +39,86 @@ import com.sangupta.consoles.core.KeyTrapHandler;
  * A normal console implementation that works in the shell of the operating
  * system. This implementation uses <code>Jline</code> framework.
  * 
+ * Output is buffered in a {@link ChannelOutput} and written to the standard
+ * output in large chunks: when the buffer is full, on {@link #flush()}, before
+ * reading input and on shutdown. When the standard output is an interactive
+ * terminal, the output is also flushed after every print. Otherwise
+ * <code>System.out</code> is wrapped to flush the console output before each
+ * write, so that text printed both ways stays in order; output written to the
+ * same file through <code>System.err</code> may still come out of order.
+ * 
  * @author sangupta
  *
  */
 public class TextConsole extends AbstractConsole {
 	
 	private BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+	
+	/**
+	 * The buffered output to the standard output
+	 */
+	private final ChannelOutput output = new ChannelOutput();
+	
+	/**
+	 * Whether to flush after every print, as the output is read by a user
+	 */
+	private final boolean interactive = System.console() != null;
+	
+	/**
+	 * Flushes the buffered output when the VM exits, so that it is not lost
+	 */
+	private final Thread shutdownHook = new Thread(new Runnable() {
+		
+		@Override
+		public void run() {
+			try {
+				output.flush();
+			} catch (IOException e) {
+				// eat up
+			}
+		}
+		
+	}, "consoles-text-flush");
+	
+	/**
+	 * The standard output before this console wrapped it, or <code>null</code>
+	 */
+	private PrintStream plainOut;
+	
+	/**
+	 * The standard output that flushes this console before writing, or
+	 * <code>null</code> when not wrapped
+	 */
+	private PrintStream orderedOut;
 
 	/**
 	 * Constructor
 	 */
 	public TextConsole() {
+		Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+		
+		if(!this.interactive) {
+			// System.out writes straight to the same file, past what is
+			// still buffered here
+			this.plainOut = System.out;
+			this.orderedOut = new PrintStream(new FilterOutputStream(this.plainOut) {
+				
+				@Override
+				public void write(int b) throws IOException {
+					output.flush();
+					this.out.write(b);
+				}
+				
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					output.flush();
+					this.out.write(b, off, len);
+				}
+				
+			}, true);
+			
+			System.setOut(this.orderedOut);
+		}
 	}
 
 	@Override
@@ -60,13 +131,21 @@ public class TextConsole extends AbstractConsole {
 	 */
 	@Override
 	public void print(char ch) {
-		System.out.print(ch);
+		try {
+			this.output.write(ch);
+			printed();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write string to the console instance", e);
+		}
 	}
 	
 	@Override
 	public void print(char[] cbuf, int off, int len) {
-		for(int index = off; index < off + len; index++) {
-			System.out.print(cbuf[index]);
+		try {
+			this.output.write(cbuf, off, len);
+			printed();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write string to the console instance", e);
 		}
 	}
 
@@ -75,7 +154,16 @@ public class TextConsole extends AbstractConsole {
 	 */
 	@Override
 	public void print(String string) {
-		System.out.print(string);
+		if(string == null) {
+			string = "null";
+		}
+		
+		try {
+			this.output.write(string, 0, string.length());
+			printed();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write string to the console instance", e);
+		}
 	}
 
 	/**
@@ -83,7 +171,32 @@ public class TextConsole extends AbstractConsole {
 	 */
 	@Override
 	public void println(String string) {
-		System.out.println(string);
+		if(string == null) {
+			string = "null";
+		}
+		
+		try {
+			synchronized (this.output) {
+				this.output.write(string, 0, string.length());
+				this.output.write(ConsolesConstants.NEW_LINE, 0, ConsolesConstants.NEW_LINE.length());
+			}
+			
+			printed();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write string to the console instance", e);
+		}
+	}
+	
+	/**
+	 * Flush the output after a print if the user is watching it.
+	 * 
+	 * @throws IOException
+	 *             if flushing fails
+	 */
+	private void printed() throws IOException {
+		if(this.interactive) {
+			this.output.flush();
+		}
 	}
 	
 	/**
@@ -92,6 +205,7 @@ public class TextConsole extends AbstractConsole {
 	@Override
 	public char readChar() {
 		try {
+			flush();
 			return (char) System.in.read();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -104,6 +218,7 @@ public class TextConsole extends AbstractConsole {
 	@Override
 	public String readLine() {
 		try {
+			flush();
 			return reader.readLine();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -128,12 +243,26 @@ public class TextConsole extends AbstractConsole {
 
 	@Override
 	protected void shutdownConsole() {
-		// do nothing
+		try {
+			flush();
+		} catch (IOException e) {
+			// eat up
+		}
+		
+		try {
+			Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+		} catch (IllegalStateException e) {
+			// the VM is shutting down, and the hook runs anyway
+		}
+		
+		if(this.orderedOut != null && System.out == this.orderedOut) {
+			System.setOut(this.plainOut);
+		}
 	}
 
 	@Override
 	public Writer getWriter() {
-		return new PrintWriter(System.out);
+		return this.output.getWriter();
 	}
 
 	@Override
@@ -143,12 +272,12 @@ public class TextConsole extends AbstractConsole {
 
 	@Override
 	public OutputStream getOutputStream() {
-		return System.out;
+		return this.output.getOutputStream();
 	}
 
 	@Override
 	public void flush() throws IOException {
-		// do nothing
+		this.output.flush();
 	}
 
 	@Override
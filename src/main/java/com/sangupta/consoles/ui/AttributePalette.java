@@ -0,0 +1,290 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ui;
+
+import java.awt.Color;
+
+/**
+ * A per-console registry that interns every foreground, background and style
+ * combination into a single shared {@link TerminalCharacterAttribute} and
+ * hands out a small integer id for it. Cells only store the id, which fits in
+ * a <code>short</code>, and two cells can be compared for the same appearance
+ * by comparing their ids.
+ *
+ * Attributes are never removed from the palette, so an id remains valid for
+ * the lifetime of the console. Once the palette is full, combinations not
+ * held are given the id of the closest attribute held, so that output never
+ * fails for want of ids.
+ *
+ * @author sangupta
+ *
+ */
+public class AttributePalette {
+
+	/**
+	 * Maximum number of attributes that a palette can hold
+	 */
+	public static final int MAX_SIZE = CellBuffer.MAX_ATTRIBUTES;
+
+	/**
+	 * Initial capacity of the lookup table, must be a power of two
+	 */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Distance added between attributes of different styles, more than any
+	 * two colors can be apart
+	 */
+	private static final long STYLE_DISTANCE = 1L << 20;
+
+	/**
+	 * The interned attributes indexed by their id
+	 */
+	private volatile TerminalCharacterAttribute[] attributes = new TerminalCharacterAttribute[INITIAL_CAPACITY / 2];
+
+	/**
+	 * Number of attributes interned
+	 */
+	private int size;
+
+	/**
+	 * Open-addressing lookup table of packed attribute keys
+	 */
+	private long[] keys = new long[INITIAL_CAPACITY];
+
+	/**
+	 * The id plus one for every key in {@link #keys}, zero marks an empty slot
+	 */
+	private int[] ids = new int[INITIAL_CAPACITY];
+
+	/**
+	 * The last key looked up once the palette was full, and the id it was
+	 * given
+	 */
+	private long closestKey = -1;
+
+	private int closestId;
+
+	/**
+	 * Return the id for the given attribute, interning it if needed.
+	 *
+	 * @param attribute
+	 *            the {@link TerminalCharacterAttribute} to look up
+	 *
+	 * @return the id of the attribute, or of the closest attribute held if
+	 *         the palette is full
+	 */
+	public int intern(TerminalCharacterAttribute attribute) {
+		return intern(attribute.getForeground(), attribute.getBackground(), attribute.getStyle());
+	}
+
+	/**
+	 * Return the id for the given colors and style, interning them if needed.
+	 *
+	 * @param foreground
+	 *            the foreground {@link Color}
+	 *
+	 * @param background
+	 *            the background {@link Color}
+	 *
+	 * @param style
+	 *            the style bits as defined in {@link TerminalCharacterAttribute}
+	 *
+	 * @return the id of the attribute, or of the closest attribute held if
+	 *         the palette is full
+	 */
+	public int intern(Color foreground, Color background, int style) {
+		return intern(foreground.getRGB(), background.getRGB(), style);
+	}
+
+	/**
+	 * Return the id for the given RGB colors and style, interning them if
+	 * needed. No object is created when the combination is already present.
+	 *
+	 * @param foreground
+	 *            the foreground color as RGB
+	 *
+	 * @param background
+	 *            the background color as RGB
+	 *
+	 * @param style
+	 *            the style bits as defined in {@link TerminalCharacterAttribute}
+	 *
+	 * @return the id of the attribute, or of the closest attribute held if
+	 *         the palette is full
+	 */
+	public synchronized int intern(int foreground, int background, int style) {
+		long key = ((long) (foreground & 0xFFFFFF) << 40) | ((long) (background & 0xFFFFFF) << 16) | (style & 0xFFFF);
+
+		int mask = this.keys.length - 1;
+		int slot = hash(key) & mask;
+		while(this.ids[slot] != 0) {
+			if(this.keys[slot] == key) {
+				return this.ids[slot] - 1;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		// not found - add a new one
+		if(this.size >= MAX_SIZE) {
+			return closest(key);
+		}
+
+		int id = this.size++;
+		TerminalCharacterAttribute[] attributes = this.attributes;
+		if(id >= attributes.length) {
+			TerminalCharacterAttribute[] newAttributes = new TerminalCharacterAttribute[attributes.length * 2];
+			System.arraycopy(attributes, 0, newAttributes, 0, attributes.length);
+			attributes = newAttributes;
+		}
+
+		attributes[id] = new TerminalCharacterAttribute(new Color(foreground & 0xFFFFFF), new Color(background & 0xFFFFFF), style);
+		this.attributes = attributes; // publish
+
+		this.keys[slot] = key;
+		this.ids[slot] = id + 1;
+
+		// keep the load factor below a half
+		if(this.size * 2 > this.keys.length) {
+			rehash();
+		}
+
+		return id;
+	}
+
+	/**
+	 * Return the attribute for the given id.
+	 *
+	 * @param id
+	 *            the id as returned by one of the <code>intern</code> methods
+	 *
+	 * @return the {@link TerminalCharacterAttribute} for the id
+	 */
+	public TerminalCharacterAttribute get(int id) {
+		return this.attributes[id];
+	}
+
+	/**
+	 * Return the number of attributes interned.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * Return the id of the attribute held that looks closest to the given
+	 * packed key: one of the same style if there is any, with the colors
+	 * nearest to the given ones. The last key looked up is remembered, as the
+	 * same combination tends to be asked for repeatedly.
+	 *
+	 * @param key
+	 *            the packed key of the attribute
+	 *
+	 * @return the id of the closest attribute
+	 */
+	private int closest(long key) {
+		if(key == this.closestKey) {
+			return this.closestId;
+		}
+
+		int id = 0;
+		long best = Long.MAX_VALUE;
+		for(int slot = 0; slot < this.keys.length; slot++) {
+			if(this.ids[slot] == 0) {
+				continue;
+			}
+
+			long other = this.keys[slot];
+			long distance = colorDistance((int) (key >>> 40), (int) (other >>> 40)) + colorDistance((int) (key >>> 16), (int) (other >>> 16));
+			if((key & 0xFFFF) != (other & 0xFFFF)) {
+				distance += STYLE_DISTANCE;
+			}
+
+			if(distance < best) {
+				best = distance;
+				id = this.ids[slot] - 1;
+			}
+		}
+
+		this.closestKey = key;
+		this.closestId = id;
+		return id;
+	}
+
+	/**
+	 * Return the squared distance between two RGB colors.
+	 *
+	 * @param first
+	 * @param second
+	 * @return
+	 */
+	private static long colorDistance(int first, int second) {
+		int red = ((first >> 16) & 0xFF) - ((second >> 16) & 0xFF);
+		int green = ((first >> 8) & 0xFF) - ((second >> 8) & 0xFF);
+		int blue = (first & 0xFF) - (second & 0xFF);
+		return red * red + green * green + blue * blue;
+	}
+
+	/**
+	 * Double the size of the lookup table.
+	 *
+	 */
+	private void rehash() {
+		long[] oldKeys = this.keys;
+		int[] oldIds = this.ids;
+
+		this.keys = new long[oldKeys.length * 2];
+		this.ids = new int[oldIds.length * 2];
+		int mask = this.keys.length - 1;
+
+		for(int index = 0; index < oldKeys.length; index++) {
+			if(oldIds[index] == 0) {
+				continue;
+			}
+
+			int slot = hash(oldKeys[index]) & mask;
+			while(this.ids[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+
+			this.keys[slot] = oldKeys[index];
+			this.ids[slot] = oldIds[index];
+		}
+	}
+
+	/**
+	 * Spread the bits of the key so that similar colors do not cluster.
+	 *
+	 * @param key
+	 * @return
+	 */
+	private static int hash(long key) {
+		key ^= (key >>> 33);
+		key *= 0xff51afd7ed558ccdL;
+		key ^= (key >>> 33);
+		return (int) key;
+	}
+
+}
@@ -0,0 +1,571 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ui;
+
+import java.util.Arrays;
+
+/**
+ * A grid of terminal cells stored in a single flat primitive array. Each cell
+ * is packed into one <code>long</code>:
+ *
+ * <pre>
+ *  bits  0 - 31 : the code point displayed in the cell
+ *  bits 32 - 47 : id of the {@link TerminalCharacterAttribute} in the {@link AttributePalette}
+ *  bits 48 - 63 : cell flags, like {@link #FLAG_HIGHLIGHT}
+ * </pre>
+ *
+ * This avoids keeping one attribute object per cell, and lets the renderer
+ * compare two cells for the same appearance using a single <code>int</code>
+ * comparison.
+ *
+ * Rows are kept in a circular buffer: the logical first row lives at the
+ * physical row pointed to by the head index. Appending a row when the buffer
+ * is at its maximum size just moves the head, evicting the oldest row without
+ * copying or allocating anything. Until the maximum size is reached, the
+ * backing array grows geometrically.
+ *
+ * @author sangupta
+ *
+ */
+public class CellBuffer {
+
+	/**
+	 * Flag set on a cell that has been highlighted using the mouse
+	 */
+	public static final int FLAG_HIGHLIGHT = 0x1;
+
+	/**
+	 * Mask to extract the code point from a cell
+	 */
+	private static final long CODE_POINT_MASK = 0xFFFFFFFFL;
+
+	/**
+	 * Number of bits to shift to reach the attribute index
+	 */
+	private static final int ATTRIBUTE_SHIFT = 32;
+
+	/**
+	 * Number of bits to shift to reach the flags
+	 */
+	private static final int FLAGS_SHIFT = 48;
+
+	/**
+	 * Maximum number of attributes that can be addressed from a cell
+	 */
+	public static final int MAX_ATTRIBUTES = 0xFFFF + 1;
+
+	/**
+	 * The packed cells, physical row after physical row
+	 */
+	private long[] cells;
+
+	/**
+	 * Number of columns in each row
+	 */
+	private int columns;
+
+	/**
+	 * Number of logical rows in the grid
+	 */
+	private int rows;
+
+	/**
+	 * Number of physical rows allocated in {@link #cells}
+	 */
+	private int capacity;
+
+	/**
+	 * Number of rows the buffer may grow to before the oldest rows are
+	 * evicted on append
+	 */
+	private final int maxRows;
+
+	/**
+	 * The physical row that holds logical row zero
+	 */
+	private int head;
+
+	/**
+	 * Create a new grid of the given size with every cell set to the given
+	 * blank cell.
+	 *
+	 * @param columns
+	 *            the number of columns
+	 *
+	 * @param rows
+	 *            the number of rows
+	 *
+	 * @param maxRows
+	 *            the number of rows after which appending a row evicts the
+	 *            oldest one
+	 *
+	 * @param blank
+	 *            the packed cell to fill the grid with
+	 */
+	public CellBuffer(int columns, int rows, int maxRows, long blank) {
+		this.columns = columns;
+		this.rows = rows;
+		this.maxRows = Math.max(maxRows, 1);
+		this.capacity = Math.max(rows, 1);
+		this.cells = new long[columns * this.capacity];
+		Arrays.fill(this.cells, blank);
+	}
+
+	/**
+	 * Pack the given values into a single cell.
+	 *
+	 * @param codePoint
+	 *            the code point to display
+	 *
+	 * @param attribute
+	 *            the palette id of the attribute
+	 *
+	 * @param flags
+	 *            the cell flags
+	 *
+	 * @return the packed cell
+	 */
+	public static long pack(int codePoint, int attribute, int flags) {
+		return (codePoint & CODE_POINT_MASK) | ((long) (attribute & 0xFFFF) << ATTRIBUTE_SHIFT) | ((long) (flags & 0xFFFF) << FLAGS_SHIFT);
+	}
+
+	/**
+	 * Pack the given code point and appearance into a single cell.
+	 *
+	 * @param codePoint
+	 *            the code point to display
+	 *
+	 * @param appearance
+	 *            the attribute index and flags, as returned by
+	 *            {@link #appearanceOf(long)}
+	 *
+	 * @return the packed cell
+	 */
+	public static long pack(int codePoint, int appearance) {
+		return (codePoint & CODE_POINT_MASK) | ((long) appearance << ATTRIBUTE_SHIFT);
+	}
+
+	/**
+	 * Return the code point stored in the cell.
+	 *
+	 * @param cell
+	 * @return
+	 */
+	public static int codePointOf(long cell) {
+		return (int) (cell & CODE_POINT_MASK);
+	}
+
+	/**
+	 * Return the attribute index stored in the cell.
+	 *
+	 * @param cell
+	 * @return
+	 */
+	public static int attributeOf(long cell) {
+		return (int) (cell >>> ATTRIBUTE_SHIFT) & 0xFFFF;
+	}
+
+	/**
+	 * Return the flags stored in the cell.
+	 *
+	 * @param cell
+	 * @return
+	 */
+	public static int flagsOf(long cell) {
+		return (int) (cell >>> FLAGS_SHIFT);
+	}
+
+	/**
+	 * Return the attribute index and flags of the cell together. Two cells
+	 * with the same appearance value are rendered using the same colors.
+	 *
+	 * @param cell
+	 * @return
+	 */
+	public static int appearanceOf(long cell) {
+		return (int) (cell >>> ATTRIBUTE_SHIFT);
+	}
+
+	/**
+	 * Return the offset in {@link #cells} at which the given logical row
+	 * starts.
+	 *
+	 * @param row
+	 * @return
+	 */
+	private int offset(int row) {
+		if(row < 0 || row >= this.rows) {
+			throw new ArrayIndexOutOfBoundsException(row);
+		}
+
+		int physical = this.head + row;
+		if(physical >= this.capacity) {
+			physical -= this.capacity;
+		}
+
+		return physical * this.columns;
+	}
+
+	/**
+	 * Return the packed cell at the given position.
+	 *
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public long get(int row, int column) {
+		if(column < 0 || column >= this.columns) {
+			throw new ArrayIndexOutOfBoundsException(column);
+		}
+
+		return this.cells[offset(row) + column];
+	}
+
+	/**
+	 * Set the packed cell at the given position.
+	 *
+	 * @param row
+	 * @param column
+	 * @param cell
+	 */
+	public void set(int row, int column, long cell) {
+		if(column < 0 || column >= this.columns) {
+			throw new ArrayIndexOutOfBoundsException(column);
+		}
+
+		this.cells[offset(row) + column] = cell;
+	}
+
+	/**
+	 * Set a run of consecutive cells in a row to the given characters, all in
+	 * the same attribute and without any flags.
+	 *
+	 * @param row
+	 *            the row to write to
+	 *
+	 * @param column
+	 *            the first column to write to
+	 *
+	 * @param chars
+	 *            the characters to write
+	 *
+	 * @param offset
+	 *            the index of the first character to write
+	 *
+	 * @param count
+	 *            the number of characters to write
+	 *
+	 * @param attribute
+	 *            the palette id of the attribute
+	 */
+	public void set(int row, int column, char[] chars, int offset, int count, int attribute) {
+		if(column < 0 || column + count > this.columns) {
+			throw new ArrayIndexOutOfBoundsException(column + count);
+		}
+
+		int base = offset(row) + column - offset;
+		long bits = (long) (attribute & 0xFFFF) << ATTRIBUTE_SHIFT;
+		long[] cells = this.cells;
+		for(int index = offset; index < offset + count; index++) {
+			cells[base + index] = chars[index] | bits;
+		}
+	}
+
+	/**
+	 * Fill the given columns of a row with the packed cell.
+	 *
+	 * @param row
+	 *            the row to fill
+	 *
+	 * @param from
+	 *            the starting column, inclusive
+	 *
+	 * @param to
+	 *            the ending column, exclusive
+	 *
+	 * @param cell
+	 *            the packed cell to fill with
+	 */
+	public void fill(int row, int from, int to, long cell) {
+		int base = offset(row);
+		Arrays.fill(this.cells, base + from, base + to, cell);
+	}
+
+	/**
+	 * Fill the entire grid with the packed cell.
+	 *
+	 * @param cell
+	 */
+	public void fillAll(long cell) {
+		Arrays.fill(this.cells, cell);
+	}
+
+	/**
+	 * Append a blank row at the end of the grid. If the grid has reached its
+	 * maximum number of rows, the first row is evicted by advancing the head.
+	 * Neither case copies any existing row.
+	 *
+	 * @param blank
+	 *            the packed cell to fill the new row with
+	 *
+	 * @return <code>true</code> if the first row was evicted,
+	 *         <code>false</code> if the grid grew by one row
+	 */
+	public boolean appendRow(long blank) {
+		boolean evicted;
+		if(this.rows < this.maxRows) {
+			ensureCapacity(this.rows + 1);
+			this.rows++;
+			evicted = false;
+		} else {
+			this.head++;
+			if(this.head == this.capacity) {
+				this.head = 0;
+			}
+
+			evicted = true;
+		}
+
+		fill(this.rows - 1, 0, this.columns, blank);
+		return evicted;
+	}
+
+	/**
+	 * Move a block of rows within the grid. Overlapping source and
+	 * destination are handled correctly.
+	 *
+	 * @param sourceRow
+	 *            the first row to move
+	 *
+	 * @param destinationRow
+	 *            the row to move the first row to
+	 *
+	 * @param count
+	 *            the number of rows to move
+	 */
+	public void moveRows(int sourceRow, int destinationRow, int count) {
+		if(count <= 0 || sourceRow == destinationRow) {
+			return;
+		}
+
+		if(sourceRow > destinationRow) {
+			for(int index = 0; index < count; index++) {
+				System.arraycopy(this.cells, offset(sourceRow + index), this.cells, offset(destinationRow + index), this.columns);
+			}
+
+			return;
+		}
+
+		for(int index = count - 1; index >= 0; index--) {
+			System.arraycopy(this.cells, offset(sourceRow + index), this.cells, offset(destinationRow + index), this.columns);
+		}
+	}
+
+	/**
+	 * Copy all cells of a row into the given array, starting at index zero.
+	 *
+	 * @param row
+	 *            the row to read from
+	 *
+	 * @param destination
+	 *            the array to copy cells into, at least {@link #getColumns()}
+	 *            long
+	 */
+	public void getRow(int row, long[] destination) {
+		System.arraycopy(this.cells, offset(row), destination, 0, this.columns);
+	}
+
+	/**
+	 * Copy the characters of the given columns of a row into the given array,
+	 * starting at index zero. Used by the renderer to draw a run of characters.
+	 *
+	 * @param row
+	 *            the row to read from
+	 *
+	 * @param from
+	 *            the starting column, inclusive
+	 *
+	 * @param to
+	 *            the ending column, exclusive
+	 *
+	 * @param destination
+	 *            the array to copy characters into
+	 */
+	public void getChars(int row, int from, int to, char[] destination) {
+		int base = offset(row);
+		for(int index = from; index < to; index++) {
+			destination[index - from] = (char) this.cells[base + index];
+		}
+	}
+
+	/**
+	 * Set or clear the given flags on the columns of a row.
+	 *
+	 * @param row
+	 *            the row to update
+	 *
+	 * @param from
+	 *            the starting column, inclusive
+	 *
+	 * @param to
+	 *            the ending column, exclusive
+	 *
+	 * @param flags
+	 *            the flags to update
+	 *
+	 * @param set
+	 *            <code>true</code> to set the flags, <code>false</code> to
+	 *            clear them
+	 */
+	public void setFlags(int row, int from, int to, int flags, boolean set) {
+		long mask = (long) (flags & 0xFFFF) << FLAGS_SHIFT;
+		int base = offset(row);
+		for(int index = base + from; index < base + to; index++) {
+			if(set) {
+				this.cells[index] |= mask;
+			} else {
+				this.cells[index] &= ~mask;
+			}
+		}
+	}
+
+	/**
+	 * Clear the given flags from every cell in the grid.
+	 *
+	 * @param flags
+	 */
+	public void clearFlags(int flags) {
+		long mask = ~((long) (flags & 0xFFFF) << FLAGS_SHIFT);
+		for(int index = 0; index < this.cells.length; index++) {
+			this.cells[index] &= mask;
+		}
+	}
+
+	/**
+	 * Change the size of the grid, keeping the content of the rows and
+	 * columns common to both sizes. New cells are set to the blank cell.
+	 * Growing the number of rows only allocates when the backing array is
+	 * out of capacity.
+	 *
+	 * @param columns
+	 *            the new number of columns
+	 *
+	 * @param rows
+	 *            the new number of rows
+	 *
+	 * @param blank
+	 *            the packed cell to fill new cells with
+	 */
+	public void resize(int columns, int rows, long blank) {
+		if(columns == this.columns) {
+			if(rows > this.rows) {
+				ensureCapacity(rows);
+
+				int oldRows = this.rows;
+				this.rows = rows;
+				for(int row = oldRows; row < rows; row++) {
+					fill(row, 0, columns, blank);
+				}
+			} else {
+				this.rows = rows;
+			}
+
+			return;
+		}
+
+		// changing number of columns, copy row by row
+		int newCapacity = Math.max(this.capacity, rows);
+		long[] newCells = new long[columns * newCapacity];
+		int minRows = Math.min(rows, this.rows);
+		int minColumns = Math.min(columns, this.columns);
+		for(int row = 0; row < minRows; row++) {
+			System.arraycopy(this.cells, offset(row), newCells, row * columns, minColumns);
+			Arrays.fill(newCells, row * columns + minColumns, (row + 1) * columns, blank);
+		}
+
+		Arrays.fill(newCells, minRows * columns, newCells.length, blank);
+
+		this.cells = newCells;
+		this.capacity = newCapacity;
+		this.head = 0;
+		this.columns = columns;
+		this.rows = rows;
+	}
+
+	/**
+	 * Make sure that the backing array can hold at least the given number of
+	 * rows. The array grows geometrically up to the maximum number of rows,
+	 * so that growing one row at a time copies the rows only a logarithmic
+	 * number of times.
+	 *
+	 * @param rows
+	 *            the number of rows needed
+	 */
+	private void ensureCapacity(int rows) {
+		if(rows <= this.capacity) {
+			return;
+		}
+
+		int newCapacity = Math.min(Math.max(this.capacity * 2, rows), Math.max(this.maxRows, rows));
+		long[] newCells = new long[this.columns * newCapacity];
+
+		// linearize the existing rows
+		int firstPart = Math.min(this.rows, this.capacity - this.head);
+		System.arraycopy(this.cells, this.head * this.columns, newCells, 0, firstPart * this.columns);
+		if(firstPart < this.rows) {
+			System.arraycopy(this.cells, 0, newCells, firstPart * this.columns, (this.rows - firstPart) * this.columns);
+		}
+
+		this.cells = newCells;
+		this.capacity = newCapacity;
+		this.head = 0;
+	}
+
+	/**
+	 * Return the number of columns in each row.
+	 *
+	 * @return
+	 */
+	public int getColumns() {
+		return this.columns;
+	}
+
+	/**
+	 * Return the number of rows in the grid.
+	 *
+	 * @return
+	 */
+	public int getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * Return the number of rows after which appending a row evicts the oldest
+	 * one.
+	 *
+	 * @return
+	 */
+	public int getMaxRows() {
+		return this.maxRows;
+	}
+
+}
@@ -0,0 +1,150 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import java.awt.Color;
+
+/**
+ * An immutable copy of a range of rows of a {@link TerminalBuffer}, along
+ * with the selection and colors needed to paint them. Once taken, a snapshot
+ * may be painted from any thread while the buffer keeps changing.
+ *
+ * @author sangupta
+ *
+ */
+public final class CellSnapshot {
+
+	/**
+	 * The row of the buffer that is the first row of this snapshot
+	 */
+	private final int firstRow;
+
+	/**
+	 * The number of rows held
+	 */
+	private final int rows;
+
+	/**
+	 * The number of columns in each row
+	 */
+	private final int columns;
+
+	/**
+	 * The cells, row after row
+	 */
+	private final long[] cells;
+
+	/**
+	 * The selection at the time the snapshot was taken, or <code>null</code>
+	 */
+	private final Selection selection;
+
+	/**
+	 * The palette the cells refer to
+	 */
+	private final AttributePalette palette;
+
+	/**
+	 * The default background of the buffer
+	 */
+	private final Color background;
+
+	/**
+	 * Create a new snapshot, taking ownership of the given cells.
+	 *
+	 * @param firstRow
+	 * @param rows
+	 * @param columns
+	 * @param cells
+	 * @param selection
+	 * @param palette
+	 * @param background
+	 */
+	CellSnapshot(int firstRow, int rows, int columns, long[] cells, Selection selection, AttributePalette palette, Color background) {
+		this.firstRow = firstRow;
+		this.rows = rows;
+		this.columns = columns;
+		this.cells = cells;
+		this.selection = selection;
+		this.palette = palette;
+		this.background = background;
+	}
+
+	/**
+	 * Return the cell at the given position.
+	 *
+	 * @param row
+	 *            the row, relative to the first row of this snapshot
+	 *
+	 * @param column
+	 *            the column
+	 *
+	 * @return the cell, as held by a {@link CellBuffer}
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if the position is outside the snapshot
+	 */
+	public long getCell(int row, int column) {
+		if (row < 0 || row >= this.rows || column < 0 || column >= this.columns) {
+			throw new IndexOutOfBoundsException("Cell outside the snapshot: " + row + ", " + column);
+		}
+
+		return this.cells[row * this.columns + column];
+	}
+
+	/**
+	 * Return the cells, row after row. The array must not be modified.
+	 *
+	 * @return
+	 */
+	long[] cells() {
+		return this.cells;
+	}
+
+	// Usual accessors follow
+
+	public int getFirstRow() {
+		return this.firstRow;
+	}
+
+	public int getRows() {
+		return this.rows;
+	}
+
+	public int getColumns() {
+		return this.columns;
+	}
+
+	public Selection getSelection() {
+		return this.selection;
+	}
+
+	public AttributePalette getPalette() {
+		return this.palette;
+	}
+
+	public Color getBackground() {
+		return this.background;
+	}
+
+}
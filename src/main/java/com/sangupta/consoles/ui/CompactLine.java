@@ -0,0 +1,248 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ui;
+
+/**
+ * A compact, read-only representation of a terminal row that is no longer
+ * displayed. Trailing blank cells are dropped, the characters are kept as one
+ * byte each when they all fit in Latin-1, as one char each when they all fit
+ * in the basic multilingual plane, and as full code points otherwise. The
+ * attributes are kept as runs
+ * of <code>(start, length, appearance)</code> triples instead of one value per
+ * cell. A typical line of text that uses a single attribute thus takes a few
+ * dozen bytes instead of eight bytes per column.
+ *
+ * Lines are expanded back to packed cells, as defined by {@link CellBuffer},
+ * only when they need to be painted or edited.
+ *
+ * @author sangupta
+ *
+ */
+public final class CompactLine {
+
+	/**
+	 * Shared empty runs for lines that hold no characters
+	 */
+	private static final int[] NO_RUNS = new int[0];
+
+	/**
+	 * The characters of the line when all of them fit in Latin-1, or
+	 * <code>null</code>
+	 */
+	private final byte[] latin1;
+
+	/**
+	 * The characters of the line when some do not fit in Latin-1 but all fit
+	 * in a char, or <code>null</code>
+	 */
+	private final char[] chars;
+
+	/**
+	 * The code points of the line when some do not fit in a char, or
+	 * <code>null</code>
+	 */
+	private final int[] codePoints;
+
+	/**
+	 * Number of characters kept
+	 */
+	private final int length;
+
+	/**
+	 * The attribute runs as consecutive <code>(start, length, appearance)</code>
+	 * triples
+	 */
+	private final int[] runs;
+
+	/**
+	 * The appearance of the blank cells dropped from the end of the line
+	 */
+	private final int padAppearance;
+
+	private CompactLine(byte[] latin1, char[] chars, int[] codePoints, int length, int[] runs, int padAppearance) {
+		this.latin1 = latin1;
+		this.chars = chars;
+		this.codePoints = codePoints;
+		this.length = length;
+		this.runs = runs;
+		this.padAppearance = padAppearance;
+	}
+
+	/**
+	 * Create the compact representation of the given row.
+	 *
+	 * @param cells
+	 *            the packed cells of the row
+	 *
+	 * @param columns
+	 *            the number of cells in the row
+	 *
+	 * @return the compacted line
+	 */
+	public static CompactLine compact(long[] cells, int columns) {
+		if(columns <= 0) {
+			return new CompactLine(null, null, null, 0, NO_RUNS, 0);
+		}
+
+		// drop the trailing spaces that look the same as the last cell
+		int padAppearance = CellBuffer.appearanceOf(cells[columns - 1]);
+		int length = columns;
+		while(length > 0 && CellBuffer.codePointOf(cells[length - 1]) == ' ' && CellBuffer.appearanceOf(cells[length - 1]) == padAppearance) {
+			length--;
+		}
+
+		if(length == 0) {
+			return new CompactLine(null, null, null, 0, NO_RUNS, padAppearance);
+		}
+
+		// count the runs and find the widest character
+		int widest = 0;
+		int runCount = 1;
+		int appearance = CellBuffer.appearanceOf(cells[0]);
+		for(int column = 0; column < length; column++) {
+			long cell = cells[column];
+			widest = Math.max(widest, CellBuffer.codePointOf(cell));
+
+			int current = CellBuffer.appearanceOf(cell);
+			if(current != appearance) {
+				runCount++;
+				appearance = current;
+			}
+		}
+
+		byte[] latin1 = null;
+		char[] chars = null;
+		int[] codePoints = null;
+		if(widest > 0xFFFF) {
+			codePoints = new int[length];
+		} else if(widest > 0xFF) {
+			chars = new char[length];
+		} else {
+			latin1 = new byte[length];
+		}
+
+		int[] runs = new int[runCount * 3];
+		int run = 0;
+		int runStart = 0;
+		appearance = CellBuffer.appearanceOf(cells[0]);
+		for(int column = 0; column < length; column++) {
+			long cell = cells[column];
+			if(latin1 != null) {
+				latin1[column] = (byte) CellBuffer.codePointOf(cell);
+			} else if(chars != null) {
+				chars[column] = (char) CellBuffer.codePointOf(cell);
+			} else {
+				codePoints[column] = CellBuffer.codePointOf(cell);
+			}
+
+			int current = CellBuffer.appearanceOf(cell);
+			if(current != appearance) {
+				runs[run++] = runStart;
+				runs[run++] = column - runStart;
+				runs[run++] = appearance;
+
+				runStart = column;
+				appearance = current;
+			}
+		}
+
+		runs[run++] = runStart;
+		runs[run++] = length - runStart;
+		runs[run] = appearance;
+
+		return new CompactLine(latin1, chars, codePoints, length, runs, padAppearance);
+	}
+
+	/**
+	 * Expand this line back into packed cells.
+	 *
+	 * @param destination
+	 *            the array to write the packed cells into
+	 *
+	 * @param columns
+	 *            the number of cells to write, cells beyond the kept characters
+	 *            are written as blanks
+	 */
+	public void expand(long[] destination, int columns) {
+		int limit = Math.min(this.length, columns);
+
+		for(int run = 0; run < this.runs.length; run += 3) {
+			int start = this.runs[run];
+			if(start >= limit) {
+				break;
+			}
+
+			int end = Math.min(start + this.runs[run + 1], limit);
+			int appearance = this.runs[run + 2];
+
+			if(this.latin1 != null) {
+				for(int column = start; column < end; column++) {
+					destination[column] = CellBuffer.pack(this.latin1[column] & 0xFF, appearance);
+				}
+			} else if(this.chars != null) {
+				for(int column = start; column < end; column++) {
+					destination[column] = CellBuffer.pack(this.chars[column], appearance);
+				}
+			} else {
+				for(int column = start; column < end; column++) {
+					destination[column] = CellBuffer.pack(this.codePoints[column], appearance);
+				}
+			}
+		}
+
+		long blank = CellBuffer.pack(' ', this.padAppearance);
+		for(int column = limit; column < columns; column++) {
+			destination[column] = blank;
+		}
+	}
+
+	/**
+	 * Return the number of characters kept, after the trailing blanks have
+	 * been dropped.
+	 *
+	 * @return
+	 */
+	public int length() {
+		return this.length;
+	}
+
+	/**
+	 * Return the code point of the character at the given index.
+	 *
+	 * @param index
+	 *            the index of the character, less than {@link #length()}
+	 *
+	 * @return the code point
+	 */
+	public int codePointAt(int index) {
+		if(this.latin1 != null) {
+			return this.latin1[index] & 0xFF;
+		}
+
+		if(this.chars != null) {
+			return this.chars[index];
+		}
+
+		return this.codePoints[index];
+	}
+
+}
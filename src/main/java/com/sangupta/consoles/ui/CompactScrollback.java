@@ -0,0 +1,186 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ui;
+
+/**
+ * A {@link Scrollback} that keeps rows in memory as {@link CompactLine}s. The
+ * rows are held in a circular buffer of fixed capacity; once full, the oldest
+ * row is handed over to an optional overflow {@link Scrollback}, like a
+ * {@link MappedScrollback}, or discarded if there is none.
+ *
+ * Rows held by the overflow store come first, followed by the compact rows.
+ *
+ * @author sangupta
+ *
+ */
+public class CompactScrollback implements Scrollback {
+
+	/**
+	 * The compact rows in a circular buffer
+	 */
+	private final CompactLine[] lines;
+
+	/**
+	 * The index of the oldest compact row
+	 */
+	private int head;
+
+	/**
+	 * Number of compact rows held
+	 */
+	private int count;
+
+	/**
+	 * The store that receives rows evicted from this one, or <code>null</code>
+	 */
+	private final Scrollback overflow;
+
+	/**
+	 * Reusable array to expand a row being moved to the overflow store
+	 */
+	private long[] overflowCells = new long[0];
+
+	/**
+	 * Create a new store.
+	 *
+	 * @param maxRows
+	 *            the maximum number of compact rows to keep in memory
+	 *
+	 * @param overflow
+	 *            the store to hand the oldest rows to, or <code>null</code> to
+	 *            discard them
+	 */
+	public CompactScrollback(int maxRows, Scrollback overflow) {
+		if(maxRows <= 0) {
+			throw new IllegalArgumentException("Maximum number of rows must be positive");
+		}
+
+		this.lines = new CompactLine[maxRows];
+		this.overflow = overflow;
+	}
+
+	@Override
+	public synchronized int size() {
+		return overflowRows() + this.count;
+	}
+
+	@Override
+	public synchronized boolean push(long[] cells, int columns) {
+		CompactLine line = CompactLine.compact(cells, columns);
+
+		if(this.count < this.lines.length) {
+			this.lines[(this.head + this.count) % this.lines.length] = line;
+			this.count++;
+			return false;
+		}
+
+		// full - move the oldest row out
+		boolean discarded = true;
+		if(this.overflow != null) {
+			if(this.overflowCells.length < columns) {
+				this.overflowCells = new long[columns];
+			}
+
+			this.lines[this.head].expand(this.overflowCells, columns);
+			discarded = this.overflow.push(this.overflowCells, columns);
+		}
+
+		this.lines[this.head] = line;
+		this.head = (this.head + 1) % this.lines.length;
+		return discarded;
+	}
+
+	@Override
+	public synchronized void read(int row, long[] destination, int columns, long blank) {
+		int overflowRows = overflowRows();
+		if(row < overflowRows) {
+			this.overflow.read(row, destination, columns, blank);
+			return;
+		}
+
+		this.lines[slotOf(row - overflowRows)].expand(destination, columns);
+	}
+
+	@Override
+	public synchronized void write(int row, long[] cells, int columns) {
+		int overflowRows = overflowRows();
+		if(row < overflowRows) {
+			this.overflow.write(row, cells, columns);
+			return;
+		}
+
+		this.lines[slotOf(row - overflowRows)] = CompactLine.compact(cells, columns);
+	}
+
+	@Override
+	public synchronized void clear() {
+		for(int index = 0; index < this.lines.length; index++) {
+			this.lines[index] = null;
+		}
+
+		this.head = 0;
+		this.count = 0;
+
+		if(this.overflow != null) {
+			this.overflow.clear();
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		clear();
+
+		if(this.overflow != null) {
+			this.overflow.close();
+		}
+	}
+
+	/**
+	 * Return the slot that holds the given compact row.
+	 *
+	 * @param row
+	 *            the compact row, zero being the oldest
+	 *
+	 * @return the slot in {@link #lines}
+	 */
+	private int slotOf(int row) {
+		if(row < 0 || row >= this.count) {
+			throw new ArrayIndexOutOfBoundsException(row);
+		}
+
+		return (this.head + row) % this.lines.length;
+	}
+
+	/**
+	 * Return the number of rows held by the overflow store.
+	 *
+	 * @return
+	 */
+	private int overflowRows() {
+		if(this.overflow == null) {
+			return 0;
+		}
+
+		return this.overflow.size();
+	}
+
+}
@@ -0,0 +1,349 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives the frames of a terminal: a frame is run on the event dispatch
+ * thread when something changed, at most at the configured frame rate, and
+ * the cursor blink is folded into the same frames. With nothing changed and
+ * the cursor not blinking, the scheduler sleeps and does not wake the event
+ * dispatch thread at all.
+ *
+ * The time each frame keeps the event dispatch thread busy - including the
+ * painting queued by the previous frame - is measured. When it does not fit
+ * in half of the frame interval, the interval is stretched so that more
+ * output is combined into each frame, and it is brought back gradually once
+ * frames get cheaper again.
+ *
+ * @author sangupta
+ *
+ */
+public class FrameScheduler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FrameScheduler.class);
+
+	/**
+	 * The longest interval between frames when stretched under load
+	 */
+	private static final long MAX_FRAME_INTERVAL_NANOS = 250L * 1000 * 1000;
+
+	/**
+	 * Run on the event dispatch thread for every frame
+	 */
+	private final Runnable frame;
+
+	/**
+	 * Run on the event dispatch thread, before the frame, when the cursor
+	 * blinks
+	 */
+	private final Runnable blink;
+
+	/**
+	 * The time between two blinks of the cursor
+	 */
+	private final long blinkNanos;
+
+	/**
+	 * Guards the fields below and wakes the scheduler
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Whether a frame has been asked for
+	 */
+	private boolean requested;
+
+	/**
+	 * Whether the cursor blinks
+	 */
+	private boolean blinking;
+
+	/**
+	 * When the cursor blinks next
+	 */
+	private long nextBlink;
+
+	/**
+	 * The shortest interval between frames, from the maximum frame rate
+	 */
+	private volatile long minIntervalNanos;
+
+	/**
+	 * The current interval between frames
+	 */
+	private volatile long intervalNanos;
+
+	/**
+	 * Whether the next frame is to blink the cursor, set before the frame is
+	 * handed to the event dispatch thread
+	 */
+	private volatile boolean blinkDue;
+
+	/**
+	 * Whether the scheduler should keep running
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * The thread that schedules the frames
+	 */
+	private final Thread scheduler;
+
+	/**
+	 * A frame as run on the event dispatch thread
+	 */
+	private final Runnable tick = new Runnable() {
+
+		@Override
+		public void run() {
+			if (blinkDue) {
+				blink.run();
+			}
+
+			// the frame takes everything that changed till now
+			synchronized (lock) {
+				requested = false;
+			}
+
+			frame.run();
+		}
+
+	};
+
+	/**
+	 * Create a new scheduler and start its thread.
+	 *
+	 * @param frame
+	 *            the {@link Runnable} to run for every frame
+	 *
+	 * @param blink
+	 *            the {@link Runnable} to run when the cursor blinks
+	 *
+	 * @param blinkMillis
+	 *            the time between two blinks of the cursor
+	 *
+	 * @param framesPerSecond
+	 *            the maximum number of frames per second
+	 */
+	public FrameScheduler(Runnable frame, Runnable blink, long blinkMillis, int framesPerSecond) {
+		if (frame == null || blink == null) {
+			throw new IllegalArgumentException("Frame and blink tasks cannot be null");
+		}
+
+		if (blinkMillis <= 0) {
+			throw new IllegalArgumentException("Blink interval must be positive");
+		}
+
+		this.frame = frame;
+		this.blink = blink;
+		this.blinkNanos = blinkMillis * 1000 * 1000;
+		setMaxFramesPerSecond(framesPerSecond);
+
+		this.scheduler = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				schedule();
+			}
+
+		}, "consoles-frame-scheduler");
+		this.scheduler.setDaemon(true);
+		this.scheduler.start();
+	}
+
+	/**
+	 * Ask for a frame to be run. May be called from any thread, and does not
+	 * block.
+	 *
+	 */
+	public void requestFrame() {
+		synchronized (this.lock) {
+			if (!this.requested) {
+				this.requested = true;
+				this.lock.notify();
+			}
+		}
+	}
+
+	/**
+	 * Start or stop blinking the cursor. Blinking starts with a full blink
+	 * interval.
+	 *
+	 * @param blinking
+	 *            <code>true</code> to blink the cursor
+	 */
+	public void setBlinking(boolean blinking) {
+		synchronized (this.lock) {
+			this.blinking = blinking;
+			this.nextBlink = System.nanoTime() + this.blinkNanos;
+			this.lock.notify();
+		}
+	}
+
+	/**
+	 * Put off the next blink of the cursor by a full blink interval, as when
+	 * the cursor moved.
+	 *
+	 */
+	public void restartBlink() {
+		synchronized (this.lock) {
+			this.nextBlink = System.nanoTime() + this.blinkNanos;
+		}
+	}
+
+	/**
+	 * Set the maximum number of frames per second.
+	 *
+	 * @param framesPerSecond
+	 *            the maximum number of frames per second
+	 */
+	public void setMaxFramesPerSecond(int framesPerSecond) {
+		if (framesPerSecond <= 0) {
+			throw new IllegalArgumentException("Frames per second must be positive");
+		}
+
+		this.minIntervalNanos = 1000L * 1000 * 1000 / framesPerSecond;
+		this.intervalNanos = this.minIntervalNanos;
+	}
+
+	/**
+	 * Return the number of frames per second that the scheduler currently
+	 * runs at when busy.
+	 *
+	 * @return
+	 */
+	public int getFramesPerSecond() {
+		return (int) (1000L * 1000 * 1000 / this.intervalNanos);
+	}
+
+	/**
+	 * Stop the scheduler. No frames are run afterwards.
+	 *
+	 */
+	public void close() {
+		this.running = false;
+		this.scheduler.interrupt();
+	}
+
+	/**
+	 * The loop of the scheduler thread.
+	 *
+	 */
+	private void schedule() {
+		long lastFrame = System.nanoTime() - this.intervalNanos;
+
+		while (this.running) {
+			try {
+				if (!awaitFrame()) {
+					return;
+				}
+
+				// let more output come in till the frame is due
+				long wait = lastFrame + this.intervalNanos - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(wait);
+				}
+
+				synchronized (this.lock) {
+					long now = System.nanoTime();
+					this.blinkDue = this.blinking && now - this.nextBlink >= 0;
+					if (this.blinkDue) {
+						this.nextBlink = now + this.blinkNanos;
+					}
+				}
+
+				lastFrame = System.nanoTime();
+				SwingUtilities.invokeAndWait(this.tick);
+				adapt(System.nanoTime() - lastFrame);
+			} catch (InterruptedException e) {
+				return;
+			} catch (InvocationTargetException e) {
+				// a failing frame must not stop the frames that follow
+				LOGGER.error("Unable to run terminal frame", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Wait till a frame is asked for or the cursor is to blink.
+	 *
+	 * @return <code>false</code> if the scheduler was stopped
+	 *
+	 * @throws InterruptedException
+	 *             if the scheduler thread was interrupted
+	 */
+	private boolean awaitFrame() throws InterruptedException {
+		synchronized (this.lock) {
+			while (this.running) {
+				if (this.requested) {
+					return true;
+				}
+
+				if (!this.blinking) {
+					this.lock.wait();
+					continue;
+				}
+
+				long wait = this.nextBlink - System.nanoTime();
+				if (wait <= 0) {
+					return true;
+				}
+
+				this.lock.wait(wait / (1000 * 1000), (int) (wait % (1000 * 1000)));
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Adapt the frame interval to the time the last frame kept the event
+	 * dispatch thread busy.
+	 *
+	 * @param duration
+	 *            the time from handing the frame over to its end
+	 */
+	private void adapt(long duration) {
+		long minInterval = this.minIntervalNanos;
+		long target = Math.max(minInterval, 2 * duration);
+		long interval = this.intervalNanos;
+
+		if (target > interval) {
+			// over budget, combine more output per frame
+			interval = Math.min(Math.max(MAX_FRAME_INTERVAL_NANOS, minInterval), target);
+		} else {
+			interval -= (interval - target) / 4;
+		}
+
+		this.intervalNanos = interval;
+	}
+
+}
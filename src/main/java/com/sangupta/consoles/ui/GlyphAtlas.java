@@ -0,0 +1,480 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * A cache of rasterized glyphs for a fixed-size cell grid. Each combination of
+ * code point and appearance - the colors and style of a cell - is drawn once,
+ * background included, into a slot of a single opaque atlas image. Painting a
+ * character then becomes an unscaled copy of one cell, with no compositing.
+ * The atlas is a managed image, so that Java2D keeps an accelerated copy of it
+ * where the pipeline allows.
+ *
+ * When all slots are taken the least recently used glyph is evicted, so glyphs
+ * of colors or styles no longer on screen age out. A new atlas is needed when
+ * the font changes.
+ *
+ * The atlas is not thread-safe and is meant to be used from the event dispatch
+ * thread only.
+ *
+ * @author sangupta
+ *
+ */
+public final class GlyphAtlas {
+
+	/**
+	 * Number of slots in each row of the atlas image
+	 */
+	private static final int ATLAS_COLUMNS = 64;
+
+	/**
+	 * Marks the absence of a slot in the LRU list
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * The font glyphs are drawn with, styles are derived from it
+	 */
+	private final Font font;
+
+	/**
+	 * The bold, italic and bold italic variants of {@link #font}, created
+	 * lazily and indexed by the AWT font style
+	 */
+	private final Font[] fonts = new Font[4];
+
+	/**
+	 * Number of slots in each row of {@link #atlas}
+	 */
+	private final int atlasColumns;
+
+	/**
+	 * The width of a cell in pixels
+	 */
+	private final int cellWidth;
+
+	/**
+	 * The height of a cell in pixels
+	 */
+	private final int cellHeight;
+
+	/**
+	 * The distance of the baseline from the top of a cell in pixels
+	 */
+	private final int baseline;
+
+	/**
+	 * The image holding the rasterized glyphs
+	 */
+	private final BufferedImage atlas;
+
+	/**
+	 * A view of each slot of {@link #atlas}, so that glyphs are copied without
+	 * a source rectangle
+	 */
+	private final BufferedImage[] glyphs;
+
+	/**
+	 * Open-addressing lookup table of glyph keys
+	 */
+	private final long[] keys;
+
+	/**
+	 * The slot plus one for every key in {@link #keys}, zero marks an empty
+	 * entry
+	 */
+	private final int[] slots;
+
+	/**
+	 * The key held by each slot
+	 */
+	private final long[] slotKeys;
+
+	/**
+	 * The next more recently used slot of each slot
+	 */
+	private final int[] newer;
+
+	/**
+	 * The next less recently used slot of each slot
+	 */
+	private final int[] older;
+
+	/**
+	 * The most recently used slot
+	 */
+	private int newest = NONE;
+
+	/**
+	 * The least recently used slot
+	 */
+	private int oldest = NONE;
+
+	/**
+	 * Number of slots taken
+	 */
+	private int size;
+
+	/**
+	 * Create a new atlas.
+	 *
+	 * @param font
+	 *            the {@link Font} to draw glyphs with
+	 *
+	 * @param cellWidth
+	 *            the width of a cell in pixels
+	 *
+	 * @param cellHeight
+	 *            the height of a cell in pixels
+	 *
+	 * @param baseline
+	 *            the distance of the baseline from the top of a cell
+	 *
+	 * @param capacity
+	 *            the number of glyphs to hold
+	 *
+	 * @param configuration
+	 *            the {@link GraphicsConfiguration} the glyphs are painted to,
+	 *            or <code>null</code> if not known
+	 */
+	public GlyphAtlas(Font font, int cellWidth, int cellHeight, int baseline, int capacity, GraphicsConfiguration configuration) {
+		if (font == null) {
+			throw new IllegalArgumentException("Font cannot be null");
+		}
+
+		if (cellWidth <= 0 || cellHeight <= 0 || capacity <= 0) {
+			throw new IllegalArgumentException("Cell size and capacity must be positive");
+		}
+
+		this.font = font;
+		this.fonts[Font.PLAIN] = font;
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+		this.baseline = baseline;
+
+		int columns = Math.min(capacity, ATLAS_COLUMNS);
+		int rows = (capacity + columns - 1) / columns;
+		this.atlasColumns = columns;
+		capacity = columns * rows;
+
+		if (configuration != null) {
+			this.atlas = configuration.createCompatibleImage(columns * cellWidth, rows * cellHeight, Transparency.OPAQUE);
+		} else {
+			this.atlas = new BufferedImage(columns * cellWidth, rows * cellHeight, BufferedImage.TYPE_INT_RGB);
+		}
+
+		this.glyphs = new BufferedImage[capacity];
+		for (int slot = 0; slot < capacity; slot++) {
+			this.glyphs[slot] = this.atlas.getSubimage((slot % columns) * cellWidth, (slot / columns) * cellHeight, cellWidth, cellHeight);
+		}
+
+		// keep the load factor of the lookup table below a half
+		int tableSize = Integer.highestOneBit(capacity) * 4;
+		this.keys = new long[tableSize];
+		this.slots = new int[tableSize];
+		this.slotKeys = new long[capacity];
+		this.newer = new int[capacity];
+		this.older = new int[capacity];
+	}
+
+	/**
+	 * Paint a glyph, with its background, at the given position. The colors
+	 * and style are only used when the glyph is not cached yet, so the same
+	 * appearance must always come with the same colors and style.
+	 *
+	 * @param graphics
+	 *            the {@link Graphics} to paint to
+	 *
+	 * @param codePoint
+	 *            the code point of the character
+	 *
+	 * @param appearance
+	 *            the attribute index and flags of the cell, as returned by
+	 *            {@link CellBuffer#appearanceOf(long)}
+	 *
+	 * @param foreground
+	 *            the {@link Color} of the glyph
+	 *
+	 * @param background
+	 *            the {@link Color} of the cell
+	 *
+	 * @param style
+	 *            the style bits as defined in {@link TerminalCharacterAttribute}
+	 *
+	 * @param x
+	 *            the left of the cell in pixels
+	 *
+	 * @param y
+	 *            the top of the cell in pixels
+	 */
+	public void paint(Graphics graphics, int codePoint, int appearance, Color foreground, Color background, int style, int x, int y) {
+		// code points need 21 bits, the appearance takes the rest
+		long key = ((appearance & 0xFFFFFFFFL) << 21) | (codePoint & 0x1FFFFF);
+
+		int slot = slotOf(key);
+		if (slot < 0) {
+			slot = add(key);
+			rasterize(slot, codePoint, foreground, background, style);
+		}
+
+		graphics.drawImage(this.glyphs[slot], x, y, null);
+	}
+
+	/**
+	 * Return the number of glyphs held.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Return the {@link Font} glyphs are drawn with.
+	 *
+	 * @return
+	 */
+	public Font getFont() {
+		return this.font;
+	}
+
+	/**
+	 * Return the slot holding the given glyph, marking it as the most
+	 * recently used.
+	 *
+	 * @param key
+	 * @return the slot, or <code>-1</code> if the glyph is not cached
+	 */
+	private int slotOf(long key) {
+		int mask = this.keys.length - 1;
+		int index = hash(key) & mask;
+		while (this.slots[index] != 0) {
+			if (this.keys[index] == key) {
+				int slot = this.slots[index] - 1;
+				touch(slot);
+				return slot;
+			}
+
+			index = (index + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Add a glyph to the lookup table, taking a free slot or evicting the
+	 * least recently used glyph.
+	 *
+	 * @param key
+	 * @return the slot for the glyph
+	 */
+	private int add(long key) {
+		int mask = this.keys.length - 1;
+		int index = hash(key) & mask;
+		while (this.slots[index] != 0) {
+			index = (index + 1) & mask;
+		}
+
+		int slot;
+		if (this.size < this.slotKeys.length) {
+			slot = this.size++;
+		} else {
+			slot = this.oldest;
+			unlink(slot);
+			remove(this.slotKeys[slot]);
+
+			// the removal may have moved entries into the free index
+			index = hash(key) & mask;
+			while (this.slots[index] != 0) {
+				index = (index + 1) & mask;
+			}
+		}
+
+		this.keys[index] = key;
+		this.slots[index] = slot + 1;
+		this.slotKeys[slot] = key;
+		link(slot);
+		return slot;
+	}
+
+	/**
+	 * Draw a glyph into its slot of the atlas.
+	 *
+	 * @param slot
+	 * @param codePoint
+	 * @param foreground
+	 * @param background
+	 * @param style
+	 */
+	private void rasterize(int slot, int codePoint, Color foreground, Color background, int style) {
+		int x = (slot % this.atlasColumns) * this.cellWidth;
+		int y = (slot / this.atlasColumns) * this.cellHeight;
+
+		Graphics2D graphics = this.atlas.createGraphics();
+		try {
+			graphics.setColor(background);
+			graphics.fillRect(x, y, this.cellWidth, this.cellHeight);
+
+			graphics.clipRect(x, y, this.cellWidth, this.cellHeight);
+			graphics.setFont(fontFor(style));
+			graphics.setColor(foreground);
+			graphics.drawString(new String(Character.toChars(codePoint)), x, y + this.baseline);
+
+			if ((style & TerminalCharacterAttribute.STYLE_UNDERLINE) != 0) {
+				graphics.drawLine(x, y + this.baseline + 1, x + this.cellWidth - 1, y + this.baseline + 1);
+			}
+		} finally {
+			graphics.dispose();
+		}
+	}
+
+	/**
+	 * Return the font variant for the given style bits.
+	 *
+	 * @param style
+	 * @return
+	 */
+	private Font fontFor(int style) {
+		int fontStyle = Font.PLAIN;
+		if ((style & TerminalCharacterAttribute.STYLE_BOLD) != 0) {
+			fontStyle |= Font.BOLD;
+		}
+
+		if ((style & TerminalCharacterAttribute.STYLE_ITALIC) != 0) {
+			fontStyle |= Font.ITALIC;
+		}
+
+		if (this.fonts[fontStyle] == null) {
+			this.fonts[fontStyle] = this.font.deriveFont(this.font.getStyle() | fontStyle);
+		}
+
+		return this.fonts[fontStyle];
+	}
+
+	/**
+	 * Remove a key from the lookup table, shifting back the entries that
+	 * follow it so that no probe sequence is broken.
+	 *
+	 * @param key
+	 */
+	private void remove(long key) {
+		int mask = this.keys.length - 1;
+		int index = hash(key) & mask;
+		while (this.keys[index] != key || this.slots[index] == 0) {
+			index = (index + 1) & mask;
+		}
+
+		int next = index;
+		while (true) {
+			next = (next + 1) & mask;
+			if (this.slots[next] == 0) {
+				break;
+			}
+
+			// entries that may stay where they are, are skipped
+			int home = hash(this.keys[next]) & mask;
+			if (index <= next ? (index < home && home <= next) : (index < home || home <= next)) {
+				continue;
+			}
+
+			this.keys[index] = this.keys[next];
+			this.slots[index] = this.slots[next];
+			index = next;
+		}
+
+		this.slots[index] = 0;
+	}
+
+	/**
+	 * Mark a slot as the most recently used.
+	 *
+	 * @param slot
+	 */
+	private void touch(int slot) {
+		if (slot != this.newest) {
+			unlink(slot);
+			link(slot);
+		}
+	}
+
+	/**
+	 * Add a slot as the most recently used one.
+	 *
+	 * @param slot
+	 */
+	private void link(int slot) {
+		this.older[slot] = this.newest;
+		this.newer[slot] = NONE;
+		if (this.newest != NONE) {
+			this.newer[this.newest] = slot;
+		} else {
+			this.oldest = slot;
+		}
+
+		this.newest = slot;
+	}
+
+	/**
+	 * Remove a slot from the recently used list.
+	 *
+	 * @param slot
+	 */
+	private void unlink(int slot) {
+		int newer = this.newer[slot];
+		int older = this.older[slot];
+
+		if (newer != NONE) {
+			this.older[newer] = older;
+		} else {
+			this.newest = older;
+		}
+
+		if (older != NONE) {
+			this.newer[older] = newer;
+		} else {
+			this.oldest = newer;
+		}
+	}
+
+	/**
+	 * Spread the bits of the key so that similar glyphs do not cluster.
+	 *
+	 * @param key
+	 * @return
+	 */
+	private static int hash(long key) {
+		key ^= (key >>> 33);
+		key *= 0xff51afd7ed558ccdL;
+		key ^= (key >>> 33);
+		return (int) key;
+	}
+
+}
@@ -0,0 +1,289 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link Scrollback} that keeps rows in a temporary file that is accessed
+ * through memory-mapped regions. Only a small number of regions are mapped at
+ * any time, and they are mapped lazily when a row in them is read or written,
+ * so the heap used stays bounded irrespective of the number of rows kept.
+ *
+ * Every row is stored as a fixed size record of six bytes per column: an
+ * <code>int</code> holding the code point and a <code>short</code> holding
+ * the attribute id; cell flags are not stored. The file is used as a circular buffer of records, so once the
+ * maximum number of rows is reached, the oldest row is overwritten. The width
+ * of the records is fixed when the store is created: longer rows are
+ * truncated, shorter ones padded when read back.
+ *
+ * The file is deleted when the store is closed.
+ *
+ * @author sangupta
+ *
+ */
+public class MappedScrollback implements Scrollback {
+
+	/**
+	 * Approximate number of bytes mapped at a time
+	 */
+	private static final int REGION_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Maximum number of regions to keep mapped at any time
+	 */
+	private static final int MAX_MAPPED_REGIONS = 8;
+
+	/**
+	 * Number of bytes stored for each cell: the code point, then the
+	 * attribute id
+	 */
+	private static final int CELL_SIZE = 6;
+
+	/**
+	 * The file backing this store
+	 */
+	private final File file;
+
+	/**
+	 * The opened backing file
+	 */
+	private final RandomAccessFile randomAccessFile;
+
+	/**
+	 * The channel used to map regions of the file
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Number of columns stored in each record
+	 */
+	private final int recordColumns;
+
+	/**
+	 * Number of bytes in each record
+	 */
+	private final int recordSize;
+
+	/**
+	 * Number of records in each mapped region
+	 */
+	private final int recordsPerRegion;
+
+	/**
+	 * Maximum number of rows to keep
+	 */
+	private final int maxRows;
+
+	/**
+	 * Number of rows pushed since the store was created or cleared
+	 */
+	private long count;
+
+	/**
+	 * The currently mapped regions, least recently used first
+	 */
+	private final Map<Integer, MappedByteBuffer> regions = new LinkedHashMap<Integer, MappedByteBuffer>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 7432165069318264811L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, MappedByteBuffer> eldest) {
+			return this.size() > MAX_MAPPED_REGIONS;
+		}
+
+	};
+
+	/**
+	 * Create a new store in a temporary file.
+	 *
+	 * @param columns
+	 *            the number of columns to store for each row
+	 *
+	 * @param maxRows
+	 *            the maximum number of rows to keep
+	 *
+	 * @throws IOException
+	 *             if the temporary file cannot be created
+	 */
+	public MappedScrollback(int columns, int maxRows) throws IOException {
+		if(columns <= 0) {
+			throw new IllegalArgumentException("Number of columns must be positive");
+		}
+
+		if(maxRows <= 0) {
+			throw new IllegalArgumentException("Maximum number of rows must be positive");
+		}
+
+		this.recordColumns = columns;
+		this.recordSize = columns * CELL_SIZE;
+		this.recordsPerRegion = Math.max(1, REGION_SIZE / this.recordSize);
+		this.maxRows = maxRows;
+
+		this.file = File.createTempFile("consoles-", ".scrollback");
+		this.file.deleteOnExit();
+		this.randomAccessFile = new RandomAccessFile(this.file, "rw");
+		this.channel = this.randomAccessFile.getChannel();
+	}
+
+	@Override
+	public synchronized int size() {
+		return (int) Math.min(this.count, this.maxRows);
+	}
+
+	@Override
+	public synchronized boolean push(long[] cells, int columns) {
+		int slot = (int) (this.count % this.maxRows);
+		writeRecord(slot, cells, columns);
+
+		this.count++;
+		return this.count > this.maxRows;
+	}
+
+	@Override
+	public synchronized void read(int row, long[] destination, int columns, long blank) {
+		int slot = slotOf(row);
+		MappedByteBuffer region = region(slot / this.recordsPerRegion);
+		int base = (slot % this.recordsPerRegion) * this.recordSize;
+
+		int stored = Math.min(columns, this.recordColumns);
+		for(int column = 0; column < stored; column++) {
+			int offset = base + column * CELL_SIZE;
+			destination[column] = CellBuffer.pack(region.getInt(offset), region.getShort(offset + 4), 0);
+		}
+
+		for(int column = stored; column < columns; column++) {
+			destination[column] = blank;
+		}
+	}
+
+	@Override
+	public synchronized void write(int row, long[] cells, int columns) {
+		writeRecord(slotOf(row), cells, columns);
+	}
+
+	@Override
+	public synchronized void clear() {
+		this.count = 0;
+	}
+
+	@Override
+	public synchronized void close() {
+		this.count = 0;
+		this.regions.clear();
+
+		try {
+			this.channel.close();
+			this.randomAccessFile.close();
+		} catch (IOException e) {
+			// eat up
+		}
+
+		if(!this.file.delete()) {
+			// the file may still be mapped - it will be removed when the VM exits
+			this.file.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Return the slot in the file that holds the given row.
+	 *
+	 * @param row
+	 *            the row, zero being the oldest
+	 *
+	 * @return the slot of the record
+	 */
+	private int slotOf(int row) {
+		int size = size();
+		if(row < 0 || row >= size) {
+			throw new ArrayIndexOutOfBoundsException(row);
+		}
+
+		long first = this.count - size;
+		return (int) ((first + row) % this.maxRows);
+	}
+
+	/**
+	 * Write a record into the given slot.
+	 *
+	 * @param slot
+	 *            the slot to write into
+	 *
+	 * @param cells
+	 *            the packed cells of the row
+	 *
+	 * @param columns
+	 *            the number of cells in the row
+	 */
+	private void writeRecord(int slot, long[] cells, int columns) {
+		MappedByteBuffer region = region(slot / this.recordsPerRegion);
+		int base = (slot % this.recordsPerRegion) * this.recordSize;
+
+		int stored = Math.min(columns, this.recordColumns);
+		for(int column = 0; column < stored; column++) {
+			long cell = cells[column];
+			int offset = base + column * CELL_SIZE;
+			region.putInt(offset, CellBuffer.codePointOf(cell));
+			region.putShort(offset + 4, (short) CellBuffer.attributeOf(cell));
+		}
+
+		// pad with spaces in the first attribute
+		for(int column = stored; column < this.recordColumns; column++) {
+			int offset = base + column * CELL_SIZE;
+			region.putInt(offset, ' ');
+			region.putShort(offset + 4, (short) 0);
+		}
+	}
+
+	/**
+	 * Return the mapped region with the given index, mapping it if needed.
+	 *
+	 * @param index
+	 *            the index of the region
+	 *
+	 * @return the mapped region
+	 */
+	private MappedByteBuffer region(int index) {
+		Integer key = Integer.valueOf(index);
+		MappedByteBuffer region = this.regions.get(key);
+		if(region != null) {
+			return region;
+		}
+
+		long regionSize = (long) this.recordsPerRegion * this.recordSize;
+		try {
+			region = this.channel.map(FileChannel.MapMode.READ_WRITE, index * regionSize, regionSize);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to map scrollback file region", e);
+		}
+
+		this.regions.put(key, region);
+		return region;
+	}
+
+}
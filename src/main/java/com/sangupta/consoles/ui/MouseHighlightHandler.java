@@ -46,8 +46,9 @@ public class MouseHighlightHandler implements TextMouseListener {
 			int column = e.getX();
 			int row = e.getY();
 			this.start = new ScreenPosition(row, column);
+			this.current = null;
 			
-			this.terminal.highlightSelection(row, column, row, column);
+			this.terminal.clearSelection();
 		}
 	}
 	
@@ -66,21 +67,10 @@ public class MouseHighlightHandler implements TextMouseListener {
 		
 		this.current = current;
 		
-		if(this.start.equals(current)) {
-			return;
-		}
-
-		// find out the area that we have and mark all as highlighted
-		// or non-highlighted depending if they fall in the area or not
-		int x1, x2, y1, y2;
-		x1 = Math.min(start.getColumn(), current.getColumn());
-		x2 = Math.max(start.getColumn(), current.getColumn());
-		
-		y1 = Math.min(start.getRow(), current.getRow());
-		y2 = Math.max(start.getRow(), current.getRow());
-		
-		// now find the block to be cleaned
-		this.terminal.highlightSelection(x1, y1, x2, y2);
+		// only the rows whose selected span changes are repainted,
+		// holding alt selects a block instead of running text
+		SelectionMode mode = e.isAltDown() ? SelectionMode.BLOCK : SelectionMode.LINEAR;
+		this.terminal.select(this.start.getColumn(), this.start.getRow(), current.getColumn(), current.getRow(), mode);
 	}
 	
 	@Override
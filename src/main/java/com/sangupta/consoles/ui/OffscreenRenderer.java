@@ -0,0 +1,289 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import com.sangupta.consoles.swing.SwingTerminalConstants;
+import com.sangupta.consoles.util.FontUtils;
+
+/**
+ * Renders the rows of a {@link TerminalBuffer} into a {@link BufferedImage}
+ * without any window, and so works with <code>java.awt.headless=true</code>.
+ * Either the rows displayed or any range of the scrollback may be rendered.
+ * The cursor is not rendered, so that the same cells always render to the
+ * same image.
+ *
+ * The image returned is reused by the next render of the same size; copy it
+ * if it needs to outlive that. Very tall renders may be split into tiles
+ * that are rendered in parallel, see {@link #setParallelism(int)}.
+ *
+ * A renderer must be used from one thread at a time.
+ *
+ * @author sangupta
+ *
+ */
+public class OffscreenRenderer {
+
+	/**
+	 * The buffer being rendered
+	 */
+	private final TerminalBuffer buffer;
+
+	/**
+	 * The font cells are rendered with
+	 */
+	private final Font font;
+
+	/**
+	 * The renderer used by the calling thread
+	 */
+	private final TerminalRenderer renderer;
+
+	/**
+	 * The image returned by the last render, reused when the size matches
+	 */
+	private BufferedImage image;
+
+	/**
+	 * The number of threads rendering tiles
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * Renders tiles in parallel, <code>null</code> when rendering on the
+	 * calling thread only
+	 */
+	private StripRasterizer rasterizer;
+
+	/**
+	 * Whether characters are painted from a {@link GlyphAtlas}
+	 */
+	private volatile boolean glyphCache;
+
+	/**
+	 * Create a renderer for the given buffer using the platform font.
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} to render
+	 */
+	public OffscreenRenderer(TerminalBuffer buffer) {
+		this(buffer, FontUtils.getPlatformFont());
+	}
+
+	/**
+	 * Create a renderer for the given buffer.
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} to render
+	 *
+	 * @param font
+	 *            the {@link Font} to render with, expected to be monospaced
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the buffer or the font is <code>null</code>
+	 */
+	public OffscreenRenderer(TerminalBuffer buffer, Font font) {
+		if (buffer == null) {
+			throw new IllegalArgumentException("Buffer cannot be null");
+		}
+
+		this.buffer = buffer;
+		this.font = font;
+		this.renderer = new TerminalRenderer(font);
+	}
+
+	/**
+	 * Render the rows currently displayed.
+	 *
+	 * @return the rendered image, reused by the next render of the same size
+	 */
+	public BufferedImage renderViewport() {
+		int logicalRows = this.buffer.getLogicalRows();
+		return render(Math.max(0, this.buffer.getRows() - logicalRows), logicalRows);
+	}
+
+	/**
+	 * Render the given rows, counting the scrollback. Rows that do not exist
+	 * are left out of the image.
+	 *
+	 * @param firstRow
+	 *            the first row to render
+	 *
+	 * @param rowCount
+	 *            the number of rows to render
+	 *
+	 * @return the rendered image, reused by the next render of the same size
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the first row is negative or the row count is negative
+	 */
+	public BufferedImage render(int firstRow, int rowCount) {
+		CellSnapshot snapshot = this.buffer.snapshot(firstRow, rowCount);
+
+		int width = Math.max(1, snapshot.getColumns() * this.renderer.getCharWidth());
+		int height = Math.max(1, snapshot.getRows() * this.renderer.getCharHeight());
+		if (this.image == null || this.image.getWidth() != width || this.image.getHeight() != height) {
+			this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+
+		render(snapshot, this.image);
+		return this.image;
+	}
+
+	/**
+	 * Render the given rows, counting the scrollback, into the given image.
+	 * The rows are rendered at the top left of the image.
+	 *
+	 * @param firstRow
+	 *            the first row to render
+	 *
+	 * @param rowCount
+	 *            the number of rows to render
+	 *
+	 * @param destination
+	 *            the image to render into
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the image is <code>null</code>, the first row is
+	 *             negative or the row count is negative
+	 */
+	public void render(int firstRow, int rowCount, BufferedImage destination) {
+		if (destination == null) {
+			throw new IllegalArgumentException("Image to render into cannot be null");
+		}
+
+		render(this.buffer.snapshot(firstRow, rowCount), destination);
+	}
+
+	/**
+	 * Render the snapshot into the given image, in tiles if it is tall
+	 * enough.
+	 *
+	 * @param snapshot
+	 * @param destination
+	 */
+	private void render(CellSnapshot snapshot, BufferedImage destination) {
+		Graphics2D graphics = destination.createGraphics();
+		try {
+			if (this.rasterizer != null && this.rasterizer.splits(snapshot.getRows())) {
+				this.rasterizer.setGlyphCache(this.glyphCache);
+				this.rasterizer.paint(graphics, snapshot, 0);
+				return;
+			}
+
+			this.renderer.setGlyphCache(this.glyphCache);
+			this.renderer.paint(graphics, snapshot, new Rectangle(0, 0, snapshot.getColumns() * this.renderer.getCharWidth(), snapshot.getRows() * this.renderer.getCharHeight()));
+		} finally {
+			graphics.dispose();
+		}
+	}
+
+	/**
+	 * Set the number of threads that tall renders are split across. Each
+	 * thread renders at least {@link SwingTerminalConstants#MIN_TILE_ROWS}
+	 * rows. Defaults to <code>1</code>, rendering on the calling thread only.
+	 *
+	 * @param parallelism
+	 *            the number of threads
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the number of threads is less than <code>1</code>
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least one");
+		}
+
+		if (parallelism == this.parallelism) {
+			return;
+		}
+
+		if (this.rasterizer != null) {
+			this.rasterizer.close();
+			this.rasterizer = null;
+		}
+
+		this.parallelism = parallelism;
+		if (parallelism > 1) {
+			this.rasterizer = new StripRasterizer(this.font, parallelism, SwingTerminalConstants.MIN_TILE_ROWS);
+		}
+	}
+
+	/**
+	 * Return the number of threads that tall renders are split across.
+	 *
+	 * @return
+	 */
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * Enable or disable painting characters from a cache of rasterized
+	 * glyphs. Disabled by default.
+	 *
+	 * @param enabled
+	 *            <code>true</code> to paint from the glyph cache
+	 */
+	public void setGlyphCache(boolean enabled) {
+		this.glyphCache = enabled;
+	}
+
+	/**
+	 * Return whether characters are painted from a cache of rasterized glyphs.
+	 *
+	 * @return
+	 */
+	public boolean isGlyphCache() {
+		return this.glyphCache;
+	}
+
+	/**
+	 * Return the {@link Font} cells are rendered with.
+	 *
+	 * @return
+	 */
+	public Font getFont() {
+		return this.font;
+	}
+
+	/**
+	 * Stop the threads rendering tiles and release the images held. The
+	 * renderer may still be used afterwards, on the calling thread only.
+	 *
+	 */
+	public void close() {
+		if (this.rasterizer != null) {
+			this.rasterizer.close();
+			this.rasterizer = null;
+		}
+
+		this.parallelism = 1;
+		this.image = null;
+	}
+
+}
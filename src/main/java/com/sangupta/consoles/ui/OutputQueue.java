@@ -0,0 +1,478 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, lock-free, multiple-producer queue of output chunks that sits
+ * between the threads writing to a console and its {@link TerminalBuffer}.
+ * Writers copy their characters into a slot of the queue without taking any
+ * lock, and the queue is drained in batches just before each frame, holding
+ * the lock of the buffer once per batch. Writers are thus never stalled by
+ * painting, which locks the same buffer.
+ *
+ * The queue is an array of slots, each with a sequence number that tells
+ * whether the slot is free for the producer claiming a position, or filled
+ * for the consumer. Slots keep their character arrays, so that queueing
+ * output allocates nothing once the queue is warmed up. Chunks are only ever
+ * consumed holding the lock of the buffer, which makes that lock the lock of
+ * the consumer: draining the queue may be done by any thread, including one
+ * that already holds the lock of the buffer. The buffer may be swapped for
+ * another one, which output queued afterwards goes to.
+ *
+ * @author sangupta
+ *
+ */
+public class OutputQueue {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(OutputQueue.class);
+
+	/**
+	 * The longest output copied into a slot. Longer output is written to the
+	 * buffer directly, after the output queued before it.
+	 */
+	private static final int MAX_CHUNK = 256;
+
+	/**
+	 * The most characters of consecutive chunks merged into one write to the
+	 * buffer
+	 */
+	private static final int MAX_RUN = 16 * MAX_CHUNK;
+
+	/**
+	 * A slot of the queue, holding one chunk of output.
+	 */
+	private static final class Slot {
+
+		char[] chars = new char[16];
+
+		int length;
+
+		TerminalCharacterAttribute attribute;
+
+	}
+
+	/**
+	 * The buffer to apply the output to, only changed holding its lock
+	 */
+	private volatile TerminalBuffer buffer;
+
+	/**
+	 * Run when output is queued and no drain has been asked for yet
+	 */
+	private final Runnable drainRequest;
+
+	/**
+	 * Number of slots in the queue, a power of two
+	 */
+	private final int capacity;
+
+	/**
+	 * Mask to convert a position into a slot
+	 */
+	private final int mask;
+
+	/**
+	 * The slots of the queue
+	 */
+	private final Slot[] slots;
+
+	/**
+	 * The sequence number of every slot: equal to the position when free for
+	 * a producer, to the position plus one when filled for the consumer
+	 */
+	private final AtomicLongArray sequences;
+
+	/**
+	 * The next position to be claimed by a producer
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Whether a drain has been asked for since the queue was last drained
+	 * before a frame
+	 */
+	private final AtomicBoolean drainRequested = new AtomicBoolean();
+
+	/**
+	 * The next position to be consumed, guarded by the lock of the buffer
+	 * that is current
+	 */
+	private long head;
+
+	/**
+	 * The characters of consecutive chunks merged into one write, guarded by
+	 * the lock of the buffer that is current
+	 */
+	private final char[] run = new char[MAX_RUN];
+
+	/**
+	 * Whether the queue has been closed
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Create a new queue.
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} to apply the output to
+	 *
+	 * @param capacity
+	 *            the maximum number of chunks waiting to be applied, rounded up
+	 *            to a power of two
+	 *
+	 * @param drainRequest
+	 *            run when output has been queued, to have the queue drained
+	 *            before the next frame with {@link #drainForFrame()}; must not
+	 *            block
+	 */
+	public OutputQueue(TerminalBuffer buffer, int capacity, Runnable drainRequest) {
+		if(buffer == null) {
+			throw new IllegalArgumentException("Terminal buffer cannot be null");
+		}
+
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+
+		if(drainRequest == null) {
+			throw new IllegalArgumentException("Drain request cannot be null");
+		}
+
+		this.buffer = buffer;
+		this.drainRequest = drainRequest;
+
+		int size = 1;
+		while(size < capacity) {
+			size <<= 1;
+		}
+
+		this.capacity = size;
+		this.mask = this.capacity - 1;
+		this.slots = new Slot[this.capacity];
+		this.sequences = new AtomicLongArray(this.capacity);
+		for(int slot = 0; slot < this.capacity; slot++) {
+			this.slots[slot] = new Slot();
+			this.sequences.set(slot, slot);
+		}
+	}
+
+	/**
+	 * Queue the given characters to be written at the cursor.
+	 *
+	 * @param chars
+	 *            the characters to write, copied before returning
+	 *
+	 * @param offset
+	 *            the index of the first character to write
+	 *
+	 * @param length
+	 *            the number of characters to write
+	 *
+	 * @param attribute
+	 *            the {@link TerminalCharacterAttribute} to write with
+	 */
+	public void offer(char[] chars, int offset, int length, TerminalCharacterAttribute attribute) {
+		if(length <= 0) {
+			return;
+		}
+
+		if(length > MAX_CHUNK) {
+			writeDirectly(chars, offset, length, attribute);
+			return;
+		}
+
+		long position = claim();
+		Slot slot = this.slots[(int) position & this.mask];
+		if(slot.chars.length < length) {
+			slot.chars = new char[Math.max(length, 2 * slot.chars.length)];
+		}
+
+		System.arraycopy(chars, offset, slot.chars, 0, length);
+		slot.length = length;
+		slot.attribute = attribute;
+		publish(position);
+	}
+
+	/**
+	 * Queue the given string to be written at the cursor.
+	 *
+	 * @param string
+	 *            the string to write
+	 *
+	 * @param attribute
+	 *            the {@link TerminalCharacterAttribute} to write with
+	 */
+	public void offer(String string, TerminalCharacterAttribute attribute) {
+		int length = string.length();
+		if(length == 0) {
+			return;
+		}
+
+		if(length > MAX_CHUNK) {
+			char[] chars = string.toCharArray();
+			writeDirectly(chars, 0, length, attribute);
+			return;
+		}
+
+		long position = claim();
+		Slot slot = this.slots[(int) position & this.mask];
+		if(slot.chars.length < length) {
+			slot.chars = new char[Math.max(length, 2 * slot.chars.length)];
+		}
+
+		string.getChars(0, length, slot.chars, 0);
+		slot.length = length;
+		slot.attribute = attribute;
+		publish(position);
+	}
+
+	/**
+	 * Queue the given character to be written at the cursor. Consecutive
+	 * chunks with the same attribute are applied in one write, so a single
+	 * character costs a slot but not a write of its own.
+	 *
+	 * @param c
+	 *            the character to write
+	 *
+	 * @param attribute
+	 *            the {@link TerminalCharacterAttribute} to write with
+	 */
+	public void offer(char c, TerminalCharacterAttribute attribute) {
+		long position = claim();
+		Slot slot = this.slots[(int) position & this.mask];
+		slot.chars[0] = c;
+		slot.length = 1;
+		slot.attribute = attribute;
+		publish(position);
+	}
+
+	/**
+	 * Apply all the output queued before this call to the buffer. May be
+	 * called from any thread, including one that holds the lock of the
+	 * buffer.
+	 *
+	 */
+	public void drain() {
+		long end = this.tail.get();
+		for(;;) {
+			TerminalBuffer target = this.buffer;
+			synchronized (target) {
+				if(target == this.buffer) {
+					apply(target, end);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Apply all the output queued before this call to the current buffer,
+	 * and have the output queued afterwards go to the given buffer. Nothing
+	 * is copied between the buffers.
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} to apply the output to from now on
+	 */
+	public void setBuffer(TerminalBuffer buffer) {
+		if(buffer == null) {
+			throw new IllegalArgumentException("Terminal buffer cannot be null");
+		}
+
+		long end = this.tail.get();
+		for(;;) {
+			TerminalBuffer target = this.buffer;
+			synchronized (target) {
+				if(target == this.buffer) {
+					apply(target, end);
+
+					// swapped holding the lock, so that no one is applying
+					// output to the previous buffer any more
+					this.buffer = buffer;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Apply all the queued output to the buffer before a frame is run, and
+	 * have the next output queued ask for a drain again.
+	 *
+	 */
+	public void drainForFrame() {
+		// cleared before draining, so that output published after the drain
+		// has looked at its slot asks for another one
+		this.drainRequested.set(false);
+		drain();
+	}
+
+	/**
+	 * Apply all the queued output and close the queue. Output offered
+	 * afterwards by writers that still hold the queue is applied by the
+	 * writers themselves.
+	 *
+	 */
+	public void close() {
+		this.closed = true;
+		drain();
+	}
+
+	/**
+	 * Claim the next position of the queue, draining the queue when it is
+	 * full.
+	 *
+	 * @return the position claimed
+	 */
+	private long claim() {
+		for(;;) {
+			long position = this.tail.get();
+			long difference = this.sequences.get((int) position & this.mask) - position;
+
+			if(difference == 0) {
+				if(this.tail.compareAndSet(position, position + 1)) {
+					return position;
+				}
+			} else if(difference < 0) {
+				// full - make room, waiting for any producer still filling in
+				// the oldest slot
+				drain();
+			}
+
+			// else another producer claimed the position, try again
+		}
+	}
+
+	/**
+	 * Hand a filled slot over to the consumer, and have the queue drained.
+	 *
+	 * @param position
+	 *            the position of the slot
+	 */
+	private void publish(long position) {
+		this.sequences.set((int) position & this.mask, position + 1);
+
+		// checked after publishing, so that either close() or this writer
+		// applies the chunk
+		if(this.closed) {
+			drain();
+			return;
+		}
+
+		if(this.drainRequested.compareAndSet(false, true)) {
+			this.drainRequest.run();
+		}
+	}
+
+	/**
+	 * Write output too long for a slot straight to the buffer, after the
+	 * output queued before it.
+	 *
+	 * @param chars
+	 *            the characters to write
+	 *
+	 * @param offset
+	 *            the index of the first character to write
+	 *
+	 * @param length
+	 *            the number of characters to write
+	 *
+	 * @param attribute
+	 *            the {@link TerminalCharacterAttribute} to write with
+	 */
+	private void writeDirectly(char[] chars, int offset, int length, TerminalCharacterAttribute attribute) {
+		long end = this.tail.get();
+		for(;;) {
+			TerminalBuffer target = this.buffer;
+			synchronized (target) {
+				if(target == this.buffer) {
+					apply(target, end);
+					target.write(chars, offset, length, attribute);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Apply the chunks up to the given position, merging consecutive chunks
+	 * with the same attribute into one write. Called holding the lock of the
+	 * buffer.
+	 *
+	 * @param target
+	 *            the current buffer
+	 *
+	 * @param end
+	 *            the position to apply the chunks up to
+	 */
+	private void apply(TerminalBuffer target, long end) {
+		while(this.head < end) {
+			int index = (int) this.head & this.mask;
+			if(this.sequences.get(index) != this.head + 1) {
+				// claimed, but still being filled in
+				Thread.yield();
+				continue;
+			}
+
+			Slot slot = this.slots[index];
+			TerminalCharacterAttribute attribute = slot.attribute;
+			int length = 0;
+			long position = this.head;
+			do {
+				System.arraycopy(slot.chars, 0, this.run, length, slot.length);
+				length += slot.length;
+				position++;
+				if(position == end) {
+					break;
+				}
+
+				index = (int) position & this.mask;
+				if(this.sequences.get(index) != position + 1) {
+					break;
+				}
+
+				slot = this.slots[index];
+			} while(length + slot.length <= MAX_RUN && attribute.equals(slot.attribute));
+
+			try {
+				target.write(this.run, 0, length, attribute);
+			} catch(RuntimeException e) {
+				// do not let one bad chunk stop all output
+				LOGGER.error("Unable to apply output to terminal buffer", e);
+			}
+
+			for(; this.head < position; this.head++) {
+				index = (int) this.head & this.mask;
+				this.slots[index].attribute = null;
+				this.sequences.set(index, this.head + this.capacity);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,226 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the images of rendered rows, keyed by the identity and version of the
+ * row along with the width and background they were rendered with. The least
+ * recently used images are dropped once the images take more than the given
+ * number of bytes.
+ *
+ * The images are all rendered with the font of one renderer, which is why the
+ * font is not part of the key.
+ *
+ * @author sangupta
+ *
+ */
+final class RowImageCache {
+
+	/**
+	 * The number of bytes the images may take
+	 */
+	private final long maxBytes;
+
+	/**
+	 * The number of bytes the images currently take
+	 */
+	private long bytes;
+
+	/**
+	 * The images, in order of use
+	 */
+	private final LinkedHashMap<Key, BufferedImage> images = new LinkedHashMap<Key, BufferedImage>(64, 0.75f, true);
+
+	/**
+	 * Reusable key to look up images with
+	 */
+	private final Key probe = new Key();
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param maxBytes
+	 *            the number of bytes the images may take
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the number of bytes is not positive
+	 */
+	RowImageCache(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Return the image of the given row, if held.
+	 *
+	 * @param id
+	 *            the identity of the row
+	 *
+	 * @param version
+	 *            the version of the row
+	 *
+	 * @param columns
+	 *            the number of columns rendered
+	 *
+	 * @param background
+	 *            the RGB of the default background rendered with
+	 *
+	 * @return the image, or <code>null</code> if not held
+	 */
+	BufferedImage get(long id, long version, int columns, int background) {
+		this.probe.set(id, version, columns, background);
+		return this.images.get(this.probe);
+	}
+
+	/**
+	 * Keep the image of the given row, dropping the least recently used
+	 * images if needed.
+	 *
+	 * @param id
+	 *            the identity of the row
+	 *
+	 * @param version
+	 *            the version of the row
+	 *
+	 * @param columns
+	 *            the number of columns rendered
+	 *
+	 * @param background
+	 *            the RGB of the default background rendered with
+	 *
+	 * @param image
+	 *            the image of the row
+	 */
+	void put(long id, long version, int columns, int background, BufferedImage image) {
+		Key key = new Key();
+		key.set(id, version, columns, background);
+
+		BufferedImage previous = this.images.put(key, image);
+		if (previous != null) {
+			this.bytes -= sizeOf(previous);
+		}
+
+		this.bytes += sizeOf(image);
+
+		Iterator<Map.Entry<Key, BufferedImage>> iterator = this.images.entrySet().iterator();
+		while (this.bytes > this.maxBytes && iterator.hasNext()) {
+			Map.Entry<Key, BufferedImage> eldest = iterator.next();
+			if (eldest.getValue() == image) {
+				break;
+			}
+
+			this.bytes -= sizeOf(eldest.getValue());
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Drop all images.
+	 *
+	 */
+	void clear() {
+		this.images.clear();
+		this.bytes = 0;
+	}
+
+	/**
+	 * Return the number of images held.
+	 *
+	 * @return
+	 */
+	int size() {
+		return this.images.size();
+	}
+
+	/**
+	 * Return the number of bytes the images held take.
+	 *
+	 * @return
+	 */
+	long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * Return the number of bytes the given image takes, counting four bytes
+	 * per pixel.
+	 *
+	 * @param image
+	 * @return
+	 */
+	private static long sizeOf(BufferedImage image) {
+		return 4L * image.getWidth() * image.getHeight();
+	}
+
+	/**
+	 * The key images are held by.
+	 *
+	 */
+	private static final class Key {
+
+		private long id;
+
+		private long version;
+
+		private int columns;
+
+		private int background;
+
+		void set(long id, long version, int columns, int background) {
+			this.id = id;
+			this.version = version;
+			this.columns = columns;
+			this.background = background;
+		}
+
+		@Override
+		public int hashCode() {
+			long hash = this.id * 31 + this.version;
+			return (int) (hash ^ (hash >>> 32)) * 31 + this.columns * 17 + this.background;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) obj;
+			return this.id == other.id && this.version == other.version && this.columns == other.columns && this.background == other.background;
+		}
+
+	}
+
+}
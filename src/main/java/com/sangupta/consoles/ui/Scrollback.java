@@ -0,0 +1,101 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ui;
+
+/**
+ * Contract for a store that keeps the rows that have been evicted from the
+ * in-memory {@link CellBuffer} of a terminal. Rows are addressed from zero,
+ * the oldest row first. Rows are exchanged as packed cells, as defined by
+ * {@link CellBuffer}.
+ *
+ * @author sangupta
+ *
+ */
+public interface Scrollback {
+
+	/**
+	 * Return the number of rows currently held.
+	 *
+	 * @return
+	 */
+	public int size();
+
+	/**
+	 * Append a row after the newest row. If the store is full, the oldest row
+	 * is discarded.
+	 *
+	 * @param cells
+	 *            the packed cells of the row
+	 *
+	 * @param columns
+	 *            the number of cells in the row
+	 *
+	 * @return <code>true</code> if the oldest row was discarded to make space
+	 */
+	public boolean push(long[] cells, int columns);
+
+	/**
+	 * Read a row into the given array.
+	 *
+	 * @param row
+	 *            the row to read, zero being the oldest
+	 *
+	 * @param destination
+	 *            the array to read the packed cells into
+	 *
+	 * @param columns
+	 *            the number of cells to read, cells not stored are returned as
+	 *            <code>blank</code>
+	 *
+	 * @param blank
+	 *            the packed cell to pad the row with
+	 */
+	public void read(int row, long[] destination, int columns, long blank);
+
+	/**
+	 * Replace the content of a row.
+	 *
+	 * @param row
+	 *            the row to write, zero being the oldest
+	 *
+	 * @param cells
+	 *            the packed cells of the row
+	 *
+	 * @param columns
+	 *            the number of cells in the row
+	 */
+	public void write(int row, long[] cells, int columns);
+
+	/**
+	 * Discard all rows.
+	 *
+	 */
+	public void clear();
+
+	/**
+	 * Discard all rows and release any resource held by the store. The store
+	 * may not be used afterwards.
+	 *
+	 */
+	public void close();
+
+}
@@ -0,0 +1,263 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+/**
+ * An immutable range of selected cells in a {@link TerminalBuffer}. The
+ * selection is kept apart from the cells and is applied when painting, so
+ * changing it only touches the rows whose selected span changed.
+ *
+ * Positions are given as rows counted from the first row held by the buffer,
+ * and columns. Both ends are included in the selection.
+ *
+ * @author sangupta
+ *
+ */
+public final class Selection {
+
+	/**
+	 * The row of the end closest to the top
+	 */
+	private final int startRow;
+
+	/**
+	 * The column of the end closest to the top
+	 */
+	private final int startColumn;
+
+	/**
+	 * The row of the end closest to the bottom
+	 */
+	private final int endRow;
+
+	/**
+	 * The column of the end closest to the bottom
+	 */
+	private final int endColumn;
+
+	/**
+	 * How the cells between the ends are selected
+	 */
+	private final SelectionMode mode;
+
+	/**
+	 * Create a selection between two positions, given in any order.
+	 *
+	 * @param anchorRow
+	 *            the row where the selection started
+	 *
+	 * @param anchorColumn
+	 *            the column where the selection started
+	 *
+	 * @param row
+	 *            the row where the selection ends now
+	 *
+	 * @param column
+	 *            the column where the selection ends now
+	 *
+	 * @param mode
+	 *            the {@link SelectionMode} to select with
+	 */
+	public Selection(int anchorRow, int anchorColumn, int row, int column, SelectionMode mode) {
+		if (mode == null) {
+			throw new IllegalArgumentException("Selection mode cannot be null");
+		}
+
+		if (anchorRow < row || (anchorRow == row && anchorColumn <= column)) {
+			this.startRow = anchorRow;
+			this.startColumn = anchorColumn;
+			this.endRow = row;
+			this.endColumn = column;
+		} else {
+			this.startRow = row;
+			this.startColumn = column;
+			this.endRow = anchorRow;
+			this.endColumn = anchorColumn;
+		}
+
+		this.mode = mode;
+	}
+
+	/**
+	 * Return the first column selected in the given row.
+	 *
+	 * @param row
+	 *            the row to look at
+	 *
+	 * @param columns
+	 *            the number of columns in the row
+	 *
+	 * @return the first selected column, or <code>-1</code> if no cell of the
+	 *         row is selected
+	 */
+	public int startOf(int row, int columns) {
+		if (row < this.startRow || row > this.endRow) {
+			return -1;
+		}
+
+		int start;
+		if (this.mode == SelectionMode.BLOCK) {
+			start = Math.min(this.startColumn, this.endColumn);
+		} else if (row == this.startRow) {
+			start = this.startColumn;
+		} else {
+			start = 0;
+		}
+
+		start = Math.max(start, 0);
+		if (start >= columns) {
+			return -1;
+		}
+
+		return start;
+	}
+
+	/**
+	 * Return one past the last column selected in the given row.
+	 *
+	 * @param row
+	 *            the row to look at
+	 *
+	 * @param columns
+	 *            the number of columns in the row
+	 *
+	 * @return one past the last selected column, or <code>-1</code> if no
+	 *         cell of the row is selected
+	 */
+	public int endOf(int row, int columns) {
+		if (startOf(row, columns) < 0) {
+			return -1;
+		}
+
+		int end;
+		if (this.mode == SelectionMode.BLOCK) {
+			end = Math.max(this.startColumn, this.endColumn) + 1;
+		} else if (row == this.endRow) {
+			end = this.endColumn + 1;
+		} else {
+			end = columns;
+		}
+
+		return Math.min(end, columns);
+	}
+
+	/**
+	 * Return whether the given cell is selected.
+	 *
+	 * @param row
+	 * @param column
+	 * @param columns
+	 *            the number of columns in the row
+	 * @return
+	 */
+	public boolean contains(int row, int column, int columns) {
+		return column >= startOf(row, columns) && column < endOf(row, columns);
+	}
+
+	/**
+	 * Return a selection of the same cells after all rows moved up by the
+	 * given number of rows.
+	 *
+	 * @param rows
+	 *            the number of rows moved
+	 *
+	 * @return the moved selection, or <code>null</code> if it moved out of the
+	 *         buffer entirely
+	 */
+	public Selection moveUp(int rows) {
+		if (this.endRow - rows < 0) {
+			return null;
+		}
+
+		return new Selection(this.startRow - rows, this.startColumn, this.endRow - rows, this.endColumn, this.mode);
+	}
+
+	/**
+	 * Return the first row touched by the selection.
+	 *
+	 * @return
+	 */
+	public int getStartRow() {
+		return this.startRow;
+	}
+
+	/**
+	 * Return the column of the end of the selection closest to the top.
+	 *
+	 * @return
+	 */
+	public int getStartColumn() {
+		return this.startColumn;
+	}
+
+	/**
+	 * Return the last row touched by the selection.
+	 *
+	 * @return
+	 */
+	public int getEndRow() {
+		return this.endRow;
+	}
+
+	/**
+	 * Return the column of the end of the selection closest to the bottom.
+	 *
+	 * @return
+	 */
+	public int getEndColumn() {
+		return this.endColumn;
+	}
+
+	/**
+	 * Return how the cells between the ends are selected.
+	 *
+	 * @return
+	 */
+	public SelectionMode getMode() {
+		return this.mode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof Selection)) {
+			return false;
+		}
+
+		Selection other = (Selection) obj;
+		return this.startRow == other.startRow && this.startColumn == other.startColumn && this.endRow == other.endRow && this.endColumn == other.endColumn && this.mode == other.mode;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = this.startRow;
+		hash = 31 * hash + this.startColumn;
+		hash = 31 * hash + this.endRow;
+		hash = 31 * hash + this.endColumn;
+		return 31 * hash + this.mode.hashCode();
+	}
+
+}
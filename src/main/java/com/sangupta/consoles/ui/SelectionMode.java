@@ -0,0 +1,44 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+/**
+ * Defines how the cells between the two ends of a {@link Selection} are
+ * selected.
+ * 
+ * @author sangupta
+ *
+ */
+public enum SelectionMode {
+	
+	/**
+	 * Select the text flowing from one end to the other, as a text editor does
+	 */
+	LINEAR,
+	
+	/**
+	 * Select the rectangle with the two ends at its corners
+	 */
+	BLOCK;
+
+}
@@ -0,0 +1,290 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Paints a {@link CellSnapshot} by splitting it into horizontal strips that
+ * are rasterized in parallel, each into its own image, and then composited
+ * by the calling thread. The strip images and the renderer of each thread
+ * are kept across calls.
+ *
+ * A rasterizer must be used from one thread at a time.
+ *
+ * @author sangupta
+ *
+ */
+class StripRasterizer {
+
+	/**
+	 * The font cells are painted with
+	 */
+	private final Font font;
+
+	/**
+	 * The number of threads rasterizing strips
+	 */
+	private final int parallelism;
+
+	/**
+	 * The minimum number of rows in a strip
+	 */
+	private final int minStripRows;
+
+	/**
+	 * The threads rasterizing strips
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The renderer used by each thread rasterizing strips
+	 */
+	private final ThreadLocal<TerminalRenderer> renderers = new ThreadLocal<TerminalRenderer>() {
+
+		@Override
+		protected TerminalRenderer initialValue() {
+			return new TerminalRenderer(font);
+		}
+
+	};
+
+	/**
+	 * The images strips were rasterized into, reused while large enough
+	 */
+	private BufferedImage[] strips = new BufferedImage[0];
+
+	/**
+	 * Whether characters are painted from a {@link GlyphAtlas}
+	 */
+	private volatile boolean glyphCache;
+
+	/**
+	 * Create a new rasterizer.
+	 *
+	 * @param font
+	 *            the {@link Font} to paint with
+	 *
+	 * @param parallelism
+	 *            the number of threads, at least <code>2</code>
+	 *
+	 * @param minStripRows
+	 *            the minimum number of rows in a strip, at least
+	 *            <code>1</code>
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the font is <code>null</code>, or the parallelism or the
+	 *             strip rows are too small
+	 */
+	StripRasterizer(Font font, int parallelism, int minStripRows) {
+		if (font == null) {
+			throw new IllegalArgumentException("Font cannot be null");
+		}
+
+		if (parallelism < 2) {
+			throw new IllegalArgumentException("Parallelism must be at least two");
+		}
+
+		if (minStripRows < 1) {
+			throw new IllegalArgumentException("Strips must have at least one row");
+		}
+
+		this.font = font;
+		this.parallelism = parallelism;
+		this.minStripRows = minStripRows;
+		this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "consoles-strip-rasterizer");
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+	}
+
+	/**
+	 * Return whether a snapshot of the given number of rows would be split
+	 * into more than one strip.
+	 *
+	 * @param rows
+	 *            the number of rows
+	 *
+	 * @return
+	 */
+	boolean splits(int rows) {
+		return rows >= 2 * this.minStripRows;
+	}
+
+	/**
+	 * Paint the snapshot with its first row at the given position, as
+	 * {@link TerminalRenderer#paint(Graphics, CellSnapshot, Rectangle)} would
+	 * paint it over the full width of its rows.
+	 *
+	 * @param graphics
+	 *            the {@link Graphics} to composite the strips with
+	 *
+	 * @param snapshot
+	 *            the {@link CellSnapshot} to paint
+	 *
+	 * @param y
+	 *            the top of the first row in pixels
+	 */
+	void paint(Graphics graphics, CellSnapshot snapshot, int y) {
+		TerminalRenderer renderer = this.renderers.get();
+		int width = snapshot.getColumns() * renderer.getCharWidth();
+		int charHeight = renderer.getCharHeight();
+		int rows = snapshot.getRows();
+
+		int stripRows = Math.max(this.minStripRows, (rows + this.parallelism - 1) / this.parallelism);
+		int stripCount = (rows + stripRows - 1) / stripRows;
+		if (width <= 0 || stripCount == 0) {
+			return;
+		}
+
+		if (this.strips.length < stripCount) {
+			BufferedImage[] strips = new BufferedImage[stripCount];
+			System.arraycopy(this.strips, 0, strips, 0, this.strips.length);
+			this.strips = strips;
+		}
+
+		List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>(stripCount);
+		for (int strip = 0; strip < stripCount; strip++) {
+			Rectangle area = new Rectangle(0, strip * stripRows * charHeight, width, Math.min(stripRows, rows - strip * stripRows) * charHeight);
+
+			BufferedImage image = this.strips[strip];
+			if (image == null || image.getWidth() < area.width || image.getHeight() < area.height) {
+				image = new BufferedImage(area.width, stripRows * charHeight, BufferedImage.TYPE_INT_RGB);
+				this.strips[strip] = image;
+			}
+
+			futures.add(this.executor.submit(new StripTask(snapshot, area, image)));
+		}
+
+		try {
+			for (int strip = 0; strip < stripCount; strip++) {
+				BufferedImage image = futures.get(strip).get();
+
+				int top = y + strip * stripRows * charHeight;
+				int height = Math.min(stripRows, rows - strip * stripRows) * charHeight;
+				graphics.drawImage(image, 0, top, width, top + height, 0, 0, width, height, null);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while rasterizing", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Unable to rasterize strip", e.getCause());
+		}
+	}
+
+	/**
+	 * Enable or disable painting characters from a cache of rasterized
+	 * glyphs.
+	 *
+	 * @param enabled
+	 *            <code>true</code> to paint from the glyph cache
+	 */
+	void setGlyphCache(boolean enabled) {
+		this.glyphCache = enabled;
+	}
+
+	/**
+	 * Return the {@link Font} cells are painted with.
+	 *
+	 * @return
+	 */
+	Font getFont() {
+		return this.font;
+	}
+
+	/**
+	 * Return the number of threads rasterizing strips.
+	 *
+	 * @return
+	 */
+	int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * Stop the threads rasterizing strips and release the images held.
+	 *
+	 */
+	void close() {
+		this.executor.shutdown();
+		this.strips = new BufferedImage[0];
+	}
+
+	/**
+	 * Rasterizes one strip of a snapshot into the top of its own image.
+	 *
+	 */
+	private class StripTask implements Callable<BufferedImage> {
+
+		private final CellSnapshot snapshot;
+
+		/**
+		 * The area of the snapshot covered by the strip, in pixels
+		 */
+		private final Rectangle area;
+
+		private final BufferedImage image;
+
+		StripTask(CellSnapshot snapshot, Rectangle area, BufferedImage image) {
+			this.snapshot = snapshot;
+			this.area = area;
+			this.image = image;
+		}
+
+		@Override
+		public BufferedImage call() {
+			TerminalRenderer renderer = renderers.get();
+			renderer.setGlyphCache(glyphCache);
+
+			Graphics2D graphics = this.image.createGraphics();
+			try {
+				graphics.translate(0, -this.area.y);
+				renderer.paint(graphics, this.snapshot, this.area);
+			} finally {
+				graphics.dispose();
+			}
+
+			return this.image;
+		}
+
+	}
+
+}
@@ -0,0 +1,485 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import java.io.UnsupportedEncodingException;
+
+import com.sangupta.consoles.IConsole;
+import com.sangupta.consoles.core.AnsiHandler;
+import com.sangupta.consoles.core.AnsiParser;
+
+/**
+ * Applies the text and sequences recognized by an {@link AnsiParser} to a
+ * {@link UITerminal}: text is written in the rendition set by the
+ * <code>SGR</code> sequences, and the cursor and erase sequences act on the
+ * screen. Every thread printing to a terminal has a handler of its own, and
+ * the rendition and the saved cursor are kept in the {@link TerminalAnsiState}
+ * shared by all of them.
+ * 
+ * @author sangupta
+ *
+ */
+class TerminalAnsiHandler implements AnsiHandler {
+	
+	/**
+	 * The terminal to write to
+	 */
+	private final UITerminal terminal;
+	
+	/**
+	 * The console the terminal belongs to, whose window title is set
+	 */
+	private final IConsole console;
+	
+	/**
+	 * The rendition and the saved cursor of the terminal
+	 */
+	private final TerminalAnsiState state;
+	
+	/**
+	 * Characters of text given as bytes
+	 */
+	private final char[] chars = new char[256];
+	
+	TerminalAnsiHandler(UITerminal terminal, IConsole console, TerminalAnsiState state) {
+		this.terminal = terminal;
+		this.console = console;
+		this.state = state;
+	}
+	
+	/**
+	 * @see AnsiHandler#print(char[], int, int)
+	 */
+	public void print(char[] chars, int offset, int length) {
+		this.terminal.output(chars, offset, length, attribute());
+	}
+	
+	/**
+	 * Bytes of text are taken as ISO-8859-1 characters.
+	 * 
+	 * @see AnsiHandler#print(byte[], int, int)
+	 */
+	public void print(byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			int count = Math.min(length, this.chars.length);
+			for (int index = 0; index < count; index++) {
+				this.chars[index] = (char) (bytes[offset + index] & 0xFF);
+			}
+			
+			this.terminal.output(this.chars, 0, count, attribute());
+			offset += count;
+			length -= count;
+		}
+	}
+	
+	/**
+	 * Line feeds and tabs go through the buffer; a carriage return is
+	 * handled here as the buffer drops it.
+	 * 
+	 * @see AnsiHandler#execute(int)
+	 */
+	public void execute(int control) {
+		switch (control) {
+			case '\n':
+			case '\t':
+				this.terminal.output((char) control, attribute());
+				break;
+				
+			case '\r':
+				this.terminal.setCursorPosition(0, this.terminal.getCursorY());
+				break;
+				
+			case '\b':
+				int x = this.terminal.getCursorX();
+				if (x > 0) {
+					this.terminal.setCursorPosition(x - 1, this.terminal.getCursorY());
+				}
+				break;
+		}
+	}
+	
+	/**
+	 * Saves and restores the cursor for <code>ESC 7</code> and
+	 * <code>ESC 8</code>.
+	 * 
+	 * @see AnsiHandler#escDispatch(int, int)
+	 */
+	public void escDispatch(int intermediates, int finalChar) {
+		if (intermediates != 0) {
+			return;
+		}
+		
+		if (finalChar == '7') {
+			saveCursor();
+		} else if (finalChar == '8') {
+			restoreCursor();
+		}
+	}
+	
+	/**
+	 * @see AnsiHandler#csiDispatch(int[], int, int, int)
+	 */
+	public void csiDispatch(int[] params, int paramCount, int intermediates, int finalChar) {
+		if (intermediates == '?' && (finalChar == 'h' || finalChar == 'l')) {
+			for (int index = 0; index < paramCount; index++) {
+				setPrivateMode(params[index], finalChar == 'h');
+			}
+			
+			return;
+		}
+		
+		if (intermediates != 0) {
+			return;
+		}
+		
+		int count = param(params, paramCount, 0, 1);
+		switch (finalChar) {
+			case 'A':
+				moveCursor(0, -count);
+				break;
+				
+			case 'B':
+				moveCursor(0, count);
+				break;
+				
+			case 'C':
+				moveCursor(count, 0);
+				break;
+				
+			case 'D':
+				moveCursor(-count, 0);
+				break;
+				
+			case 'G':
+				setCursor(count - 1, this.terminal.getCursorY());
+				break;
+				
+			case 'd':
+				setCursor(this.terminal.getCursorX(), count - 1);
+				break;
+				
+			case 'H':
+			case 'f':
+				setCursor(param(params, paramCount, 1, 1) - 1, count - 1);
+				break;
+				
+			case 'J':
+				eraseScreen(paramCount > 0 ? params[0] : 0);
+				break;
+				
+			case 'K':
+				eraseLine(paramCount > 0 ? params[0] : 0);
+				break;
+				
+			case 'm':
+				this.state.applySgr(params, paramCount);
+				break;
+				
+			case 'r':
+				setScrollRegion(count - 1, param(params, paramCount, 1, this.terminal.getRows()) - 1);
+				break;
+				
+			case 'L':
+				scrollFromCursor(-count);
+				break;
+				
+			case 'M':
+				scrollFromCursor(count);
+				break;
+				
+			case 'S':
+				scrollRegion(count);
+				break;
+				
+			case 'T':
+				scrollRegion(-count);
+				break;
+				
+			case 's':
+				saveCursor();
+				break;
+				
+			case 'u':
+				restoreCursor();
+				break;
+		}
+	}
+	
+	/**
+	 * Sets the window title for <code>OSC 0</code> and <code>OSC 2</code>.
+	 * 
+	 * @see AnsiHandler#oscDispatch(byte[], int)
+	 */
+	public void oscDispatch(byte[] data, int length) {
+		if (length < 2 || data[1] != ';' || (data[0] != '0' && data[0] != '2')) {
+			return;
+		}
+		
+		try {
+			this.console.setWindowTitle(new String(data, 2, length - 2, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			// eat up
+		}
+	}
+	
+	/**
+	 * @see AnsiHandler#hook(int[], int, int, int)
+	 */
+	public void hook(int[] params, int paramCount, int intermediates, int finalChar) {
+		// device control strings are not supported
+	}
+	
+	/**
+	 * @see AnsiHandler#put(byte[], int, int)
+	 */
+	public void put(byte[] bytes, int offset, int length) {
+		// device control strings are not supported
+	}
+	
+	/**
+	 * @see AnsiHandler#unhook()
+	 */
+	public void unhook() {
+		// device control strings are not supported
+	}
+	
+	/**
+	 * Set or reset a DEC private mode, given by <code>CSI ? n h</code> and
+	 * <code>CSI ? n l</code>. Only the modes of the alternate screen are
+	 * supported: <code>1049</code> saves the cursor and clears the alternate
+	 * screen on entering it and restores the cursor on leaving,
+	 * <code>1047</code> clears the alternate screen on leaving it, and
+	 * <code>47</code> only switches.
+	 * 
+	 * @param mode
+	 * @param set
+	 */
+	private void setPrivateMode(int mode, boolean set) {
+		switch (mode) {
+			case 47:
+				this.terminal.setAlternateScreen(set);
+				break;
+				
+			case 1047:
+				if (!set && this.terminal.isAlternateScreen()) {
+					this.terminal.clearScreen();
+				}
+				
+				this.terminal.setAlternateScreen(set);
+				break;
+				
+			case 1049:
+				if (set) {
+					if (!this.terminal.isAlternateScreen()) {
+						saveCursor();
+						this.terminal.setAlternateScreen(true);
+					}
+					
+					this.terminal.clearScreen();
+				} else if (this.terminal.isAlternateScreen()) {
+					this.terminal.setAlternateScreen(false);
+					restoreCursor();
+				}
+				break;
+		}
+	}
+	
+	/**
+	 * Return the attribute text is to be written with.
+	 * 
+	 * @return
+	 */
+	private TerminalCharacterAttribute attribute() {
+		return this.state.attribute();
+	}
+	
+	/**
+	 * Return the given parameter of a sequence, or the default value if it
+	 * was left out or is zero.
+	 * 
+	 * @param params
+	 * @param paramCount
+	 * @param index
+	 * @param defaultValue
+	 * @return
+	 */
+	private static int param(int[] params, int paramCount, int index, int defaultValue) {
+		if (index >= paramCount || params[index] == 0) {
+			return defaultValue;
+		}
+		
+		return params[index];
+	}
+	
+	private void moveCursor(int dx, int dy) {
+		setCursor(this.terminal.getCursorX() + dx, this.terminal.getCursorY() + dy);
+	}
+	
+	/**
+	 * Move the cursor to the given position, kept on the screen.
+	 * 
+	 * @param x
+	 * @param y
+	 */
+	private void setCursor(int x, int y) {
+		x = Math.max(0, Math.min(x, this.terminal.getColumns() - 1));
+		y = Math.max(0, Math.min(y, this.terminal.getRows() - 1));
+		this.terminal.setCursorPosition(x, y);
+	}
+	
+	private void saveCursor() {
+		this.state.saveCursor();
+	}
+	
+	private void restoreCursor() {
+		this.state.restoreCursor();
+	}
+	
+	/**
+	 * Set the scroll region and move the cursor home. A region that does not
+	 * span at least two rows of the screen is ignored.
+	 * 
+	 * @param top
+	 * @param bottom
+	 */
+	private void setScrollRegion(int top, int bottom) {
+		bottom = Math.min(bottom, this.terminal.getRows() - 1);
+		if (top >= bottom) {
+			return;
+		}
+		
+		this.terminal.setScrollRegion(top, bottom);
+		setCursor(0, 0);
+	}
+	
+	/**
+	 * Move the rows of the scroll region up or down, for <code>SU</code> and
+	 * <code>SD</code>.
+	 * 
+	 * @param count
+	 *            the number of rows to move up by, negative to move down
+	 */
+	private void scrollRegion(int count) {
+		TerminalBuffer buffer = this.terminal.getBuffer();
+		int top = buffer.getScrollRegionTop();
+		int bottom = buffer.getScrollRegionBottom();
+		if (top < 0) {
+			top = 0;
+			bottom = this.terminal.getRows() - 1;
+		}
+		
+		this.terminal.scrollRows(top, bottom, count);
+	}
+	
+	/**
+	 * Move the rows from the cursor to the bottom of the scroll region up or
+	 * down, for <code>DL</code> and <code>IL</code>. Nothing happens when
+	 * the cursor is outside the region.
+	 * 
+	 * @param count
+	 *            the number of rows to move up by, negative to move down
+	 */
+	private void scrollFromCursor(int count) {
+		TerminalBuffer buffer = this.terminal.getBuffer();
+		int top = buffer.getScrollRegionTop();
+		int bottom = buffer.getScrollRegionBottom();
+		if (top < 0) {
+			top = 0;
+			bottom = this.terminal.getRows() - 1;
+		}
+		
+		int y = this.terminal.getCursorY();
+		if (y < top || y > bottom) {
+			return;
+		}
+		
+		this.terminal.scrollRows(y, bottom, count);
+		this.terminal.setCursorPosition(0, y);
+	}
+	
+	/**
+	 * Erase part of the screen: from the cursor to the end for mode
+	 * <code>0</code>, from the start to the cursor for mode <code>1</code>,
+	 * and all of it for modes <code>2</code> and <code>3</code>.
+	 * 
+	 * @param mode
+	 */
+	private void eraseScreen(int mode) {
+		int x = this.terminal.getCursorX();
+		int y = this.terminal.getCursorY();
+		int rows = this.terminal.getRows();
+		int columns = this.terminal.getColumns();
+		TerminalCharacterAttribute blank = attribute();
+		
+		switch (mode) {
+			case 0:
+				this.terminal.erase(y, x, columns, blank);
+				for (int row = y + 1; row < rows; row++) {
+					this.terminal.erase(row, 0, columns, blank);
+				}
+				break;
+				
+			case 1:
+				for (int row = 0; row < y; row++) {
+					this.terminal.erase(row, 0, columns, blank);
+				}
+				this.terminal.erase(y, 0, x + 1, blank);
+				break;
+				
+			case 2:
+			case 3:
+				for (int row = 0; row < rows; row++) {
+					this.terminal.erase(row, 0, columns, blank);
+				}
+				break;
+		}
+	}
+	
+	/**
+	 * Erase part of the line of the cursor: from the cursor to the end for
+	 * mode <code>0</code>, from the start to the cursor for mode
+	 * <code>1</code>, and all of it for mode <code>2</code>.
+	 * 
+	 * @param mode
+	 */
+	private void eraseLine(int mode) {
+		int x = this.terminal.getCursorX();
+		int y = this.terminal.getCursorY();
+		int columns = this.terminal.getColumns();
+		
+		switch (mode) {
+			case 0:
+				this.terminal.erase(y, x, columns, attribute());
+				break;
+				
+			case 1:
+				this.terminal.erase(y, 0, x + 1, attribute());
+				break;
+				
+			case 2:
+				this.terminal.erase(y, 0, columns, attribute());
+				break;
+		}
+	}
+	
+}
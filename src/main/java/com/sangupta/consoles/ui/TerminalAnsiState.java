@@ -0,0 +1,126 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import com.sangupta.consoles.core.SgrState;
+
+/**
+ * The state of a {@link UITerminal} that the ANSI sequences act on, shared by
+ * the {@link TerminalAnsiHandler} of every thread printing to the terminal:
+ * the rendition set by the <code>SGR</code> sequences, and the cursor saved
+ * by <code>ESC 7</code>, <code>CSI s</code> and <code>CSI ? 1049 h</code>.
+ * As on a real terminal, a color set by one thread stays on for the text of
+ * the others, and a cursor saved by one thread may be restored by another.
+ * 
+ * @author sangupta
+ *
+ */
+class TerminalAnsiState {
+	
+	/**
+	 * The terminal the state belongs to
+	 */
+	private final UITerminal terminal;
+	
+	/**
+	 * The rendition set by the <code>SGR</code> sequences
+	 */
+	private final SgrState sgr = new SgrState();
+	
+	/**
+	 * The attribute for the current rendition, <code>null</code> when it is to
+	 * be looked up again
+	 */
+	private TerminalCharacterAttribute attribute;
+	
+	/**
+	 * The text color of the terminal that {@link #attribute} was resolved
+	 * against, as the default colors of the rendition
+	 */
+	private TerminalCharacterAttribute resolvedFrom;
+	
+	private int savedX;
+	
+	private int savedY;
+	
+	TerminalAnsiState(UITerminal terminal) {
+		this.terminal = terminal;
+	}
+	
+	/**
+	 * Apply the parameters of an <code>SGR</code> sequence to the rendition.
+	 * 
+	 * @param params
+	 * @param paramCount
+	 */
+	synchronized void applySgr(int[] params, int paramCount) {
+		if (this.sgr.apply(params, paramCount)) {
+			this.attribute = null;
+		}
+	}
+	
+	/**
+	 * Return the attribute text is to be written with. The default rendition
+	 * writes in the text color of the terminal.
+	 * 
+	 * @return
+	 */
+	synchronized TerminalCharacterAttribute attribute() {
+		TerminalCharacterAttribute textColor = this.terminal.getTextColor();
+		if (this.sgr.isDefault()) {
+			return textColor;
+		}
+		
+		if (this.attribute == null || this.resolvedFrom != textColor) {
+			int foreground = textColor.getForeground().getRGB() & 0xFFFFFF;
+			int background = textColor.getBackground().getRGB() & 0xFFFFFF;
+			
+			AttributePalette palette = this.terminal.getAttributePalette();
+			int id = palette.intern(this.sgr.getForeground(foreground, background), this.sgr.getBackground(foreground, background), this.sgr.getFontStyle());
+			this.attribute = palette.get(id);
+			this.resolvedFrom = textColor;
+		}
+		
+		return this.attribute;
+	}
+	
+	/**
+	 * Save the position of the cursor.
+	 * 
+	 */
+	synchronized void saveCursor() {
+		this.savedX = this.terminal.getCursorX();
+		this.savedY = this.terminal.getCursorY();
+	}
+	
+	/**
+	 * Move the cursor back to the position last saved, kept on the screen.
+	 * 
+	 */
+	synchronized void restoreCursor() {
+		int x = Math.max(0, Math.min(this.savedX, this.terminal.getColumns() - 1));
+		int y = Math.max(0, Math.min(this.savedY, this.terminal.getRows() - 1));
+		this.terminal.setCursorPosition(x, y);
+	}
+	
+}
@@ -0,0 +1,1667 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ui;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import com.sangupta.consoles.swing.SwingTerminalConstants;
+
+/**
+ * The screen model of a terminal: the grid of cells and its scrollback, the
+ * cursor, the current attribute and the region that needs to be repainted.
+ * The buffer does not depend on Swing or on a display, and can be used with
+ * <code>java.awt.headless=true</code>, for example to measure or test the
+ * output path. A {@link UITerminal} renders from a buffer, and is told of the
+ * changes via a {@link TerminalBufferListener}.
+ *
+ * Rows are addressed from zero, the oldest row in the scrollback first. The
+ * last {@link #getLogicalRows()} rows form the screen.
+ *
+ * All methods are thread-safe and synchronize on the buffer itself; callers
+ * that need several calls to be atomic may synchronize on the buffer too.
+ *
+ * @author sangupta
+ *
+ */
+public class TerminalBuffer {
+
+	/**
+	 * Number of rows {@link #find(String, int)} scans per lock of the buffer
+	 */
+	private static final int FIND_CHUNK_ROWS = 256;
+
+	/**
+	 * Maximum number of rows which will ever be remembered in memory.
+	 */
+	private final int scrollback;
+
+	/**
+	 * Number of rows currently being remembered - or the total number of rows
+	 */
+	private volatile int rows;
+
+	/**
+	 * Number of rows being displayed at one time - the view size
+	 */
+	private volatile int logicalRows;
+
+	/**
+	 * Number of columns in each row.
+	 */
+	private volatile int columns;
+
+	/**
+	 * Number of columns actually being displayed.
+	 */
+	private volatile int logicalColumns;
+
+	/**
+	 * The interned attributes referred to from the cells of this buffer
+	 */
+	private final AttributePalette palette;
+
+	/**
+	 * The attribute with which characters are currently written
+	 */
+	private volatile TerminalCharacterAttribute currentTextColor;
+
+	/**
+	 * The palette id of {@link #currentTextColor}
+	 */
+	private int currentAttribute;
+
+	/**
+	 * The packed character, attribute and flags of the most recent rows
+	 */
+	private CellBuffer cells;
+
+	/**
+	 * Rows that have been evicted from {@link #cells}, kept compacted in
+	 * memory and then on disk, or <code>null</code> if evicted rows are
+	 * discarded
+	 */
+	private Scrollback history;
+
+	/**
+	 * Reusable array to hold the cells of a row being moved to the history
+	 */
+	private long[] evictedCells = new long[0];
+
+	/**
+	 * Reusable array to hold the characters of a string being written
+	 */
+	private char[] writeChars = new char[0];
+
+	/**
+	 * The selected cells, painted highlighted, or <code>null</code> if
+	 * nothing is selected
+	 */
+	private Selection selection;
+
+	/**
+	 * The current X position of the cursor
+	 */
+	private int cursorX = -1;
+
+	/**
+	 * The current Y position of the cursor
+	 */
+	private int cursorY = -1;
+
+	/**
+	 * The first row of the scroll region, counted from the top of the screen,
+	 * or <code>-1</code> when the whole buffer scrolls
+	 */
+	private int regionTop = -1;
+
+	/**
+	 * The last row of the scroll region, counted from the top of the screen,
+	 * or <code>-1</code> when the whole buffer scrolls
+	 */
+	private int regionBottom = -1;
+
+	/**
+	 * The rows of {@link #cells} that changed since the damage was last taken,
+	 * indexed from the first row of the grid
+	 */
+	private final BitSet dirtyRows = new BitSet();
+
+	/**
+	 * The first changed column of each row in {@link #dirtyRows}
+	 */
+	private int[] dirtyStart = new int[0];
+
+	/**
+	 * One past the last changed column of each row in {@link #dirtyRows}
+	 */
+	private int[] dirtyEnd = new int[0];
+
+	/**
+	 * Whether all rows need a repaint. Set whenever rows are added, removed or
+	 * moved between the grid and the history, so that the grid row indices in
+	 * {@link #dirtyRows} never go stale.
+	 */
+	private boolean allDirty;
+
+	/**
+	 * Number of rows by which all rows moved up since the damage was last
+	 * taken, the rows that moved in are part of the damage
+	 */
+	private int scrolledRows;
+
+	/**
+	 * The version of each row of {@link #cells}, kept as a ring that moves
+	 * with the grid as rows are evicted
+	 */
+	private long[] rowVersions = new long[0];
+
+	/**
+	 * The slot of {@link #rowVersions} holding the version of the first row
+	 * of the grid
+	 */
+	private int versionHead;
+
+	/**
+	 * The version shared by all rows of the {@link #history}
+	 */
+	private long historyVersion;
+
+	/**
+	 * The last version handed out; versions are never reused so that a row
+	 * and its version identify the contents of the row
+	 */
+	private long lastVersion;
+
+	/**
+	 * Number of rows discarded from the top since the buffer was created
+	 */
+	private long droppedRows;
+
+	/**
+	 * The listeners to notify of changes, replaced as a whole when changed so
+	 * that notifying does not allocate
+	 */
+	private volatile TerminalBufferListener[] listeners = new TerminalBufferListener[0];
+
+	/**
+	 * Create a new buffer.
+	 *
+	 * @param columns
+	 *            the number of columns
+	 *
+	 * @param rows
+	 *            the number of rows displayed
+	 *
+	 * @param scrollback
+	 *            the number of rows held in memory
+	 *
+	 * @param diskScrollback
+	 *            the number of rows to keep on disk, <code>0</code> to disable
+	 *            disk based scrollback
+	 */
+	public TerminalBuffer(int columns, int rows, int scrollback, int diskScrollback) {
+		this(columns, rows, scrollback, diskScrollback, new AttributePalette());
+	}
+
+	/**
+	 * Create a new buffer that interns its attributes in the given palette.
+	 * Buffers shown by the same renderer share a palette so that an id
+	 * stands for the same attribute in all of them.
+	 *
+	 * @param columns
+	 *            the number of columns
+	 *
+	 * @param rows
+	 *            the number of rows displayed
+	 *
+	 * @param scrollback
+	 *            the number of rows held in memory
+	 *
+	 * @param diskScrollback
+	 *            the number of rows to keep on disk, <code>0</code> to disable
+	 *            disk based scrollback
+	 *
+	 * @param palette
+	 *            the {@link AttributePalette} to intern attributes in
+	 */
+	public TerminalBuffer(int columns, int rows, int scrollback, int diskScrollback, AttributePalette palette) {
+		if (palette == null) {
+			throw new IllegalArgumentException("Palette cannot be null");
+		}
+
+		this.palette = palette;
+
+		// the default text color
+		setTextColor(SwingTerminalConstants.DEFAULT_FOREGROUND_COLOR, SwingTerminalConstants.BACKGROUND_COLOR);
+
+		// the disk backed scrollback
+		this.scrollback = scrollback;
+		Scrollback diskHistory = null;
+		if (diskScrollback > 0) {
+			try {
+				diskHistory = new MappedScrollback(columns, Math.min(diskScrollback, SwingTerminalConstants.MAX_DISK_SCROLLBACK_ROWS));
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to create disk scrollback for terminal", e);
+			}
+		}
+
+		// rows beyond the hot ones are kept compacted in memory
+		int compactRows = scrollback - hotRows(rows);
+		if (compactRows > 0) {
+			this.history = new CompactScrollback(compactRows, diskHistory);
+		} else {
+			this.history = diskHistory;
+		}
+
+		// set the current grid size
+		resize(columns, rows, columns);
+		this.logicalRows = rows;
+	}
+
+	/**
+	 * Add a listener to be notified of changes to this buffer.
+	 *
+	 * @param listener
+	 *            the {@link TerminalBufferListener} to add
+	 */
+	public synchronized void addTerminalBufferListener(TerminalBufferListener listener) {
+		TerminalBufferListener[] listeners = new TerminalBufferListener[this.listeners.length + 1];
+		System.arraycopy(this.listeners, 0, listeners, 0, this.listeners.length);
+		listeners[this.listeners.length] = listener;
+		this.listeners = listeners;
+	}
+
+	/**
+	 * Remove a previously added listener.
+	 *
+	 * @param listener
+	 *            the {@link TerminalBufferListener} to remove
+	 */
+	public synchronized void removeTerminalBufferListener(TerminalBufferListener listener) {
+		for (int index = 0; index < this.listeners.length; index++) {
+			if (this.listeners[index] == listener) {
+				TerminalBufferListener[] listeners = new TerminalBufferListener[this.listeners.length - 1];
+				System.arraycopy(this.listeners, 0, listeners, 0, index);
+				System.arraycopy(this.listeners, index + 1, listeners, index, listeners.length - index);
+				this.listeners = listeners;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Change the number of rows and columns held.
+	 *
+	 * @param columns
+	 *            the number of columns in each row
+	 *
+	 * @param rows
+	 *            the total number of rows
+	 *
+	 * @param logicalColumns
+	 *            the number of columns displayed
+	 */
+	public synchronized void resize(int columns, int rows, int logicalColumns) {
+		while (this.cursorY >= rows) {
+			scrollByOneRow();
+		}
+
+		this.logicalColumns = logicalColumns;
+		int gridRows = Math.max(rows - historyRows(), 1);
+		if (this.cells == null) {
+			this.cells = new CellBuffer(columns, gridRows, hotRows(rows), blankCell());
+		} else {
+			this.cells.resize(columns, gridRows, blankCell());
+		}
+
+		int maxRows = this.cells.getMaxRows();
+		if (this.dirtyStart.length < maxRows) {
+			this.dirtyStart = new int[maxRows];
+			this.dirtyEnd = new int[maxRows];
+		}
+
+		if (this.rowVersions.length != maxRows) {
+			this.rowVersions = new long[maxRows];
+		}
+
+		this.versionHead = 0;
+		changedAll();
+
+		rows = historyRows() + this.cells.getRows();
+
+		this.columns = columns;
+		this.rows = rows;
+		fireResized();
+		markAllDirty();
+	}
+
+	/**
+	 * Return the total number of rows held, including the scrollback.
+	 *
+	 * @return
+	 */
+	public int getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * Return the number of rows displayed.
+	 *
+	 * @return
+	 */
+	public int getLogicalRows() {
+		return this.logicalRows;
+	}
+
+	/**
+	 * Set the number of rows displayed.
+	 *
+	 * @param logicalRows
+	 *            the number of rows displayed
+	 */
+	public synchronized void setLogicalRows(int logicalRows) {
+		if (logicalRows != this.logicalRows) {
+			// the margins no longer fit the screen
+			this.regionTop = -1;
+			this.regionBottom = -1;
+		}
+
+		this.logicalRows = logicalRows;
+	}
+
+	/**
+	 * Limit scrolling to the given rows of the screen: a line feed on the
+	 * last row of the region moves the rows of the region up, and leaves the
+	 * rows outside it alone. The region is reset when the number of rows
+	 * displayed changes.
+	 *
+	 * @param top
+	 *            the first row of the region, counted from the top of the
+	 *            screen
+	 *
+	 * @param bottom
+	 *            the last row of the region, counted from the top of the
+	 *            screen
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the region is empty or does not fit the screen
+	 */
+	public synchronized void setScrollRegion(int top, int bottom) {
+		if (top < 0 || bottom >= this.logicalRows || top >= bottom) {
+			throw new IllegalArgumentException("Scroll region must span at least two rows of the screen");
+		}
+
+		if (top == 0 && bottom == this.logicalRows - 1) {
+			clearScrollRegion();
+			return;
+		}
+
+		this.regionTop = top;
+		this.regionBottom = bottom;
+	}
+
+	/**
+	 * Let the whole buffer scroll again.
+	 *
+	 */
+	public synchronized void clearScrollRegion() {
+		this.regionTop = -1;
+		this.regionBottom = -1;
+	}
+
+	/**
+	 * Return the first row of the scroll region, counted from the top of the
+	 * screen, or <code>-1</code> when no region is set.
+	 *
+	 * @return
+	 */
+	public synchronized int getScrollRegionTop() {
+		return this.regionTop;
+	}
+
+	/**
+	 * Return the last row of the scroll region, counted from the top of the
+	 * screen, or <code>-1</code> when no region is set.
+	 *
+	 * @return
+	 */
+	public synchronized int getScrollRegionBottom() {
+		return this.regionBottom;
+	}
+
+	/**
+	 * Return the number of columns held in each row.
+	 *
+	 * @return
+	 */
+	public int getColumns() {
+		return this.columns;
+	}
+
+	/**
+	 * Return the number of columns displayed.
+	 *
+	 * @return
+	 */
+	public int getLogicalColumns() {
+		return this.logicalColumns;
+	}
+
+	/**
+	 * Return the column of the cursor.
+	 *
+	 * @return
+	 */
+	public synchronized int getCursorX() {
+		return this.cursorX;
+	}
+
+	/**
+	 * Return the row of the cursor, counted from the first row held.
+	 *
+	 * @return
+	 */
+	public synchronized int getCursorY() {
+		return this.cursorY;
+	}
+
+	/**
+	 * Move the cursor to the given position.
+	 *
+	 * @param cursorX
+	 *            the column to move to
+	 *
+	 * @param cursorY
+	 *            the row to move to, counted from the first row held
+	 */
+	public synchronized void setCursorPosition(int cursorX, int cursorY) {
+		markDirty(this.cursorX, this.cursorY, 1, 1);
+		this.cursorX = cursorX;
+		this.cursorY = cursorY;
+		fireCursorMoved();
+		markDirty(cursorX, cursorY, 1, 1);
+	}
+
+	/**
+	 * Update the cursor appropriately for just having output character
+	 * <code>chr</code>, <code>\n</code> is the only control character handled
+	 * here, everything else should be done at a higher level.
+	 *
+	 * @param chr
+	 */
+	private void advance(char chr) {
+		switch (chr) {
+			case '\n':
+				cursorX = 0;
+				if (scrollRegionAtCursor()) {
+					break;
+				}
+
+				if (++cursorY >= rows)
+					scrollByOneRow();
+				break;
+
+			case '\r':
+				break;
+
+			default:
+				if (++cursorX >= logicalColumns) {
+					cursorX = 0;
+					if (!scrollRegionAtCursor() && ++cursorY >= rows) {
+						scrollByOneRow();
+					}
+				}
+		}
+
+		fireCursorMoved();
+		markDirty(cursorX, cursorY, 1, 1);
+	}
+
+	/**
+	 * Write the given character at the cursor and advance the cursor.
+	 *
+	 * @param c
+	 *            the character to write
+	 *
+	 * @param attr
+	 *            the {@link TerminalCharacterAttribute} to write with
+	 *
+	 * @throws NullPointerException
+	 *             if the attribute is <code>null</code>
+	 */
+	public synchronized void write(char c, TerminalCharacterAttribute attr) {
+		if (attr == null) {
+			throw new NullPointerException("attributes may not be null");
+		}
+
+		if (c == '\t') {
+			write(' ', attr);
+			write(' ', attr);
+			write(' ', attr);
+			write(' ', attr);
+			return;
+		}
+
+		if (c == '\r') {
+			return; // do nothing
+		}
+
+		if (c == '\n') {
+			advance(c);
+			return;
+		}
+
+		// some other character
+		try {
+			int startingCursorX = this.cursorX;
+			int startingCursorY = this.cursorY;
+			setCell(startingCursorY, startingCursorX, packCell(c, attr));
+			changed(startingCursorY, 1);
+			markDirty(startingCursorX, startingCursorY, 1, 1);
+			advance(c);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			// can happen if thread was terminated in the middle of output
+			if (cursorX < 0) {
+				cursorX = 0;
+			} else if (cursorX >= logicalColumns) {
+				cursorX = logicalColumns - 1;
+			}
+
+			if (cursorY < 0) {
+				cursorY = 0;
+			} else if (cursorY >= rows) {
+				cursorY = rows - 1;
+			}
+
+			// cursor should be in valid location, try again
+			write(c, attr);
+		}
+	}
+
+	/**
+	 * Write the given characters at the cursor and advance the cursor, as
+	 * writing them one by one using {@link #write(char, TerminalCharacterAttribute)}
+	 * would. Runs of printable characters are copied into the row in one go,
+	 * and the cursor, the dirty region and the listeners are updated once per
+	 * call.
+	 *
+	 * @param chars
+	 *            the characters to write
+	 *
+	 * @param offset
+	 *            the index of the first character to write
+	 *
+	 * @param length
+	 *            the number of characters to write
+	 *
+	 * @param attr
+	 *            the {@link TerminalCharacterAttribute} to write with
+	 *
+	 * @throws NullPointerException
+	 *             if the attribute is <code>null</code>
+	 */
+	public synchronized void write(char[] chars, int offset, int length, TerminalCharacterAttribute attr) {
+		if (attr == null) {
+			throw new NullPointerException("attributes may not be null");
+		}
+
+		if (length <= 0) {
+			return;
+		}
+
+		int attribute = attributeOf(attr);
+
+		// the cursor may be out of place if a thread was terminated in the
+		// middle of output
+		int columns = Math.min(this.logicalColumns, this.columns);
+		if (cursorX < 0) {
+			cursorX = 0;
+		} else if (cursorX >= columns) {
+			cursorX = columns - 1;
+		}
+
+		if (cursorY < 0) {
+			cursorY = 0;
+		} else if (cursorY >= rows) {
+			cursorY = rows - 1;
+		}
+
+		int dirtyTop = cursorY;
+		int dirtyLeft = cursorX;
+		int dirtyRight = cursorX + 1;
+
+		int end = offset + length;
+		int index = offset;
+		while (index < end) {
+			char c = chars[index];
+
+			if (c == '\n') {
+				cursorX = 0;
+				if (scrollRegionAtCursor()) {
+					// the region rows are damaged as a whole
+				} else if (++cursorY >= rows) {
+					// rows written so far move up if the total stays the same
+					int oldRows = rows;
+					scrollByOneRow();
+					if (rows == oldRows) {
+						dirtyTop--;
+					}
+
+					dirtyTop = Math.min(dirtyTop, cursorY);
+				}
+
+				dirtyLeft = 0;
+				index++;
+				continue;
+			}
+
+			if (c == '\r') {
+				index++;
+				continue;
+			}
+
+			if (c == '\t') {
+				for (int space = 0; space < 4; space++) {
+					setCell(cursorY, cursorX, CellBuffer.pack(' ', attribute, 0));
+					dirtyRight = Math.max(dirtyRight, cursorX + 1);
+					dirtyLeft = Math.min(dirtyLeft, cursorX);
+					advanceColumns(1, columns);
+				}
+
+				index++;
+				continue;
+			}
+
+			// find the printable run, within what is left of the row
+			int runEnd = index + 1;
+			int limit = Math.min(end, index + columns - cursorX);
+			while (runEnd < limit) {
+				char next = chars[runEnd];
+				if (next == '\n' || next == '\r' || next == '\t') {
+					break;
+				}
+
+				runEnd++;
+			}
+
+			int count = runEnd - index;
+			int historyRows = historyRows();
+			if (cursorY >= historyRows) {
+				this.cells.set(cursorY - historyRows, cursorX, chars, index, count, attribute);
+			} else {
+				for (int column = 0; column < count; column++) {
+					setCell(cursorY, cursorX + column, CellBuffer.pack(chars[index + column], attribute, 0));
+				}
+			}
+
+			dirtyLeft = Math.min(dirtyLeft, cursorX);
+			dirtyRight = Math.max(dirtyRight, cursorX + count);
+			advanceColumns(count, columns);
+			index = runEnd;
+		}
+
+		dirtyTop = Math.max(Math.min(dirtyTop, cursorY), 0);
+		dirtyRight = Math.max(dirtyRight, cursorX + 1);
+		changed(dirtyTop, cursorY - dirtyTop + 1);
+		markDirty(dirtyLeft, dirtyTop, dirtyRight - dirtyLeft, cursorY - dirtyTop + 1);
+		fireCursorMoved();
+	}
+
+	/**
+	 * Write the given string at the cursor and advance the cursor, as
+	 * {@link #write(char[], int, int, TerminalCharacterAttribute)} does.
+	 *
+	 * @param string
+	 *            the string to write
+	 *
+	 * @param attr
+	 *            the {@link TerminalCharacterAttribute} to write with
+	 */
+	public synchronized void write(String string, TerminalCharacterAttribute attr) {
+		int length = string.length();
+		if (this.writeChars.length < length) {
+			this.writeChars = new char[Math.max(length, this.columns)];
+		}
+
+		string.getChars(0, length, this.writeChars, 0);
+		write(this.writeChars, 0, length, attr);
+	}
+
+	/**
+	 * Move the cursor forward by the given number of columns on the current
+	 * row, wrapping to the next row, and scrolling if needed, when the end of
+	 * the row is reached.
+	 *
+	 * @param count
+	 *            the number of columns to move by
+	 *
+	 * @param columns
+	 *            the number of columns in a row
+	 */
+	private void advanceColumns(int count, int columns) {
+		cursorX += count;
+		if (cursorX >= columns) {
+			cursorX = 0;
+			if (!scrollRegionAtCursor() && ++cursorY >= rows) {
+				scrollByOneRow();
+			}
+		}
+	}
+
+	/**
+	 * Write the given character at the given position, without moving the
+	 * cursor.
+	 *
+	 * @param x
+	 *            the column to write at
+	 *
+	 * @param y
+	 *            the row to write at
+	 *
+	 * @param c
+	 *            the character to write
+	 *
+	 * @param attr
+	 *            the {@link TerminalCharacterAttribute} to write with
+	 */
+	public synchronized void write(int x, int y, char c, TerminalCharacterAttribute attr) {
+		setCell(y, x, packCell(c, attr));
+		changed(y, 1);
+		markDirty(x, y, 1, 1);
+	}
+
+	/**
+	 * Blank the given columns of a row, without moving the cursor.
+	 *
+	 * @param row
+	 *            the row to erase in
+	 *
+	 * @param fromColumn
+	 *            the first column to erase
+	 *
+	 * @param toColumn
+	 *            the column after the last one to erase
+	 *
+	 * @param attr
+	 *            the {@link TerminalCharacterAttribute} to blank with
+	 */
+	public synchronized void erase(int row, int fromColumn, int toColumn, TerminalCharacterAttribute attr) {
+		fromColumn = Math.max(fromColumn, 0);
+		toColumn = Math.min(toColumn, this.columns);
+		if (fromColumn >= toColumn || row < 0 || row >= this.rows) {
+			return;
+		}
+
+		long blank = packCell(' ', attr);
+		int historyRows = historyRows();
+		if (row >= historyRows) {
+			this.cells.fill(row - historyRows, fromColumn, toColumn, blank);
+		} else {
+			for (int column = fromColumn; column < toColumn; column++) {
+				setCell(row, column, blank);
+			}
+		}
+
+		changed(row, 1);
+		markDirty(fromColumn, row, toColumn - fromColumn, 1);
+	}
+
+	/**
+	 * Move the rows within the given range up or down, filling the rows
+	 * uncovered with blanks. Only the rows in the range change and are
+	 * repainted. Rows of the range held in the scrollback are left alone.
+	 *
+	 * @param firstRow
+	 *            the first row of the range
+	 *
+	 * @param lastRow
+	 *            the last row of the range
+	 *
+	 * @param count
+	 *            the number of rows to move the rows up by, negative to move
+	 *            them down
+	 */
+	public synchronized void scrollRows(int firstRow, int lastRow, int count) {
+		int historyRows = historyRows();
+		firstRow = Math.max(firstRow, historyRows);
+		lastRow = Math.min(lastRow, this.rows - 1);
+
+		int height = lastRow - firstRow + 1;
+		if (height <= 0 || count == 0) {
+			return;
+		}
+
+		int distance = Math.min(Math.abs(count), height);
+		int top = firstRow - historyRows;
+		int blankTop = top;
+		if (count > 0) {
+			this.cells.moveRows(top + distance, top, height - distance);
+			blankTop = top + height - distance;
+		} else {
+			this.cells.moveRows(top, top + distance, height - distance);
+		}
+
+		long blank = blankCell();
+		for (int row = blankTop; row < blankTop + distance; row++) {
+			this.cells.fill(row, 0, this.columns, blank);
+		}
+
+		changed(firstRow, height);
+		markDirty(0, firstRow, this.columns, height);
+	}
+
+	/**
+	 * Handle a line feed while a scroll region is set: on the last row of the
+	 * region the region scrolls up by one row, and on the last row of the
+	 * screen below the region nothing scrolls, as on DEC terminals.
+	 *
+	 * @return <code>true</code> if the line feed was handled, and the cursor
+	 *         is not to move down
+	 */
+	private boolean scrollRegionAtCursor() {
+		if (this.regionBottom < 0) {
+			return false;
+		}
+
+		int screenTop = this.rows - this.logicalRows;
+		if (this.cursorY == screenTop + this.regionBottom) {
+			scrollRows(screenTop + this.regionTop, screenTop + this.regionBottom, 1);
+			return true;
+		}
+
+		return this.cursorY >= this.rows - 1;
+	}
+
+	/**
+	 * Insert a blank row before the given row. When the buffer is full, the
+	 * oldest row is moved to the scrollback, or discarded.
+	 *
+	 * @param row
+	 *            the row to insert at
+	 */
+	// hasn't been tested except with last row, may not work in other cases
+	public synchronized void insertRow(int row) {
+		int historyRows = historyRows();
+		int gridRow = Math.max(row - historyRows, 0);
+		int gridRows = this.cells.getRows();
+		boolean appended = gridRow == gridRows - 1;
+		boolean evicted = gridRows >= this.cells.getMaxRows();
+
+		if (!evicted) {
+			// the grid grows by one row, rows after the insertion point move down
+			if (gridRow == gridRows - 1)
+				gridRow++;
+		} else if (this.history != null) {
+			// the oldest row is about to be evicted, keep it in the history
+			if (this.evictedCells.length < columns) {
+				this.evictedCells = new long[columns];
+			}
+
+			this.cells.getRow(0, this.evictedCells);
+			this.history.push(this.evictedCells, columns);
+		}
+
+		// when the grid is full, the oldest row is evicted by advancing the
+		// ring head, which moves all rows up - move rows after the insertion
+		// point back down
+		this.cells.appendRow(blankCell());
+		gridRows = this.cells.getRows();
+		this.cells.moveRows(gridRow, gridRow + 1, gridRows - gridRow - 1);
+		this.cells.fill(gridRow, 0, columns, blankCell());
+
+		// the versions move with the rows of the grid
+		if (evicted) {
+			this.versionHead = (this.versionHead + 1) % this.rowVersions.length;
+		}
+
+		int newRows = historyRows() + gridRows;
+		boolean grown = newRows != rows;
+		if (grown) {
+			rows = newRows;
+			fireResized();
+		} else if (evicted) {
+			this.droppedRows++;
+		}
+
+		if (!appended) {
+			changedAll();
+			markAllDirty();
+			return;
+		}
+
+		changed(newRows - 1, 1);
+
+		// a row was added at the bottom: when a row was evicted the grid rows
+		// moved up by one, and when the total stayed the same so did all rows
+		boolean clean = isClean();
+		if (evicted) {
+			shiftDirtyRows();
+		}
+
+		if (evicted && !grown) {
+			if (!this.allDirty) {
+				this.scrolledRows++;
+			}
+
+			// the selection stays with the cells it selects
+			if (this.selection != null) {
+				this.selection = this.selection.moveUp(1);
+			}
+		}
+
+		markDirty(0, newRows - 1, columns, 1);
+		if (clean) {
+			fireDamaged();
+		}
+	}
+
+	/**
+	 * Move the damage of the grid rows up by one row, after the first grid
+	 * row was evicted.
+	 *
+	 */
+	private void shiftDirtyRows() {
+		if (this.allDirty || this.dirtyRows.isEmpty()) {
+			return;
+		}
+
+		// the evicted row is still held, and may still be displayed
+		if (this.dirtyRows.get(0)) {
+			markAllDirty();
+			return;
+		}
+
+		for (int row = this.dirtyRows.nextSetBit(0); row >= 0; row = this.dirtyRows.nextSetBit(row + 1)) {
+			this.dirtyRows.clear(row);
+			this.dirtyRows.set(row - 1);
+			this.dirtyStart[row - 1] = this.dirtyStart[row];
+			this.dirtyEnd[row - 1] = this.dirtyEnd[row];
+		}
+	}
+
+	private void scrollByOneRow() {
+		int oldRows = rows;
+		insertRow(rows - 1);
+
+		if (rows == oldRows) {
+			// otherwise, grid just got bigger & no need to move cursor
+			cursorY--;
+		}
+
+		fireScrolled();
+	}
+
+	/**
+	 * Clear all rows, including the scrollback, and move the cursor to the
+	 * top.
+	 *
+	 */
+	public synchronized void clear() {
+		this.cells.fillAll(blankCell());
+		this.selection = null;
+
+		if (this.history != null && this.history.size() > 0) {
+			this.history.clear();
+			this.rows = this.cells.getRows();
+			fireResized();
+		}
+
+		changedAll();
+
+		// move to top
+		setCursorPosition(0, 0);
+		fireCleared();
+
+		// repaint to clear everything
+		markAllDirty();
+	}
+
+	/**
+	 * Release the resources held by the scrollback. The buffer may not be
+	 * used afterwards.
+	 *
+	 */
+	public synchronized void close() {
+		if (this.history != null) {
+			this.history.close();
+			this.history = null;
+		}
+	}
+
+	/**
+	 * Un-highlight all cells.
+	 *
+	 */
+	public synchronized void unHighlight() {
+		setSelection(null);
+	}
+
+	/**
+	 * Highlight the cells in the given box, removing any previous highlight.
+	 *
+	 * @param x1
+	 * @param y1
+	 * @param x2
+	 * @param y2
+	 */
+	public synchronized void highlightSelection(int x1, int y1, int x2, int y2) {
+		setSelection(new Selection(y1, x1, y2, x2, SelectionMode.BLOCK));
+	}
+
+	/**
+	 * Return the selected cells.
+	 *
+	 * @return the {@link Selection}, or <code>null</code> if nothing is
+	 *         selected
+	 */
+	public synchronized Selection getSelection() {
+		return this.selection;
+	}
+
+	/**
+	 * Replace the selected cells. Only the rows whose selected span changed
+	 * are marked as needing a repaint.
+	 *
+	 * @param selection
+	 *            the {@link Selection}, or <code>null</code> to select nothing
+	 */
+	public synchronized void setSelection(Selection selection) {
+		Selection old = this.selection;
+		this.selection = selection;
+		if (old == null && selection == null) {
+			return;
+		}
+
+		int first, last;
+		if (old == null) {
+			first = selection.getStartRow();
+			last = selection.getEndRow();
+		} else if (selection == null) {
+			first = old.getStartRow();
+			last = old.getEndRow();
+		} else {
+			first = Math.min(old.getStartRow(), selection.getStartRow());
+			last = Math.max(old.getEndRow(), selection.getEndRow());
+		}
+
+		// rows fully selected by both linear selections do not change
+		int skipFrom = Integer.MAX_VALUE;
+		int skipTo = Integer.MIN_VALUE;
+		if (old != null && selection != null && old.getMode() == SelectionMode.LINEAR && selection.getMode() == SelectionMode.LINEAR) {
+			skipFrom = Math.max(old.getStartRow(), selection.getStartRow()) + 1;
+			skipTo = Math.min(old.getEndRow(), selection.getEndRow()) - 1;
+		}
+
+		first = Math.max(first, 0);
+		last = Math.min(last, this.rows - 1);
+		for (int row = first; row <= last; row++) {
+			if (row == skipFrom && skipFrom <= skipTo) {
+				row = skipTo;
+				continue;
+			}
+
+			int oldStart = old == null ? -1 : old.startOf(row, this.columns);
+			int oldEnd = old == null ? -1 : old.endOf(row, this.columns);
+			int start = selection == null ? -1 : selection.startOf(row, this.columns);
+			int end = selection == null ? -1 : selection.endOf(row, this.columns);
+			if (oldStart == start && oldEnd == end) {
+				continue;
+			}
+
+			changed(row, 1);
+
+			if (oldStart < 0) {
+				markDirty(start, row, end - start, 1);
+			} else if (start < 0) {
+				markDirty(oldStart, row, oldEnd - oldStart, 1);
+			} else if (oldStart == start) {
+				markDirty(Math.min(oldEnd, end), row, Math.abs(oldEnd - end), 1);
+			} else if (oldEnd == end) {
+				markDirty(Math.min(oldStart, start), row, Math.abs(oldStart - start), 1);
+			} else {
+				int from = Math.min(oldStart, start);
+				markDirty(from, row, Math.max(oldEnd, end) - from, 1);
+			}
+		}
+	}
+
+	/**
+	 * Find the first row at or after the given row that contains the given
+	 * text. Rows kept on disk are read back as needed. The rows are scanned
+	 * a chunk at a time, and the lock of the buffer is let go between chunks
+	 * so that output is not held up while a long scrollback is searched. The
+	 * scan carries on from the same row however many rows were added in the
+	 * meantime.
+	 *
+	 * @param text
+	 *            the text to look for
+	 *
+	 * @param fromRow
+	 *            the row to start looking from
+	 *
+	 * @return the row that contains the text, or <code>-1</code> if not found
+	 */
+	public int find(String text, int fromRow) {
+		if (text == null || text.isEmpty()) {
+			return -1;
+		}
+
+		long nextRowId;
+		synchronized (this) {
+			nextRowId = this.droppedRows + Math.max(fromRow, 0);
+		}
+
+		long[] rowCells = null;
+		for (;;) {
+			synchronized (this) {
+				// rows that dropped out while the lock was let go are skipped
+				int row = (int) Math.max(0, nextRowId - this.droppedRows);
+				if (rowCells == null || rowCells.length < this.columns) {
+					rowCells = new long[this.columns];
+				}
+
+				int end = Math.min(this.rows, row + FIND_CHUNK_ROWS);
+				for (; row < end; row++) {
+					readRow(row, rowCells);
+					if (contains(rowCells, this.columns, text)) {
+						return row;
+					}
+				}
+
+				if (row >= this.rows) {
+					return -1;
+				}
+
+				nextRowId = this.droppedRows + row;
+			}
+		}
+	}
+
+	/**
+	 * Check if the given cells contain the given text.
+	 *
+	 * @param cells
+	 *            the cells to look in
+	 *
+	 * @param columns
+	 *            the number of cells to look in
+	 *
+	 * @param text
+	 *            the text to look for
+	 *
+	 * @return
+	 */
+	private static boolean contains(long[] cells, int columns, String text) {
+		int length = text.length();
+		for (int column = 0; column + length <= columns; column++) {
+			int index = 0;
+			while (index < length && CellBuffer.codePointOf(cells[column + index]) == text.charAt(index)) {
+				index++;
+			}
+
+			if (index == length) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Read the cells of the given row, wherever it is held, into the given
+	 * array.
+	 *
+	 * @param row
+	 *            the row to read
+	 *
+	 * @param destination
+	 *            the array to read cells into, at least {@link #getColumns()}
+	 *            long
+	 *
+	 * @return <code>false</code> if the row does not exist anymore
+	 */
+	public synchronized boolean readRow(int row, long[] destination) {
+		if (row < 0 || row >= this.rows || destination.length < this.columns) {
+			return false;
+		}
+
+		int historyRows = historyRows();
+		if (row < historyRows) {
+			this.history.read(row, destination, this.columns, blankCell());
+			return true;
+		}
+
+		this.cells.getRow(row - historyRows, destination);
+		return true;
+	}
+
+	/**
+	 * Take a copy of the given rows, along with the selection and colors
+	 * needed to paint them. Rows that do not exist are left out.
+	 *
+	 * @param firstRow
+	 *            the first row to copy
+	 *
+	 * @param rowCount
+	 *            the number of rows to copy
+	 *
+	 * @return the {@link CellSnapshot}
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the first row is negative or the row count is negative
+	 */
+	public synchronized CellSnapshot snapshot(int firstRow, int rowCount) {
+		if (firstRow < 0 || rowCount < 0) {
+			throw new IllegalArgumentException("Rows to snapshot cannot be negative");
+		}
+
+		int rows = Math.max(0, Math.min(rowCount, this.rows - firstRow));
+		int columns = this.columns;
+		long[] cells = new long[rows * columns];
+		long[] row = new long[columns];
+		for (int index = 0; index < rows; index++) {
+			readRow(firstRow + index, row);
+			System.arraycopy(row, 0, cells, index * columns, columns);
+		}
+
+		return new CellSnapshot(firstRow, rows, columns, cells, this.selection, this.palette, this.currentTextColor.getBackground());
+	}
+
+	/**
+	 * Return the identity of the given row. The identity stays with the row
+	 * as rows move up, and is not reused by rows added later.
+	 *
+	 * @param row
+	 *            the row
+	 *
+	 * @return the identity of the row
+	 */
+	public synchronized long getRowId(int row) {
+		return this.droppedRows + row;
+	}
+
+	/**
+	 * Return the version of the given row. The version changes whenever the
+	 * cells or the selection of the row change, or the row is moved to the
+	 * scrollback, and is never handed out again: the identity and version of
+	 * a row together identify what it looks like. Callers that read the row
+	 * too must do so while holding the lock of the buffer.
+	 *
+	 * @param row
+	 *            the row
+	 *
+	 * @return the version of the row, or <code>-1</code> if the row does not
+	 *         exist
+	 */
+	public synchronized long getRowVersion(int row) {
+		if (row < 0 || row >= this.rows) {
+			return -1;
+		}
+
+		int historyRows = historyRows();
+		if (row < historyRows) {
+			return this.historyVersion;
+		}
+
+		return this.rowVersions[(this.versionHead + row - historyRows) % this.rowVersions.length];
+	}
+
+	/**
+	 * Give the given rows a new version, after their cells or their selection
+	 * changed.
+	 *
+	 * @param row
+	 *            the first row
+	 *
+	 * @param height
+	 *            the number of rows
+	 */
+	private void changed(int row, int height) {
+		int historyRows = historyRows();
+		int first = Math.max(row, 0);
+		if (first < historyRows) {
+			this.historyVersion = ++this.lastVersion;
+			first = historyRows;
+		}
+
+		int last = Math.min(row + height, historyRows + this.cells.getRows());
+		for (int index = first; index < last; index++) {
+			this.rowVersions[(this.versionHead + index - historyRows) % this.rowVersions.length] = ++this.lastVersion;
+		}
+	}
+
+	/**
+	 * Give all rows a new version.
+	 *
+	 */
+	private void changedAll() {
+		this.historyVersion = ++this.lastVersion;
+		for (int slot = 0; slot < this.rowVersions.length; slot++) {
+			this.rowVersions[slot] = ++this.lastVersion;
+		}
+	}
+
+	/**
+	 * Mark the given region, in cells, as needing a repaint.
+	 *
+	 * @param x
+	 *            the first column
+	 *
+	 * @param y
+	 *            the first row
+	 *
+	 * @param width
+	 *            the number of columns
+	 *
+	 * @param height
+	 *            the number of rows
+	 */
+	public synchronized void markDirty(int x, int y, int width, int height) {
+		if (width <= 0 || height <= 0 || this.allDirty) {
+			return;
+		}
+
+		// rows in the history are damaged seldom, repaint everything then
+		int historyRows = historyRows();
+		int first = y - historyRows;
+		int last = y + height - 1 - historyRows;
+		if (first < 0 || last >= this.dirtyStart.length) {
+			markAllDirty();
+			return;
+		}
+
+		boolean clean = isClean();
+		int end = x + width;
+		for (int row = first; row <= last; row++) {
+			if (this.dirtyRows.get(row)) {
+				this.dirtyStart[row] = Math.min(this.dirtyStart[row], x);
+				this.dirtyEnd[row] = Math.max(this.dirtyEnd[row], end);
+			} else {
+				this.dirtyRows.set(row);
+				this.dirtyStart[row] = x;
+				this.dirtyEnd[row] = end;
+			}
+		}
+
+		if (clean) {
+			fireDamaged();
+		}
+	}
+
+	/**
+	 * Mark all rows as needing a repaint.
+	 *
+	 */
+	public synchronized void markAllDirty() {
+		if (this.allDirty) {
+			return;
+		}
+
+		boolean clean = isClean();
+		this.allDirty = true;
+		this.dirtyRows.clear();
+		this.scrolledRows = 0;
+
+		if (clean) {
+			fireDamaged();
+		}
+	}
+
+	/**
+	 * Return the number of rows by which all rows moved up since the last
+	 * call, and reset it. The rows that moved in at the bottom are reported
+	 * by {@link #takeDirtyRegions()}, which is to be called with this method
+	 * while holding the lock of the buffer. When everything is dirty no
+	 * movement is reported.
+	 *
+	 * @return the number of rows moved
+	 */
+	public synchronized int takeScrolledRows() {
+		int scrolledRows = this.scrolledRows;
+		this.scrolledRows = 0;
+		return scrolledRows;
+	}
+
+	/**
+	 * Return the regions, in cells, that changed since the last call and
+	 * reset them. The changed span of each row is kept apart from the others,
+	 * and the spans of adjacent rows are merged only as long as the merged
+	 * rectangle is not more than twice the area of the spans. At most
+	 * {@link SwingTerminalConstants#MAX_DAMAGE_REGIONS} regions are returned,
+	 * the last one covering all remaining spans.
+	 *
+	 * @return the dirty regions, top to bottom, or <code>null</code> if
+	 *         nothing changed
+	 */
+	public synchronized List<Rectangle> takeDirtyRegions() {
+		if (this.allDirty) {
+			this.allDirty = false;
+			return Collections.singletonList(new Rectangle(0, 0, this.columns, this.rows));
+		}
+
+		if (this.dirtyRows.isEmpty()) {
+			return null;
+		}
+
+		int historyRows = historyRows();
+		List<Rectangle> regions = new ArrayList<Rectangle>();
+		Rectangle current = null;
+		int area = 0;
+		for (int row = this.dirtyRows.nextSetBit(0); row >= 0; row = this.dirtyRows.nextSetBit(row + 1)) {
+			int start = this.dirtyStart[row];
+			int end = this.dirtyEnd[row];
+			int y = row + historyRows;
+
+			if (current != null) {
+				int left = Math.min(current.x, start);
+				int right = Math.max(current.x + current.width, end);
+				boolean adjacent = current.y + current.height == y;
+				boolean full = regions.size() == SwingTerminalConstants.MAX_DAMAGE_REGIONS;
+
+				if (full || (adjacent && (right - left) * (current.height + 1) <= 2 * (area + end - start))) {
+					current.setBounds(left, current.y, right - left, y + 1 - current.y);
+					area += end - start;
+					continue;
+				}
+			}
+
+			current = new Rectangle(start, y, end - start, 1);
+			area = end - start;
+			regions.add(current);
+		}
+
+		this.dirtyRows.clear();
+		return regions;
+	}
+
+	/**
+	 * Return whether nothing changed since the damage was last taken.
+	 *
+	 * @return
+	 */
+	private boolean isClean() {
+		return !this.allDirty && this.scrolledRows == 0 && this.dirtyRows.isEmpty();
+	}
+
+	/**
+	 * Set the cell at the given position, wherever the row is held.
+	 *
+	 * @param row
+	 *            the row of the cell
+	 *
+	 * @param column
+	 *            the column of the cell
+	 *
+	 * @param cell
+	 *            the packed cell
+	 */
+	private void setCell(int row, int column, long cell) {
+		int historyRows = historyRows();
+		if (row >= historyRows) {
+			this.cells.set(row - historyRows, column, cell);
+			return;
+		}
+
+		if (row < 0 || column < 0 || column >= this.columns) {
+			throw new ArrayIndexOutOfBoundsException(row);
+		}
+
+		long[] rowCells = new long[this.columns];
+		this.history.read(row, rowCells, this.columns, blankCell());
+		rowCells[column] = cell;
+		this.history.write(row, rowCells, this.columns);
+	}
+
+	/**
+	 * Return the number of most recent rows to keep uncompressed in the
+	 * {@link #cells}.
+	 *
+	 * @param rows
+	 *            the number of rows initially displayed
+	 *
+	 * @return
+	 */
+	private int hotRows(int rows) {
+		return Math.min(this.scrollback, Math.max(rows, SwingTerminalConstants.HOT_ROWS));
+	}
+
+	/**
+	 * Return the number of rows held in the history.
+	 *
+	 * @return
+	 */
+	private int historyRows() {
+		if (this.history == null) {
+			return 0;
+		}
+
+		return this.history.size();
+	}
+
+	/**
+	 * Pack the given character and attribute into a cell, interning the
+	 * attribute in the palette if needed.
+	 *
+	 * @param c
+	 *            the character to store
+	 *
+	 * @param attribute
+	 *            the {@link TerminalCharacterAttribute} to store
+	 *
+	 * @return the packed cell
+	 */
+	private long packCell(char c, TerminalCharacterAttribute attribute) {
+		return CellBuffer.pack(c, attributeOf(attribute), 0);
+	}
+
+	/**
+	 * Return the palette id of the given attribute, interning it if needed.
+	 *
+	 * @param attribute
+	 *            the {@link TerminalCharacterAttribute} to look up
+	 *
+	 * @return the palette id
+	 */
+	private int attributeOf(TerminalCharacterAttribute attribute) {
+		if(attribute == this.currentTextColor) {
+			return this.currentAttribute;
+		}
+
+		return this.palette.intern(attribute);
+	}
+
+	/**
+	 * Return a blank cell in the current text color.
+	 *
+	 * @return the packed cell
+	 */
+	private long blankCell() {
+		return CellBuffer.pack(' ', this.currentAttribute, 0);
+	}
+
+	/**
+	 * Return the {@link AttributePalette} in which the attributes of this
+	 * buffer are interned.
+	 *
+	 * @return
+	 */
+	public AttributePalette getAttributePalette() {
+		return this.palette;
+	}
+
+	/**
+	 * Get the current text color.
+	 *
+	 * @return
+	 */
+	public TerminalCharacterAttribute getTextColor() {
+		return this.currentTextColor;
+	}
+
+	/**
+	 * Set the current text color.
+	 *
+	 * @param foreground
+	 * @param background
+	 */
+	public synchronized void setTextColor(Color foreground, Color background) {
+		this.currentAttribute = this.palette.intern(foreground, background, 0);
+		this.currentTextColor = this.palette.get(this.currentAttribute);
+	}
+
+	private void fireCursorMoved() {
+		for (TerminalBufferListener listener : this.listeners) {
+			listener.cursorMoved(this);
+		}
+	}
+
+	private void fireDamaged() {
+		for (TerminalBufferListener listener : this.listeners) {
+			listener.bufferDamaged(this);
+		}
+	}
+
+	private void fireResized() {
+		for (TerminalBufferListener listener : this.listeners) {
+			listener.bufferResized(this);
+		}
+	}
+
+	private void fireScrolled() {
+		for (TerminalBufferListener listener : this.listeners) {
+			listener.bufferScrolled(this);
+		}
+	}
+
+	private void fireCleared() {
+		for (TerminalBufferListener listener : this.listeners) {
+			listener.bufferCleared(this);
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ui;
+
+import java.util.EventListener;
+
+/**
+ * A listener for receiving changes to a {@link TerminalBuffer}. The methods
+ * are invoked on the thread that changed the buffer, while it holds the lock
+ * of the buffer, and must thus return quickly without waiting on other
+ * threads.
+ *
+ * @author sangupta
+ *
+ */
+public interface TerminalBufferListener extends EventListener {
+
+	/**
+	 * Invoked when the cursor has moved, or a character was written at it.
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} that changed
+	 */
+	void cursorMoved(TerminalBuffer buffer);
+
+	/**
+	 * Invoked when a region of the buffer became dirty while no region was
+	 * dirty. No more calls are made till the dirty regions are taken using
+	 * {@link TerminalBuffer#takeDirtyRegions()}.
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} that changed
+	 */
+	void bufferDamaged(TerminalBuffer buffer);
+
+	/**
+	 * Invoked when the number of rows or columns held in the buffer changes.
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} that changed
+	 */
+	void bufferResized(TerminalBuffer buffer);
+
+	/**
+	 * Invoked when the buffer scrolled as the cursor moved past its last row.
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} that changed
+	 */
+	void bufferScrolled(TerminalBuffer buffer);
+
+	/**
+	 * Invoked when the buffer has been cleared and the cursor moved to the
+	 * top.
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} that changed
+	 */
+	void bufferCleared(TerminalBuffer buffer);
+
+}
@@ -23,6 +23,8 @@ package com.sangupta.consoles.ui;
 
 import java.awt.Color;
 
+import com.sangupta.consoles.core.SgrState;
+
 /** 
  * Attributes associated with a character in a <code>TextWindow</code>.  <code>TextAttributes</code>
  * are immutable, and the same instance may be shared by many characters.
@@ -31,11 +33,39 @@ import java.awt.Color;
  */
 public class TerminalCharacterAttribute {
 	
+	/**
+	 * Style bit to render the text in bold
+	 */
+	public static final int STYLE_BOLD = SgrState.STYLE_BOLD;
+	
+	/**
+	 * Style bit to render the text dimmed
+	 */
+	public static final int STYLE_DIM = SgrState.STYLE_DIM;
+	
+	/**
+	 * Style bit to render the text in italics
+	 */
+	public static final int STYLE_ITALIC = SgrState.STYLE_ITALIC;
+	
+	/**
+	 * Style bit to render the text underlined
+	 */
+	public static final int STYLE_UNDERLINE = SgrState.STYLE_UNDERLINE;
+	
+	/**
+	 * Style bit to render the text with foreground and background swapped
+	 */
+	public static final int STYLE_REVERSE = SgrState.STYLE_REVERSE;
+	
     private final Color foreground;
     
     private final Color background;
     
-    public boolean highlight;
+    /**
+     * The style bits of this attribute
+     */
+    private final int style;
     
     /**
 	 * Constructs a new <code>TextAttributes</code> with the specified
@@ -66,6 +96,28 @@ public class TerminalCharacterAttribute {
 	 *             are <code>null</code>
 	 */
     public TerminalCharacterAttribute(Color foreground, Color background) {
+        this(foreground, background, 0);
+    }
+    
+    /**
+	 * Constructs a new <code>TextAttributes</code> with the specified
+	 * foreground and background colors, and style.
+	 *
+	 * @param foreground
+	 *            the foreground color
+	 *            
+	 * @param background
+	 *            the background color
+	 *            
+	 * @param style
+	 *            the style bits, a combination of the <code>STYLE_</code>
+	 *            constants
+	 *            
+	 * @throws NullPointerException
+	 *             if either <code>foreground</code> or <code>background</code>
+	 *             are <code>null</code>
+	 */
+    public TerminalCharacterAttribute(Color foreground, Color background, int style) {
         if (foreground == null) {
             throw new NullPointerException("foreground must be non-null");
         }
@@ -76,17 +128,7 @@ public class TerminalCharacterAttribute {
         
         this.foreground = foreground;
         this.background = background;
-    }
-    
-    private TerminalCharacterAttribute(Color foreground, Color background, boolean highlight) {
-    	this.foreground = foreground;
-    	this.background = background;
-    	this.highlight = highlight;
-    }
-    
-    @Override
-    protected TerminalCharacterAttribute clone() {
-    	return new TerminalCharacterAttribute(this.foreground, this.background, this.highlight);
+        this.style = style;
     }
 
 	public boolean notEquals(TerminalCharacterAttribute attribute) {
@@ -109,7 +151,14 @@ public class TerminalCharacterAttribute {
 		
 		TerminalCharacterAttribute attribute = (TerminalCharacterAttribute) obj;
 		
-		return this.highlight == attribute.highlight && this.foreground.equals(attribute.foreground) && this.background.equals(attribute.background);
+		return this.style == attribute.style && this.foreground.equals(attribute.foreground) && this.background.equals(attribute.background);
+	}
+	
+	@Override
+	public int hashCode() {
+		int hash = this.foreground.hashCode();
+		hash = 31 * hash + this.background.hashCode();
+		return 31 * hash + this.style;
 	}    
     /** 
      * Returns the foreground color of this <code>TextAttributes</code>.
@@ -131,30 +180,32 @@ public class TerminalCharacterAttribute {
     }
     
     
+    /** 
+     * Returns the style bits of this <code>TextAttributes</code>.
+     *
+     *@return the style bits
+     */
+    public int getStyle() {
+    	return style;
+    }
+    
+    /** 
+     * Returns whether the given style bit is set.
+     *
+     *@param style one of the <code>STYLE_</code> constants
+     *@return <code>true</code> if the style bit is set
+     */
+    public boolean hasStyle(int style) {
+    	return (this.style & style) != 0;
+    }
+    
     /** 
      * Converts this object to a <code>String</code> representation.
      *
      *@return a <code>String</code> representing this object
      */
     public String toString() {
-        return "TerminalCharacter(" + getForeground() + ", " + getBackground() + ")";
+        return "TerminalCharacter(" + getForeground() + ", " + getBackground() + ", " + getStyle() + ")";
     }
 
-
-	/**
-	 * @return the highlight
-	 */
-	public boolean isHighlight() {
-		return highlight;
-	}
-
-
-	/**
-	 * @param highlight the highlight to set
-	 */
-	public void setHighlight(boolean highlight) {
-		this.highlight = highlight;
-	}
-
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,618 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+
+import com.sangupta.consoles.swing.SwingTerminalConstants;
+
+/**
+ * Paints the cells of a terminal, either straight from a
+ * {@link TerminalBuffer} or from a {@link CellSnapshot}, to any
+ * {@link Graphics}: the screen, a back buffer or an offscreen image. Runs of
+ * cells with the same appearance are painted together, and selected cells
+ * are painted highlighted. The cursor is not painted.
+ *
+ * A renderer keeps reusable arrays, optionally a {@link GlyphAtlas} and
+ * optionally the images of rows it rendered, and so must be used from one
+ * thread at a time.
+ *
+ * @author sangupta
+ *
+ */
+public class TerminalRenderer {
+
+	/**
+	 * The font cells are painted with
+	 */
+	private final Font font;
+
+	/**
+	 * The width of a cell in pixels
+	 */
+	private final int charWidth;
+
+	/**
+	 * The height of a cell in pixels
+	 */
+	private final int charHeight;
+
+	/**
+	 * The distance of the baseline from the top of a cell in pixels
+	 */
+	private final int baseline;
+
+	/**
+	 * Whether characters are painted from a {@link GlyphAtlas}
+	 */
+	private boolean glyphCache;
+
+	/**
+	 * The glyphs rasterized with the font, created on first use
+	 */
+	private GlyphAtlas glyphAtlas;
+
+	/**
+	 * Whether the current paint may blit glyphs from the {@link #glyphAtlas},
+	 * which is not the case when the {@link Graphics} is scaled
+	 */
+	private boolean paintGlyphs;
+
+	/**
+	 * The images of rows painted from a buffer, <code>null</code> when rows
+	 * are painted afresh every time
+	 */
+	private RowImageCache rowCache;
+
+	/**
+	 * Reusable array to hold the cells of the row being painted
+	 */
+	private long[] rowCells = new long[0];
+
+	/**
+	 * Reusable array to hold the characters of a run being painted
+	 */
+	private char[] runChars = new char[0];
+
+	/**
+	 * The bold and italic variants of the font, indexed by the {@link Font}
+	 * style, derived when first needed
+	 */
+	private final Font[] fonts = new Font[4];
+
+	/**
+	 * Create a new renderer.
+	 *
+	 * @param font
+	 *            the {@link Font} to paint with, expected to be monospaced
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the font is <code>null</code>
+	 */
+	public TerminalRenderer(Font font) {
+		if (font == null) {
+			throw new IllegalArgumentException("Font cannot be null");
+		}
+
+		FontRenderContext context = new FontRenderContext(null, false, false);
+		Rectangle2D bounds = font.getStringBounds("M", context);
+
+		this.font = font;
+		this.charWidth = (int) bounds.getWidth();
+		this.charHeight = (int) bounds.getHeight();
+		this.baseline = (int) font.getLineMetrics("g", context).getAscent();
+	}
+
+	/**
+	 * Paint the cells of the given buffer that fall within the clip. Row
+	 * <code>n</code> of the buffer is painted at <code>n</code> times the cell
+	 * height.
+	 *
+	 * @param graphics
+	 *            the {@link Graphics} instance to use
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} to paint
+	 *
+	 * @param clip
+	 *            the area to paint, in pixels
+	 */
+	public void paint(Graphics graphics, TerminalBuffer buffer, Rectangle clip) {
+		int rows = buffer.getRows();
+		int columns = buffer.getColumns();
+		Color background = buffer.getTextColor().getBackground();
+
+		graphics.setColor(background);
+		graphics.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+		int startRow = clip.y / this.charHeight;
+		int endRow = Math.min(rows, startRow + (clip.height + this.charHeight - 1) / this.charHeight + 1);
+		int startColumn = clip.x / this.charWidth;
+		int endColumn = Math.min(columns, startColumn + (clip.width + this.charWidth - 1) / this.charWidth + 1);
+		if (startColumn >= endColumn) {
+			return;
+		}
+
+		if (this.rowCells.length < columns) {
+			this.rowCells = new long[columns];
+		}
+
+		graphics.setFont(this.font);
+		if (this.rowCache != null && isUnscaled(graphics)) {
+			paintCached(graphics, buffer, startRow, endRow, columns, background);
+			return;
+		}
+
+		this.paintGlyphs = prepareGlyphs(graphics);
+
+		AttributePalette palette = buffer.getAttributePalette();
+		Selection selection = buffer.getSelection();
+		for (int row = startRow; row < endRow; row++) {
+			if (!buffer.readRow(row, this.rowCells)) {
+				break;
+			}
+
+			paintRow(graphics, this.rowCells, 0, row, row * this.charHeight, startColumn, endColumn, columns, selection, palette, background);
+		}
+	}
+
+	/**
+	 * Paint the given rows of the buffer from the images of the rows, painting
+	 * the rows that changed since they were last painted into new images.
+	 *
+	 * @param graphics
+	 *            the {@link Graphics} instance to use
+	 *
+	 * @param buffer
+	 *            the {@link TerminalBuffer} to paint
+	 *
+	 * @param startRow
+	 *            the first row to paint
+	 *
+	 * @param endRow
+	 *            one past the last row to paint
+	 *
+	 * @param columns
+	 *            the number of columns in each row
+	 *
+	 * @param background
+	 *            the default background, already painted
+	 */
+	private void paintCached(Graphics graphics, TerminalBuffer buffer, int startRow, int endRow, int columns, Color background) {
+		int rgb = background.getRGB();
+		for (int row = startRow; row < endRow; row++) {
+			BufferedImage image;
+			long id, version;
+			Selection selection = null;
+
+			// the row must be read as it was at the version it is kept by
+			synchronized (buffer) {
+				id = buffer.getRowId(row);
+				version = buffer.getRowVersion(row);
+				if (version < 0) {
+					break;
+				}
+
+				image = this.rowCache.get(id, version, columns, rgb);
+				if (image == null) {
+					if (!buffer.readRow(row, this.rowCells)) {
+						break;
+					}
+
+					selection = buffer.getSelection();
+				}
+			}
+
+			if (image == null) {
+				image = ((Graphics2D) graphics).getDeviceConfiguration().createCompatibleImage(columns * this.charWidth, this.charHeight);
+
+				Graphics2D rowGraphics = image.createGraphics();
+				try {
+					rowGraphics.setColor(background);
+					rowGraphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+					rowGraphics.setFont(this.font);
+
+					this.paintGlyphs = prepareGlyphs(rowGraphics);
+					paintRow(rowGraphics, this.rowCells, 0, row, 0, 0, columns, columns, selection, buffer.getAttributePalette(), background);
+				} finally {
+					rowGraphics.dispose();
+				}
+
+				this.rowCache.put(id, version, columns, rgb, image);
+			}
+
+			graphics.drawImage(image, 0, row * this.charHeight, null);
+		}
+	}
+
+	/**
+	 * Paint the cells of the given snapshot that fall within the clip. The
+	 * first row of the snapshot is painted at the top, whatever its row in
+	 * the buffer.
+	 *
+	 * @param graphics
+	 *            the {@link Graphics} instance to use
+	 *
+	 * @param snapshot
+	 *            the {@link CellSnapshot} to paint
+	 *
+	 * @param clip
+	 *            the area to paint, in pixels
+	 */
+	public void paint(Graphics graphics, CellSnapshot snapshot, Rectangle clip) {
+		int columns = snapshot.getColumns();
+		Color background = snapshot.getBackground();
+
+		graphics.setColor(background);
+		graphics.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+		int startRow = clip.y / this.charHeight;
+		int endRow = Math.min(snapshot.getRows(), startRow + (clip.height + this.charHeight - 1) / this.charHeight + 1);
+		int startColumn = clip.x / this.charWidth;
+		int endColumn = Math.min(columns, startColumn + (clip.width + this.charWidth - 1) / this.charWidth + 1);
+		if (startColumn >= endColumn) {
+			return;
+		}
+
+		graphics.setFont(this.font);
+		this.paintGlyphs = prepareGlyphs(graphics);
+
+		long[] cells = snapshot.cells();
+		int firstRow = snapshot.getFirstRow();
+		for (int row = startRow; row < endRow; row++) {
+			paintRow(graphics, cells, row * columns, firstRow + row, row * this.charHeight, startColumn, endColumn, columns, snapshot.getSelection(), snapshot.getPalette(), background);
+		}
+	}
+
+	/**
+	 * Paint the given columns of one row, run by run.
+	 *
+	 * @param graphics
+	 *            the {@link Graphics} instance to use
+	 *
+	 * @param cells
+	 *            the array holding the cells of the row
+	 *
+	 * @param offset
+	 *            the index of the first cell of the row in the array
+	 *
+	 * @param row
+	 *            the row in the buffer, to look up the selection
+	 *
+	 * @param y
+	 *            the top of the row in pixels
+	 *
+	 * @param startColumn
+	 *            the first column to paint
+	 *
+	 * @param endColumn
+	 *            one past the last column to paint
+	 *
+	 * @param columns
+	 *            the number of columns in the row
+	 *
+	 * @param selection
+	 *            the selected cells, or <code>null</code>
+	 *
+	 * @param palette
+	 *            the {@link AttributePalette} the cells refer to
+	 *
+	 * @param defaultBackground
+	 *            the background already painted
+	 */
+	private void paintRow(Graphics graphics, long[] cells, int offset, int row, int y, int startColumn, int endColumn, int columns, Selection selection, AttributePalette palette, Color defaultBackground) {
+		int selectionStart = selection == null ? -1 : selection.startOf(row, columns);
+		int selectionEnd = selection == null ? -1 : selection.endOf(row, columns);
+
+		int start = startColumn;
+		int currentAppearance = appearanceAt(cells, offset, startColumn, selectionStart, selectionEnd);
+
+		for (int column = startColumn + 1; column < endColumn; column++) {
+			int appearance = appearanceAt(cells, offset, column, selectionStart, selectionEnd);
+			if (appearance != currentAppearance) {
+				paintRun(graphics, cells, offset, y, start, column, currentAppearance, palette, defaultBackground);
+
+				start = column;
+				currentAppearance = appearance;
+			}
+		}
+
+		paintRun(graphics, cells, offset, y, start, endColumn, currentAppearance, palette, defaultBackground);
+	}
+
+	/**
+	 * Return the appearance to paint a cell with, highlighted if the cell is
+	 * selected.
+	 *
+	 * @param cells
+	 * @param offset
+	 * @param column
+	 * @param selectionStart
+	 *            the first selected column of the row
+	 * @param selectionEnd
+	 *            one past the last selected column of the row
+	 * @return the appearance, as returned by {@link CellBuffer#appearanceOf(long)}
+	 */
+	private static int appearanceAt(long[] cells, int offset, int column, int selectionStart, int selectionEnd) {
+		int appearance = CellBuffer.appearanceOf(cells[offset + column]);
+		if (column >= selectionStart && column < selectionEnd) {
+			appearance |= CellBuffer.FLAG_HIGHLIGHT << 16;
+		}
+
+		return appearance;
+	}
+
+	/**
+	 * Paint the region of a row where all the columns between start and end
+	 * have the same appearance, i.e. all characters have the same foreground
+	 * and background color.
+	 *
+	 * @param graphics
+	 *            the {@link Graphics} instance to use
+	 *
+	 * @param cells
+	 *            the array holding the cells of the row
+	 *
+	 * @param offset
+	 *            the index of the first cell of the row in the array
+	 *
+	 * @param y
+	 *            the top of the row in pixels
+	 *
+	 * @param start
+	 *            the starting column
+	 *
+	 * @param end
+	 *            the ending column
+	 *
+	 * @param appearance
+	 *            the attribute index and flags of the run, as returned by
+	 *            {@link CellBuffer#appearanceOf(long)}
+	 *
+	 * @param palette
+	 *            the {@link AttributePalette} the cells refer to
+	 *
+	 * @param defaultBackground
+	 *            the background already painted
+	 */
+	private void paintRun(Graphics graphics, long[] cells, int offset, int y, int start, int end, int appearance, AttributePalette palette, Color defaultBackground) {
+		TerminalCharacterAttribute attribute = palette.get(appearance & 0xFFFF);
+		boolean highlight = ((appearance >>> 16) & CellBuffer.FLAG_HIGHLIGHT) != 0;
+
+		int startX = start * this.charWidth;
+		Color foreground, background;
+
+		if (!highlight) {
+			foreground = attribute.getForeground();
+			background = attribute.getBackground();
+		} else {
+			background = attribute.getForeground();
+			foreground = attribute.getBackground();
+		}
+
+		if (!background.equals(defaultBackground)) {
+			graphics.setColor(background);
+			graphics.fillRect(startX, y, (end - start) * this.charWidth, this.charHeight);
+		}
+
+		if (this.paintGlyphs) {
+			// blit each glyph from the atlas, blanks need no glyph
+			int style = attribute.getStyle();
+			for (int index = start; index < end; index++) {
+				int codePoint = CellBuffer.codePointOf(cells[offset + index]);
+				if (codePoint != ' ') {
+					this.glyphAtlas.paint(graphics, codePoint, appearance, foreground, background, style, index * this.charWidth, y);
+				}
+			}
+
+			return;
+		}
+
+		if (this.runChars.length < end - start) {
+			this.runChars = new char[end];
+		}
+
+		for (int index = start; index < end; index++) {
+			this.runChars[index - start] = (char) cells[offset + index];
+		}
+
+		graphics.setColor(foreground);
+
+		int style = attribute.getStyle();
+		if ((style & (TerminalCharacterAttribute.STYLE_BOLD | TerminalCharacterAttribute.STYLE_ITALIC)) == 0) {
+			graphics.drawChars(this.runChars, 0, end - start, startX, y + this.baseline);
+		} else {
+			graphics.setFont(fontFor(style));
+			graphics.drawChars(this.runChars, 0, end - start, startX, y + this.baseline);
+			graphics.setFont(this.font);
+		}
+
+		if ((style & TerminalCharacterAttribute.STYLE_UNDERLINE) != 0) {
+			graphics.drawLine(startX, y + this.baseline + 1, end * this.charWidth - 1, y + this.baseline + 1);
+		}
+	}
+
+	/**
+	 * Return the font variant for the given style bits.
+	 *
+	 * @param style
+	 * @return
+	 */
+	private Font fontFor(int style) {
+		int fontStyle = Font.PLAIN;
+		if ((style & TerminalCharacterAttribute.STYLE_BOLD) != 0) {
+			fontStyle |= Font.BOLD;
+		}
+
+		if ((style & TerminalCharacterAttribute.STYLE_ITALIC) != 0) {
+			fontStyle |= Font.ITALIC;
+		}
+
+		if (this.fonts[fontStyle] == null) {
+			this.fonts[fontStyle] = this.font.deriveFont(this.font.getStyle() | fontStyle);
+		}
+
+		return this.fonts[fontStyle];
+	}
+
+	/**
+	 * Decide whether glyphs can be blitted from the {@link GlyphAtlas} for
+	 * the given {@link Graphics}, creating the atlas if needed. Glyphs are
+	 * rasterized at one pixel per unit, so scaled or rotated painting falls
+	 * back to drawing the text.
+	 *
+	 * @param graphics
+	 *            the {@link Graphics} instance to use
+	 *
+	 * @return <code>true</code> if the atlas is to be used
+	 */
+	private boolean prepareGlyphs(Graphics graphics) {
+		if (!this.glyphCache) {
+			this.glyphAtlas = null;
+			return false;
+		}
+
+		if (!isUnscaled(graphics) || this.charWidth <= 0 || this.charHeight <= 0) {
+			return false;
+		}
+
+		if (this.glyphAtlas == null) {
+			this.glyphAtlas = new GlyphAtlas(this.font, this.charWidth, this.charHeight, this.baseline, SwingTerminalConstants.GLYPH_CACHE_SIZE, ((Graphics2D) graphics).getDeviceConfiguration());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Return whether the given {@link Graphics} paints one pixel per unit.
+	 *
+	 * @param graphics
+	 *            the {@link Graphics} instance to check
+	 *
+	 * @return
+	 */
+	static boolean isUnscaled(Graphics graphics) {
+		if (!(graphics instanceof Graphics2D)) {
+			return false;
+		}
+
+		int type = ((Graphics2D) graphics).getTransform().getType();
+		return (type & ~AffineTransform.TYPE_TRANSLATION) == 0;
+	}
+
+	/**
+	 * Enable or disable painting characters from a cache of rasterized
+	 * glyphs. Disabled by default.
+	 *
+	 * @param enabled
+	 *            <code>true</code> to paint from the glyph cache
+	 */
+	public void setGlyphCache(boolean enabled) {
+		if (enabled != this.glyphCache && this.rowCache != null) {
+			this.rowCache.clear();
+		}
+
+		this.glyphCache = enabled;
+	}
+
+	/**
+	 * Return whether characters are painted from a cache of rasterized glyphs.
+	 *
+	 * @return
+	 */
+	public boolean isGlyphCache() {
+		return this.glyphCache;
+	}
+
+	/**
+	 * Enable or disable keeping the images of the rows painted from a buffer,
+	 * so that rows that did not change since are copied rather than painted
+	 * again. The least recently painted images are dropped once the images
+	 * take more than {@link SwingTerminalConstants#ROW_IMAGE_CACHE_BYTES}.
+	 * Disabled by default.
+	 *
+	 * @param enabled
+	 *            <code>true</code> to keep the images of rows
+	 */
+	public void setRowCache(boolean enabled) {
+		if (!enabled) {
+			this.rowCache = null;
+		} else if (this.rowCache == null) {
+			this.rowCache = new RowImageCache(SwingTerminalConstants.ROW_IMAGE_CACHE_BYTES);
+		}
+	}
+
+	/**
+	 * Return whether the images of the rows painted from a buffer are kept.
+	 *
+	 * @return
+	 */
+	public boolean isRowCache() {
+		return this.rowCache != null;
+	}
+
+	/**
+	 * Return the {@link Font} cells are painted with.
+	 *
+	 * @return
+	 */
+	public Font getFont() {
+		return this.font;
+	}
+
+	/**
+	 * Return the width of a cell in pixels.
+	 *
+	 * @return
+	 */
+	public int getCharWidth() {
+		return this.charWidth;
+	}
+
+	/**
+	 * Return the height of a cell in pixels.
+	 *
+	 * @return
+	 */
+	public int getCharHeight() {
+		return this.charHeight;
+	}
+
+	/**
+	 * Return the distance of the baseline from the top of a cell in pixels.
+	 *
+	 * @return
+	 */
+	public int getBaseline() {
+		return this.baseline;
+	}
+
+}
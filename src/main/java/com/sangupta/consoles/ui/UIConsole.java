@@ -37,7 +37,9 @@ import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.WindowConstants;
 
+import com.sangupta.consoles.ConsolesConstants;
 import com.sangupta.consoles.core.AbstractConsole;
+import com.sangupta.consoles.core.AnsiParser;
 import com.sangupta.consoles.core.ConsoleInputStream;
 import com.sangupta.consoles.core.ConsoleOutputStream;
 import com.sangupta.consoles.core.ConsoleWriter;
@@ -48,7 +50,8 @@ import com.sangupta.consoles.swing.SwingTerminalConstants;
 
 /**
  * A Java Swing based UI terminal that mimics that actual OS terminals.
- * Supports ANSI based colors and key sequences.
+ * Supports ANSI based colors and key sequences: text printed may carry
+ * ANSI escape sequences to color and style it, and to move the cursor.
  * 
  * @author sangupta
  *
@@ -97,6 +100,26 @@ public class UIConsole extends AbstractConsole {
 	 */
 	protected final KeyboardHandler keyboardHandler;
 	
+	/**
+	 * The rendition and the saved cursor of the terminal, which the ANSI
+	 * sequences printed by all threads act on
+	 */
+	private final TerminalAnsiState ansiState;
+	
+	/**
+	 * The {@link Printer} of each thread printing to this console. Every
+	 * thread parses its own text, so that producers do not wait on one
+	 * another while parsing.
+	 */
+	private final ThreadLocal<Printer> printers = new ThreadLocal<Printer>() {
+		
+		@Override
+		protected Printer initialValue() {
+			return new Printer(new AnsiParser(new TerminalAnsiHandler(terminal, UIConsole.this, ansiState)));
+		}
+		
+	};
+	
 	/**
 	 * Holds the list of all shutdown hooks that have been added to this terminal.
 	 * 
@@ -133,6 +156,21 @@ public class UIConsole extends AbstractConsole {
 	 * @param scrollback
 	 */
 	public UIConsole(int rows, int columns, int scrollback) {
+		this(rows, columns, scrollback, 0);
+	}
+	
+	/**
+	 * Construct the console that keeps rows scrolling out of the in-memory
+	 * scrollback in a disk based scrollback.
+	 * 
+	 * @param rows
+	 * @param columns
+	 * @param scrollback
+	 *            the number of rows to keep in memory
+	 * @param diskScrollback
+	 *            the number of rows to keep on disk, <code>0</code> to disable
+	 */
+	public UIConsole(int rows, int columns, int scrollback, int diskScrollback) {
 		// set system look and feel
 		try {
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -146,7 +184,8 @@ public class UIConsole extends AbstractConsole {
 			e1.printStackTrace();
 		}
 				
-		this.terminal = new UITerminal(columns, rows, scrollback);
+		this.terminal = new UITerminal(columns, rows, scrollback, diskScrollback);
+		this.ansiState = new TerminalAnsiState(this.terminal);
 		this.keyboardHandler = new KeyboardHandler(this.terminal);
 		
 		this.frame = new JFrame();
@@ -196,23 +235,33 @@ public class UIConsole extends AbstractConsole {
 
 	@Override
 	public void print(char ch) {
-		this.terminal.output(ch);
+		Printer printer = this.printers.get();
+		printer.buffer[0] = ch;
+		printer.parser.parse(printer.buffer, 0, 1);
 	}
 
 	@Override
 	public void print(char[] cbuf, int off, int len) {
-		this.terminal.output(cbuf, off, len);
+		this.printers.get().parser.parse(cbuf, off, len);
 	}
 
 	@Override
 	public void print(String string) {
-		this.terminal.output(string);
+		Printer printer = this.printers.get();
+		char[] buffer = printer.buffer;
+		
+		int length = string.length();
+		for (int start = 0; start < length; start += buffer.length) {
+			int end = Math.min(start + buffer.length, length);
+			string.getChars(start, end, buffer, 0);
+			printer.parser.parse(buffer, 0, end - start);
+		}
 	}
 
 	@Override
 	public void println(String string) {
-		this.terminal.output(string);
-		this.terminal.output('\n');
+		print(string);
+		print('\n');
 	}
 
 	@Override
@@ -265,11 +314,15 @@ public class UIConsole extends AbstractConsole {
 	}
 
 	/**
+	 * Commit the line assembled by the current thread and wait till the
+	 * output queued so far is on the screen.
+	 * 
 	 * @see AbstractConsole#flush()
 	 */
 	@Override
 	public void flush() throws IOException {
-		this.consoleWriter.flush();
+		this.consoleOutputStream.flush();
+		this.terminal.drainOutput();
 	}
 
 	@Override
@@ -295,6 +348,43 @@ public class UIConsole extends AbstractConsole {
 		this.keyboardHandler.addPriorityKeyTrap(inputKey, keyTrapHandler);
 	}
 
+	@Override
+	public void setConsoleProperty(String name, String value) {
+		super.setConsoleProperty(name, value);
+		
+		if(ConsolesConstants.PROPERTY_ASYNC_OUTPUT.equals(name)) {
+			this.terminal.setAsyncOutput(Boolean.parseBoolean(value));
+		}
+		
+		if(ConsolesConstants.PROPERTY_GLYPH_CACHE.equals(name)) {
+			this.terminal.setGlyphCache(Boolean.parseBoolean(value));
+		}
+		
+		if(ConsolesConstants.PROPERTY_ROW_CACHE.equals(name)) {
+			this.terminal.setRowCache(Boolean.parseBoolean(value));
+		}
+		
+		if(ConsolesConstants.PROPERTY_BACK_BUFFER.equals(name)) {
+			this.terminal.setBackBuffered(Boolean.parseBoolean(value));
+		}
+		
+		if(ConsolesConstants.PROPERTY_MAX_FRAMES_PER_SECOND.equals(name)) {
+			try {
+				this.terminal.setMaxFramesPerSecond(Integer.parseInt(value.trim()));
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Frames per second must be a number", e);
+			}
+		}
+		
+		if(ConsolesConstants.PROPERTY_RENDER_THREADS.equals(name)) {
+			try {
+				this.terminal.setRenderThreads(Integer.parseInt(value.trim()));
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Render threads must be a number", e);
+			}
+		}
+	}
+
 	@Override
 	public boolean supportsResizing() {
 		return true;
@@ -325,6 +415,13 @@ public class UIConsole extends AbstractConsole {
 			this.shutDownHooks.clear();
 		}
 		
+		// write out any partially assembled lines
+		try {
+			this.consoleOutputStream.close();
+		} catch (IOException e) {
+			// eat up
+		}
+		
 		// clean up objects
 		// TODO: work this up
 //		this.terminal.dispose();
@@ -333,6 +430,16 @@ public class UIConsole extends AbstractConsole {
 		this.frame.dispose();
 	}
 	
+	/**
+	 * Return the {@link TextWindow} of this console, to move the cursor and
+	 * write at given positions.
+	 * 
+	 * @return
+	 */
+	public TextWindow getTextWindow() {
+		return this.terminal;
+	}
+	
 	@Override
 	public Color getForegroundColor() {
 		return this.terminal.getTextColor().getForeground();
@@ -347,4 +454,20 @@ public class UIConsole extends AbstractConsole {
 		this.terminal.setTextColor(foreground, background);
 	}
 
+	/**
+	 * The parser with which a thread prints to this console, and the buffer
+	 * holding the characters of strings it prints.
+	 */
+	private static final class Printer {
+		
+		final AnsiParser parser;
+		
+		final char[] buffer = new char[1024];
+		
+		Printer(AnsiParser parser) {
+			this.parser = parser;
+		}
+		
+	}
+	
 }
\ No newline at end of file
@@ -27,17 +27,15 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
 import java.awt.Insets;
 import java.awt.Rectangle;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.event.FocusEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
-import java.awt.font.FontRenderContext;
-import java.awt.geom.Rectangle2D;
-import java.util.Arrays;
+import java.awt.image.BufferedImage;
+import java.util.List;
 
 import javax.swing.JComponent;
 import javax.swing.JScrollBar;
@@ -45,13 +43,16 @@ import javax.swing.JScrollPane;
 import javax.swing.KeyStroke;
 import javax.swing.Scrollable;
 import javax.swing.SwingUtilities;
-import javax.swing.Timer;
 
 import com.sangupta.consoles.swing.CursorType;
 import com.sangupta.consoles.swing.SwingTerminalConstants;
 import com.sangupta.consoles.util.FontUtils;
 
 /**
+ * Swing component that renders a {@link TerminalBuffer}. The component only
+ * keeps the state needed to display the buffer - the font metrics, the
+ * cursor blink and the scroll position - and repaints the regions that the
+ * buffer reports as dirty.
  * 
  * @author sangupta
  *
@@ -68,32 +69,55 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	 */
 	private final Rectangle visibleRect = new Rectangle();
 
-    /** 
-     * Maximum number of rows which will ever be remembered. 
-     */
-    private final int scrollback;
-    
-    /** 
-     * Number of rows currently being remembered - or the total number of rows 
-     */
-    private volatile int rows;
-    
-    /** 
-     * Number of rows being displayed at one time - the view size
-     */
-    private volatile int logicalRows;
-    
-    /** 
-     * Number of columns in each row. 
-     */
-    private volatile int columns;
+	/**
+	 * The contents of the visible part of this component, kept across paints
+	 * when back-buffered rendering is enabled
+	 */
+	private BufferedImage backBuffer;
 
-    /** 
-     * Number of columns actually being displayed. 
-     */
-    private volatile int logicalColumns;
-    
-    private TerminalCharacterAttribute currentTextColor = SwingTerminalConstants.DEFAULT_TERMINAL_CHAR_ATTRIBUTES;
+	/**
+	 * The area of this component held in the {@link #backBuffer}
+	 */
+	private final Rectangle backBufferBounds = new Rectangle();
+
+	/**
+	 * Whether the {@link #backBuffer} is to be rendered again from scratch
+	 */
+	private volatile boolean backBufferStale;
+
+	/**
+	 * Whether the contents are rendered through the {@link #backBuffer}
+	 */
+	private volatile boolean backBuffered;
+
+	/**
+	 * The screen model rendered by this component, either the
+	 * {@link #primaryBuffer} or the {@link #alternateBuffer}
+	 */
+	private volatile TerminalBuffer buffer;
+	
+	/**
+	 * The screen model holding the output and the scrollback
+	 */
+	private final TerminalBuffer primaryBuffer;
+	
+	/**
+	 * The screen model without scrollback that full screen programs draw on,
+	 * created when first switched to
+	 */
+	private TerminalBuffer alternateBuffer;
+	
+	/**
+	 * The buffer that was last painted, to notice a switch of screens when
+	 * painting
+	 */
+	private TerminalBuffer paintedBuffer;
+	
+	/**
+	 * The queue that output goes through when asynchronous output is enabled,
+	 * <code>null</code> otherwise
+	 */
+	private volatile OutputQueue outputQueue;
 
     /**
      * The width of the character
@@ -110,103 +134,176 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
      */
     private int baseline = 9;
 
-    private char[][] chars;                // [rows][columns]
-    private TerminalCharacterAttribute[][] attributes; // [rows][columns]
+    /**
+     * Paints the cells with the current font
+     */
+    private TerminalRenderer renderer;
     
     /**
-     * The current {@link CursorType} associated with this console
+     * Paints large areas in strips across threads, <code>null</code> when
+     * painting on the event dispatch thread only
      */
-    private CursorType cursorType;
+    private volatile StripRasterizer rasterizer;
     
     /**
-     * Boolean value to switch alternatively to display a blinking cursor
+     * Whether characters are painted from a {@link GlyphAtlas}
      */
-    private boolean cursorState;
+    private volatile boolean glyphCache;
     
     /**
-     * The color attributes associated with the cursor of this console
+     * Whether the images of rendered rows are kept
      */
-    private Color cursorColor;
+    private volatile boolean rowCache;
     
     /**
-     * The current X position of the cursor
+     * The current {@link CursorType} associated with this console
      */
-    private int cursorX = -1;
+    private volatile CursorType cursorType;
     
     /**
-     * The current Y position of the cursor
+     * Boolean value to switch alternatively to display a blinking cursor
      */
-    private int cursorY = -1;
-
+    private volatile boolean cursorState;
+    
+    /**
+     * The color attributes associated with the cursor of this console
+     */
+    private Color cursorColor;
+    
     private volatile boolean valid;
     
     /**
      * Indicates if we need to go to the bottom of the screen
      */
-    private boolean snapToBottom;
+    private volatile boolean snapToBottom;
     
     /**
      * Indicates if we need to go to the top of the screen
      */
-    private boolean snapToTop;
-    
-    private Rectangle dirtyRegion;
+    private volatile boolean snapToTop;
     
-    private final Timer cursorTimer = new Timer(SwingTerminalConstants.CURSOR_BLINK_DELAY, new ActionListener() {
+    /**
+     * Blinks the cursor, run by the {@link #frameScheduler}
+     */
+    private final Runnable blinkTask = new Runnable() {
     	
-            public void actionPerformed(ActionEvent e) {
+            public void run() {
                 cursorState = !cursorState;
-                repaintChar(cursorX, cursorY);
+                repaintCursor();
             }
             
-        });
+        };
 
-    private final Timer repaintTimer = new Timer(SwingTerminalConstants.REPAINT_DELAY, new ActionListener() {
+    /**
+     * Brings the screen up to date with the buffer, run by the
+     * {@link #frameScheduler} on the EDT
+     */
+    private final Runnable frameTask = new Runnable() {
 				
-		public void actionPerformed(ActionEvent e) {
-			synchronized (UITerminal.this) {
-				final JScrollPane scrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, UITerminal.this);
-
-				if (!UITerminal.this.valid || UITerminal.this.snapToBottom) {
-					if (!UITerminal.this.valid) {
-						invalidate();
-						if (scrollPane != null) {
-							scrollPane.validate();
-						}
-					}
-
-					if (UITerminal.this.snapToBottom = true) {
-						if (scrollPane != null) {
-							JScrollBar verticalScrollBar = scrollPane.getVerticalScrollBar();
-							verticalScrollBar.setValue(verticalScrollBar.getMaximum() - verticalScrollBar.getVisibleAmount());
-						}
-
-						UITerminal.this.snapToBottom = false;
-					}
+		public void run() {
+			final JScrollPane scrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, UITerminal.this);
+
+			if (!UITerminal.this.valid) {
+				invalidate();
+				if (scrollPane != null) {
+					scrollPane.validate();
 				}
+			}
 
-				if (UITerminal.this.snapToTop) {
-					if (scrollPane != null) {
-						JScrollBar verticalScrollBar = scrollPane.getVerticalScrollBar();
-						verticalScrollBar.setValue(verticalScrollBar.getMinimum());
-					}
+			// the output queued so far makes it into this frame
+			OutputQueue queue = UITerminal.this.outputQueue;
+			if (queue != null) {
+				queue.drainForFrame();
+			}
 
-					UITerminal.this.snapToTop = false;
+			// the damage goes first, so that the back buffer is up to date
+			// by the time the viewport moves
+			int scrolledRows;
+			List<Rectangle> dirtyRegions;
+			TerminalBuffer buffer = UITerminal.this.buffer;
+			synchronized (buffer) {
+				scrolledRows = buffer.takeScrolledRows();
+				dirtyRegions = buffer.takeDirtyRegions();
+			}
+			
+			repaintDamage(scrolledRows, dirtyRegions);
+
+			if (UITerminal.this.snapToBottom) {
+				if (scrollPane != null) {
+					JScrollBar verticalScrollBar = scrollPane.getVerticalScrollBar();
+					verticalScrollBar.setValue(verticalScrollBar.getMaximum() - verticalScrollBar.getVisibleAmount());
 				}
 
-				if (UITerminal.this.dirtyRegion != null) {
-					repaint(dirtyRegion.x * charWidth, dirtyRegion.y * charHeight, dirtyRegion.width * charWidth, dirtyRegion.height * charHeight);
-					UITerminal.this.dirtyRegion = null;
+				UITerminal.this.snapToBottom = false;
+			}
+
+			if (UITerminal.this.snapToTop) {
+				if (scrollPane != null) {
+					JScrollBar verticalScrollBar = scrollPane.getVerticalScrollBar();
+					verticalScrollBar.setValue(verticalScrollBar.getMinimum());
 				}
+
+				UITerminal.this.snapToTop = false;
 			}
 		}
     	
-	});
+	};
+    
+    /**
+     * Runs the {@link #frameTask} when the buffer is damaged, and the
+     * {@link #blinkTask}
+     */
+    private final FrameScheduler frameScheduler = new FrameScheduler(this.frameTask, this.blinkTask, SwingTerminalConstants.CURSOR_BLINK_DELAY, SwingTerminalConstants.MAX_FRAMES_PER_SECOND);
     
-    // start the timer
-    { 
-    	repaintTimer.setRepeats(false); 
-    }
+    /**
+     * Asks for a frame, for the output queued to be drained before it
+     */
+    private final Runnable drainRequest = new Runnable() {
+		
+		public void run() {
+			frameScheduler.requestFrame();
+		}
+		
+	};
+    
+    /**
+     * Drives the timers and the scroll position from the changes made to the
+     * {@link #buffer}. Invoked while the buffer is locked, so nothing here
+     * may lock this component.
+     */
+    private final TerminalBufferListener bufferListener = new TerminalBufferListener() {
+		
+		@Override
+		public void cursorMoved(TerminalBuffer buffer) {
+			cursorState = true;
+			frameScheduler.restartBlink();
+		}
+		
+		@Override
+		public void bufferDamaged(TerminalBuffer buffer) {
+			frameScheduler.requestFrame();
+		}
+		
+		@Override
+		public void bufferResized(TerminalBuffer buffer) {
+			fireResized();
+			valid = false; // avoid overhead of calling invalidate() in a tight loop
+		}
+		
+		@Override
+		public void bufferScrolled(TerminalBuffer buffer) {
+			// the alternate screen has no scrollback to move through
+			if (buffer == primaryBuffer) {
+				snapToBottom = true;
+			}
+		}
+		
+		@Override
+		public void bufferCleared(TerminalBuffer buffer) {
+			snapToTop = true;
+		}
+		
+	};
 
 
 	/**
@@ -226,26 +323,68 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	 * </p>
 	 */
 	public UITerminal(int columns, int rows, int scrollback) {
+		this(columns, rows, scrollback, 0);
+	}
+	
+	/**
+	 * Constructs a new terminal as {@link #UITerminal(int, int, int)} does,
+	 * that additionally keeps the rows that scroll out of the
+	 * <code>scrollback</code> rows held in memory, in a memory-mapped file.
+	 * Only the most recent rows are held in memory as full cells, older ones
+	 * are kept in a compact form till they are painted or edited.
+	 * Such rows are read back lazily when painted or searched, and the file
+	 * is removed when the terminal is closed.
+	 * 
+	 * @param columns
+	 *            the number of columns
+	 * 
+	 * @param rows
+	 *            the number of rows displayed
+	 * 
+	 * @param scrollback
+	 *            the number of rows held in memory
+	 * 
+	 * @param diskScrollback
+	 *            the number of rows to keep on disk, <code>0</code> to disable
+	 *            disk based scrollback
+	 */
+	public UITerminal(int columns, int rows, int scrollback, int diskScrollback) {
+		this(new TerminalBuffer(columns, rows, scrollback, diskScrollback));
+	}
+	
+	/**
+	 * Constructs a new terminal that renders the given {@link TerminalBuffer}.
+	 * 
+	 * @param buffer
+	 *            the {@link TerminalBuffer} to render
+	 */
+	public UITerminal(TerminalBuffer buffer) {
+		this.buffer = buffer;
+		this.primaryBuffer = buffer;
+		this.buffer.addTerminalBufferListener(this.bufferListener);
+		
 		// set the current font
 		setFont(FontUtils.getPlatformFont());
 		
-		// set the current grid size
-		setGridSize(columns, rows, columns);
-		this.scrollback = scrollback;
-		this.logicalRows = rows;
-		
 		// the color of the cursor
 		setCursorColor(SwingTerminalConstants.DEFAULT_CURSOR_COLOR);
 		
-		// start timer to paint cursor
-		this.cursorTimer.start();
-		
 		// add a listener to select text area with mouse
 		this.addTextMouseListener(new MouseHighlightHandler(this));
 		
 		// enable mouse events
 		enableEvents(AWTEvent.MOUSE_EVENT_MASK);
 	}
+	
+	/**
+	 * Return the {@link TerminalBuffer} rendered by this terminal, which is
+	 * the alternate screen while that is shown.
+	 * 
+	 * @return
+	 */
+	public TerminalBuffer getBuffer() {
+		return this.buffer;
+	}
     
 	/**
 	 * Set the font to be used within the console.
@@ -261,118 +400,36 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 			throw new IllegalArgumentException("Font to be set cannot be null");
 		}
 		
-		FontRenderContext context = new FontRenderContext(null, false, false);
-		Rectangle2D bounds = font.getStringBounds("M", context);
-		charWidth = (int) bounds.getWidth();
-		charHeight = (int) bounds.getHeight();
-		baseline = (int) font.getLineMetrics("g", context).getAscent();
+		TerminalRenderer renderer = new TerminalRenderer(font);
+		renderer.setGlyphCache(this.glyphCache);
+		renderer.setRowCache(this.rowCache);
+		charWidth = renderer.getCharWidth();
+		charHeight = renderer.getCharHeight();
+		baseline = renderer.getBaseline();
+		this.renderer = renderer;
+		
+		StripRasterizer rasterizer = this.rasterizer;
+		if (rasterizer != null) {
+			setRenderThreads(rasterizer.getParallelism());
+		}
+		backBufferStale = true;
 		super.setFont(font);
 		revalidate();
 	}
 
-	private synchronized void setGridSize(int columns, int rows, int logicalColumns) {
-		while (this.cursorY >= rows) {
-			scrollByOneRow();
-		}
-
-		this.logicalColumns = logicalColumns;
-		if (columns == this.columns) { // not changing number of columns, use
-										// more efficient algorithm
-			int minRows = Math.min(rows, this.rows);
-			char[][] oldChars = this.chars;
-			if (oldChars == null) {
-				oldChars = new char[0][0];
-			}
-
-			this.chars = new char[rows][columns];
-			System.arraycopy(oldChars, 0, chars, 0, minRows);
-
-			for (int i = this.rows; i < rows; i++) {
-				char[] newRow = new char[columns];
-				Arrays.fill(newRow, ' ');
-				this.chars[i] = newRow;
-			}
-
-			TerminalCharacterAttribute[][] oldAttributes = this.attributes;
-			if (oldAttributes == null) {
-				oldAttributes = new TerminalCharacterAttribute[0][0];
-			}
-
-			this.attributes = new TerminalCharacterAttribute[rows][columns];
-			System.arraycopy(oldAttributes, 0, attributes, 0, minRows);
-			
-			for (int i = this.rows; i < rows; i++) {
-				TerminalCharacterAttribute[] newRow = new TerminalCharacterAttribute[columns];
-				
-				for(int j = 0; j < newRow.length; j++) {
-//					Arrays.fill(newRow, this.currentTextColor);
-					newRow[j] = this.currentTextColor.clone();
-				}
-				
-				this.attributes[i] = newRow;
-			}
-		} else { // changing number of columns, use slower algorithm
-			int minRows = Math.min(rows, this.rows);
-			int minColumns = Math.min(columns, this.columns);
-			char[][] oldChars = chars;
-			if (oldChars == null) {
-				oldChars = new char[0][0];
-			}
-
-			this.chars = new char[rows][columns];
-			for (int i = 0; i < minRows; i++) {
-				char[] newRow = new char[columns];
-				System.arraycopy(oldChars[i], 0, newRow, 0, minColumns);
-				if (columns > minColumns) {
-					Arrays.fill(newRow, minColumns, columns, ' ');
-				}
-
-				this.chars[i] = newRow;
-			}
-
-			for (int i = oldChars.length; i < rows; i++) {
-				char[] newRow = new char[columns];
-				Arrays.fill(newRow, ' ');
-				this.chars[i] = newRow;
-			}
-
-			TerminalCharacterAttribute[][] oldAttributes = this.attributes;
-			if (oldAttributes == null) {
-				oldAttributes = new TerminalCharacterAttribute[0][0];
-			}
-
-			this.attributes = new TerminalCharacterAttribute[rows][columns];
-			for (int i = 0; i < minRows; i++) {
-				TerminalCharacterAttribute[] newRow = new TerminalCharacterAttribute[columns];
-				System.arraycopy(oldAttributes[i], 0, newRow, 0, minColumns);
-				this.attributes[i] = newRow;
-			}
-
-			for (int i = oldAttributes.length; i < rows; i++) {
-				this.attributes[i] = new TerminalCharacterAttribute[columns];
-			}
-		}
-
-		this.columns = columns;
-		this.rows = rows;
-		fireResized();
-		valid = false; // avoid overhead of calling invalidate() in a tight loop
-		repaint();
-	}
-
-	public synchronized int getRows() {
-		return this.logicalRows;
+	public int getRows() {
+		return this.buffer.getLogicalRows();
 	}
 
-	public synchronized int getColumns() {
-		return this.logicalColumns;
+	public int getColumns() {
+		return this.buffer.getLogicalColumns();
 	}
 
 	public Dimension getMinimumSize() {
 		int parentHeight = getParent().getHeight();
 		Insets parentInsets = getParent().getInsets();
 		parentHeight -= parentInsets.top + parentInsets.bottom;
-		return new Dimension(logicalColumns * getCharWidth(), Math.max(parentHeight, rows * getCharHeight()));
+		return new Dimension(this.buffer.getLogicalColumns() * getCharWidth(), Math.max(parentHeight, this.buffer.getRows() * getCharHeight()));
 	}
 
 	public Dimension getPreferredSize() {
@@ -383,29 +440,31 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 		return getPreferredSize();
 	}
 
-	public synchronized int getCursorX() {
-		return this.cursorX;
+	public int getCursorX() {
+		drainOutput();
+		return this.buffer.getCursorX();
 	}
 
-	public synchronized int getCursorY() {
-		return this.cursorY + this.logicalRows - this.rows;
+	public int getCursorY() {
+		drainOutput();
+		synchronized (this.buffer) {
+			return this.buffer.getCursorY() + this.buffer.getLogicalRows() - this.buffer.getRows();
+		}
 	}
 	
-	public synchronized void setCursorPosition(int x, int y) {
+	public void setCursorPosition(int x, int y) {
 		this.setCursorPosition(x, y, true);
 	}
 
-	public synchronized void setCursorPosition(int cursorX, int cursorY, boolean massageY) {
-		if(massageY) {
-			cursorY += this.rows - this.logicalRows;
+	public void setCursorPosition(int cursorX, int cursorY, boolean massageY) {
+		drainOutput();
+		synchronized (this.buffer) {
+			if(massageY) {
+				cursorY += this.buffer.getRows() - this.buffer.getLogicalRows();
+			}
+			
+			this.buffer.setCursorPosition(cursorX, cursorY);
 		}
-		
-		repaintChar(this.cursorX, this.cursorY);
-		this.cursorX = cursorX;
-		this.cursorY = cursorY;
-		this.cursorState = true;
-		this.cursorTimer.restart();
-		repaintChar(cursorX, cursorY);
 	}
 
 	public int getCharWidth() {
@@ -451,9 +510,10 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 		this.listenerList.remove(KeyListener.class, l);
 	}
 
-	protected synchronized void processKeyEvent(KeyEvent e) {
+	protected void processKeyEvent(KeyEvent e) {
 		fireKeyEvent(e);
 		if (e.getID() == KeyEvent.KEY_TYPED) {
+			int cursorY = this.buffer.getCursorY();
 			scrollRectToVisible(new Rectangle(0, cursorY * getCharHeight(), 1, (cursorY + 1) * getCharHeight() - 1));
 		}
 	}
@@ -483,6 +543,8 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	}
 
 	public void addTextMouseListener(TextMouseListener l) {
+		// text mouse listeners are told of drags too
+		enableEvents(AWTEvent.MOUSE_MOTION_EVENT_MASK);
 		this.listenerList.add(TextMouseListener.class, l);
 	}
 
@@ -509,6 +571,10 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 
 	protected void processMouseMotionEvent(MouseEvent e) {
 		super.processMouseMotionEvent(e);
+		if (e.getID() == MouseEvent.MOUSE_DRAGGED) {
+			fireMouseEvent(e);
+		}
+		
 		fireMouseMotionEvent(e);
 	}
 
@@ -520,16 +586,16 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	 */
 	private TextMouseEvent createTextMouseEvent(MouseEvent event) {
 		int halfCharWidth = getCharWidth() >> 1; // divide by 2
-		int currentChar = event.getX() % getCharWidth();
+		int currentChar = event.getX() / getCharWidth();
 		
 		int bias;
-		if(currentChar < halfCharWidth) {
+		if(event.getX() % getCharWidth() < halfCharWidth) {
 			bias = TextMouseEvent.BIAS_LEFT;
 		} else {
 			bias = TextMouseEvent.BIAS_RIGHT;
 		}
 		
-		return new TextMouseEvent((Component) event.getSource(), event.getID(), event.getWhen(), event.getModifiers(), currentChar, event.getY() / getCharHeight() - rows + logicalRows, event.getClickCount(), event.isPopupTrigger(), bias);
+		return new TextMouseEvent((Component) event.getSource(), event.getID(), event.getWhen(), event.getModifiers(), currentChar, event.getY() / getCharHeight() - this.buffer.getRows() + this.buffer.getLogicalRows(), event.getClickCount(), event.isPopupTrigger(), bias);
 	}
 
 	/**
@@ -594,9 +660,9 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 
 	protected void processFocusEvent(FocusEvent event) {
 		super.processFocusEvent(event);
-		cursorTimer.restart();
 		cursorState = event.getID() == FocusEvent.FOCUS_GAINED;
-		repaintChar(cursorX, cursorY);
+		frameScheduler.setBlinking(cursorState);
+		repaintCursor();
 	}
 
 	protected boolean processKeyBinding(KeyStroke keyStroke, KeyEvent event, int condition, boolean pressed) {
@@ -615,323 +681,597 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 		return super.processKeyBinding(keyStroke, event, condition, pressed);
 	}
 
-	/**
-	 * Update the cursor appropriately for just having output character
-	 * <code>chr</code>, <code>\n</code> is the only control character handled
-	 * here, everything else should be done at a higher level.
-	 * 
-	 * @param chr
-	 */
-	protected final void advance(char chr) {
-		cursorState = true;
-		cursorTimer.restart();
-		switch (chr) {
-			case '\n':
-				cursorX = 0;
-				if (++cursorY >= rows)
-					scrollByOneRow();
-				break;
-				
-			case '\r':
-				break;
-				
-			default:
-				if (++cursorX >= logicalColumns) {
-					cursorX = 0;
-					if (++cursorY >= rows) {
-						scrollByOneRow();
-					}
-				}
+	public void output(char c) {
+		output(c, this.buffer.getTextColor());
+	}
+
+	public void output(char c, TerminalCharacterAttribute attributes) {
+		OutputQueue queue = this.outputQueue;
+		if (queue != null) {
+			queue.offer(c, attributes);
+			return;
 		}
 		
-		repaintChar(cursorX, cursorY);
+		this.buffer.write(c, attributes);
 	}
 
-	private void outputRaw(char c, TerminalCharacterAttribute attr, boolean immediate) {
-		// assert Thread.holdsLock(this);
-		if (attr == null) {
-			throw new NullPointerException("attributes may not be null");
-		}
+	public void output(int x, int y, char c) {
+		output(x, y, c, this.buffer.getTextColor());
+	}
+
+	public void output(int x, int y, char c, TerminalCharacterAttribute attributes) {
+		drainOutput();
+		this.buffer.write(x, y, c, attributes);
+	}
 
-		if (c == '\t') {
-			outputRaw(' ', attr, false);
-			outputRaw(' ', attr, false);
-			outputRaw(' ', attr, false);
-			outputRaw(' ', attr, false);
+	public void output(char[] c, int offset, int length) {
+		output(c, offset, length, this.buffer.getTextColor());
+	}
+
+	public void output(char[] c, int offset, int length, TerminalCharacterAttribute attributes) {
+		OutputQueue queue = this.outputQueue;
+		if (queue != null) {
+			queue.offer(c, offset, length, attributes);
 			return;
-		} 
-		
-		if (c == '\r') {
-			return; // do nothing
 		}
 		
-		if (c == '\n') {
-			advance(c);
+		this.buffer.write(c, offset, length, attributes);
+	}
+
+	public void output(String s) {
+		output(s, this.buffer.getTextColor());
+	}
+
+	public void output(String s, TerminalCharacterAttribute attributes) {
+		OutputQueue queue = this.outputQueue;
+		if (queue != null) {
+			queue.offer(s, attributes);
 			return;
 		}
 		
-		// some other character
-		try {
-			int startingCursorX = this.cursorX;
-			int startingCursorY = this.cursorY;
-			chars[startingCursorY][startingCursorX] = c;
-			attributes[startingCursorY][startingCursorX] = attr;
-			advance(c);
-
-			if (!immediate) {
-				repaintChar(startingCursorX, startingCursorY);
-			} else {
-				paintImmediately(startingCursorX * charWidth, startingCursorY * charHeight, charWidth, charHeight);
-
-				paintImmediately(cursorX * charWidth, cursorY * charHeight, charWidth, charHeight);
-			}
-		} catch (ArrayIndexOutOfBoundsException e) { 
-			// can happen if thread was terminated in the middle of output
-			if (cursorX < 0) {
-				cursorX = 0;
-			} else if (cursorX >= logicalColumns) {
-				cursorX = logicalColumns - 1;
-			}
+		this.buffer.write(s, attributes);
+	}
 
-			if (cursorY < 0) {
-				cursorY = 0;
-			} else if (cursorY >= rows) {
-				cursorY = rows - 1;
-			}
+	public void outputImmediately(char c) {
+		outputImmediately(c, this.buffer.getTextColor());
+	}
 
-			// cursor should be in valid location, try again
-			outputRaw(c, attr, false);
+	public void outputImmediately(char c, TerminalCharacterAttribute attributes) {
+		drainOutput();
+		
+		int startingCursorX, startingCursorY, cursorX, cursorY;
+		synchronized (this.buffer) {
+			startingCursorX = this.buffer.getCursorX();
+			startingCursorY = this.buffer.getCursorY();
+			this.buffer.write(c, attributes);
+			cursorX = this.buffer.getCursorX();
+			cursorY = this.buffer.getCursorY();
 		}
+		
+		paintImmediately(startingCursorX * charWidth, startingCursorY * charHeight, charWidth, charHeight);
+		paintImmediately(cursorX * charWidth, cursorY * charHeight, charWidth, charHeight);
 	}
 
-	public synchronized void output(char c) {
-		outputRaw(c, this.currentTextColor, false);
+	/**
+	 * Blank the given columns of a row on the screen, without moving the
+	 * cursor.
+	 * 
+	 * @param y
+	 *            the row on the screen
+	 * 
+	 * @param fromX
+	 *            the first column to erase
+	 * 
+	 * @param toX
+	 *            the column after the last one to erase
+	 * 
+	 * @param attributes
+	 *            the {@link TerminalCharacterAttribute} to blank with
+	 */
+	public void erase(int y, int fromX, int toX, TerminalCharacterAttribute attributes) {
+		drainOutput();
+		synchronized (this.buffer) {
+			this.buffer.erase(y + this.buffer.getRows() - this.buffer.getLogicalRows(), fromX, toX, attributes);
+		}
 	}
 
-	public synchronized void output(char c, TerminalCharacterAttribute attributes) {
-		outputRaw(c, attributes, false);
+	/**
+	 * Move the given rows of the screen up or down, filling the rows
+	 * uncovered with blanks. The rows outside the range are left alone.
+	 * 
+	 * @param top
+	 *            the first row of the range on the screen
+	 * 
+	 * @param bottom
+	 *            the last row of the range on the screen
+	 * 
+	 * @param count
+	 *            the number of rows to move the rows up by, negative to move
+	 *            them down
+	 */
+	public void scrollRows(int top, int bottom, int count) {
+		drainOutput();
+		synchronized (this.buffer) {
+			int screenTop = this.buffer.getRows() - this.buffer.getLogicalRows();
+			this.buffer.scrollRows(screenTop + top, screenTop + bottom, count);
+		}
 	}
-
-	public synchronized void output(int x, int y, char c) {
-		output(x, y, c, this.currentTextColor);
+	
+	/**
+	 * Limit scrolling to the given rows of the screen, as
+	 * {@link TerminalBuffer#setScrollRegion(int, int)} does.
+	 * 
+	 * @param top
+	 *            the first row of the region on the screen
+	 * 
+	 * @param bottom
+	 *            the last row of the region on the screen
+	 */
+	public void setScrollRegion(int top, int bottom) {
+		drainOutput();
+		this.buffer.setScrollRegion(top, bottom);
 	}
-
-	public synchronized void output(int x, int y, char c, TerminalCharacterAttribute attributes) {
-		chars[y][x] = c;
-		this.attributes[y][x] = attributes;
-		repaintChar(x, y);
+	
+	/**
+	 * Let the whole screen scroll again.
+	 * 
+	 */
+	public void clearScrollRegion() {
+		drainOutput();
+		this.buffer.clearScrollRegion();
 	}
 
-	public synchronized void output(char[] c, int offset, int length) {
-		output(c, offset, length, this.currentTextColor);
+	public void insertRow(int row) {
+		drainOutput();
+		this.buffer.insertRow(row);
 	}
-
-	public synchronized void output(char[] c, int offset, int length, TerminalCharacterAttribute attributes) {
-		for (int i = offset; i < length; i++)
-			output(c[i], attributes);
+	
+	/**
+	 * Enable or disable asynchronous output. When enabled, the output methods
+	 * queue the characters and return right away, and the queue is applied
+	 * to the buffer in batches just before each frame. Operations that depend on the
+	 * output being applied, like moving the cursor or clearing the screen,
+	 * wait for the queued output to be applied first.
+	 * 
+	 * @param async
+	 *            <code>true</code> to enable asynchronous output
+	 */
+	public synchronized void setAsyncOutput(boolean async) {
+		if (async == (this.outputQueue != null)) {
+			return;
+		}
+		
+		if (async) {
+			this.outputQueue = new OutputQueue(this.buffer, SwingTerminalConstants.OUTPUT_QUEUE_CAPACITY, this.drainRequest);
+			return;
+		}
+		
+		OutputQueue queue = this.outputQueue;
+		this.outputQueue = null;
+		queue.close();
 	}
-
-	public synchronized void output(String s) {
-		output(s, this.currentTextColor);
+	
+	/**
+	 * Return whether asynchronous output is enabled.
+	 * 
+	 * @return
+	 */
+	public boolean isAsyncOutput() {
+		return this.outputQueue != null;
+	}
+	
+	/**
+	 * Apply all output queued so far to the buffer, if asynchronous output
+	 * is enabled.
+	 * 
+	 */
+	public void drainOutput() {
+		OutputQueue queue = this.outputQueue;
+		if (queue != null) {
+			queue.drain();
+		}
 	}
 
-	public synchronized void output(String s, TerminalCharacterAttribute attributes) {
-		int length = s.length();
-		for (int i = 0; i < length; i++)
-			output(s.charAt(i), attributes);
+	/**
+	 * Enable or disable painting characters from a cache of rasterized glyphs,
+	 * which pays off on pipelines where copying images is cheaper than
+	 * drawing text. Disabled by default.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to paint from the glyph cache
+	 */
+	public void setGlyphCache(boolean enabled) {
+		this.glyphCache = enabled;
+		if (this.renderer != null) {
+			this.renderer.setGlyphCache(enabled);
+		}
+		
+		repaint();
 	}
 
-	public synchronized void outputImmediately(char c) {
-		outputRaw(c, this.currentTextColor, true);
+	/**
+	 * Return whether characters are painted from a cache of rasterized glyphs.
+	 * 
+	 * @return
+	 */
+	public boolean isGlyphCache() {
+		return this.glyphCache;
 	}
 
-	public synchronized void outputImmediately(char c, TerminalCharacterAttribute attributes) {
-		outputRaw(c, attributes, true);
+	@Override
+	public void repaint() {
+		// may be called by the super constructor before the buffer is set
+		if (this.buffer != null) {
+			this.buffer.markAllDirty();
+		}
 	}
 
-	// hasn't been tested except with last row, may not work in other cases
-	public synchronized void insertRow(int row) {
-		// don't use copyArea to do the scroll -- copyArea
-		// would have to run for each line scrolled, while
-		// this approach doesn't update anything until the
-		// next paint. This is at least an order of
-		// magnitude faster in general usage.
+	/**
+	 * Hide the cursor immediately so that we do not have any left-over of any
+	 * cursor painted on screen.
+	 * 
+	 */
+	public void hideCursor() {
+		this.setCursorType(CursorType.CURSOR_INVISIBLE);
+		this.repaintCursor();
+	}
 
-		char[] spareCharRow;
-		TerminalCharacterAttribute[] spareAttributeRow;
+	/**
+	 * Repaint a specific character on screen.
+	 * 
+	 * @param x
+	 *            the column at which the character is located
+	 * 
+	 * @param y
+	 *            the row at which the character is located
+	 */
+	public void repaintChar(int x, int y) {
+		this.buffer.markDirty(x, y, 1, 1);
+	}
+	
+	/**
+	 * Repaint the character under the cursor.
+	 * 
+	 */
+	private void repaintCursor() {
+		synchronized (this.buffer) {
+			this.buffer.markDirty(this.buffer.getCursorX(), this.buffer.getCursorY(), 1, 1);
+		}
+	}
 
-		if (rows < scrollback) {
-			spareCharRow = new char[columns];
-			spareAttributeRow = new TerminalCharacterAttribute[columns];
-			if (row == rows - 1)
-				row++;
-			setGridSize(columns, rows + 1, logicalColumns);
-			System.arraycopy(chars, row, chars, row + 1, rows - row - 1);
-			System.arraycopy(attributes, row, attributes, row + 1, rows - row - 1);
-		} else {
-			spareCharRow = chars[0];
-			if (row > 0) {
-				System.arraycopy(chars, 1, chars, 0, row);
+	/**
+	 * Repaint what changed in the buffer. With a back buffer, rows that moved
+	 * are shifted within it and only the damage is rendered again; otherwise
+	 * rows that moved repaint the whole visible area.
+	 * 
+	 * @param scrolledRows
+	 *            the number of rows by which all rows moved up
+	 * 
+	 * @param dirtyRegions
+	 *            the regions that changed, in cells, or <code>null</code>
+	 */
+	private void repaintDamage(int scrolledRows, List<Rectangle> dirtyRegions) {
+		if (this.backBuffered && this.backBuffer != null && !this.backBufferStale) {
+			if (scrolledRows > 0) {
+				scrollBackBuffer(scrolledRows * charHeight);
+			}
+			
+			if (dirtyRegions != null) {
+				for (Rectangle dirtyRegion : dirtyRegions) {
+					renderBackBuffer(new Rectangle(dirtyRegion.x * charWidth, dirtyRegion.y * charHeight, dirtyRegion.width * charWidth, dirtyRegion.height * charHeight));
+				}
+			}
+			
+			if (scrolledRows > 0 || dirtyRegions != null) {
+				Rectangle bounds = this.backBufferBounds;
+				repaint(bounds.x, bounds.y, bounds.width, bounds.height);
 			}
+			
+			return;
+		}
+		
+		if (scrolledRows > 0) {
+			computeVisibleRect(this.visibleRect);
+			repaint(this.visibleRect.x, this.visibleRect.y, this.visibleRect.width, this.visibleRect.height);
+			return;
+		}
+		
+		if (dirtyRegions == null) {
+			return;
+		}
 
-			spareAttributeRow = attributes[0];
-			if (row > 0) {
-				System.arraycopy(attributes, 1, attributes, 0, row);
+		// the repaint manager would union separate regions into one, so
+		// small regions are painted right away - we are on the EDT here
+		for (Rectangle dirtyRegion : dirtyRegions) {
+			int x = dirtyRegion.x * charWidth;
+			int y = dirtyRegion.y * charHeight;
+			int width = dirtyRegion.width * charWidth;
+			int height = dirtyRegion.height * charHeight;
+			
+			if (dirtyRegions.size() == 1) {
+				repaint(x, y, width, height);
+			} else {
+				paintImmediately(x, y, width, height);
 			}
 		}
+	}
 
-		Arrays.fill(spareCharRow, ' ');
-		chars[row] = spareCharRow;
+	/**
+	 * Set the maximum number of frames per second at which the screen is
+	 * brought up to date. Under load, frames are spaced out further to keep
+	 * the EDT responsive.
+	 * 
+	 * @param framesPerSecond
+	 *            the maximum number of frames per second
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the value is not positive
+	 */
+	public void setMaxFramesPerSecond(int framesPerSecond) {
+		this.frameScheduler.setMaxFramesPerSecond(framesPerSecond);
+	}
 
-		Arrays.fill(spareAttributeRow, this.currentTextColor);
-		attributes[row] = spareAttributeRow;
+	/**
+	 * Return the number of frames per second at which the screen is
+	 * currently brought up to date when busy.
+	 * 
+	 * @return
+	 */
+	public int getFramesPerSecond() {
+		return this.frameScheduler.getFramesPerSecond();
+	}
 
+	/**
+	 * Enable or disable keeping the images of rendered rows, so that rows
+	 * that did not change are copied rather than painted again. Scrolling
+	 * back and forth through the history then mostly copies images. Disabled
+	 * by default.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to keep the images of rows
+	 */
+	public void setRowCache(boolean enabled) {
+		this.rowCache = enabled;
 		repaint();
 	}
 
-	private synchronized void scrollByOneRow() {
-		int oldRows = rows;
-		snapToBottom = true;
-		insertRow(rows - 1);
+	/**
+	 * Return whether the images of rendered rows are kept.
+	 * 
+	 * @return
+	 */
+	public boolean isRowCache() {
+		return this.rowCache;
+	}
 
-		if (rows == oldRows) {
-			// otherwise, grid just got bigger & no need to move cursor
-			cursorY--;
+	/**
+	 * Set the number of threads that large repaints are split across. The
+	 * area is cut into horizontal strips of at least
+	 * {@link SwingTerminalConstants#MIN_STRIP_ROWS} rows, each painted into
+	 * its own image from a copy of the cells, and the event dispatch thread
+	 * only composites the strips. Worth it for very large grids only.
+	 * 
+	 * @param threads
+	 *            the number of threads, <code>1</code> to paint on the event
+	 *            dispatch thread only
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the number of threads is less than <code>1</code>
+	 */
+	public synchronized void setRenderThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Render threads must be at least one");
+		}
+		
+		StripRasterizer previous = this.rasterizer;
+		this.rasterizer = threads == 1 ? null : new StripRasterizer(this.renderer.getFont(), threads, SwingTerminalConstants.MIN_STRIP_ROWS);
+		if (previous != null) {
+			previous.close();
 		}
 	}
 
 	/**
-	 * Repaints the region of a row where all the columns specified between
-	 * start and end have the same {@link TerminalCharacterAttribute} i.e. all
-	 * characters have same foreground and background color.
+	 * Return the number of threads that large repaints are split across.
 	 * 
-	 * @param graphics
-	 *            the {@link Graphics} instance to use
-	 * 
-	 * @param row
-	 *            the row at which to run the paint job
+	 * @return
+	 */
+	public int getRenderThreads() {
+		StripRasterizer rasterizer = this.rasterizer;
+		return rasterizer == null ? 1 : rasterizer.getParallelism();
+	}
+
+	/**
+	 * Enable or disable back-buffered rendering. The visible contents are
+	 * then kept in an image across paints: when rows move, the image is
+	 * shifted with one copy and only the rows that moved in are rendered, so
+	 * following fast output costs in proportion to the new rows rather than
+	 * to the screen.
 	 * 
-	 * @param start
-	 *            the starting character
+	 * @param enabled
+	 *            <code>true</code> to render through a back buffer
+	 */
+	public void setBackBuffered(boolean enabled) {
+		this.backBuffered = enabled;
+		this.backBufferStale = true;
+		repaint();
+	}
+
+	/**
+	 * Return whether contents are rendered through a back buffer.
 	 * 
-	 * @param end
-	 *            the ending character
+	 * @return
+	 */
+	public boolean isBackBuffered() {
+		return this.backBuffered;
+	}
+
+	/**
+	 * Repaint the screen to display the contents.
 	 * 
-	 * @param attribute
-	 *            the {@link TerminalCharacterAttribute} colors to use
+	 * @param graphics
+	 *            the {@link Graphics} instance to use
 	 */
-	protected void paintRun(Graphics graphics, int row, int start, int end, TerminalCharacterAttribute attribute) {
-		if (attribute == null) {
-			attribute = this.currentTextColor;
+	@Override
+	public void paint(Graphics graphics) {
+		if (!this.backBuffered) {
+			this.backBuffer = null;
+		} else if (TerminalRenderer.isUnscaled(graphics) && paintBackBuffer(graphics)) {
+			paintCursor(graphics);
+			return;
 		}
+		
+		paintContents(graphics);
+		paintCursor(graphics);
+	}
 
-		int startX = start * charWidth;
-		int startY = row * charHeight;
-		Color foreground, background;
+	/**
+	 * Bring the back buffer up to date with the visible area, and copy it to
+	 * the given {@link Graphics}.
+	 * 
+	 * @param graphics
+	 *            the {@link Graphics} instance to use
+	 * 
+	 * @return <code>false</code> if the area to paint is not covered by the
+	 *         back buffer
+	 */
+	private boolean paintBackBuffer(Graphics graphics) {
+		Rectangle visible = this.visibleRect;
+		computeVisibleRect(visible);
+		if (visible.isEmpty()) {
+			return false;
+		}
 		
-		if(!attribute.highlight) {
-			foreground = attribute.getForeground();
-			background = attribute.getBackground();
-		} else {
-			background = attribute.getForeground();
-			foreground = attribute.getBackground();
+		Rectangle clip = graphics.getClipBounds();
+		if (clip != null && !visible.contains(clip)) {
+			return false;
 		}
 		
-		if (!background.equals(this.currentTextColor.getBackground())) {
-			graphics.setColor(background);
-			graphics.fillRect(startX, startY, (end - start) * charWidth, charHeight);
+		Rectangle bounds = this.backBufferBounds;
+		if (this.backBuffer == null || this.backBufferStale || bounds.x != visible.x || bounds.width != visible.width || bounds.height != visible.height) {
+			this.backBufferStale = false;
+			this.backBuffer = createBackBuffer(visible.width, visible.height);
+			bounds.setBounds(visible);
+			renderBackBuffer(bounds);
+		} else if (bounds.y != visible.y) {
+			// the viewport moved, which moves the contents the other way
+			int distance = visible.y - bounds.y;
+			bounds.y = visible.y;
+			scrollBackBuffer(distance);
 		}
 		
-		graphics.setColor(foreground);
-		graphics.drawChars(chars[row], start, end - start, startX, startY + this.baseline);
+		graphics.drawImage(this.backBuffer, bounds.x, bounds.y, null);
+		return true;
 	}
 
-	@Override
-	public synchronized void repaint() {
-		dirtyRegion = new Rectangle(0, 0, getWidth(), getHeight());
-
-		if (!repaintTimer.isRunning()) {
-			repaintTimer.start();
+	/**
+	 * Create an image to hold the visible contents.
+	 * 
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	private BufferedImage createBackBuffer(int width, int height) {
+		GraphicsConfiguration configuration = getGraphicsConfiguration();
+		if (configuration != null) {
+			return configuration.createCompatibleImage(width, height);
 		}
+		
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 	}
 
 	/**
-	 * Hide the cursor immediately so that we do not have any left-over of any
-	 * cursor painted on screen.
+	 * Move the contents of the back buffer up by the given number of pixels,
+	 * or down if negative, and render the area that is exposed.
 	 * 
+	 * @param distance
+	 *            the number of pixels to move the contents up by
 	 */
-	public synchronized void hideCursor() {
-		this.setCursorType(CursorType.CURSOR_INVISIBLE);
-		this.repaintChar(this.getCursorX(), this.getCursorY());
+	private void scrollBackBuffer(int distance) {
+		Rectangle bounds = this.backBufferBounds;
+		if (Math.abs(distance) >= bounds.height) {
+			renderBackBuffer(bounds);
+			return;
+		}
+		
+		Graphics graphics = this.backBuffer.getGraphics();
+		try {
+			if (distance > 0) {
+				graphics.copyArea(0, distance, bounds.width, bounds.height - distance, 0, -distance);
+			} else {
+				graphics.copyArea(0, 0, bounds.width, bounds.height + distance, 0, -distance);
+			}
+		} finally {
+			graphics.dispose();
+		}
+		
+		if (distance > 0) {
+			renderBackBuffer(new Rectangle(bounds.x, bounds.y + bounds.height - distance, bounds.width, distance));
+		} else {
+			renderBackBuffer(new Rectangle(bounds.x, bounds.y, bounds.width, -distance));
+		}
 	}
 
 	/**
-	 * Repaint a specific character on screen.
-	 * 
-	 * @param x
-	 *            the column at which the character is located
+	 * Render the given area of this component into the back buffer, as far as
+	 * the back buffer holds it.
 	 * 
-	 * @param y
-	 *            the row at which the character is located
+	 * @param area
+	 *            the area to render, in pixels of this component
 	 */
-	public synchronized void repaintChar(int x, int y) {
-		if (dirtyRegion == null) {
-			dirtyRegion = new Rectangle(x, y, 1, 1);
-		} else {
-			SwingUtilities.computeUnion(x, y, 1, 1, dirtyRegion);
+	private void renderBackBuffer(Rectangle area) {
+		Rectangle bounds = this.backBufferBounds;
+		Rectangle clip = area.intersection(bounds);
+		if (clip.isEmpty()) {
+			return;
 		}
-
-		if (!repaintTimer.isRunning()) {
-			repaintTimer.start();
+		
+		Graphics graphics = this.backBuffer.getGraphics();
+		try {
+			graphics.translate(-bounds.x, -bounds.y);
+			graphics.clipRect(clip.x, clip.y, clip.width, clip.height);
+			paintContents(graphics);
+		} finally {
+			graphics.dispose();
 		}
 	}
 
 	/**
-	 * Repaint the screen to display the contents.
+	 * Paint the cells within the clip of the given {@link Graphics}.
 	 * 
 	 * @param graphics
 	 *            the {@link Graphics} instance to use
 	 */
-	@Override
-	public void paint(Graphics graphics) {
-		int startRow = 0;
-		int endRow = rows;
-		int startColumn = 0;
-		int endColumn = columns;
-
+	private void paintContents(Graphics graphics) {
 		Rectangle clip = graphics.getClipBounds();
 		if (clip == null) {
 			computeVisibleRect(visibleRect);
 			clip = visibleRect;
 		}
 
-		graphics.setColor(this.currentTextColor.getBackground());
-		graphics.fillRect(clip.x, clip.y, clip.width, clip.height);
-
-		startRow = clip.y / charHeight;
-		endRow = Math.min(rows, startRow + (clip.height + charHeight - 1) / charHeight + 1);
-		startColumn = clip.x / charWidth;
-		endColumn = Math.min(columns, startColumn + (clip.width + charWidth - 1) / charWidth + 1);
-
-		for (int i = startRow; i < endRow; i++) {
-			int start = startColumn;
-			TerminalCharacterAttribute currentAttributes = this.currentTextColor;
-
-			for (int j = startColumn; j < endColumn; j++) {
-				if (currentAttributes != null && currentAttributes.notEquals(attributes[i][j])) {
-					if (start != j) {
-						paintRun(graphics, i, start, j, currentAttributes);
-					}
+		TerminalBuffer buffer = this.buffer;
+		if (buffer != this.paintedBuffer) {
+			// the rows of the two screens share ids and versions
+			this.renderer.setRowCache(false);
+			this.paintedBuffer = buffer;
+		}
 
-					start = j;
-					currentAttributes = attributes[i][j];
-				}
+		StripRasterizer rasterizer = this.rasterizer;
+		if (rasterizer != null && rasterizer.getFont() == this.renderer.getFont() && TerminalRenderer.isUnscaled(graphics)) {
+			int startRow = clip.y / charHeight;
+			int endRow = Math.min(buffer.getRows(), (clip.y + clip.height + charHeight - 1) / charHeight);
+			
+			if (endRow > startRow && rasterizer.splits(endRow - startRow)) {
+				graphics.setColor(buffer.getTextColor().getBackground());
+				graphics.fillRect(clip.x, clip.y, clip.width, clip.height);
+				
+				rasterizer.setGlyphCache(this.glyphCache);
+				rasterizer.paint(graphics, buffer.snapshot(startRow, endRow - startRow), startRow * charHeight);
+				return;
 			}
-
-			paintRun(graphics, i, start, endColumn, currentAttributes);
 		}
-
-		paintCursor(graphics);
+		
+		this.renderer.setRowCache(this.rowCache);
+		this.renderer.paint(graphics, buffer, clip);
 	}
 
 	/**
@@ -970,10 +1310,10 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 			switch (cursorType) {
 			case CURSOR_OVERSTRIKE:
 			case CURSOR_INSERT:
-				int x = cursorX * getCharWidth();
-				int y = cursorY * getCharHeight();
+				int x = this.buffer.getCursorX() * getCharWidth();
+				int y = this.buffer.getCursorY() * getCharHeight();
 				graphics.setColor(getCursorColor());
-				graphics.setXORMode(this.currentTextColor.getBackground());
+				graphics.setXORMode(this.buffer.getTextColor().getBackground());
 				graphics.drawLine(x, y, x, y + getCharHeight() - 1);
 				break;
 
@@ -989,15 +1329,19 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	public synchronized void doLayout() {
 		Rectangle rectangle = getVisibleRect();
 		int columns = rectangle.width / getCharWidth();
-		logicalRows = rectangle.height / getCharHeight();
-
-		if (columns != logicalColumns || logicalRows > this.rows) {
-			setGridSize(Math.max(columns, this.columns), Math.max(logicalRows, this.rows), columns);
-		}
-
-		if (cursorX == -1 || cursorY == -1) {
-			setCursorPosition(0, 0, false);
-			scrollRectToVisible(new Rectangle(0, cursorY * getCharHeight(), columns * getCharWidth(), logicalRows * getCharHeight()));
+		int logicalRows = rectangle.height / getCharHeight();
+		
+		synchronized (this.buffer) {
+			this.buffer.setLogicalRows(logicalRows);
+	
+			if (columns != this.buffer.getLogicalColumns() || logicalRows > this.buffer.getRows()) {
+				this.buffer.resize(Math.max(columns, this.buffer.getColumns()), Math.max(logicalRows, this.buffer.getRows()), columns);
+			}
+	
+			if (this.buffer.getCursorX() == -1 || this.buffer.getCursorY() == -1) {
+				setCursorPosition(0, 0, false);
+				scrollRectToVisible(new Rectangle(0, this.buffer.getCursorY() * getCharHeight(), columns * getCharWidth(), logicalRows * getCharHeight()));
+			}
 		}
 	}
 
@@ -1011,12 +1355,12 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	}
 
 	public Dimension getPreferredScrollableViewportSize() {
-		return new Dimension(columns * getCharWidth(), logicalRows * getCharHeight());
+		return new Dimension(this.buffer.getColumns() * getCharWidth(), this.buffer.getLogicalRows() * getCharHeight());
 	}
 
 	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
 		// quick hack, need to implement properly
-		return (logicalRows - 3) * getCharHeight();
+		return (this.buffer.getLogicalRows() - 3) * getCharHeight();
 	}
 
 	public boolean getScrollableTracksViewportHeight() {
@@ -1056,24 +1400,93 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	 * Clear contents of the entire screen.
 	 * 
 	 */
-	public synchronized void clearScreen() {
-		// TODO: optimize this
-		for (int i = 0; i < this.chars.length; i++) {
-			Arrays.fill(this.chars[i], ' ');
-			
-			TerminalCharacterAttribute[] row = this.attributes[i];
-			for(int j = 0; j < row.length; j++) {
-//				Arrays.fill(this.attributes[i], this.currentTextColor);
-				row[j] = this.currentTextColor.clone();
-			}
-		}
-
-		// move to top
-		this.setCursorPosition(0, 0, false);
-		this.snapToTop = true;
+	public void clearScreen() {
+		drainOutput();
+		this.buffer.clear();
+	}
 
-		// repaint to clear everything
-		repaint();
+	/**
+	 * Switch between the primary screen and the alternate screen. The
+	 * alternate screen has no scrollback and keeps its contents across
+	 * switches, while the primary screen keeps its contents and scrollback
+	 * untouched while the alternate one is shown. Switching only swaps the
+	 * buffer rendered, no cells are copied.
+	 * 
+	 * @param alternate
+	 *            <code>true</code> to show the alternate screen
+	 */
+	public synchronized void setAlternateScreen(boolean alternate) {
+		TerminalBuffer previous = this.buffer;
+		if (alternate == (previous != this.primaryBuffer)) {
+			return;
+		}
+		
+		drainOutput();
+		
+		TerminalBuffer next = this.primaryBuffer;
+		if (alternate) {
+			next = alternateBuffer(previous.getLogicalColumns(), previous.getLogicalRows());
+		}
+		
+		synchronized (next) {
+			TerminalCharacterAttribute textColor = previous.getTextColor();
+			next.setTextColor(textColor.getForeground(), textColor.getBackground());
+			next.setLogicalRows(previous.getLogicalRows());
+			next.markAllDirty();
+		}
+		
+		// output queued from now on goes to the screen shown, including
+		// output of writers that already hold the queue
+		OutputQueue queue = this.outputQueue;
+		if (queue != null) {
+			queue.setBuffer(next);
+		}
+		
+		this.buffer = next;
+		
+		// the two screens differ in height
+		this.valid = false;
+		this.snapToBottom = !alternate;
+		this.frameScheduler.requestFrame();
+	}
+	
+	/**
+	 * Return whether the alternate screen is shown.
+	 * 
+	 * @return
+	 */
+	public boolean isAlternateScreen() {
+		return this.buffer != this.primaryBuffer;
+	}
+	
+	/**
+	 * Return the alternate screen for the given size, creating it if there
+	 * is none or if the screen was resized since it was last shown.
+	 * 
+	 * @param columns
+	 *            the number of columns displayed
+	 * 
+	 * @param rows
+	 *            the number of rows displayed
+	 * 
+	 * @return
+	 */
+	private TerminalBuffer alternateBuffer(int columns, int rows) {
+		TerminalBuffer alternate = this.alternateBuffer;
+		if (alternate != null && alternate.getLogicalColumns() == columns && alternate.getRows() == rows) {
+			return alternate;
+		}
+		
+		if (alternate != null) {
+			alternate.removeTerminalBufferListener(this.bufferListener);
+			alternate.close();
+		}
+		
+		// share the palette so that glyphs cached by id stay valid
+		alternate = new TerminalBuffer(columns, rows, rows, 0, this.primaryBuffer.getAttributePalette());
+		alternate.addTerminalBufferListener(this.bufferListener);
+		this.alternateBuffer = alternate;
+		return alternate;
 	}
 
 	/**
@@ -1081,8 +1494,18 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	 * 
 	 */
 	public void close() {
-		this.repaintTimer.stop();
-		this.cursorTimer.stop();
+		setAsyncOutput(false);
+		this.frameScheduler.close();
+		setRenderThreads(1);
+		this.primaryBuffer.removeTerminalBufferListener(this.bufferListener);
+		this.primaryBuffer.close();
+		
+		synchronized (this) {
+			if (this.alternateBuffer != null) {
+				this.alternateBuffer.removeTerminalBufferListener(this.bufferListener);
+				this.alternateBuffer.close();
+			}
+		}
 	}
 	
 	/**
@@ -1090,14 +1513,7 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	 * 
 	 */
 	public void unHighlight() {
-		for(int row = 0; row < this.rows; row++) {
-			for(int col = 0; col < this.columns; col++) {
-				TerminalCharacterAttribute attribute = this.attributes[row][col];
-				if(attribute != null) {
-					attribute.highlight = false;
-				}
-			}
-		}
+		this.buffer.unHighlight();
 	}
 	
 	/**
@@ -1110,18 +1526,80 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	 * @param y2
 	 */
 	public void highlightSelection(int x1, int y1, int x2, int y2) {
-		this.unHighlight();
-		
-		// now highlight the box
-		for(int row = y1; row <= y2; row++) {
-			for(int col = x1; col <= x2; col++) {
-				TerminalCharacterAttribute attribute = this.attributes[row][col];
-				if(attribute != null) {
-					attribute.highlight = true;
-				}
-			}
+		this.buffer.highlightSelection(x1, y1, x2, y2);
+	}
+	
+	/**
+	 * Select the cells between two positions on screen, in any order. Rows
+	 * are counted from the top of the screen, as in {@link TextMouseEvent},
+	 * and are negative for rows in the scrollback.
+	 * 
+	 * @param anchorX
+	 *            the column where the selection started
+	 * 
+	 * @param anchorY
+	 *            the row where the selection started
+	 * 
+	 * @param x
+	 *            the column where the selection ends now
+	 * 
+	 * @param y
+	 *            the row where the selection ends now
+	 * 
+	 * @param mode
+	 *            the {@link SelectionMode} to select with
+	 */
+	public void select(int anchorX, int anchorY, int x, int y, SelectionMode mode) {
+		synchronized (this.buffer) {
+			int offset = this.buffer.getRows() - this.buffer.getLogicalRows();
+			this.buffer.setSelection(new Selection(anchorY + offset, anchorX, y + offset, x, mode));
 		}
 	}
+	
+	/**
+	 * Remove any selection.
+	 * 
+	 */
+	public void clearSelection() {
+		this.buffer.setSelection(null);
+	}
+	
+	/**
+	 * Return the selected cells, with rows counted from the first row held.
+	 * 
+	 * @return the {@link Selection}, or <code>null</code> if nothing is
+	 *         selected
+	 */
+	public Selection getSelection() {
+		return this.buffer.getSelection();
+	}
+
+	/**
+	 * Find the first row at or after the given row that contains the given
+	 * text. Rows kept on disk are read back as needed.
+	 * 
+	 * @param text
+	 *            the text to look for
+	 * 
+	 * @param fromRow
+	 *            the row to start looking from
+	 * 
+	 * @return the row that contains the text, or <code>-1</code> if not found
+	 */
+	public int find(String text, int fromRow) {
+		drainOutput();
+		return this.buffer.find(text, fromRow);
+	}
+	
+	/**
+	 * Return the {@link AttributePalette} in which the attributes of this
+	 * terminal are interned.
+	 * 
+	 * @return
+	 */
+	public AttributePalette getAttributePalette() {
+		return this.buffer.getAttributePalette();
+	}
 
 	/**
 	 * Get the current text color.
@@ -1129,7 +1607,7 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	 * @return
 	 */
 	public TerminalCharacterAttribute getTextColor() {
-		return this.currentTextColor;
+		return this.buffer.getTextColor();
 	}
 
 	/**
@@ -1139,7 +1617,7 @@ public class UITerminal extends JComponent implements TextWindow, Scrollable {
 	 * @param background
 	 */
 	public void setTextColor(Color foreground, Color background) {
-		this.currentTextColor = new TerminalCharacterAttribute(foreground, background);
+		this.buffer.setTextColor(foreground, background);
 	}
 	
 }
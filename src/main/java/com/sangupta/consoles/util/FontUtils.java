@@ -37,7 +37,8 @@ public class FontUtils {
 
 	public static Font getPlatformFont() {
 		if(GraphicsEnvironment.isHeadless()) {
-			return null;
+			// no platform fonts to choose from, but offscreen rendering still needs one
+			return new Font(Font.MONOSPACED, Font.PLAIN, 14);
 		}
 		
 		GraphicsEnvironment g = GraphicsEnvironment.getLocalGraphicsEnvironment();
@@ -53,6 +54,10 @@ public class FontUtils {
         	}
         }
         
+        if(fontFound == null) {
+        	fontFound = Font.MONOSPACED;
+        }
+        
         return new Font(fontFound, 0, 14);
 	}
 
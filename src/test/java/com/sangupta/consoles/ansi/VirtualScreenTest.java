@@ -0,0 +1,441 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ansi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sangupta.consoles.core.AnsiHandler;
+import com.sangupta.consoles.core.AnsiParser;
+import com.sangupta.consoles.core.SgrState;
+import com.sangupta.consoles.ui.TerminalCharacterAttribute;
+
+/**
+ * Tests for {@link VirtualScreen}: the output of every refresh is replayed
+ * on a minimal terminal, which must then show what was drawn.
+ * 
+ * @author sangupta
+ *
+ */
+public class VirtualScreenTest {
+	
+	private static final int COLUMNS = 60;
+	
+	private static final int ROWS = 20;
+	
+	private static final int[] COLORS = { VirtualScreen.DEFAULT_COLOR, SgrState.paletteColor(1), SgrState.paletteColor(10), SgrState.paletteColor(15), 0x123456, SgrState.paletteColor(67), SgrState.paletteColor(232) };
+	
+	/**
+	 * Styles that do not change the colors shown
+	 */
+	private static final int[] STYLES = { 0, TerminalCharacterAttribute.STYLE_ITALIC, TerminalCharacterAttribute.STYLE_UNDERLINE, TerminalCharacterAttribute.STYLE_ITALIC | TerminalCharacterAttribute.STYLE_UNDERLINE };
+	
+	private VirtualScreen screen;
+	
+	private ReplayTerminal terminal;
+	
+	private AnsiParser parser;
+	
+	// what is expected on the terminal after a refresh
+	
+	private char[] chars;
+	
+	private int[] foregrounds;
+	
+	private int[] backgrounds;
+	
+	private int[] styles;
+	
+	private int foreground;
+	
+	private int background;
+	
+	private int style;
+	
+	@Before
+	public void setUp() {
+		this.screen = new VirtualScreen(COLUMNS, ROWS);
+		this.terminal = new ReplayTerminal();
+		this.parser = new AnsiParser(this.terminal);
+		
+		this.chars = new char[COLUMNS * ROWS];
+		this.foregrounds = new int[COLUMNS * ROWS];
+		this.backgrounds = new int[COLUMNS * ROWS];
+		this.styles = new int[COLUMNS * ROWS];
+		this.foreground = VirtualScreen.DEFAULT_COLOR;
+		this.background = VirtualScreen.DEFAULT_COLOR;
+		clear();
+	}
+	
+	@Test
+	public void testReplay() throws IOException {
+		Random random = new Random(5);
+		for(int frame = 0; frame < 200; frame++) {
+			// a mostly static dashboard with a few counters and a moving bar
+			if(frame % 50 == 0) {
+				this.screen.clear();
+				clear();
+				for(int row = 0; row < ROWS; row++) {
+					setColor(COLORS[random.nextInt(COLORS.length)], COLORS[random.nextInt(COLORS.length)]);
+					setStyle(STYLES[random.nextInt(STYLES.length)]);
+					draw(0, row, "Row " + row + " label text that is static ..............");
+				}
+			}
+			
+			for(int count = 0; count < 6; count++) {
+				setColor(COLORS[random.nextInt(COLORS.length)], VirtualScreen.DEFAULT_COLOR);
+				setStyle(STYLES[random.nextInt(STYLES.length)]);
+				draw(45, random.nextInt(ROWS), String.format("%8d", random.nextInt(100000000)));
+			}
+			
+			setColor(SgrState.paletteColor(2), VirtualScreen.DEFAULT_COLOR);
+			setStyle(0);
+			StringBuilder bar = new StringBuilder("[");
+			for(int index = 0; index < 30; index++) {
+				bar.append(index < frame % 30 ? '#' : ' ');
+			}
+			
+			draw(0, ROWS - 1, bar.append(']').toString());
+			
+			// touches the last column
+			draw(COLUMNS - 3, ROWS - 2, "xyz");
+			
+			this.screen.moveTo(random.nextInt(COLUMNS), random.nextInt(ROWS));
+			refresh();
+			assertScreen("frame " + frame);
+		}
+	}
+	
+	@Test
+	public void testUnchangedScreenSendsNothing() throws IOException {
+		draw(3, 4, "hello");
+		assertTrue(refresh() > 0);
+		assertEquals(0, refresh());
+		
+		// drawing the same text again changes nothing either
+		draw(3, 4, "hello");
+		assertEquals(0, refresh());
+		assertScreen("unchanged");
+	}
+	
+	@Test
+	public void testOnlyChangesAreSent() throws IOException {
+		for(int row = 0; row < ROWS; row++) {
+			draw(0, row, "a line of text that fills a good part of the row .....");
+		}
+		
+		int full = refresh();
+		
+		draw(20, 7, "X");
+		int changed = refresh();
+		assertTrue("sent " + changed + " of " + full, changed < 20);
+		assertScreen("one change");
+	}
+	
+	@Test
+	public void testControlCharacters() throws IOException {
+		draw(0, 0, "a\tb\u001b[31mc");
+		draw(0, 1, "abc\rX");
+		draw(0, 2, "\ud83d\ude00!\u007f\u0085");
+		
+		refresh();
+		assertScreen("control characters");
+		
+		assertEquals("a       b?[31mc", row(0, 15));
+		assertEquals("Xbc", row(1, 3));
+		assertEquals("??!??", row(2, 5));
+	}
+	
+	@Test
+	public void testColorForms() throws IOException {
+		this.screen.setColor(SgrState.paletteColor(1), VirtualScreen.DEFAULT_COLOR);
+		this.screen.print(0, 0, "a");
+		assertTrue(send().contains("\u001b[31ma"));
+		
+		this.screen.setColor(SgrState.paletteColor(9), VirtualScreen.DEFAULT_COLOR);
+		this.screen.print(0, 0, "b");
+		assertTrue(send().contains("\u001b[91mb"));
+		
+		this.screen.setColor(SgrState.paletteColor(202), VirtualScreen.DEFAULT_COLOR);
+		this.screen.print(0, 0, "c");
+		assertTrue(send().contains("\u001b[38;5;202mc"));
+		
+		this.screen.setColor(0x123456, SgrState.paletteColor(0));
+		this.screen.print(0, 0, "d");
+		assertTrue(send().contains("\u001b[38;2;18;52;86;40md"));
+	}
+	
+	@Test
+	public void testInvalidateRedraws() throws IOException {
+		draw(5, 5, "kept");
+		refresh();
+		
+		// something else wrote to the terminal
+		String junk = "\u001b[H\u001b[2Jjunk";
+		this.parser.parse(junk.toCharArray(), 0, junk.length());
+		this.screen.invalidate();
+		refresh();
+		assertScreen("invalidated");
+	}
+	
+	private void clear() {
+		Arrays.fill(this.chars, ' ');
+		Arrays.fill(this.foregrounds, VirtualScreen.DEFAULT_COLOR);
+		Arrays.fill(this.backgrounds, VirtualScreen.DEFAULT_COLOR);
+		Arrays.fill(this.styles, 0);
+	}
+	
+	private void setColor(int foreground, int background) {
+		this.screen.setColor(foreground, background);
+		this.foreground = foreground;
+		this.background = background;
+	}
+	
+	private void setStyle(int style) {
+		this.screen.setStyle(style);
+		this.style = style;
+	}
+	
+	/**
+	 * Draw printable text on the screen, and note what the terminal is to
+	 * show.
+	 */
+	private void draw(int column, int row, String string) {
+		this.screen.print(column, row, string);
+		
+		for(int index = 0; index < string.length(); index++) {
+			char c = string.charAt(index);
+			if(c == '\r') {
+				column = 0;
+				continue;
+			}
+			
+			if(c == '\t') {
+				do {
+					set(column++, row, ' ');
+				} while(column % 8 != 0);
+				
+				continue;
+			}
+			
+			if(c < 0x20 || (c >= 0x7f && c < 0xa0) || Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+				c = '?';
+			}
+			
+			set(column++, row, c);
+		}
+	}
+	
+	private void set(int column, int row, char c) {
+		if(column >= COLUMNS) {
+			return;
+		}
+		
+		int index = row * COLUMNS + column;
+		this.chars[index] = c;
+		this.foregrounds[index] = this.foreground;
+		this.backgrounds[index] = this.background;
+		this.styles[index] = this.style;
+	}
+	
+	private int refresh() throws IOException {
+		String output = send();
+		return output.length();
+	}
+	
+	private String send() throws IOException {
+		StringWriter writer = new StringWriter();
+		int sent = this.screen.refresh(writer);
+		String output = writer.toString();
+		assertEquals(output.length(), sent);
+		
+		this.parser.parse(output.toCharArray(), 0, output.length());
+		return output;
+	}
+	
+	private String row(int row, int length) {
+		return new String(this.terminal.chars, row * COLUMNS, length);
+	}
+	
+	private void assertScreen(String message) {
+		for(int index = 0; index < COLUMNS * ROWS; index++) {
+			String cell = message + ", cell " + (index % COLUMNS) + "," + (index / COLUMNS);
+			assertEquals(cell, this.chars[index], this.terminal.chars[index]);
+			assertEquals(cell, this.foregrounds[index], this.terminal.foregrounds[index]);
+			assertEquals(cell, this.backgrounds[index], this.terminal.backgrounds[index]);
+			assertEquals(cell, this.styles[index], this.terminal.styles[index]);
+		}
+		
+		assertEquals(message + ", cursor column", Math.min(this.screen.getX(), COLUMNS - 1), this.terminal.x);
+		assertEquals(message + ", cursor row", this.screen.getY(), this.terminal.y);
+	}
+	
+	/**
+	 * A terminal that understands just the sequences a {@link VirtualScreen}
+	 * sends, and fails on any other.
+	 */
+	private static class ReplayTerminal implements AnsiHandler {
+		
+		final char[] chars = new char[COLUMNS * ROWS];
+		
+		final int[] foregrounds = new int[COLUMNS * ROWS];
+		
+		final int[] backgrounds = new int[COLUMNS * ROWS];
+		
+		final int[] styles = new int[COLUMNS * ROWS];
+		
+		final SgrState sgr = new SgrState();
+		
+		int x;
+		
+		int y;
+		
+		/**
+		 * Whether the cursor waits on the last column to wrap
+		 */
+		boolean pendingWrap;
+		
+		ReplayTerminal() {
+			erase();
+		}
+		
+		private void erase() {
+			Arrays.fill(this.chars, ' ');
+			Arrays.fill(this.foregrounds, VirtualScreen.DEFAULT_COLOR);
+			Arrays.fill(this.backgrounds, VirtualScreen.DEFAULT_COLOR);
+			Arrays.fill(this.styles, 0);
+		}
+		
+		private void put(char c) {
+			if(this.pendingWrap) {
+				this.x = 0;
+				this.y = Math.min(this.y + 1, ROWS - 1);
+				this.pendingWrap = false;
+			}
+			
+			int index = this.y * COLUMNS + this.x;
+			this.chars[index] = c;
+			this.foregrounds[index] = this.sgr.getForeground(VirtualScreen.DEFAULT_COLOR, VirtualScreen.DEFAULT_COLOR);
+			this.backgrounds[index] = this.sgr.getBackground(VirtualScreen.DEFAULT_COLOR, VirtualScreen.DEFAULT_COLOR);
+			this.styles[index] = this.sgr.getStyle();
+			
+			if(this.x == COLUMNS - 1) {
+				this.pendingWrap = true;
+			} else {
+				this.x++;
+			}
+		}
+		
+		public void print(byte[] bytes, int offset, int length) {
+			for(int index = 0; index < length; index++) {
+				put((char) (bytes[offset + index] & 0xFF));
+			}
+		}
+		
+		public void print(char[] chars, int offset, int length) {
+			for(int index = 0; index < length; index++) {
+				put(chars[offset + index]);
+			}
+		}
+		
+		public void execute(int control) {
+			this.pendingWrap = false;
+			if(control == '\r') {
+				this.x = 0;
+			} else if(control == '\n') {
+				this.y = Math.min(this.y + 1, ROWS - 1);
+			} else {
+				throw new AssertionError("Unexpected control " + control);
+			}
+		}
+		
+		public void escDispatch(int intermediates, int finalChar) {
+			throw new AssertionError("Unexpected escape " + (char) finalChar);
+		}
+		
+		public void csiDispatch(int[] params, int paramCount, int intermediates, int finalChar) {
+			this.pendingWrap = false;
+			int count = param(params, paramCount, 0);
+			switch(finalChar) {
+				case 'A':
+					this.y = Math.max(0, this.y - count);
+					break;
+					
+				case 'B':
+					this.y = Math.min(ROWS - 1, this.y + count);
+					break;
+					
+				case 'C':
+					this.x = Math.min(COLUMNS - 1, this.x + count);
+					break;
+					
+				case 'D':
+					this.x = Math.max(0, this.x - count);
+					break;
+					
+				case 'H':
+					this.y = count - 1;
+					this.x = param(params, paramCount, 1) - 1;
+					break;
+					
+				case 'J':
+					erase();
+					break;
+					
+				case 'm':
+					this.sgr.apply(params, paramCount);
+					break;
+					
+				default:
+					throw new AssertionError("Unexpected sequence " + (char) finalChar);
+			}
+		}
+		
+		private static int param(int[] params, int paramCount, int index) {
+			return index < paramCount && params[index] > 0 ? params[index] : 1;
+		}
+		
+		public void oscDispatch(byte[] data, int length) {
+			throw new AssertionError("Unexpected OSC");
+		}
+		
+		public void hook(int[] params, int paramCount, int intermediates, int finalChar) {
+			throw new AssertionError("Unexpected DCS");
+		}
+		
+		public void put(byte[] bytes, int offset, int length) {
+		}
+		
+		public void unhook() {
+		}
+		
+	}
+	
+}
@@ -0,0 +1,410 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AnsiParser}. The handler records what it is passed as a
+ * list of events, with consecutive text and data merged, so that the events
+ * do not depend on how the input was split.
+ * 
+ * @author sangupta
+ *
+ */
+public class AnsiParserTest {
+	
+	/**
+	 * Input with text, controls and every kind of sequence
+	 */
+	private static final String INPUT = "plain \u001b[1;31mred\u001b[0m café €"
+			+ "\u001b[?1049h\u001b[2 q\u001b(B\u001b7\r\n"
+			+ "\u001b]0;title\u0007\u001b]2;other\u001b\\"
+			+ "\u001bP1$qm\u001b\\"
+			+ "\u001b[1\n;2H\u001b[12\u0018x\u001b[5:3mz\tend";
+	
+	private RecordingHandler handler;
+	
+	private AnsiParser parser;
+	
+	@Before
+	public void setUp() {
+		this.handler = new RecordingHandler();
+		this.parser = new AnsiParser(this.handler);
+	}
+	
+	@Test
+	public void testSequences() throws UnsupportedEncodingException {
+		parse(INPUT);
+		
+		List<String> expected = new ArrayList<String>();
+		expected.add("print plain ");
+		expected.add("csi 1;31 m");
+		expected.add("print red");
+		expected.add("csi 0 m");
+		expected.add("print  café €");
+		expected.add("csi '?' 1049 h");
+		expected.add("csi ' ' 2 q");
+		expected.add("esc '(' B");
+		expected.add("esc 7");
+		expected.add("execute 13");
+		expected.add("execute 10");
+		expected.add("osc 0;title");
+		expected.add("osc 2;other");
+		expected.add("esc \\");
+		expected.add("hook 1 '$' q");
+		expected.add("put m");
+		expected.add("unhook");
+		expected.add("esc \\");
+		expected.add("execute 10");
+		expected.add("csi 1;2 H");
+		expected.add("execute 24");
+		expected.add("print xz");
+		expected.add("execute 9");
+		expected.add("print end");
+		
+		assertEquals(expected, this.handler.events);
+		assertFalse(this.parser.isInSequence());
+	}
+	
+	@Test
+	public void testSplitAtEveryByte() throws UnsupportedEncodingException {
+		byte[] bytes = INPUT.getBytes("UTF-8");
+		List<String> expected = parse(INPUT);
+		
+		for (int split = 0; split <= bytes.length; split++) {
+			setUp();
+			this.parser.parse(bytes, 0, split);
+			this.parser.parse(bytes, split, bytes.length - split);
+			assertEquals("split at " + split, expected, this.handler.events);
+		}
+		
+		setUp();
+		for (int index = 0; index < bytes.length; index++) {
+			this.parser.parse(bytes[index]);
+		}
+		
+		assertEquals(expected, this.handler.events);
+	}
+	
+	@Test
+	public void testSplitAtEveryChar() throws UnsupportedEncodingException {
+		char[] chars = INPUT.toCharArray();
+		List<String> expected = parse(INPUT);
+		
+		for (int split = 0; split <= chars.length; split++) {
+			setUp();
+			this.parser.parse(chars, 0, split);
+			this.parser.parse(chars, split, chars.length - split);
+			assertEquals("split at " + split, expected, this.handler.events);
+		}
+		
+		setUp();
+		for (int index = 0; index < chars.length; index++) {
+			this.parser.parse(chars, index, 1);
+		}
+		
+		assertEquals(expected, this.handler.events);
+	}
+	
+	@Test
+	public void testParameterOverflow() throws UnsupportedEncodingException {
+		StringBuilder builder = new StringBuilder("\u001b[");
+		for (int param = 1; param <= AnsiParser.MAX_PARAMETERS + 4; param++) {
+			builder.append(param).append(';');
+		}
+		
+		parse(builder.append("m").toString());
+		
+		// the extra parameters are dropped
+		StringBuilder expected = new StringBuilder("csi ");
+		for (int param = 1; param <= AnsiParser.MAX_PARAMETERS; param++) {
+			expected.append(param).append(param < AnsiParser.MAX_PARAMETERS ? ";" : " m");
+		}
+		
+		assertEquals(expected.toString(), this.handler.events.get(0));
+		assertEquals(1, this.handler.events.size());
+	}
+	
+	@Test
+	public void testParameterValueClamped() throws UnsupportedEncodingException {
+		parse("\u001b[99999999;7H");
+		
+		assertEquals("csi " + AnsiParser.MAX_PARAMETER_VALUE + ";7 H", this.handler.events.get(0));
+	}
+	
+	@Test
+	public void testEmptyParameters() throws UnsupportedEncodingException {
+		parse("\u001b[;5H\u001b[m");
+		
+		assertEquals("csi 0;5 H", this.handler.events.get(0));
+		assertEquals("csi  m", this.handler.events.get(1));
+	}
+	
+	@Test
+	public void testLongOsc() throws UnsupportedEncodingException {
+		StringBuilder builder = new StringBuilder("0;");
+		while (builder.length() < AnsiParser.MAX_OSC_LENGTH + 500) {
+			builder.append('a');
+		}
+		
+		String data = builder.toString();
+		parse("\u001b]" + data + "\u0007after");
+		
+		// the command is cut short, and what follows is parsed as usual
+		assertEquals("osc " + data.substring(0, AnsiParser.MAX_OSC_LENGTH), this.handler.events.get(0));
+		assertEquals("print after", this.handler.events.get(1));
+		assertEquals(2, this.handler.events.size());
+	}
+	
+	@Test
+	public void testDcsPassthrough() throws UnsupportedEncodingException {
+		parse("\u001bP2;1|data\u0007\u007fmore\u001b\\x");
+		
+		// controls other than CAN, SUB and ESC are passed through, DEL is not
+		assertEquals("hook 2;1 |", this.handler.events.get(0));
+		assertEquals("put data\u0007more", this.handler.events.get(1));
+		assertEquals("unhook", this.handler.events.get(2));
+		assertEquals("esc \\", this.handler.events.get(3));
+		assertEquals("print x", this.handler.events.get(4));
+	}
+	
+	@Test
+	public void testDcsCancelled() throws UnsupportedEncodingException {
+		parse("\u001bPqdata\u0018x");
+		
+		assertEquals("hook  q", this.handler.events.get(0));
+		assertEquals("put data", this.handler.events.get(1));
+		assertEquals("unhook", this.handler.events.get(2));
+		assertEquals("execute 24", this.handler.events.get(3));
+		assertEquals("print x", this.handler.events.get(4));
+	}
+	
+	@Test
+	public void testControlsInsideCsi() throws UnsupportedEncodingException {
+		parse("\u001b[3\r\b;4\u0007H");
+		
+		// executed as they come, without ending the sequence
+		assertEquals("execute 13", this.handler.events.get(0));
+		assertEquals("execute 8", this.handler.events.get(1));
+		assertEquals("execute 7", this.handler.events.get(2));
+		assertEquals("csi 3;4 H", this.handler.events.get(3));
+		assertEquals(4, this.handler.events.size());
+	}
+	
+	@Test
+	public void testEscapeRestartsSequence() throws UnsupportedEncodingException {
+		parse("\u001b[12\u001b[3mx");
+		
+		assertEquals("csi 3 m", this.handler.events.get(0));
+		assertEquals("print x", this.handler.events.get(1));
+		assertEquals(2, this.handler.events.size());
+	}
+	
+	@Test
+	public void testDeleteIgnored() throws UnsupportedEncodingException {
+		parse("a\u007fb\u001b[1\u007fm");
+		
+		assertEquals("print ab", this.handler.events.get(0));
+		assertEquals("csi 1 m", this.handler.events.get(1));
+		assertEquals(2, this.handler.events.size());
+		
+		setUp();
+		char[] chars = "a\u007fb".toCharArray();
+		this.parser.parse(chars, 0, chars.length);
+		assertEquals("print ab", this.handler.events.get(0));
+		assertEquals(1, this.handler.events.size());
+	}
+	
+	@Test
+	public void testReset() throws UnsupportedEncodingException {
+		parse("\u001b[12");
+		assertTrue(this.parser.isInSequence());
+		
+		this.parser.reset();
+		assertFalse(this.parser.isInSequence());
+		
+		parse("3mx");
+		assertEquals("print 3mx", this.handler.events.get(0));
+	}
+	
+	/**
+	 * Parse the given string as UTF-8 bytes.
+	 */
+	private List<String> parse(String string) throws UnsupportedEncodingException {
+		byte[] bytes = string.getBytes("UTF-8");
+		this.parser.parse(bytes, 0, bytes.length);
+		return this.handler.events;
+	}
+	
+	/**
+	 * Records what the parser passes on.
+	 */
+	private static class RecordingHandler implements AnsiHandler {
+		
+		final List<String> events = new ArrayList<String>();
+		
+		/**
+		 * The bytes of the text or data being passed on, one char per byte
+		 */
+		private final StringBuilder pending = new StringBuilder();
+		
+		/**
+		 * <code>print</code> or <code>put</code>, <code>null</code> when
+		 * nothing is pending
+		 */
+		private String pendingKind;
+		
+		/**
+		 * Whether an event has been recorded for the pending bytes
+		 */
+		private boolean pendingRecorded;
+		
+		public void print(byte[] bytes, int offset, int length) {
+			append("print", bytes, offset, length);
+		}
+		
+		public void print(char[] chars, int offset, int length) {
+			try {
+				byte[] bytes = new String(chars, offset, length).getBytes("UTF-8");
+				append("print", bytes, 0, bytes.length);
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+		}
+		
+		public void execute(int control) {
+			add("execute " + control);
+		}
+		
+		public void escDispatch(int intermediates, int finalChar) {
+			add("esc " + intermediates(intermediates) + (char) finalChar);
+		}
+		
+		public void csiDispatch(int[] params, int paramCount, int intermediates, int finalChar) {
+			add("csi " + intermediates(intermediates) + params(params, paramCount) + " " + (char) finalChar);
+		}
+		
+		public void oscDispatch(byte[] data, int length) {
+			add("osc " + utf8(data, 0, length));
+		}
+		
+		public void hook(int[] params, int paramCount, int intermediates, int finalChar) {
+			add("hook " + params(params, paramCount) + " " + intermediates(intermediates) + (char) finalChar);
+		}
+		
+		public void put(byte[] bytes, int offset, int length) {
+			append("put", bytes, offset, length);
+		}
+		
+		public void unhook() {
+			add("unhook");
+		}
+		
+		private void append(String kind, byte[] bytes, int offset, int length) {
+			if (!kind.equals(this.pendingKind)) {
+				flush();
+				this.pendingKind = kind;
+			}
+			
+			for (int index = offset; index < offset + length; index++) {
+				this.pending.append((char) (bytes[index] & 0xFF));
+			}
+			
+			update();
+		}
+		
+		private void add(String event) {
+			flush();
+			this.events.add(event);
+		}
+		
+		/**
+		 * Record the pending bytes as one event, replacing the event recorded
+		 * for them so far
+		 */
+		private void update() {
+			if (this.pendingRecorded) {
+				this.events.set(this.events.size() - 1, this.pendingKind + " " + text());
+			} else {
+				this.events.add(this.pendingKind + " " + text());
+				this.pendingRecorded = true;
+			}
+		}
+		
+		private void flush() {
+			this.pending.setLength(0);
+			this.pendingKind = null;
+			this.pendingRecorded = false;
+		}
+		
+		private String text() {
+			byte[] bytes = new byte[this.pending.length()];
+			for (int index = 0; index < bytes.length; index++) {
+				bytes[index] = (byte) this.pending.charAt(index);
+			}
+			
+			return utf8(bytes, 0, bytes.length);
+		}
+		
+		private static String utf8(byte[] bytes, int offset, int length) {
+			try {
+				return new String(bytes, offset, length, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+		}
+		
+		private static String params(int[] params, int paramCount) {
+			StringBuilder builder = new StringBuilder();
+			for (int index = 0; index < paramCount; index++) {
+				if (index > 0) {
+					builder.append(';');
+				}
+				
+				builder.append(params[index]);
+			}
+			
+			return builder.toString();
+		}
+		
+		private static String intermediates(int intermediates) {
+			StringBuilder builder = new StringBuilder();
+			for (; intermediates != 0; intermediates >>>= 8) {
+				builder.insert(0, (char) (intermediates & 0xFF));
+			}
+			
+			return builder.length() == 0 ? "" : "'" + builder + "' ";
+		}
+		
+	}
+	
+}
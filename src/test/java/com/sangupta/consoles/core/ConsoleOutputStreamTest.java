@@ -0,0 +1,154 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sangupta.consoles.IConsole;
+
+/**
+ * Tests for the decoding done by {@link ConsoleOutputStream} and
+ * {@link WriterOutputStream}: a multi-byte sequence split across writes is
+ * decoded once all of its bytes have arrived.
+ * 
+ * @author sangupta
+ *
+ */
+public class ConsoleOutputStreamTest {
+	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	/**
+	 * Text with two, three and four byte sequences
+	 */
+	private static final String TEXT = "caf\u00e9 \u4e2d \uD83D\uDE00!";
+	
+	/**
+	 * The text printed to the console, one entry per call
+	 */
+	private List<String> printed;
+	
+	private ConsoleOutputStream stream;
+	
+	@Before
+	public void setUp() {
+		this.printed = new ArrayList<String>();
+		this.stream = new ConsoleOutputStream(recordingConsole(this.printed), UTF_8);
+	}
+	
+	@Test
+	public void testSplitAcrossWrites() throws IOException {
+		byte[] bytes = TEXT.getBytes(UTF_8);
+		
+		// split in the middle of every multi-byte sequence
+		for (int split = 1; split < bytes.length; split++) {
+			this.printed.clear();
+			this.stream.write(bytes, 0, split);
+			this.stream.write(bytes, split, bytes.length - split);
+			
+			assertEquals("split at " + split, TEXT, join(this.printed));
+		}
+	}
+	
+	@Test
+	public void testByteByByte() throws IOException {
+		for (byte b : TEXT.getBytes(UTF_8)) {
+			this.stream.write(b);
+		}
+		
+		assertEquals(TEXT, join(this.printed));
+	}
+	
+	@Test
+	public void testSplitWithLineAssembly() throws IOException {
+		this.stream.setLineAssembly(80, 0);
+		
+		byte[] bytes = (TEXT + "\n").getBytes(UTF_8);
+		for (int index = 0; index < bytes.length; index += 3) {
+			this.stream.write(bytes, index, Math.min(3, bytes.length - index));
+		}
+		
+		// the line goes out whole, once complete
+		assertEquals(Arrays.asList(TEXT + "\n"), this.printed);
+	}
+	
+	@Test
+	public void testWriterOutputStream() throws IOException {
+		StringWriter writer = new StringWriter();
+		WriterOutputStream stream = new WriterOutputStream(writer, UTF_8, 16, true);
+		
+		byte[] bytes = TEXT.getBytes(UTF_8);
+		for (int index = 0; index < bytes.length; index += 2) {
+			stream.write(bytes, index, Math.min(2, bytes.length - index));
+		}
+		
+		assertEquals(TEXT, writer.toString());
+	}
+	
+	private static String join(List<String> printed) {
+		StringBuilder builder = new StringBuilder();
+		for (String text : printed) {
+			builder.append(text);
+		}
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Return a console that records the text printed to it.
+	 * 
+	 * @param printed
+	 *            the list to add the text of every print call to
+	 * 
+	 * @return
+	 */
+	private static IConsole recordingConsole(final List<String> printed) {
+		return (IConsole) Proxy.newProxyInstance(IConsole.class.getClassLoader(), new Class<?>[] { IConsole.class }, new InvocationHandler() {
+			
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("print") && args.length == 3) {
+					printed.add(new String((char[]) args[0], (Integer) args[1], (Integer) args[2]));
+				} else if (method.getName().equals("print")) {
+					printed.add(String.valueOf(args[0]));
+				}
+				
+				return null;
+			}
+			
+		});
+	}
+	
+}
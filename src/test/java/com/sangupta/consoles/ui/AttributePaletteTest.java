@@ -0,0 +1,76 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link AttributePalette}.
+ * 
+ * @author sangupta
+ *
+ */
+public class AttributePaletteTest {
+	
+	@Test
+	public void testIntern() {
+		AttributePalette palette = new AttributePalette();
+		int id = palette.intern(Color.RED, Color.BLACK, TerminalCharacterAttribute.STYLE_BOLD);
+		
+		assertEquals(id, palette.intern(0xFF0000, 0x000000, TerminalCharacterAttribute.STYLE_BOLD));
+		assertEquals(1, palette.size());
+		
+		TerminalCharacterAttribute attribute = palette.get(id);
+		assertEquals(Color.RED, attribute.getForeground());
+		assertEquals(Color.BLACK, attribute.getBackground());
+		assertEquals(TerminalCharacterAttribute.STYLE_BOLD, attribute.getStyle());
+		assertSame(attribute, palette.get(palette.intern(attribute)));
+	}
+	
+	@Test
+	public void testFullPaletteFallsBackToClosest() {
+		AttributePalette palette = new AttributePalette();
+		
+		// one bold attribute, far from everything else
+		int bold = palette.intern(0xFFFFFF, 0xFFFFFF, TerminalCharacterAttribute.STYLE_BOLD);
+		for (int rgb = 0; palette.size() < AttributePalette.MAX_SIZE; rgb++) {
+			palette.intern(rgb, 0x000000, 0);
+		}
+		
+		// the closest colors of the same style
+		int near = palette.intern(0x00FFFE, 0x000000, 0);
+		assertEquals(near, palette.intern(0x01FFFE, 0x000000, 0));
+		assertEquals(near, palette.intern(0x00FFFE, 0x000001, 0));
+		
+		// a matching style beats closer colors
+		assertEquals(bold, palette.intern(0x000000, 0x000000, TerminalCharacterAttribute.STYLE_BOLD));
+		
+		assertEquals(AttributePalette.MAX_SIZE, palette.size());
+	}
+	
+}
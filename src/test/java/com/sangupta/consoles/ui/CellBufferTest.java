@@ -0,0 +1,130 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the ring of rows kept by {@link CellBuffer}.
+ * 
+ * @author sangupta
+ *
+ */
+public class CellBufferTest {
+	
+	private static final int COLUMNS = 3;
+	
+	private static final long BLANK = CellBuffer.pack(' ', 0);
+	
+	private CellBuffer cells;
+	
+	@Before
+	public void setUp() {
+		this.cells = new CellBuffer(COLUMNS, 2, 3, BLANK);
+		setRow(0, "aaa");
+		setRow(1, "bbb");
+	}
+	
+	@Test
+	public void testAppendGrows() {
+		assertFalse(this.cells.appendRow(BLANK));
+		
+		assertEquals(3, this.cells.getRows());
+		assertEquals("aaa", row(0));
+		assertEquals("bbb", row(1));
+		assertEquals("   ", row(2));
+	}
+	
+	@Test
+	public void testAppendEvicts() {
+		this.cells.appendRow(BLANK);
+		setRow(2, "ccc");
+		
+		// the ring wraps around without moving any row
+		assertTrue(this.cells.appendRow(BLANK));
+		setRow(2, "ddd");
+		assertTrue(this.cells.appendRow(BLANK));
+		setRow(2, "eee");
+		
+		assertEquals(3, this.cells.getRows());
+		assertEquals("ccc", row(0));
+		assertEquals("ddd", row(1));
+		assertEquals("eee", row(2));
+	}
+	
+	@Test
+	public void testMoveRowsAcrossWrap() {
+		this.cells.appendRow(BLANK);
+		setRow(2, "ccc");
+		this.cells.appendRow(BLANK);
+		setRow(2, "ddd");
+		
+		// rows: bbb ccc ddd, with the head in the middle of the array
+		this.cells.moveRows(0, 1, 2);
+		assertEquals("bbb", row(0));
+		assertEquals("bbb", row(1));
+		assertEquals("ccc", row(2));
+		
+		this.cells.moveRows(1, 0, 2);
+		assertEquals("bbb", row(0));
+		assertEquals("ccc", row(1));
+		assertEquals("ccc", row(2));
+	}
+	
+	@Test
+	public void testResizeKeepsOrder() {
+		this.cells.appendRow(BLANK);
+		setRow(2, "ccc");
+		this.cells.appendRow(BLANK);
+		setRow(2, "ddd");
+		
+		this.cells.resize(COLUMNS + 1, 3, BLANK);
+		assertEquals("bbb ", row(0));
+		assertEquals("ccc ", row(1));
+		assertEquals("ddd ", row(2));
+	}
+	
+	private void setRow(int row, String text) {
+		for (int column = 0; column < text.length(); column++) {
+			this.cells.set(row, column, CellBuffer.pack(text.charAt(column), 0));
+		}
+	}
+	
+	private String row(int row) {
+		long[] destination = new long[this.cells.getColumns()];
+		this.cells.getRow(row, destination);
+		
+		StringBuilder builder = new StringBuilder();
+		for (long cell : destination) {
+			builder.appendCodePoint(CellBuffer.codePointOf(cell));
+		}
+		
+		return builder.toString();
+	}
+	
+}
@@ -0,0 +1,247 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OutputQueue}, run headless against a {@link TerminalBuffer}.
+ * 
+ * @author sangupta
+ *
+ */
+public class OutputQueueTest {
+	
+	private static final int COLUMNS = 40;
+	
+	private static final int ROWS = 110;
+	
+	private TerminalBuffer buffer;
+	
+	private TerminalCharacterAttribute attribute;
+	
+	private AtomicInteger drainRequests;
+	
+	private OutputQueue queue;
+	
+	@Before
+	public void setUp() {
+		this.buffer = new TerminalBuffer(COLUMNS, ROWS, ROWS, 0);
+		this.attribute = this.buffer.getTextColor();
+		this.drainRequests = new AtomicInteger();
+		this.queue = new OutputQueue(this.buffer, 16, new Runnable() {
+			
+			public void run() {
+				drainRequests.incrementAndGet();
+			}
+			
+		});
+	}
+	
+	@Test
+	public void testDrain() {
+		this.queue.offer("hello", this.attribute);
+		this.queue.offer(' ', this.attribute);
+		this.queue.offer("a world".toCharArray(), 2, 5, this.attribute);
+		
+		assertEquals("", text());
+		
+		this.queue.drain();
+		assertEquals("hello world", text());
+	}
+	
+	@Test
+	public void testDrainRequest() {
+		this.queue.offer("one", this.attribute);
+		this.queue.offer("two", this.attribute);
+		assertEquals(1, this.drainRequests.get());
+		
+		this.queue.drainForFrame();
+		assertEquals("onetwo", text());
+		
+		this.queue.offer("three", this.attribute);
+		assertEquals(2, this.drainRequests.get());
+	}
+	
+	@Test
+	public void testDrainHoldingLock() {
+		synchronized (this.buffer) {
+			this.queue.offer("locked", this.attribute);
+			this.queue.drain();
+			
+			assertEquals(6, this.buffer.getCursorX());
+		}
+		
+		assertEquals("locked", text());
+	}
+	
+	@Test
+	public void testFull() {
+		for (int index = 0; index < 20; index++) {
+			this.queue.offer((char) ('a' + index), this.attribute);
+		}
+		
+		// the oldest output was applied to make room
+		assertEquals("abcdefghijklmnop", text());
+		
+		this.queue.drain();
+		assertEquals("abcdefghijklmnopqrst", text());
+	}
+	
+	@Test
+	public void testLongOutput() {
+		StringBuilder builder = new StringBuilder();
+		for (int index = 0; index < 300; index++) {
+			builder.append((char) ('a' + index % 26));
+		}
+		
+		String longOutput = builder.toString();
+		this.queue.offer("queued", this.attribute);
+		this.queue.offer(longOutput, this.attribute);
+		
+		assertEquals("queued" + longOutput, text());
+	}
+	
+	@Test
+	public void testClose() {
+		this.queue.offer("before", this.attribute);
+		this.queue.close();
+		assertEquals("before", text());
+		
+		this.queue.offer("after", this.attribute);
+		assertEquals("beforeafter", text());
+	}
+	
+	@Test
+	public void testSetBuffer() {
+		TerminalBuffer alternate = new TerminalBuffer(COLUMNS, ROWS, ROWS, 0);
+		
+		this.queue.offer("primary", this.attribute);
+		this.queue.setBuffer(alternate);
+		this.queue.offer("alternate", this.attribute);
+		this.queue.drain();
+		
+		assertEquals("primary", text());
+		assertEquals("alternate", text(alternate));
+	}
+	
+	@Test
+	public void testProducers() throws InterruptedException {
+		final int producers = 4;
+		final int chunks = 250;
+		
+		Thread[] threads = new Thread[producers];
+		for (int producer = 0; producer < producers; producer++) {
+			final char name = (char) ('A' + producer);
+			threads[producer] = new Thread(new Runnable() {
+				
+				public void run() {
+					for (int chunk = 0; chunk < chunks; chunk++) {
+						queue.offer(name + String.format("%03d", chunk), attribute);
+					}
+				}
+				
+			});
+		}
+		
+		Thread frames = new Thread(new Runnable() {
+			
+			public void run() {
+				while (!Thread.currentThread().isInterrupted()) {
+					queue.drainForFrame();
+					Thread.yield();
+				}
+			}
+			
+		});
+		
+		frames.start();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		frames.interrupt();
+		frames.join();
+		this.queue.drain();
+		
+		// every chunk is there once, in the order each producer wrote them
+		String text = text();
+		assertEquals(producers * chunks * 4, text.length());
+		
+		int[] next = new int[producers];
+		for (int index = 0; index < text.length(); index += 4) {
+			int producer = text.charAt(index) - 'A';
+			assertTrue(producer >= 0 && producer < producers);
+			assertEquals(next[producer], Integer.parseInt(text.substring(index + 1, index + 4)));
+			next[producer]++;
+		}
+	}
+	
+	/**
+	 * Return the text of the buffer, with the rows joined and trailing
+	 * blanks dropped.
+	 * 
+	 * @return
+	 */
+	private String text() {
+		return text(this.buffer);
+	}
+	
+	/**
+	 * Return the text of the given buffer, with the rows joined and trailing
+	 * blanks dropped.
+	 * 
+	 * @param buffer
+	 *            the buffer to read
+	 * 
+	 * @return
+	 */
+	private static String text(TerminalBuffer buffer) {
+		StringBuilder builder = new StringBuilder();
+		long[] cells = new long[COLUMNS];
+		for (int row = 0; row < buffer.getRows(); row++) {
+			buffer.readRow(row, cells);
+			for (long cell : cells) {
+				builder.appendCodePoint(CellBuffer.codePointOf(cell));
+			}
+		}
+		
+		int end = builder.length();
+		while (end > 0 && builder.charAt(end - 1) == ' ') {
+			end--;
+		}
+		
+		return builder.substring(0, end);
+	}
+	
+}
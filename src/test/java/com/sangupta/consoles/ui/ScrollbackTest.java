@@ -0,0 +1,166 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package com.sangupta.consoles.ui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Round trips of rows through the {@link Scrollback} stores: a row read back
+ * has the characters and attributes it was pushed with.
+ * 
+ * @author sangupta
+ *
+ */
+public class ScrollbackTest {
+	
+	private static final int COLUMNS = 6;
+	
+	private static final long BLANK = CellBuffer.pack(' ', 0);
+	
+	@Test
+	public void testCompactLatin1() {
+		assertRoundTrip(new CompactScrollback(4, null), row("caf\u00e9", 3));
+	}
+	
+	@Test
+	public void testCompactWide() {
+		assertRoundTrip(new CompactScrollback(4, null), row("a\u4e2d\u6587", 3));
+	}
+	
+	@Test
+	public void testCompactSupplementary() {
+		long[] cells = row("ab", 3);
+		cells[2] = CellBuffer.pack(0x1F600, 5);
+		assertRoundTrip(new CompactScrollback(4, null), cells);
+	}
+	
+	@Test
+	public void testCompactAttributeRuns() {
+		long[] cells = row("abcdef", 1);
+		cells[2] = CellBuffer.pack('c', 2);
+		cells[3] = CellBuffer.pack('d', 2);
+		
+		// trailing blanks in another attribute are dropped and padded back
+		cells[5] = CellBuffer.pack(' ', 4);
+		assertRoundTrip(new CompactScrollback(4, null), cells);
+	}
+	
+	@Test
+	public void testCompactPadsShortRows() {
+		CompactScrollback scrollback = new CompactScrollback(4, null);
+		scrollback.push(row("abc", 1), 3);
+		
+		long[] read = new long[COLUMNS];
+		scrollback.read(0, read, COLUMNS, BLANK);
+		assertEquals(CellBuffer.pack('c', 1), read[2]);
+		assertEquals(CellBuffer.pack(' ', 1), read[3]);
+	}
+	
+	@Test
+	public void testMapped() throws IOException {
+		long[] cells = row("x\u00e9\u4e2d", 40000);
+		cells[4] = CellBuffer.pack(0x1F600, 7);
+		
+		MappedScrollback scrollback = new MappedScrollback(COLUMNS, 4);
+		try {
+			assertRoundTrip(scrollback, cells);
+		} finally {
+			scrollback.close();
+		}
+	}
+	
+	@Test
+	public void testMappedWrapsAround() throws IOException {
+		MappedScrollback scrollback = new MappedScrollback(COLUMNS, 2);
+		try {
+			assertFalse(scrollback.push(row("one", 1), COLUMNS));
+			assertFalse(scrollback.push(row("two", 1), COLUMNS));
+			assertTrue(scrollback.push(row("three", 1), COLUMNS));
+			
+			assertEquals(2, scrollback.size());
+			assertArrayEquals(row("two", 1), read(scrollback, 0));
+			assertArrayEquals(row("three", 1), read(scrollback, 1));
+		} finally {
+			scrollback.close();
+		}
+	}
+	
+	@Test
+	public void testCompactOverflowsToMapped() throws IOException {
+		MappedScrollback mapped = new MappedScrollback(COLUMNS, 4);
+		CompactScrollback scrollback = new CompactScrollback(2, mapped);
+		try {
+			long[] supplementary = row("a", 1);
+			supplementary[1] = CellBuffer.pack(0x1F600, 2);
+			
+			scrollback.push(supplementary, COLUMNS);
+			scrollback.push(row("two", 1), COLUMNS);
+			scrollback.push(row("three", 1), COLUMNS);
+			
+			assertEquals(3, scrollback.size());
+			assertEquals(1, mapped.size());
+			assertArrayEquals(supplementary, read(scrollback, 0));
+			assertArrayEquals(row("two", 1), read(scrollback, 1));
+			assertArrayEquals(row("three", 1), read(scrollback, 2));
+		} finally {
+			scrollback.close();
+		}
+	}
+	
+	private static void assertRoundTrip(Scrollback scrollback, long[] cells) {
+		scrollback.push(cells, COLUMNS);
+		assertArrayEquals(cells, read(scrollback, scrollback.size() - 1));
+		
+		// rows written back in place read the same
+		scrollback.write(scrollback.size() - 1, cells, COLUMNS);
+		assertArrayEquals(cells, read(scrollback, scrollback.size() - 1));
+	}
+	
+	private static long[] read(Scrollback scrollback, int row) {
+		long[] cells = new long[COLUMNS];
+		scrollback.read(row, cells, COLUMNS, BLANK);
+		return cells;
+	}
+	
+	/**
+	 * Return a row with the given text in the given attribute, padded with
+	 * blanks in the same attribute.
+	 */
+	private static long[] row(String text, int attribute) {
+		long[] cells = new long[COLUMNS];
+		for (int column = 0; column < COLUMNS; column++) {
+			char c = column < text.length() ? text.charAt(column) : ' ';
+			cells[column] = CellBuffer.pack(c, attribute);
+		}
+		
+		return cells;
+	}
+	
+}
@@ -0,0 +1,329 @@
+/**
+ * 
+ * consoles - Java based console terminals
+ * Copyright (c) 2013-2016, Sandeep Gupta
+ * 
+ * http://www.sangupta/projects/consoles
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.consoles.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TerminalBuffer}, which needs no display and is run
+ * headless.
+ * 
+ * @author sangupta
+ *
+ */
+public class TerminalBufferTest {
+	
+	private static final int COLUMNS = 10;
+	
+	private static final int ROWS = 4;
+	
+	private TerminalBuffer buffer;
+	
+	private TerminalCharacterAttribute attribute;
+	
+	@Before
+	public void setUp() {
+		this.buffer = new TerminalBuffer(COLUMNS, ROWS, ROWS + 2, 0);
+		this.attribute = this.buffer.getTextColor();
+	}
+	
+	@Test
+	public void testHeadless() {
+		assertTrue(GraphicsEnvironment.isHeadless());
+	}
+	
+	@Test
+	public void testWrite() {
+		this.buffer.write("hello", this.attribute);
+		
+		assertEquals("hello     ", row(0));
+		assertEquals("          ", row(1));
+		assertCursor(5, 0);
+		
+		this.buffer.write('!', this.attribute);
+		assertEquals("hello!    ", row(0));
+		assertCursor(6, 0);
+	}
+	
+	@Test
+	public void testWriteAttribute() {
+		this.buffer.setTextColor(Color.RED, Color.BLUE);
+		this.buffer.write("red", this.buffer.getTextColor());
+		this.buffer.write("plain", this.attribute);
+		
+		long[] cells = new long[COLUMNS];
+		this.buffer.readRow(0, cells);
+		
+		AttributePalette palette = this.buffer.getAttributePalette();
+		TerminalCharacterAttribute red = palette.get(CellBuffer.attributeOf(cells[0]));
+		assertEquals(Color.RED, red.getForeground());
+		assertEquals(Color.BLUE, red.getBackground());
+		assertEquals(red, palette.get(CellBuffer.attributeOf(cells[2])));
+		assertEquals(this.attribute, palette.get(CellBuffer.attributeOf(cells[3])));
+	}
+	
+	@Test
+	public void testNewLine() {
+		this.buffer.write("ab\ncd", this.attribute);
+		
+		assertEquals("ab        ", row(0));
+		assertEquals("cd        ", row(1));
+		assertCursor(2, 1);
+	}
+	
+	@Test
+	public void testWrap() {
+		this.buffer.write("abcdefghijklm", this.attribute);
+		
+		assertEquals("abcdefghij", row(0));
+		assertEquals("klm       ", row(1));
+		assertCursor(3, 1);
+	}
+	
+	@Test
+	public void testWrapAtLastColumn() {
+		this.buffer.write("abcdefghij", this.attribute);
+		assertCursor(0, 1);
+		
+		this.buffer.write("\n", this.attribute);
+		assertEquals("          ", row(1));
+		assertCursor(0, 2);
+	}
+	
+	@Test
+	public void testWriteOneByOneMatchesBulkWrite() {
+		String text = "first\n\tx\n0123456789abc\nlast line that wraps around\n";
+		TerminalBuffer single = new TerminalBuffer(COLUMNS, ROWS, ROWS + 2, 0);
+		for (int index = 0; index < text.length(); index++) {
+			single.write(text.charAt(index), this.attribute);
+		}
+		
+		this.buffer.write(text, this.attribute);
+		
+		assertEquals(single.getRows(), this.buffer.getRows());
+		for (int row = 0; row < this.buffer.getRows(); row++) {
+			assertEquals("row " + row, row(single, row), row(row));
+		}
+		
+		assertEquals(single.getCursorX(), this.buffer.getCursorX());
+		assertEquals(single.getCursorY(), this.buffer.getCursorY());
+	}
+	
+	@Test
+	public void testScrollIntoScrollback() {
+		this.buffer.write("1\n2\n3\n4\n5", this.attribute);
+		
+		// the rows scrolled off the screen are kept
+		assertEquals(ROWS + 1, this.buffer.getRows());
+		assertEquals("1         ", row(0));
+		assertEquals("5         ", row(4));
+		assertCursor(1, 4);
+		
+		this.buffer.write("\n6\n7\n8", this.attribute);
+		
+		// till the scrollback is full, then the oldest rows go
+		assertEquals(ROWS + 2, this.buffer.getRows());
+		assertEquals("3         ", row(0));
+		assertEquals("8         ", row(5));
+		assertCursor(1, 5);
+	}
+	
+	@Test
+	public void testScrollWithoutScrollback() {
+		TerminalBuffer buffer = new TerminalBuffer(COLUMNS, ROWS, ROWS, 0);
+		buffer.write("1\n2\n3\n4\n5\n6", this.attribute);
+		
+		assertEquals(ROWS, buffer.getRows());
+		assertEquals("3         ", row(buffer, 0));
+		assertEquals("6         ", row(buffer, 3));
+		assertEquals(3, buffer.getCursorY());
+	}
+	
+	@Test
+	public void testScrollRows() {
+		this.buffer.write("a\nb\nc\nd", this.attribute);
+		this.buffer.scrollRows(1, 2, 1);
+		
+		assertEquals("a         ", row(0));
+		assertEquals("c         ", row(1));
+		assertEquals("          ", row(2));
+		assertEquals("d         ", row(3));
+	}
+	
+	@Test
+	public void testLineFeedInScrollRegion() {
+		this.buffer.write("a\nb\nc\nd", this.attribute);
+		this.buffer.setScrollRegion(1, 2);
+		this.buffer.setCursorPosition(0, 2);
+		this.buffer.write("\nx", this.attribute);
+		
+		// only the rows of the region move
+		assertEquals(ROWS, this.buffer.getRows());
+		assertEquals("a         ", row(0));
+		assertEquals("c         ", row(1));
+		assertEquals("x         ", row(2));
+		assertEquals("d         ", row(3));
+		assertCursor(1, 2);
+	}
+	
+	@Test
+	public void testLineFeedBelowScrollRegion() {
+		this.buffer.write("a\nb\nc\nd", this.attribute);
+		this.buffer.setScrollRegion(0, 1);
+		this.buffer.write("\n", this.attribute);
+		this.buffer.write('\n', this.attribute);
+		
+		// the last row is below the region, and nothing scrolls
+		assertEquals(ROWS, this.buffer.getRows());
+		assertEquals("a         ", row(0));
+		assertEquals("d         ", row(3));
+		assertCursor(0, 3);
+	}
+	
+	@Test
+	public void testSetCursorPosition() {
+		this.buffer.setCursorPosition(3, 2);
+		assertCursor(3, 2);
+		
+		this.buffer.write("X", this.attribute);
+		assertEquals("   X      ", row(2));
+		assertCursor(4, 2);
+		
+		this.buffer.write("\nY", this.attribute);
+		assertEquals("Y         ", row(3));
+		assertCursor(1, 3);
+	}
+	
+	@Test
+	public void testCursorOutOfPlaceIsClamped() {
+		this.buffer.setCursorPosition(COLUMNS + 5, ROWS + 5);
+		this.buffer.write("Z", this.attribute);
+		
+		assertEquals("         Z", row(ROWS - 1));
+	}
+	
+	@Test
+	public void testErase() {
+		this.buffer.write("0123456789", this.attribute);
+		this.buffer.erase(0, 2, 5, this.attribute);
+		
+		assertEquals("01   56789", row(0));
+	}
+	
+	@Test
+	public void testClear() {
+		this.buffer.write("1\n2\n3\n4\n5\n6", this.attribute);
+		this.buffer.clear();
+		
+		for (int row = 0; row < this.buffer.getRows(); row++) {
+			assertEquals("          ", row(row));
+		}
+	}
+	
+	@Test
+	public void testFind() {
+		// more rows than are scanned per lock
+		TerminalBuffer buffer = new TerminalBuffer(COLUMNS, ROWS, 1000, 0);
+		for (int line = 0; line < 600; line++) {
+			buffer.write("line " + line + "\n", this.attribute);
+		}
+		
+		int row = buffer.find("line 550", 0);
+		assertEquals("line 550  ", row(buffer, row));
+		assertEquals(row, buffer.find("line 550", row));
+		assertEquals(-1, buffer.find("line 550", row + 1));
+		assertEquals(-1, buffer.find("missing", 0));
+		
+		buffer.write("\uD83D\uDE00 smile", this.attribute);
+		assertEquals(buffer.getCursorY(), buffer.find("\uD83D\uDE00 s", 0));
+	}
+	
+	@Test
+	public void testSelectionDirtiesNewCells() {
+		this.buffer.takeDirtyRegions();
+		
+		this.buffer.setSelection(new Selection(0, 2, 0, 5, SelectionMode.LINEAR));
+		assertEquals(Arrays.asList(new Rectangle(2, 0, 4, 1)), this.buffer.takeDirtyRegions());
+		
+		// only the cells added to the selection change
+		this.buffer.setSelection(new Selection(0, 2, 0, 7, SelectionMode.LINEAR));
+		assertEquals(Arrays.asList(new Rectangle(6, 0, 2, 1)), this.buffer.takeDirtyRegions());
+		
+		this.buffer.setSelection(new Selection(0, 4, 0, 7, SelectionMode.LINEAR));
+		assertEquals(Arrays.asList(new Rectangle(2, 0, 2, 1)), this.buffer.takeDirtyRegions());
+		
+		this.buffer.setSelection(null);
+		assertEquals(Arrays.asList(new Rectangle(4, 0, 4, 1)), this.buffer.takeDirtyRegions());
+	}
+	
+	@Test
+	public void testSelectionSkipsRowsSelectedThroughout() {
+		this.buffer.setSelection(new Selection(0, 2, 3, 3, SelectionMode.LINEAR));
+		this.buffer.takeDirtyRegions();
+		
+		// the rows in between stay fully selected, and the first row as it was
+		this.buffer.setSelection(new Selection(0, 2, 3, 5, SelectionMode.LINEAR));
+		assertEquals(Arrays.asList(new Rectangle(4, 3, 2, 1)), this.buffer.takeDirtyRegions());
+		
+		this.buffer.setSelection(new Selection(0, 2, 3, 5, SelectionMode.LINEAR));
+		assertEquals(null, this.buffer.takeDirtyRegions());
+	}
+	
+	@Test
+	public void testBlockSelection() {
+		this.buffer.takeDirtyRegions();
+		
+		this.buffer.setSelection(new Selection(1, 6, 2, 3, SelectionMode.BLOCK));
+		assertEquals(Arrays.asList(new Rectangle(3, 1, 4, 2)), this.buffer.takeDirtyRegions());
+	}
+	
+	private void assertCursor(int x, int y) {
+		assertEquals("cursor column", x, this.buffer.getCursorX());
+		assertEquals("cursor row", y, this.buffer.getCursorY());
+	}
+	
+	private String row(int row) {
+		return row(this.buffer, row);
+	}
+	
+	private static String row(TerminalBuffer buffer, int row) {
+		long[] cells = new long[buffer.getColumns()];
+		buffer.readRow(row, cells);
+		
+		StringBuilder builder = new StringBuilder();
+		for (long cell : cells) {
+			builder.appendCodePoint(CellBuffer.codePointOf(cell));
+		}
+		
+		return builder.toString();
+	}
+	
+}